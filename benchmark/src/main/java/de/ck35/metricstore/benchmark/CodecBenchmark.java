@@ -0,0 +1,108 @@
+package de.ck35.metricstore.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.ByteStreams;
+
+import de.ck35.metricstore.util.io.Codec;
+import de.ck35.metricstore.util.io.Codecs;
+import de.ck35.metricstore.util.io.Codecs.CodecType;
+
+/**
+ * Compares the codecs for stored nodes. Every operation compresses or decompresses one block of
+ * typical metric nodes, so the throughput multiplied with {@link #BLOCK_NODES} is the node rate.
+ * The write benchmark reports the raw and the compressed size of the block as auxiliary counters.
+ * 
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class CodecBenchmark {
+
+    public static final int BLOCK_NODES = 10_000;
+    
+    @Param({"GZIP", "LZ4", "RAW"})
+    public CodecType type;
+    
+    @Param({"-1", "1"})
+    public int level;
+    
+    private Codec codec;
+    private byte[] block;
+    private byte[] compressed;
+    
+    @Setup
+    public void setup() throws IOException {
+        this.codec = Codecs.create(type, level);
+        try(FilesystemRepositoryFixture fixture = new FilesystemRepositoryFixture()) {
+            DateTime timestamp = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for(int index = 0 ; index < BLOCK_NODES ; index++) {
+                bytes.write(fixture.getMapper().writeValueAsBytes(fixture.node(timestamp.plusMillis(index * 6), index)));
+                bytes.write('\n');
+            }
+            this.block = bytes.toByteArray();
+        }
+        this.compressed = compress();
+    }
+    
+    @Benchmark
+    public byte[] write(BlockSize size) throws IOException {
+        byte[] result = compress();
+        size.rawBytes = block.length;
+        size.compressedBytes = result.length;
+        return result;
+    }
+    
+    @Benchmark
+    public long read() throws IOException {
+        try(InputStream in = Codecs.defaults().decompress(new ByteArrayInputStream(compressed))) {
+            return ByteStreams.exhaust(in);
+        }
+    }
+    
+    private byte[] compress() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(block.length);
+        try(OutputStream out = codec.compress(bytes)) {
+            out.write(block);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * The sizes of the last compressed block, reported as they are.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class BlockSize {
+        
+        public long rawBytes;
+        public long compressedBytes;
+        
+    }
+}
@@ -0,0 +1,147 @@
+package de.ck35.metricstore.benchmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
+
+import de.ck35.metricstore.configuration.BucketCommandQueueConfiguration;
+import de.ck35.metricstore.configuration.FilesystemMetricRepositoryConfiguration;
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.configuration.WritableFilesystemBucketFactoryConfiguration;
+import de.ck35.metricstore.fs.ABQCommandQueue;
+import de.ck35.metricstore.fs.BucketCommand;
+import de.ck35.metricstore.fs.BucketCommandProcessor;
+import de.ck35.metricstore.fs.DayFileSettings;
+import de.ck35.metricstore.fs.FilesystemMetricRepository;
+import de.ck35.metricstore.fs.ShardedCommandQueue;
+import de.ck35.metricstore.fs.StoredMetricReadCache;
+import de.ck35.metricstore.fs.WritableFilesystemBucket;
+import de.ck35.metricstore.fs.WritableFilesystemBucketFactory;
+import de.ck35.metricstore.fs.WriterPool;
+import de.ck35.metricstore.util.LRUCacheStatistics;
+import de.ck35.metricstore.util.MinimumIntSetting;
+import de.ck35.metricstore.util.Setting;
+import de.ck35.metricstore.util.TimestampFunction;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+
+/**
+ * Wires a {@link FilesystemMetricRepository} with its command queue and processor thread inside
+ * a temporary directory. The same components and defaults as in the Spring configuration are used.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class FilesystemRepositoryFixture implements Closeable {
+
+    public static final String BUCKET_NAME = "BenchmarkBucket";
+    public static final String BUCKET_TYPE = "BenchmarkBucketType";
+    
+    private final Path basePath;
+    private final ObjectMapper mapper;
+    private final Closeable commandQueue;
+    private final List<Thread> commandQueueThreads;
+    private final FilesystemMetricRepository repository;
+    
+    public FilesystemRepositoryFixture() throws IOException {
+        this(1);
+    }
+    
+    /**
+     * @param shards The number of command processor shards. Each shard runs its own command queue thread.
+     * @throws IOException If the temporary directory can not be created.
+     */
+    public FilesystemRepositoryFixture(int shards) throws IOException {
+        this(shards, new StoredMetricReadCache.Factory(new MinimumIntSetting(FilesystemMetricRepositoryConfiguration.DEFAULT_READ_BUFFER_SIZE, 1)));
+    }
+    
+    /**
+     * @param shards The number of command processor shards. Each shard runs its own command queue thread.
+     * @param readCaches Creates the caches which hand read metrics to the caller.
+     * @throws IOException If the temporary directory can not be created.
+     */
+    public FilesystemRepositoryFixture(int shards, Supplier<StoredMetricReadCache> readCaches) throws IOException {
+        this.basePath = Files.createTempDirectory("metricstore-benchmark");
+        this.mapper = ObjectMapperConfiguration.objectMapper();
+        WritableFilesystemBucketFactory bucketFactory = new WritableFilesystemBucketFactory(new TimestampFunction(), 
+                                                                                            new ObjectNodeWriter.PathFactory(mapper.getFactory(), Charsets.UTF_8), 
+                                                                                            new ObjectNodeReader.PathFactory(mapper, Charsets.UTF_8), 
+                                                                                            new MinimumIntSetting(WritableFilesystemBucketFactoryConfiguration.DEFAULT_CACHED_WRITERS_COUNT, 1),
+                                                                                            new LRUCacheStatistics(),
+                                                                                            new WriterPool(new MinimumIntSetting(WritableFilesystemBucketFactoryConfiguration.DEFAULT_CACHED_WRITERS_TOTAL_COUNT, 1), 
+                                                                                                           new Setting<>(WritableFilesystemBucketFactoryConfiguration.DEFAULT_CACHED_WRITERS_TOTAL_BYTES)),
+                                                                                            DayFileSettings.defaults());
+        List<ABQCommandQueue> queues = new ArrayList<>(shards);
+        List<BucketCommandProcessor> processors = new ArrayList<>(shards);
+        this.commandQueueThreads = new ArrayList<>(shards);
+        for(int shard = 0 ; shard < shards ; shard++) {
+            BucketCommandProcessor commandProcessor = new BucketCommandProcessor(basePath, bucketFactory, shard, shards);
+            ABQCommandQueue queue = new ABQCommandQueue(BucketCommandQueueConfiguration.DEFAULT_COMMAND_CAPACITY, commandProcessor);
+            Thread thread = new Thread(queue, "BenchmarkCommandQueueThread-" + shard);
+            thread.start();
+            processors.add(commandProcessor);
+            queues.add(queue);
+            commandQueueThreads.add(thread);
+        }
+        Predicate<BucketCommand<?>> commands;
+        if(shards == 1) {
+            commands = queues.get(0);
+            this.commandQueue = queues.get(0);
+        } else {
+            ShardedCommandQueue shardedQueue = new ShardedCommandQueue(queues, processors);
+            commands = shardedQueue;
+            this.commandQueue = shardedQueue;
+        }
+        this.repository = new FilesystemMetricRepository(commands, readCaches, null);
+    }
+    
+    public FilesystemMetricRepository getRepository() {
+        return repository;
+    }
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+    
+    /**
+     * Create a metric node which looks like a typical application server metric.
+     * 
+     * @param timestamp The timestamp of the node.
+     * @param index Running number which is used to vary the field values.
+     * @return The new node.
+     */
+    public ObjectNode node(DateTime timestamp, int index) {
+        ObjectNode node = mapper.getNodeFactory().objectNode();
+        node.put(TimestampFunction.DEFAULT_TIMESTAMP_FILED_NAME, timestamp.toString());
+        node.put("host", "web-" + (index % 32));
+        node.put("path", "/api/v1/resource/" + (index % 128));
+        node.put("status", index % 17 == 0 ? 500 : 200);
+        node.put("duration", index % 1000);
+        node.put("bytes", 512 + index % 4096);
+        return node;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        commandQueue.close();
+        try {
+            for(Thread thread : commandQueueThreads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while waiting for command queue shutdown!", e);
+        }
+        WritableFilesystemBucket.clearDirectory(basePath);
+        Files.delete(basePath);
+    }
+}
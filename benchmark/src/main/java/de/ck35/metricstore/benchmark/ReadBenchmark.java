@@ -0,0 +1,93 @@
+package de.ck35.metricstore.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import de.ck35.metricstore.MetricRepository;
+import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.StoredMetricCallable;
+import de.ck35.metricstore.configuration.FilesystemMetricRepositoryConfiguration;
+import de.ck35.metricstore.fs.StoredMetricReadCache;
+import de.ck35.metricstore.fs.StoredMetricReadCache.WaitStrategy;
+import de.ck35.metricstore.util.MinimumIntSetting;
+import de.ck35.metricstore.util.Setting;
+
+/**
+ * Measures the throughput (records per second) of {@link MetricRepository#read(String, Interval, StoredMetricCallable)}
+ * for one day of minute files with the different wait strategies of the read buffer.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class ReadBenchmark {
+
+    public static final int RECORDS = 100_000;
+    public static final DateTime DAY = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    @Param({"BUSY_SPIN", "YIELDING", "PARKING"})
+    public WaitStrategy waitStrategy;
+
+    @Param({"1000", "100000"})
+    public int bufferSize;
+
+    private FilesystemRepositoryFixture fixture;
+    private MetricRepository repository;
+
+    @Setup
+    public void setup() throws IOException {
+        this.fixture = new FilesystemRepositoryFixture(1, new StoredMetricReadCache.Factory(new MinimumIntSetting(bufferSize, 1),
+                                                                                            new Setting<>(FilesystemMetricRepositoryConfiguration.DEFAULT_READ_BUFFER_BYTES),
+                                                                                            waitStrategy,
+                                                                                            StoredMetricReadCache.DEFAULT_SPIN_TRIES));
+        this.repository = fixture.getRepository();
+        List<ObjectNode> batch = new ArrayList<>(RECORDS);
+        for(int index = 0 ; index < RECORDS ; index++) {
+            batch.add(fixture.node(DAY.plusMillis((int) (index * (TimeUnit.DAYS.toMillis(1) / RECORDS))), index));
+        }
+        repository.writeAll(FilesystemRepositoryFixture.BUCKET_NAME, FilesystemRepositoryFixture.BUCKET_TYPE, batch);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void read(final Blackhole blackhole) {
+        repository.read(FilesystemRepositoryFixture.BUCKET_NAME, new Interval(DAY, DAY.plusDays(1)), new StoredMetricCallable() {
+            @Override
+            public void call(StoredMetric node) {
+                blackhole.consume(node);
+            }
+        });
+    }
+}
@@ -0,0 +1,115 @@
+package de.ck35.metricstore.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.StoredMetricCallable;
+import de.ck35.metricstore.cache.core.buckets.ImmutableStoredMetric;
+import de.ck35.metricstore.cache.core.buckets.ReadFilterPredicate;
+import de.ck35.metricstore.cache.core.filter.AbstractThreadsafeMetricCacheRequest;
+import de.ck35.metricstore.cache.core.filter.ImmutableReadFilter;
+import de.ck35.metricstore.cache.core.filter.ReadFilterPlan;
+import de.ck35.metricstore.nonpersistent.ImmutableMetricBucket;
+
+/**
+ * Compares the evaluation of the filters of one cache read. Every operation passes {@link #NODES} typical metric
+ * nodes through all filters, either with a {@link ReadFilterPredicate} per node and filter or with one compiled
+ * {@link ReadFilterPlan}. The filters share their fields like concurrent dashboard requests do.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class ReadFilterBenchmark {
+
+    public static final int NODES = 10_000;
+
+    @Param({"1", "10", "100"})
+    public int filterCount;
+
+    private StoredMetric[] metrics;
+    private List<ImmutableReadFilter> filters;
+    private long calls;
+
+    @Setup
+    public void setup() throws IOException {
+        MetricBucket bucket = new ImmutableMetricBucket(FilesystemRepositoryFixture.BUCKET_NAME, FilesystemRepositoryFixture.BUCKET_TYPE);
+        try(FilesystemRepositoryFixture fixture = new FilesystemRepositoryFixture()) {
+            DateTime timestamp = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+            this.metrics = new StoredMetric[NODES];
+            for(int index = 0 ; index < NODES ; index++) {
+                DateTime nodeTimestamp = timestamp.plusMillis(index * 6);
+                metrics[index] = new ImmutableStoredMetric(bucket, nodeTimestamp, fixture.node(nodeTimestamp, index));
+            }
+        }
+        AbstractThreadsafeMetricCacheRequest request = new AbstractThreadsafeMetricCacheRequest() {
+            @Override
+            public void read(String bucketName, Interval interval) {
+            }
+            @Override
+            public void readNewest(String bucketName, Interval interval, int limit) {
+            }
+        };
+        StoredMetricCallable callable = new StoredMetricCallable() {
+            @Override
+            public void call(StoredMetric node) {
+                calls++;
+            }
+        };
+        for(int index = 0 ; index < filterCount ; index++) {
+            if(index % 2 == 0) {
+                request.builder(callable).andFieldIsPresent("host").andValueMatches("path", "/api/v1/resource/" + (index % 128)).build();
+            } else {
+                request.builder(callable).andFieldIsNotPresent("error").andValueMatches("host", "web-" + (index % 32)).andValueMatches("status", "200").build();
+            }
+        }
+        this.filters = ImmutableList.copyOf(Iterables.filter(request.getFilters(), ImmutableReadFilter.class));
+    }
+
+    @Benchmark
+    public long predicate() {
+        calls = 0;
+        for(StoredMetric metric : metrics) {
+            for(ImmutableReadFilter filter : Iterables.filter(filters, new ReadFilterPredicate(metric.getObjectNode()))) {
+                filter.getCallable().call(metric);
+            }
+        }
+        return calls;
+    }
+
+    @Benchmark
+    public long plan() {
+        calls = 0;
+        ReadFilterPlan plan = new ReadFilterPlan(filters);
+        for(StoredMetric metric : metrics) {
+            plan.call(metric);
+        }
+        return calls;
+    }
+}
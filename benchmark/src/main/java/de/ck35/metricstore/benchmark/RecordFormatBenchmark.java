@@ -0,0 +1,113 @@
+package de.ck35.metricstore.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+
+import de.ck35.metricstore.util.io.Codecs;
+import de.ck35.metricstore.util.io.Codecs.CodecType;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+import de.ck35.metricstore.util.io.RecordFormats;
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
+
+/**
+ * Compares the record formats for stored nodes. Every operation writes or reads one block of
+ * {@link #BLOCK_NODES} typical metric nodes through {@link ObjectNodeWriter} and {@link ObjectNodeReader}.
+ * The write benchmark reports the encoded size of the block as auxiliary counter.
+ * 
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class RecordFormatBenchmark {
+
+    public static final int BLOCK_NODES = 10_000;
+    
+    @Param({"TEXT", "SMILE"})
+    public RecordFormat format;
+    
+    @Param({"RAW", "LZ4", "GZIP"})
+    public CodecType codec;
+    
+    private RecordFormats formats;
+    private ObjectNode[] nodes;
+    private byte[] block;
+    
+    @Setup
+    public void setup() throws IOException {
+        try(FilesystemRepositoryFixture fixture = new FilesystemRepositoryFixture()) {
+            this.formats = new RecordFormats(fixture.getMapper());
+            DateTime timestamp = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+            this.nodes = new ObjectNode[BLOCK_NODES];
+            for(int index = 0 ; index < BLOCK_NODES ; index++) {
+                nodes[index] = fixture.node(timestamp.plusMillis(index * 6), index);
+            }
+        }
+        this.block = encode();
+    }
+    
+    @Benchmark
+    public byte[] write(BlockSize size) {
+        byte[] result = encode();
+        size.encodedBytes = result.length;
+        return result;
+    }
+    
+    @Benchmark
+    public void read(Blackhole blackhole) throws IOException {
+        try(ObjectNodeReader reader = new ObjectNodeReader(new ByteArrayInputStream(block), formats, Charsets.UTF_8, Codecs.defaults())) {
+            for(ObjectNode node = reader.read() ; node != null ; node = reader.read()) {
+                blackhole.consume(node);
+            }
+        }
+    }
+    
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectNodeWriter writer = new ObjectNodeWriter(bytes, formats, format, Charsets.UTF_8, Codecs.create(codec, Codecs.DEFAULT_LEVEL))) {
+            for(ObjectNode node : nodes) {
+                writer.write(node);
+            }
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * The size of the last encoded block of {@link RecordFormatBenchmark#BLOCK_NODES} nodes, reported as it is.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class BlockSize {
+        
+        public long encodedBytes;
+        
+    }
+}
@@ -0,0 +1,84 @@
+package de.ck35.metricstore.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Measures the batched write throughput (records per second) of several writer threads where
+ * every thread writes into its own bucket. Compares a single command processor with a sharded one.
+ * 
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+@Threads(4)
+public class ShardedWriteBenchmark {
+
+    @Param({"1", "4"})
+    public int shards;
+    
+    private FilesystemRepositoryFixture fixture;
+    private List<ObjectNode> batch;
+    private AtomicInteger buckets;
+    
+    @Setup
+    public void setup() throws IOException {
+        this.fixture = new FilesystemRepositoryFixture(shards);
+        this.buckets = new AtomicInteger();
+        this.batch = new ArrayList<>(WriteBenchmark.BATCH_SIZE);
+        DateTime timestamp = DateTime.now(DateTimeZone.UTC);
+        for(int index = 0 ; index < WriteBenchmark.BATCH_SIZE ; index++) {
+            batch.add(fixture.node(timestamp, index));
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+    
+    @State(Scope.Thread)
+    public static class WriterBucket {
+        
+        public String name;
+        
+        @Setup
+        public void setup(ShardedWriteBenchmark benchmark) {
+            this.name = FilesystemRepositoryFixture.BUCKET_NAME + "-" + benchmark.buckets.getAndIncrement();
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(WriteBenchmark.BATCH_SIZE)
+    public void writeAll(WriterBucket bucket, Blackhole blackhole) {
+        blackhole.consume(fixture.getRepository().writeAll(bucket.name, FilesystemRepositoryFixture.BUCKET_TYPE, batch));
+    }
+}
@@ -0,0 +1,77 @@
+package de.ck35.metricstore.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import de.ck35.metricstore.MetricRepository;
+
+/**
+ * Compares the throughput (records per second) of per record writes against batched writes.
+ * 
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class WriteBenchmark {
+
+    public static final int BATCH_SIZE = 1_000;
+    
+    private FilesystemRepositoryFixture fixture;
+    private MetricRepository repository;
+    private List<ObjectNode> batch;
+    
+    @Setup
+    public void setup() throws IOException {
+        this.fixture = new FilesystemRepositoryFixture();
+        this.repository = fixture.getRepository();
+        this.batch = new ArrayList<>(BATCH_SIZE);
+        DateTime timestamp = DateTime.now(DateTimeZone.UTC);
+        for(int index = 0 ; index < BATCH_SIZE ; index++) {
+            batch.add(fixture.node(timestamp, index));
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void write(Blackhole blackhole) {
+        for(ObjectNode node : batch) {
+            blackhole.consume(repository.write(FilesystemRepositoryFixture.BUCKET_NAME, FilesystemRepositoryFixture.BUCKET_TYPE, node));
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void writeAll(Blackhole blackhole) {
+        blackhole.consume(repository.writeAll(FilesystemRepositoryFixture.BUCKET_NAME, FilesystemRepositoryFixture.BUCKET_TYPE, batch));
+    }
+}
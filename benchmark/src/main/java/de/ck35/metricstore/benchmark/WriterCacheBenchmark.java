@@ -0,0 +1,61 @@
+package de.ck35.metricstore.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.ck35.metricstore.util.LRUCache;
+
+/**
+ * Measures the cost of the writer cache operations for a growing number of cached writers. A minute rollover
+ * is a miss followed by a put which evicts the least recently used writer. A write into the current minute
+ * is a hit.
+ * 
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class WriterCacheBenchmark {
+
+    @Param({"5", "100", "1000", "5000"})
+    public int cachedWriters;
+    
+    private LRUCache<Integer, Integer> cache;
+    private int nextKey;
+    
+    @Setup
+    public void setup() {
+        this.cache = new LRUCache<>(cachedWriters);
+        for(nextKey = 0 ; nextKey < cachedWriters ; nextKey++) {
+            cache.put(nextKey, nextKey);
+        }
+    }
+    
+    @Benchmark
+    public void rollover(Blackhole blackhole) {
+        Integer key = nextKey++;
+        blackhole.consume(cache.get(key));
+        blackhole.consume(cache.put(key, key));
+    }
+    
+    @Benchmark
+    public Integer hit() {
+        return cache.get(nextKey - 1);
+    }
+}
@@ -0,0 +1,133 @@
+package de.ck35.metricstore;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
+
+import de.ck35.metricstore.util.JsonNodeExtractor;
+
+/**
+ * Definition of an aggregation query which can be passed to {@link MetricRepository#aggregate(String, org.joda.time.Interval, Iterable, MetricAggregation)}.
+ * The matching data objects are grouped into time buckets of the given resolution and the numeric values of one field
+ * are aggregated into {@link MetricStatistics}. The field is described by a node path as used by {@link JsonNodeExtractor}.
+ * Without a field only the data objects are counted.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class MetricAggregation {
+
+	public enum Resolution {
+
+		MINUTE, HOUR, DAY;
+
+		/**
+		 * @param timestamp A minute timestamp.
+		 * @return The UTC start of the time bucket which contains the timestamp.
+		 */
+		public DateTime truncate(DateTime timestamp) {
+			DateTime minute = timestamp.withZone(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0);
+			switch(this) {
+			case HOUR:
+				return minute.withMinuteOfHour(0);
+			case DAY:
+				return minute.withTimeAtStartOfDay();
+			default:
+				return minute;
+			}
+		}
+	}
+
+	private final String fieldPath;
+	private final Resolution resolution;
+	private final Function<ObjectNode, JsonNode> extractor;
+
+	/**
+	 * @param fieldPath The path of the numeric field or <code>null</code> if data objects should only be counted.
+	 * @param resolution The size of the time buckets.
+	 */
+	public MetricAggregation(String fieldPath, Resolution resolution) {
+		this.fieldPath = fieldPath;
+		this.resolution = resolution;
+		this.extractor = fieldPath == null ? null : JsonNodeExtractor.forPath(fieldPath);
+	}
+
+	/**
+	 * Count the given data object and its value inside the time bucket of its timestamp.
+	 *
+	 * @param result The statistics per time bucket.
+	 * @param timestamp The timestamp of the data object.
+	 * @param node The data object.
+	 */
+	public void add(NavigableMap<DateTime, MetricStatistics> result, DateTime timestamp, ObjectNode node) {
+		add(statistics(result, timestamp), node);
+	}
+
+	/**
+	 * @param statistics The statistics of the time bucket of the data object.
+	 * @param node The data object.
+	 */
+	public void add(MetricStatistics statistics, ObjectNode node) {
+		statistics.add(extractor == null ? null : extractor.apply(node));
+	}
+
+	/**
+	 * @param result The statistics per time bucket.
+	 * @param timestamp A timestamp inside the time bucket.
+	 * @return The existing or a new statistics of the time bucket.
+	 */
+	public MetricStatistics statistics(NavigableMap<DateTime, MetricStatistics> result, DateTime timestamp) {
+		DateTime key = resolution.truncate(timestamp);
+		MetricStatistics statistics = result.get(key);
+		if(statistics == null) {
+			statistics = new MetricStatistics();
+			result.put(key, statistics);
+		}
+		return statistics;
+	}
+
+	/**
+	 * Merge partial results, e.g. of the cached and the uncached part of an interval.
+	 *
+	 * @param result The result which receives the statistics.
+	 * @param other The statistics which should be added.
+	 * @return The result.
+	 */
+	public static NavigableMap<DateTime, MetricStatistics> merge(NavigableMap<DateTime, MetricStatistics> result, Map<DateTime, MetricStatistics> other) {
+		for(Entry<DateTime, MetricStatistics> entry : other.entrySet()) {
+			MetricStatistics statistics = result.get(entry.getKey());
+			if(statistics == null) {
+				result.put(entry.getKey(), entry.getValue());
+			} else {
+				statistics.merge(entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return The paths which must be read to evaluate the aggregation.
+	 */
+	public List<String> getPaths() {
+		return fieldPath == null ? Collections.<String>emptyList() : Collections.singletonList(fieldPath);
+	}
+	public String getFieldPath() {
+		return fieldPath;
+	}
+	public Resolution getResolution() {
+		return resolution;
+	}
+	@Override
+	public String toString() {
+		return "MetricAggregation [fieldPath=" + fieldPath + ", resolution=" + resolution + "]";
+	}
+}
@@ -0,0 +1,167 @@
+package de.ck35.metricstore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import de.ck35.metricstore.util.JsonNodeExtractor;
+
+/**
+ * Definition of a filter for metric data which can be passed to {@link MetricRepository#read(String, org.joda.time.Interval, Iterable, StoredMetricCallable)}.
+ * A node matches when all conditions match. Fields are described by node paths as used by {@link JsonNodeExtractor}
+ * and values are matched against the text of the field by a {@link ValueMatcher}. The repository is free to evaluate the filter
+ * on the raw records before any node is built.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class MetricFilter implements Predicate<ObjectNode> {
+
+	private final List<String> presentFields;
+	private final List<String> notPresentFields;
+	private final List<Entry<String, ValueMatcher>> valueFields;
+
+	private final List<Function<ObjectNode, JsonNode>> presentExtractors;
+	private final List<Function<ObjectNode, JsonNode>> notPresentExtractors;
+	private final List<Entry<Function<ObjectNode, JsonNode>, ValueMatcher>> valueExtractors;
+
+	private MetricFilter(List<String> presentFields, List<String> notPresentFields, List<Entry<String, ValueMatcher>> valueFields) {
+		this.presentFields = ImmutableList.copyOf(presentFields);
+		this.notPresentFields = ImmutableList.copyOf(notPresentFields);
+		this.valueFields = ImmutableList.copyOf(valueFields);
+		this.presentExtractors = new ArrayList<>();
+		for(String path : presentFields) {
+			presentExtractors.add(JsonNodeExtractor.forPath(path));
+		}
+		this.notPresentExtractors = new ArrayList<>();
+		for(String path : notPresentFields) {
+			notPresentExtractors.add(JsonNodeExtractor.forPath(path));
+		}
+		this.valueExtractors = new ArrayList<>();
+		for(Entry<String, ValueMatcher> entry : valueFields) {
+			valueExtractors.add(Maps.immutableEntry(JsonNodeExtractor.forPath(entry.getKey()), entry.getValue()));
+		}
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	@Override
+	public boolean apply(ObjectNode input) {
+		for(Function<ObjectNode, JsonNode> extractor : presentExtractors) {
+			if(extractor.apply(input).isMissingNode()) {
+				return false;
+			}
+		}
+		for(Function<ObjectNode, JsonNode> extractor : notPresentExtractors) {
+			if(!extractor.apply(input).isMissingNode()) {
+				return false;
+			}
+		}
+		for(Entry<Function<ObjectNode, JsonNode>, ValueMatcher> entry : valueExtractors) {
+			if(!entry.getValue().matches(entry.getKey().apply(input))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The paths of the fields which must be present.
+	 */
+	public List<String> getPresentFields() {
+		return presentFields;
+	}
+	/**
+	 * @return The paths of the fields which must not be present.
+	 */
+	public List<String> getNotPresentFields() {
+		return notPresentFields;
+	}
+	/**
+	 * @return The paths of the fields with the matcher their value must match.
+	 */
+	public List<Entry<String, ValueMatcher>> getValueFields() {
+		return valueFields;
+	}
+	/**
+	 * @return The paths of all fields of this filter.
+	 */
+	public List<String> getPaths() {
+		List<String> result = new ArrayList<>(presentFields);
+		result.addAll(notPresentFields);
+		for(Entry<String, ValueMatcher> entry : valueFields) {
+			result.add(entry.getKey());
+		}
+		return result;
+	}
+	/**
+	 * @return <code>true</code> if this filter has no conditions and matches every node.
+	 */
+	public boolean isEmpty() {
+		return presentFields.isEmpty() && notPresentFields.isEmpty() && valueFields.isEmpty();
+	}
+	@Override
+	public String toString() {
+		return "MetricFilter [presentFields=" + presentFields + ", notPresentFields=" + notPresentFields + ", valueFields=" + valueFields + "]";
+	}
+
+	public static class Builder {
+
+		private final List<String> presentFields;
+		private final List<String> notPresentFields;
+		private final List<Entry<String, ValueMatcher>> valueFields;
+
+		public Builder() {
+			this.presentFields = new ArrayList<>();
+			this.notPresentFields = new ArrayList<>();
+			this.valueFields = new ArrayList<>();
+		}
+		public Builder andFieldIsPresent(String fieldName) {
+			presentFields.add(fieldName);
+			return this;
+		}
+		public Builder andFieldIsNotPresent(String fieldName) {
+			notPresentFields.add(fieldName);
+			return this;
+		}
+		public Builder andValueMatches(String fieldName, String regex) throws PatternSyntaxException {
+			return andValue(fieldName, ValueMatcher.regex(regex));
+		}
+		public Builder andValueMatches(String fieldName, Pattern pattern) {
+			return andValue(fieldName, ValueMatcher.regex(pattern));
+		}
+		public Builder andValueEquals(String fieldName, String value) {
+			return andValue(fieldName, ValueMatcher.equalTo(value));
+		}
+		public Builder andValueStartsWith(String fieldName, String prefix) {
+			return andValue(fieldName, ValueMatcher.startsWith(prefix));
+		}
+		public Builder andValueIn(String fieldName, Iterable<String> values) {
+			return andValue(fieldName, ValueMatcher.in(values));
+		}
+		public Builder andValueBetween(String fieldName, double min, double max) {
+			return andValue(fieldName, ValueMatcher.between(min, max));
+		}
+		public Builder andValueIs(String fieldName, boolean value) {
+			return andValue(fieldName, ValueMatcher.equalTo(value));
+		}
+		public Builder andValue(String fieldName, ValueMatcher matcher) {
+			valueFields.add(Maps.immutableEntry(fieldName, matcher));
+			return this;
+		}
+		public MetricFilter build() {
+			return new MetricFilter(presentFields, notPresentFields, valueFields);
+		}
+	}
+}
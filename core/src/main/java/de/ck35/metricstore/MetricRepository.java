@@ -1,5 +1,9 @@
 package de.ck35.metricstore;
 
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
+
+import org.joda.time.DateTime;
 import org.joda.time.Interval;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -28,6 +32,56 @@ public interface MetricRepository {
 	 */
 	void read(String bucketName, Interval interval, StoredMetricCallable callable);
 	
+	/**
+	 * Read only the stored metric data which matches any of the given filters. Implementations may evaluate
+	 * the filters on the raw stored records, so metric data which does not match is never materialized.
+	 * 
+	 * @param bucketName The name of the bucket where the data will be loaded from.
+	 * @param interval The time interval to load.
+	 * @param filters The filters or <code>null</code> for all metric data. An empty list matches nothing.
+	 * @param callable The callable which will receive the loaded data.
+	 */
+	void read(String bucketName, Interval interval, Iterable<MetricFilter> filters, StoredMetricCallable callable);
+	
+	/**
+	 * Read only the given fields of the stored metric data which matches any of the given filters. The callable
+	 * receives partial data objects which only contain the given paths. Implementations may keep additional
+	 * fields like the timestamp field.
+	 * 
+	 * @param bucketName The name of the bucket where the data will be loaded from.
+	 * @param interval The time interval to load.
+	 * @param filters The filters or <code>null</code> for all metric data. An empty list matches nothing.
+	 * @param fields The paths of the fields to read (see {@link de.ck35.metricstore.util.JsonNodeExtractor}) or <code>null</code> for complete data objects.
+	 * @param callable The callable which will receive the loaded data.
+	 */
+	void read(String bucketName, Interval interval, Iterable<MetricFilter> filters, Iterable<String> fields, StoredMetricCallable callable);
+	
+	/**
+	 * Read the newest stored metric data of an interval in descending timestamp order. Metric data of the same
+	 * minute is passed in reverse write order. Reading starts at the end of the interval and stops as soon as
+	 * the callable has received the given number of data objects.
+	 * 
+	 * @param bucketName The name of the bucket where the data will be loaded from.
+	 * @param interval The time interval to load.
+	 * @param filters The filters or <code>null</code> for all metric data. An empty list matches nothing.
+	 * @param fields The paths of the fields to read (see {@link de.ck35.metricstore.util.JsonNodeExtractor}) or <code>null</code> for complete data objects.
+	 * @param limit The maximum number of data objects to load.
+	 * @param callable The callable which will receive the loaded data.
+	 */
+	void readNewest(String bucketName, Interval interval, Iterable<MetricFilter> filters, Iterable<String> fields, int limit, StoredMetricCallable callable);
+	
+	/**
+	 * Aggregate the stored metric data which matches any of the given filters into time buckets. Only the
+	 * statistics are returned, the data objects are evaluated while they are read.
+	 * 
+	 * @param bucketName The name of the bucket where the data will be loaded from.
+	 * @param interval The time interval to aggregate.
+	 * @param filters The filters or <code>null</code> for all metric data. An empty list matches nothing.
+	 * @param aggregation The aggregated field and the resolution of the time buckets.
+	 * @return The statistics of all time buckets with at least one data object in ascending order.
+	 */
+	NavigableMap<DateTime, MetricStatistics> aggregate(String bucketName, Interval interval, Iterable<MetricFilter> filters, MetricAggregation aggregation);
+	
 	/**
 	 * Write a metric data object into the bucket with the given bucket name. The provided
 	 * data object needs a valid timestamp value. The name of the timestamp field is
@@ -40,4 +94,39 @@ public interface MetricRepository {
 	 */
 	StoredMetric write(String bucketName, String bucketType, ObjectNode node);
 	
+	/**
+	 * Write a batch of metric data objects into the bucket with the given bucket name. All nodes
+	 * are appended in one step which is much cheaper than calling {@link #write(String, String, ObjectNode)}
+	 * for every single node. Nodes which can not be written (e.g. because of a missing timestamp)
+	 * are skipped.
+	 * 
+	 * @param bucketName The bucket name where data should be appended.
+	 * @param bucketType The bucket type.
+	 * @param nodes The metric data objects to write.
+	 * @return References to the stored metric data object nodes in the order they have been written.
+	 */
+	Iterable<StoredMetric> writeAll(String bucketName, String bucketType, Iterable<ObjectNode> nodes);
+	
+	/**
+	 * Write a metric data object without blocking the calling thread until the data has been written.
+	 * 
+	 * @param bucketName The bucket name where data should be appended.
+	 * @param bucketType The bucket type.
+	 * @param node The metric data object to write.
+	 * @return A future which will be completed with the stored metric data object node or
+	 *         completed exceptionally when writing failed.
+	 */
+	CompletableFuture<StoredMetric> writeAsync(String bucketName, String bucketType, ObjectNode node);
+	
+	/**
+	 * Write a metric data object without waiting for any result (fire and forget). Only failures
+	 * are reported to the given callback.
+	 * 
+	 * @param bucketName The bucket name where data should be appended.
+	 * @param bucketType The bucket type.
+	 * @param node The metric data object to write.
+	 * @param errorCallback The callback which will be informed when writing failed.
+	 */
+	void writeAndForget(String bucketName, String bucketType, ObjectNode node, WriteErrorCallback errorCallback);
+	
 }
\ No newline at end of file
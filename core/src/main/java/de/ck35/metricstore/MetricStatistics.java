@@ -0,0 +1,109 @@
+package de.ck35.metricstore;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The aggregated values of one time bucket of a {@link MetricAggregation}. Every aggregated data object is counted,
+ * only numeric values of the aggregated field contribute to sum, min, max and average.
+ * Instances are not thread safe.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class MetricStatistics {
+
+	private long count;
+	private long valueCount;
+	private double sum;
+	private double min;
+	private double max;
+
+	public MetricStatistics() {
+		this.min = Double.POSITIVE_INFINITY;
+		this.max = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Restore statistics, e.g. from a rollup file.
+	 *
+	 * @param count The number of data objects.
+	 * @param valueCount The number of numeric values.
+	 * @param sum The sum of the values.
+	 * @param min The smallest value, ignored without numeric values.
+	 * @param max The largest value, ignored without numeric values.
+	 */
+	public MetricStatistics(long count, long valueCount, double sum, double min, double max) {
+		this.count = count;
+		this.valueCount = valueCount;
+		this.sum = sum;
+		this.min = valueCount == 0 ? Double.POSITIVE_INFINITY : min;
+		this.max = valueCount == 0 ? Double.NEGATIVE_INFINITY : max;
+	}
+
+	/**
+	 * Count a data object with the given value of the aggregated field.
+	 *
+	 * @param value The value or <code>null</code> if the data object has no numeric value.
+	 */
+	public void add(JsonNode value) {
+		count++;
+		if(value != null && value.isNumber()) {
+			double number = value.doubleValue();
+			valueCount++;
+			sum += number;
+			min = Math.min(min, number);
+			max = Math.max(max, number);
+		}
+	}
+
+	/**
+	 * @param other The statistics which should be added to these statistics.
+	 * @return These statistics.
+	 */
+	public MetricStatistics merge(MetricStatistics other) {
+		count += other.count;
+		valueCount += other.valueCount;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		return this;
+	}
+
+	/**
+	 * @return The number of aggregated data objects.
+	 */
+	public long getCount() {
+		return count;
+	}
+	/**
+	 * @return The number of aggregated data objects with a numeric value.
+	 */
+	public long getValueCount() {
+		return valueCount;
+	}
+	public double getSum() {
+		return sum;
+	}
+	/**
+	 * @return The smallest value or <code>NaN</code> if there was no numeric value.
+	 */
+	public double getMin() {
+		return valueCount == 0 ? Double.NaN : min;
+	}
+	/**
+	 * @return The largest value or <code>NaN</code> if there was no numeric value.
+	 */
+	public double getMax() {
+		return valueCount == 0 ? Double.NaN : max;
+	}
+	/**
+	 * @return The average value or <code>NaN</code> if there was no numeric value.
+	 */
+	public double getAverage() {
+		return valueCount == 0 ? Double.NaN : sum / valueCount;
+	}
+	@Override
+	public String toString() {
+		return "MetricStatistics [count=" + count + ", valueCount=" + valueCount + ", sum=" + sum + ", min=" + getMin() + ", max=" + getMax() + "]";
+	}
+}
@@ -0,0 +1,335 @@
+package de.ck35.metricstore;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Condition on the value of a field of a {@link MetricFilter}. A value is compared by the same text as
+ * {@link JsonNode#asText()}, a missing field has the empty text. Nodes are compared without building their text
+ * where possible, e.g. integral numbers are compared as long values. Instances are immutable and can be
+ * shared between threads.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public abstract class ValueMatcher {
+
+	private static final String REGEX_META_CHARACTERS = "\\.[]{}()*+?^$|";
+	private static final String ANY_SUFFIX = ".*";
+
+	/**
+	 * @param value The node of the field, a {@link com.fasterxml.jackson.databind.node.MissingNode} if the field is missing.
+	 * @return <code>true</code> if the value matches.
+	 */
+	public abstract boolean matches(JsonNode value);
+
+	/**
+	 * @param text The text of the value.
+	 * @return <code>true</code> if the value matches.
+	 */
+	public abstract boolean matchesText(String text);
+
+	/**
+	 * @return A matcher which may keep state between calls and must only be used by one thread.
+	 */
+	public ValueMatcher forSingleThread() {
+		return this;
+	}
+
+	/**
+	 * Create a matcher for a regular expression which must match the complete text. Expressions which are a literal text,
+	 * a literal prefix followed by <code>.*</code> or an alternation of literal texts are matched without the regex engine.
+	 *
+	 * @param regex The regular expression.
+	 * @return The matcher.
+	 * @throws PatternSyntaxException If the expression is not valid.
+	 */
+	public static ValueMatcher regex(String regex) throws PatternSyntaxException {
+		if(isLiteral(regex)) {
+			return equalTo(regex);
+		}
+		if(regex.endsWith(ANY_SUFFIX) && isLiteral(regex.substring(0, regex.length() - ANY_SUFFIX.length()))) {
+			return new Prefix(regex.substring(0, regex.length() - ANY_SUFFIX.length()), true);
+		}
+		List<String> alternatives = Splitter.on('|').splitToList(regex);
+		if(alternatives.size() > 1) {
+			boolean literals = true;
+			for(String alternative : alternatives) {
+				literals &= isLiteral(alternative);
+			}
+			if(literals) {
+				return in(alternatives);
+			}
+		}
+		return new Regex(Pattern.compile(regex));
+	}
+
+	/**
+	 * @param pattern The pattern which must match the complete text.
+	 * @return The matcher, a faster one if the pattern has no flags and can be matched without the regex engine.
+	 */
+	public static ValueMatcher regex(Pattern pattern) {
+		return pattern.flags() == 0 ? regex(pattern.pattern()) : new Regex(pattern);
+	}
+
+	private static boolean isLiteral(String regex) {
+		for(int index = 0 ; index < regex.length() ; index++) {
+			if(REGEX_META_CHARACTERS.indexOf(regex.charAt(index)) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static ValueMatcher equalTo(String value) {
+		return new Equal(value);
+	}
+
+	public static ValueMatcher equalTo(boolean value) {
+		return new Equal(Boolean.toString(value));
+	}
+
+	public static ValueMatcher startsWith(String prefix) {
+		return new Prefix(prefix, false);
+	}
+
+	public static ValueMatcher in(Iterable<String> values) {
+		return new In(ImmutableSet.copyOf(values));
+	}
+
+	/**
+	 * @param min The smallest matching value.
+	 * @param max The largest matching value.
+	 * @return A matcher for numbers and texts of numbers inside the closed range.
+	 * @throws IllegalArgumentException If a bound is not a number.
+	 */
+	public static ValueMatcher between(double min, double max) throws IllegalArgumentException {
+		return new Range(min, max);
+	}
+
+	/**
+	 * Equality of the text. Integral numbers and booleans are compared without building their text.
+	 */
+	public static class Equal extends ValueMatcher {
+
+		private final String value;
+		private final boolean isLong;
+		private final long longValue;
+		private final boolean isBoolean;
+		private final boolean booleanValue;
+
+		public Equal(String value) {
+			this.value = Objects.requireNonNull(value);
+			Long parsed = parseCanonicalLong(value);
+			this.isLong = parsed != null;
+			this.longValue = isLong ? parsed : 0;
+			this.isBoolean = value.equals("true") || value.equals("false");
+			this.booleanValue = value.equals("true");
+		}
+
+		private static Long parseCanonicalLong(String value) {
+			try {
+				long parsed = Long.parseLong(value);
+				return Long.toString(parsed).equals(value) ? parsed : null;
+			} catch(NumberFormatException e) {
+				return null;
+			}
+		}
+
+		@Override
+		public boolean matches(JsonNode node) {
+			if(node.isTextual()) {
+				return value.equals(node.textValue());
+			}
+			if(node.isBoolean()) {
+				return isBoolean && node.booleanValue() == booleanValue;
+			}
+			if(node.isIntegralNumber() && node.canConvertToLong()) {
+				return isLong && node.longValue() == longValue;
+			}
+			return value.equals(node.asText());
+		}
+
+		@Override
+		public boolean matchesText(String text) {
+			return value.equals(text);
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			return "equalTo(" + value + ")";
+		}
+	}
+
+	/**
+	 * Prefix of the text. A prefix which has been recognized in a regular expression does not match texts
+	 * with a line terminator after the prefix, because <code>.</code> does not match them.
+	 */
+	public static class Prefix extends ValueMatcher {
+
+		private final String prefix;
+		private final boolean singleLine;
+
+		public Prefix(String prefix, boolean singleLine) {
+			this.prefix = Objects.requireNonNull(prefix);
+			this.singleLine = singleLine;
+		}
+
+		@Override
+		public boolean matches(JsonNode node) {
+			return matchesText(node.isTextual() ? node.textValue() : node.asText());
+		}
+
+		@Override
+		public boolean matchesText(String text) {
+			if(!text.startsWith(prefix)) {
+				return false;
+			}
+			if(singleLine) {
+				for(int index = prefix.length() ; index < text.length() ; index++) {
+					char next = text.charAt(index);
+					if(next == '\n' || next == '\r' || next == '\u0085' || next == '\u2028' || next == '\u2029') {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "startsWith(" + prefix + ")";
+		}
+	}
+
+	/**
+	 * Membership of the text in a hash set.
+	 */
+	public static class In extends ValueMatcher {
+
+		private final Set<String> values;
+
+		public In(Set<String> values) {
+			this.values = values;
+		}
+
+		@Override
+		public boolean matches(JsonNode node) {
+			return values.contains(node.isTextual() ? node.textValue() : node.asText());
+		}
+
+		@Override
+		public boolean matchesText(String text) {
+			return values.contains(text);
+		}
+
+		public Set<String> getValues() {
+			return values;
+		}
+
+		@Override
+		public String toString() {
+			return "in(" + values + ")";
+		}
+	}
+
+	/**
+	 * Closed numeric range. Numbers are compared as double values, texts must be a JSON number.
+	 * Texts like <code>NaN</code>, <code>Infinity</code>, <code>1d</code> or <code>0x1p3</code> do not match.
+	 */
+	public static class Range extends ValueMatcher {
+
+		private static final Pattern JSON_NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+		private final double min;
+		private final double max;
+
+		public Range(double min, double max) {
+			if(Double.isNaN(min) || Double.isNaN(max)) {
+				throw new IllegalArgumentException("Range bounds must be numbers: '" + min + "', '" + max + "'!");
+			}
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public boolean matches(JsonNode node) {
+			if(node.isNumber()) {
+				double value = node.doubleValue();
+				return value >= min && value <= max;
+			}
+			return node.isTextual() && matchesText(node.textValue());
+		}
+
+		@Override
+		public boolean matchesText(String text) {
+			if(!JSON_NUMBER.matcher(text).matches()) {
+				return false;
+			}
+			double value = Double.parseDouble(text);
+			return value >= min && value <= max;
+		}
+
+		@Override
+		public String toString() {
+			return "between(" + min + ", " + max + ")";
+		}
+	}
+
+	/**
+	 * A regular expression which must match the complete text.
+	 */
+	public static class Regex extends ValueMatcher {
+
+		private final Pattern pattern;
+
+		public Regex(Pattern pattern) {
+			this.pattern = Objects.requireNonNull(pattern);
+		}
+
+		@Override
+		public boolean matches(JsonNode node) {
+			return matchesText(node.asText());
+		}
+
+		@Override
+		public boolean matchesText(String text) {
+			return pattern.matcher(text).matches();
+		}
+
+		/**
+		 * @return A matcher which reuses one {@link Matcher}.
+		 */
+		@Override
+		public ValueMatcher forSingleThread() {
+			final Matcher matcher = pattern.matcher("");
+			return new Regex(pattern) {
+				@Override
+				public boolean matchesText(String text) {
+					return matcher.reset(text).matches();
+				}
+			};
+		}
+
+		public Pattern getPattern() {
+			return pattern;
+		}
+
+		@Override
+		public String toString() {
+			return pattern.pattern();
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package de.ck35.metricstore;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Implement this interface when you write metric data without waiting for the result
+ * (see {@link MetricRepository#writeAndForget(String, String, ObjectNode, WriteErrorCallback)}).
+ * <p>
+ * <b>This interface is implemented by API clients. Every change here is a major API version change.</b>
+ * 
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public interface WriteErrorCallback {
+
+	/**
+	 * This method will be called when a metric data object could not be written. It may be
+	 * called from an internal worker thread and should therefore return quickly.
+	 * 
+	 * @param bucketName The bucket name where data should have been appended.
+	 * @param node The metric data object which could not be written.
+	 * @param cause The reason why writing failed.
+	 */
+	void writeFailed(String bucketName, ObjectNode node, Throwable cause);
+	
+}
@@ -1,8 +1,17 @@
 package de.ck35.metricstore.cache;
 
+import java.util.NavigableMap;
+
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import de.ck35.metricstore.MetricAggregation;
 import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.MetricFilter;
+import de.ck35.metricstore.MetricRepository;
+import de.ck35.metricstore.MetricStatistics;
 import de.ck35.metricstore.StoredMetric;
 
 /**
@@ -24,6 +33,18 @@ public interface MetricCache {
      */
     Iterable<MetricBucket> listBuckets();
     
+    /**
+     * Aggregate the cached and the stored metric data of an interval into time buckets.
+     * 
+     * @param bucketName The bucket to aggregate.
+     * @param interval The interval to aggregate.
+     * @param filters The filters or <code>null</code> for all metric data. An empty list matches nothing.
+     * @param aggregation The aggregated field and the resolution of the time buckets.
+     * @return The statistics of all time buckets with at least one data object in ascending order.
+     * @see MetricRepository#aggregate(String, Interval, Iterable, MetricAggregation)
+     */
+    NavigableMap<DateTime, MetricStatistics> aggregate(String bucketName, Interval interval, Iterable<MetricFilter> filters, MetricAggregation aggregation);
+    
     /**
      * Write a metric data object into the bucket with the given bucket name. The provided
      * data object needs a valid timestamp value. The name of the timestamp field is
@@ -36,4 +57,15 @@ public interface MetricCache {
      */
     StoredMetric write(String bucketName, String bucketType, ObjectNode node);
     
+    /**
+     * Write a batch of metric data objects into the bucket with the given bucket name.
+     * 
+     * @param bucketName The bucket name where data should be appended.
+     * @param bucketType The bucket type.
+     * @param nodes The metric data objects to write.
+     * @return References to the stored metric data object nodes in the order they have been written.
+     * @see MetricRepository#writeAll(String, String, Iterable)
+     */
+    Iterable<StoredMetric> writeAll(String bucketName, String bucketType, Iterable<ObjectNode> nodes);
+    
 }
\ No newline at end of file
@@ -14,8 +14,9 @@ import de.ck35.metricstore.StoredMetricCallable;
  * <li>{@link FieldFilterBuilder#build()}</li>
  * <li>{@link ValueFilterBuilder#build()}</li>
  * </ul>
- * {@link MetricCacheRequest#read(String, Interval)} must be called before any metric nodes are read
- * from the cache.
+ * {@link MetricCacheRequest#read(String, Interval)} or {@link MetricCacheRequest#readNewest(String, Interval, int)}
+ * must be called before any metric nodes are read from the cache. Values of fields are compared by the same text
+ * as {@link com.fasterxml.jackson.databind.JsonNode#asText()}, a missing field has the empty text.
  * 
  * @author Christian Kaspari
  * @since 1.0.0
@@ -28,8 +29,32 @@ public interface MetricCacheRequest {
     
     Iterable<ReadFilter> getFilters();
     
+    /**
+     * Only read the given fields. All callables receive partial metric nodes which contain the given
+     * fields and the fields which are needed by the filters.
+     * 
+     * @param fieldNames The paths of the fields to read.
+     * @return This request.
+     */
+    MetricCacheRequest withFields(String ... fieldNames);
+    
+    /**
+     * @return The paths of the fields to read or <code>null</code> for complete metric nodes.
+     */
+    Iterable<String> getFields();
+    
     void read(String bucketName, Interval interval);
     
+    /**
+     * Read the newest metric nodes of an interval in descending timestamp order. Reading stops as soon as the
+     * given number of metric nodes has matched at least one filter. Each of them is passed to all matching callables.
+     * 
+     * @param bucketName The bucket to read.
+     * @param interval The interval to read.
+     * @param limit The maximum number of matching metric nodes.
+     */
+    void readNewest(String bucketName, Interval interval, int limit);
+    
     public interface ReadFilter {
         
         StoredMetricCallable getCallable();
@@ -42,16 +67,50 @@ public interface MetricCacheRequest {
         
         FieldFilterBuilder andFieldIsNotPresent(String fieldName);
         
+        /**
+         * Require that the complete text of the field matches the regular expression. Literal texts, literal prefixes
+         * followed by <code>.*</code> and alternations of literal texts are matched without the regex engine.
+         */
         ValueFilterBuilder andValueMatches(String fieldName, String regex) throws PatternSyntaxException;
         
+        ValueFilterBuilder andValueEquals(String fieldName, String value);
+        
+        ValueFilterBuilder andValueStartsWith(String fieldName, String prefix);
+        
+        ValueFilterBuilder andValueIn(String fieldName, String ... values);
+        
+        /**
+         * Require a number or the text of a number inside the closed range.
+         */
+        ValueFilterBuilder andValueBetween(String fieldName, double min, double max);
+        
+        ValueFilterBuilder andValueIs(String fieldName, boolean value);
+        
         ReadFilter build();
         
     }
     
     public interface ValueFilterBuilder {
         
+        /**
+         * Require that the complete text of the field matches the regular expression. Literal texts, literal prefixes
+         * followed by <code>.*</code> and alternations of literal texts are matched without the regex engine.
+         */
         ValueFilterBuilder andValueMatches(String fieldName, String regex) throws PatternSyntaxException;
         
+        ValueFilterBuilder andValueEquals(String fieldName, String value);
+        
+        ValueFilterBuilder andValueStartsWith(String fieldName, String prefix);
+        
+        ValueFilterBuilder andValueIn(String fieldName, String ... values);
+        
+        /**
+         * Require a number or the text of a number inside the closed range.
+         */
+        ValueFilterBuilder andValueBetween(String fieldName, double min, double max);
+        
+        ValueFilterBuilder andValueIs(String fieldName, boolean value);
+        
         ReadFilter build();
         
     }
@@ -1,9 +1,15 @@
 package de.ck35.metricstore.cache.core;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Interval;
 import org.slf4j.Logger;
@@ -13,18 +19,23 @@ import org.springframework.jmx.export.annotation.ManagedResource;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 
+import de.ck35.metricstore.MetricAggregation;
 import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.MetricFilter;
 import de.ck35.metricstore.MetricRepository;
+import de.ck35.metricstore.MetricStatistics;
 import de.ck35.metricstore.StoredMetric;
 import de.ck35.metricstore.StoredMetricCallable;
 import de.ck35.metricstore.cache.MetricCache;
 import de.ck35.metricstore.cache.MetricCacheRequest;
 import de.ck35.metricstore.cache.core.buckets.BucketManager;
-import de.ck35.metricstore.cache.core.buckets.ReadFilterPredicate;
 import de.ck35.metricstore.cache.core.filter.AbstractThreadsafeMetricCacheRequest;
 import de.ck35.metricstore.cache.core.filter.ImmutableReadFilter;
+import de.ck35.metricstore.cache.core.filter.ReadFilterPlan;
+import de.ck35.metricstore.util.io.RecordProjection;
 
 @ManagedResource
 public class BucketMetricCache implements MetricCache {
@@ -40,6 +51,7 @@ public class BucketMetricCache implements MetricCache {
     private final AtomicLong totalWrites;
     private final AtomicLong totalReadCalls;
     private final AtomicLong totalListCalls;
+    private final AtomicLong totalAggregateCalls;
     
     public BucketMetricCache(MetricRepository metricRepository, 
                                        BucketManager bucketManager,
@@ -52,6 +64,7 @@ public class BucketMetricCache implements MetricCache {
         this.totalWrites = new AtomicLong();
         this.totalReadCalls = new AtomicLong();
         this.totalListCalls = new AtomicLong();
+        this.totalAggregateCalls = new AtomicLong();
     }
     
     public void init(Interval interval) throws InterruptedException {
@@ -86,7 +99,11 @@ public class BucketMetricCache implements MetricCache {
         return new AbstractThreadsafeMetricCacheRequest() {
             @Override
             public void read(String bucketName, Interval interval) {
-                BucketMetricCache.this.read(bucketName, interval, filters);
+                BucketMetricCache.this.read(bucketName, interval, filters, fields);
+            }
+            @Override
+            public void readNewest(String bucketName, Interval interval, int limit) {
+                BucketMetricCache.this.readNewest(bucketName, interval, filters, fields, limit);
             }
         };
     }
@@ -96,6 +113,22 @@ public class BucketMetricCache implements MetricCache {
         this.totalListCalls.incrementAndGet();
         return bucketManager.listBuckets();
     }
+    /**
+     * The cached part of the interval is aggregated on the minute buckets, the uncached part by the repository.
+     */
+    @Override
+    public NavigableMap<DateTime, MetricStatistics> aggregate(String bucketName, Interval interval, Iterable<MetricFilter> filters, MetricAggregation aggregation) {
+        awaitInit();
+        this.totalAggregateCalls.incrementAndGet();
+        Interval utcInterval = utc(interval);
+        List<MetricFilter> definitions = filters == null ? null : ImmutableList.copyOf(filters);
+        NavigableMap<DateTime, MetricStatistics> result = new TreeMap<>();
+        Interval cached = bucketManager.aggregate(bucketName, utcInterval, definitions, aggregation, result);
+        if(!utcInterval.getStart().equals(cached.getStart())) {
+            MetricAggregation.merge(result, metricRepository.aggregate(bucketName, new Interval(utcInterval.getStart(), cached.getStart()), definitions, aggregation));
+        }
+        return result;
+    }
     @Override
     public StoredMetric write(String bucketName,
                               String bucketType,
@@ -109,29 +142,156 @@ public class BucketMetricCache implements MetricCache {
         return storedMetric;
     }
     
+    @Override
+    public Iterable<StoredMetric> writeAll(String bucketName,
+                                           String bucketType,
+                                           Iterable<ObjectNode> nodes) {
+        awaitInit();
+        Iterable<StoredMetric> storedMetrics = metricRepository.writeAll(bucketName, bucketType, nodes);
+        for(StoredMetric storedMetric : storedMetrics) {
+            this.totalWrites.incrementAndGet();
+            if(cacheablePredicate.apply(storedMetric)) {
+                bucketManager.write(storedMetric);
+            }
+        }
+        return storedMetrics;
+    }
+    
     public void read(String bucketName, Interval interval, final Iterable<ImmutableReadFilter> filters) {
+        read(bucketName, interval, filters, null);
+    }
+    
+    /**
+     * Read the cached and the uncached part of an interval. The filters are pushed down into the repository and
+     * only the given fields together with the fields of the filters are read. The uncached part is read from the
+     * repository without holding a read of the cache, so minutes which are dropped meanwhile can be freed. If the
+     * cached part starts later afterwards, the gap is read from the repository as well.
+     * 
+     * @param bucketName The bucket to read.
+     * @param interval The interval to read.
+     * @param filters The filters with the callables which receive the metrics.
+     * @param fields The paths of the fields to read or <code>null</code> for complete metric nodes.
+     */
+    public void read(String bucketName, Interval interval, final Iterable<ImmutableReadFilter> filters, Iterable<String> fields) {
+        awaitInit();
+        Interval remaining = utc(interval);
+        List<MetricFilter> definitions = definitions(filters);
+        List<String> paths = paths(fields, definitions);
+        final ReadFilterPlan plan = new ReadFilterPlan(filters);
+        while(true) {
+            DateTime cachedStart;
+            long ticket = bucketManager.enterRead();
+            try {
+                Entry<Interval, Iterable<StoredMetric>> cached = bucketManager.read(bucketName, remaining, RecordProjection.of(paths), definitions);
+                cachedStart = cached.getKey().getStart();
+                if(remaining.getStart().equals(cachedStart)) {
+                    for(StoredMetric metric : cached.getValue()) {
+                        this.totalReadCalls.incrementAndGet();
+                        plan.call(metric);
+                    }
+                    return;
+                }
+            } finally {
+                bucketManager.exitRead(ticket);
+            }
+            metricRepository.read(bucketName, new Interval(remaining.getStart(), cachedStart), definitions, paths, new StoredMetricCallable() {
+                @Override
+                public void call(StoredMetric node) {
+                    plan.call(node);
+                }
+            });
+            remaining = new Interval(cachedStart, remaining.getEnd());
+        }
+    }
+    
+    /**
+     * Read the newest metrics of an interval. The cached part is read first with the newest minute first, only the
+     * metrics which are still missing are read from the repository. The limit counts the metrics which match at
+     * least one filter. If a filter can not be pushed down into the repository, the uncached part is read completely
+     * and metrics beyond the limit are dropped.
+     * 
+     * @param bucketName The bucket to read.
+     * @param interval The interval to read.
+     * @param filters The filters with the callables which receive the metrics.
+     * @param fields The paths of the fields to read or <code>null</code> for complete metric nodes.
+     * @param limit The maximum number of matching metrics.
+     */
+    public void readNewest(String bucketName, Interval interval, final Iterable<ImmutableReadFilter> filters, Iterable<String> fields, int limit) {
         awaitInit();
-        Interval utcInterval = new Interval(interval.getStart().withZone(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0), 
-                                            interval.getEnd().withZone(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0));
-        Entry<Interval, Iterable<StoredMetric>> cached = bucketManager.read(bucketName, utcInterval);
-        if(!utcInterval.getStart().equals(cached.getKey().getStart())) {            
-            metricRepository.read(bucketName, new Interval(utcInterval.getStart(), cached.getKey().getStart()), new StoredMetricCallable() {
+        if(limit <= 0 || Iterables.isEmpty(filters)) {
+            return;
+        }
+        Interval utcInterval = utc(interval);
+        List<MetricFilter> definitions = definitions(filters);
+        List<String> paths = paths(fields, definitions);
+        final ReadFilterPlan plan = new ReadFilterPlan(filters);
+        Entry<Interval, Iterable<StoredMetric>> cached;
+        int remaining = limit;
+        long ticket = bucketManager.enterRead();
+        try {
+            cached = bucketManager.readNewest(bucketName, utcInterval, RecordProjection.of(paths), definitions);
+            for(Iterator<StoredMetric> iterator = cached.getValue().iterator() ; remaining > 0 && iterator.hasNext() ; ) {
+                this.totalReadCalls.incrementAndGet();
+                if(plan.call(iterator.next())) {
+                    remaining--;
+                }
+            }
+        } finally {
+            bucketManager.exitRead(ticket);
+        }
+        if(remaining > 0 && !utcInterval.getStart().equals(cached.getKey().getStart())) {
+            final int[] missing = {remaining};
+            metricRepository.readNewest(bucketName, new Interval(utcInterval.getStart(), cached.getKey().getStart()), definitions, paths, definitions == null ? Integer.MAX_VALUE : remaining, new StoredMetricCallable() {
                 @Override
                 public void call(StoredMetric node) {
-                    filteredCall(node, filters);
+                    if(missing[0] > 0 && plan.call(node)) {
+                        missing[0]--;
+                    }
                 }
             });
         }
-        for(StoredMetric metric : cached.getValue()) {
-            this.totalReadCalls.incrementAndGet();
-            filteredCall(metric, filters);
+    }
+    
+    private static Interval utc(Interval interval) {
+        return new Interval(interval.getStart().withZone(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0), 
+                            interval.getEnd().withZone(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0));
+    }
+    
+    /**
+     * @return The definitions of all filters which are pushed down into the repository or <code>null</code> if a filter has no definition.
+     */
+    public static List<MetricFilter> definitions(Iterable<ImmutableReadFilter> filters) {
+        List<MetricFilter> result = new ArrayList<>();
+        for(ImmutableReadFilter filter : filters) {
+            if(filter.getDefinition() == null) {
+                return null;
+            }
+            result.add(filter.getDefinition());
         }
+        return result;
     }
     
-    public static void filteredCall(StoredMetric metric, Iterable<ImmutableReadFilter> filters) {
-        for(ImmutableReadFilter filter : Iterables.filter(filters, new ReadFilterPredicate(metric.getObjectNode()))) {
-            filter.getCallable().call(metric);
+    /**
+     * @return The fields together with the fields of all filters or <code>null</code> if complete metric nodes must be read.
+     */
+    public static List<String> paths(Iterable<String> fields, Iterable<MetricFilter> definitions) {
+        if(fields == null || definitions == null) {
+            return null;
+        }
+        List<String> filterPaths = new ArrayList<>();
+        for(MetricFilter definition : definitions) {
+            filterPaths.addAll(definition.getPaths());
         }
+        return RecordProjection.union(fields, filterPaths);
+    }
+    
+    /**
+     * Reads should compile the filters once with {@link ReadFilterPlan} instead of calling this method for every metric.
+     * 
+     * @return <code>true</code> if at least one filter matched the metric.
+     */
+    public static boolean filteredCall(StoredMetric metric, Iterable<ImmutableReadFilter> filters) {
+        return new ReadFilterPlan(filters).call(metric);
     }
     
     @ManagedAttribute
@@ -139,6 +299,10 @@ public class BucketMetricCache implements MetricCache {
         return totalListCalls.get();
     }
     @ManagedAttribute
+    public long getTotalAggregateCalls() {
+        return totalAggregateCalls.get();
+    }
+    @ManagedAttribute
     public long getTotalReadCalls() {
         return totalReadCalls.get();
     }
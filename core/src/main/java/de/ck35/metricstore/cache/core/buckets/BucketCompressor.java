@@ -0,0 +1,188 @@
+package de.ck35.metricstore.cache.core.buckets;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Compresses minute buckets on background threads, so writers never encode the nodes of a minute bucket.
+ * A minute bucket which is already waiting for compression is not scheduled again. The backlog is bounded,
+ * a minute bucket which does not fit into the backlog stays expanded and must be scheduled again later.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@ManagedResource
+public class BucketCompressor implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BucketCompressor.class);
+
+    private final int maxBacklog;
+    private final ThreadPoolExecutor executor;
+    private final Set<MinuteBucket> pending;
+
+    private final AtomicLong totalScheduled;
+    private final AtomicLong totalCoalesced;
+    private final AtomicLong totalRejected;
+    private final AtomicLong totalCompressions;
+    private final AtomicLong totalFailed;
+    private final AtomicLong totalCompressionNanos;
+    private final AtomicLong totalSavedBytes;
+
+    /**
+     * @param threads The number of compression threads.
+     * @param maxBacklog The maximum number of tasks which wait for a compression thread.
+     */
+    public BucketCompressor(int threads, int maxBacklog) {
+        this.maxBacklog = maxBacklog;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(maxBacklog), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BucketCompressor-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.pending = Collections.newSetFromMap(new ConcurrentHashMap<MinuteBucket, Boolean>());
+        this.totalScheduled = new AtomicLong();
+        this.totalCoalesced = new AtomicLong();
+        this.totalRejected = new AtomicLong();
+        this.totalCompressions = new AtomicLong();
+        this.totalFailed = new AtomicLong();
+        this.totalCompressionNanos = new AtomicLong();
+        this.totalSavedBytes = new AtomicLong();
+    }
+
+    /**
+     * Schedule the compression of a minute bucket.
+     *
+     * @param minuteBucket The minute bucket to compress.
+     * @return <code>false</code> if the backlog is full and the minute bucket has not been scheduled.
+     */
+    public boolean compress(final MinuteBucket minuteBucket) {
+        if(!pending.add(minuteBucket)) {
+            totalCoalesced.incrementAndGet();
+            return true;
+        }
+        boolean scheduled = execute(new Runnable() {
+            @Override
+            public void run() {
+                pending.remove(minuteBucket);
+                compressNow(minuteBucket);
+            }
+        });
+        if(scheduled) {
+            totalScheduled.incrementAndGet();
+        } else {
+            pending.remove(minuteBucket);
+        }
+        return scheduled;
+    }
+
+    /**
+     * Compress a minute bucket on the calling thread.
+     *
+     * @param minuteBucket The minute bucket to compress.
+     */
+    public void compressNow(MinuteBucket minuteBucket) {
+        long start = System.nanoTime();
+        try {
+            long savedBytes = minuteBucket.compress();
+            totalCompressions.incrementAndGet();
+            totalSavedBytes.addAndGet(savedBytes);
+        } catch(RuntimeException e) {
+            totalFailed.incrementAndGet();
+            LOG.warn("Could not compress minute bucket!", e);
+        } finally {
+            totalCompressionNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Run a task on a compression thread.
+     *
+     * @param task The task.
+     * @return <code>false</code> if the backlog is full and the task has not been scheduled.
+     */
+    public boolean execute(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch(RejectedExecutionException e) {
+            totalRejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return The number of tasks which wait for a compression thread.
+     */
+    @ManagedAttribute
+    public int getBacklog() {
+        return executor.getQueue().size();
+    }
+    @ManagedAttribute
+    public int getMaxBacklog() {
+        return maxBacklog;
+    }
+    @ManagedAttribute
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+    @ManagedAttribute
+    public long getTotalScheduled() {
+        return totalScheduled.get();
+    }
+    /**
+     * @return The number of compressions which have been requested for an already scheduled minute bucket.
+     */
+    @ManagedAttribute
+    public long getTotalCoalesced() {
+        return totalCoalesced.get();
+    }
+    /**
+     * @return The number of tasks which have not been scheduled because the backlog was full.
+     */
+    @ManagedAttribute
+    public long getTotalRejected() {
+        return totalRejected.get();
+    }
+    @ManagedAttribute
+    public long getTotalCompressions() {
+        return totalCompressions.get();
+    }
+    @ManagedAttribute
+    public long getTotalFailed() {
+        return totalFailed.get();
+    }
+    @ManagedAttribute
+    public long getTotalCompressionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalCompressionNanos.get());
+    }
+    /**
+     * @return The estimated heap size of the compressed nodes minus the size of their payloads.
+     */
+    @ManagedAttribute
+    public long getTotalSavedBytes() {
+        return totalSavedBytes.get();
+    }
+}
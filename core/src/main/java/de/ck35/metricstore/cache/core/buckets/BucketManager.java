@@ -2,15 +2,24 @@ package de.ck35.metricstore.cache.core.buckets;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
@@ -22,14 +31,21 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 
+import de.ck35.metricstore.MetricAggregation;
 import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.MetricFilter;
+import de.ck35.metricstore.MetricStatistics;
 import de.ck35.metricstore.StoredMetric;
 import de.ck35.metricstore.util.io.ObjectNodeReader;
 import de.ck35.metricstore.util.io.ObjectNodeWriter;
+import de.ck35.metricstore.util.io.RecordProjection;
 
 @ManagedResource
 public class BucketManager {
@@ -39,18 +55,55 @@ public class BucketManager {
     private final Function<MetricBucket, ExpandedBucketManager> expandedBucketManagerFactory;
     private final Function<InputStream, ObjectNodeReader> objectNodeReaderFactory;
     private final Function<OutputStream, ObjectNodeWriter> objectNodeWriterFactory;
+    private final CacheSettings settings;
+    private final CacheMemoryBudget budget;
+    private final BucketCompressor compressor;
     private final ConcurrentMap<String, Entry<MetricBucket, CachedMetricBucket>> buckets;
     
+    private final Lock evictionLock;
+    private final AtomicBoolean evictionScheduled;
+    private final Runnable evictionTask;
+    private final AtomicLong readSequence;
+    private final ConcurrentSkipListSet<Long> activeReads;
+    private final Deque<Entry<Long, List<MinuteBucket>>> releasedBuckets;
+    
     private final AtomicLong totalCreatedCachedMetricBuckets;
+    private final AtomicLong totalIndexedReads;
     
     public BucketManager(Function<MetricBucket, ExpandedBucketManager> expandedBucketManagerFactory,
                          Function<InputStream, ObjectNodeReader> objectNodeReaderFactory,
                          Function<OutputStream, ObjectNodeWriter> objectNodeWriterFactory) {
+        this(expandedBucketManagerFactory, objectNodeReaderFactory, objectNodeWriterFactory, CacheSettings.defaults());
+    }
+    
+    /**
+     * @param settings The arena, budget, compressor and indexed paths of the cache.
+     */
+    public BucketManager(Function<MetricBucket, ExpandedBucketManager> expandedBucketManagerFactory,
+                         Function<InputStream, ObjectNodeReader> objectNodeReaderFactory,
+                         Function<OutputStream, ObjectNodeWriter> objectNodeWriterFactory,
+                         CacheSettings settings) {
         this.expandedBucketManagerFactory = expandedBucketManagerFactory;
         this.objectNodeReaderFactory = objectNodeReaderFactory;
         this.objectNodeWriterFactory = objectNodeWriterFactory;
+        this.settings = settings;
+        this.budget = settings.getBudget();
+        this.compressor = settings.getCompressor();
         this.buckets = new ConcurrentHashMap<>();
+        this.evictionLock = new ReentrantLock();
+        this.evictionScheduled = new AtomicBoolean();
+        this.evictionTask = new Runnable() {
+            @Override
+            public void run() {
+                evictionScheduled.set(false);
+                evict();
+            }
+        };
+        this.readSequence = new AtomicLong();
+        this.activeReads = new ConcurrentSkipListSet<>();
+        this.releasedBuckets = new ArrayDeque<>();
         this.totalCreatedCachedMetricBuckets = new AtomicLong();
+        this.totalIndexedReads = new AtomicLong();
     }
 
     public void write(StoredMetric metric) {
@@ -66,9 +119,161 @@ public class BucketManager {
             }
         }
         bucket.getValue().write(metric.getTimestamp(), metric.getObjectNode());
+        if(budget != null && budget.isExceeded()) {
+            scheduleEviction();
+        }
+    }
+    
+    /**
+     * Evict on the compressor if there is one. The writer evicts itself if the eviction can not be scheduled
+     * or the cache grows beyond the limit of the budget while the eviction is waiting.
+     */
+    private void scheduleEviction() {
+        if(compressor == null || budget.isOverLimit()) {
+            evict();
+        } else if(evictionScheduled.compareAndSet(false, true) && !compressor.execute(evictionTask)) {
+            evictionScheduled.set(false);
+            evict();
+        }
+    }
+    
+    /**
+     * Bring the cache back below the target of the budget. The expanded minute buckets of all metric buckets are
+     * compressed first, the least recently accessed minute first. If this is not enough, the oldest minute of the
+     * metric bucket whose oldest minute was least recently accessed is dropped until the target is reached. Dropping
+     * only the oldest minutes keeps the cached minutes of every metric bucket one interval, so reads of dropped
+     * minutes are completed by the repository. Only one thread evicts at a time, concurrent writers continue.
+     */
+    public void evict() {
+        if(budget == null || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            if(!budget.isAboveTarget()) {
+                return;
+            }
+            int compressed = 0;
+            List<Entry<Long, MinuteBucket>> expanded = new ArrayList<>();
+            for(Entry<MetricBucket, CachedMetricBucket> entry : buckets.values()) {
+                for(Entry<DateTime, MinuteBucket> minute : entry.getValue()) {
+                    if(!minute.getValue().isCompressed()) {
+                        expanded.add(Maps.immutableEntry(minute.getValue().getLastAccess(), minute.getValue()));
+                    }
+                }
+            }
+            Collections.sort(expanded, new LastAccessOrdering<MinuteBucket>());
+            for(Iterator<Entry<Long, MinuteBucket>> iterator = expanded.iterator() ; iterator.hasNext() && budget.isAboveTarget() ; ) {
+                MinuteBucket minuteBucket = iterator.next().getValue();
+                if(compressor == null) {
+                    minuteBucket.compress();
+                } else {
+                    compressor.compressNow(minuteBucket);
+                }
+                compressed++;
+            }
+            int dropped = 0;
+            if(budget.isAboveTarget()) {
+                PriorityQueue<Entry<Long, CachedMetricBucket>> oldest = new PriorityQueue<>(Math.max(1, buckets.size()), new LastAccessOrdering<CachedMetricBucket>());
+                for(Entry<MetricBucket, CachedMetricBucket> entry : buckets.values()) {
+                    offerOldest(oldest, entry.getValue());
+                }
+                while(budget.isAboveTarget() && !oldest.isEmpty()) {
+                    CachedMetricBucket bucket = oldest.poll().getValue();
+                    Optional<Entry<DateTime, MinuteBucket>> first = bucket.getFirst();
+                    if(first.isPresent()) {
+                        List<MinuteBucket> released = bucket.clear(first.get().getKey().plusMinutes(1));
+                        dropped += released.size();
+                        released(released);
+                        offerOldest(oldest, bucket);
+                    }
+                }
+            }
+            budget.evicted(compressed, dropped);
+        } finally {
+            evictionLock.unlock();
+        }
+        freeReleased();
+    }
+    
+    private static void offerOldest(PriorityQueue<Entry<Long, CachedMetricBucket>> oldest, CachedMetricBucket bucket) {
+        Optional<Entry<DateTime, MinuteBucket>> first = bucket.getFirst();
+        if(first.isPresent()) {
+            oldest.add(Maps.immutableEntry(first.get().getValue().getLastAccess(), bucket));
+        }
+    }
+    
+    /**
+     * Start a read of cached minute buckets. Minute buckets which are released while the read is running
+     * are freed after the read has ended.
+     * 
+     * @return The ticket which must be passed to {@link #exitRead(long)}.
+     */
+    public long enterRead() {
+        long ticket = readSequence.incrementAndGet();
+        activeReads.add(ticket);
+        return ticket;
+    }
+    
+    /**
+     * @param ticket The ticket of the finished read.
+     */
+    public void exitRead(long ticket) {
+        activeReads.remove(ticket);
+        freeReleased();
+    }
+    
+    private void released(List<MinuteBucket> minuteBuckets) {
+        if(minuteBuckets.isEmpty()) {
+            return;
+        }
+        long releasedAt = readSequence.get();
+        synchronized (releasedBuckets) {
+            releasedBuckets.addLast(Maps.immutableEntry(releasedAt, minuteBuckets));
+        }
+    }
+    
+    /**
+     * Free the released minute buckets which can not be seen by any running read.
+     */
+    private void freeReleased() {
+        List<MinuteBucket> free = new ArrayList<>();
+        synchronized (releasedBuckets) {
+            if(releasedBuckets.isEmpty()) {
+                return;
+            }
+            Long oldestRead = activeReads.isEmpty() ? null : activeReads.first();
+            while(!releasedBuckets.isEmpty() && (oldestRead == null || releasedBuckets.peekFirst().getKey() < oldestRead)) {
+                free.addAll(releasedBuckets.removeFirst().getValue());
+            }
+        }
+        for(MinuteBucket minuteBucket : free) {
+            minuteBucket.free();
+        }
     }
 
     public Entry<Interval, Iterable<StoredMetric>> read(String bucketName, Interval interval) {
+        return read(bucketName, interval, null);
+    }
+    
+    /**
+     * @param bucketName The bucket to read.
+     * @param interval The interval to read.
+     * @param projection The projection or <code>null</code> for complete nodes.
+     * @return The cached interval with its metrics.
+     */
+    public Entry<Interval, Iterable<StoredMetric>> read(String bucketName, Interval interval, RecordProjection projection) {
+        return read(bucketName, interval, projection, null);
+    }
+    
+    /**
+     * @param bucketName The bucket to read.
+     * @param interval The interval to read.
+     * @param projection The projection or <code>null</code> for complete nodes.
+     * @param filters The filters of the read or <code>null</code> for all nodes. Metrics which can not match a filter
+     *        may be skipped by the indexes, all other metrics must still be filtered by the caller.
+     * @return The cached interval with its metrics.
+     */
+    public Entry<Interval, Iterable<StoredMetric>> read(String bucketName, Interval interval, RecordProjection projection, List<MetricFilter> filters) {
         Entry<MetricBucket, CachedMetricBucket> entry = buckets.get(bucketName);
         if(entry == null) {
             return emptyReadResult(interval);
@@ -77,11 +282,113 @@ public class BucketManager {
             if(subMap.isEmpty()) {
                 return emptyReadResult(interval);
             } else {
-                return Maps.<Interval, Iterable<StoredMetric>>immutableEntry(new Interval(subMap.firstKey(), subMap.lastKey().plusMinutes(1)), new StoredMetricIterable(entry.getKey(), subMap));
+                return Maps.<Interval, Iterable<StoredMetric>>immutableEntry(new Interval(subMap.firstKey(), subMap.lastKey().plusMinutes(1)), new StoredMetricIterable(entry.getKey(), subMap, projection, false, query(entry.getValue(), filters)));
             }
         }
     }
     
+    /**
+     * Read the cached metrics of an interval with the newest metric first. Minute buckets are visited lazily,
+     * so only the minutes which are actually iterated are expanded.
+     * 
+     * @param bucketName The bucket to read.
+     * @param interval The interval to read.
+     * @param projection The projection or <code>null</code> for complete nodes.
+     * @return The cached interval with its metrics in descending timestamp order.
+     */
+    public Entry<Interval, Iterable<StoredMetric>> readNewest(String bucketName, Interval interval, RecordProjection projection) {
+        return readNewest(bucketName, interval, projection, null);
+    }
+    
+    /**
+     * @param filters The filters of the read or <code>null</code> for all nodes. Metrics which can not match a filter
+     *        may be skipped by the indexes, all other metrics must still be filtered by the caller.
+     * @see #readNewest(String, Interval, RecordProjection)
+     */
+    public Entry<Interval, Iterable<StoredMetric>> readNewest(String bucketName, Interval interval, RecordProjection projection, List<MetricFilter> filters) {
+        Entry<MetricBucket, CachedMetricBucket> entry = buckets.get(bucketName);
+        if(entry == null) {
+            return emptyReadResult(interval);
+        }
+        NavigableMap<DateTime, MinuteBucket> descending = entry.getValue().descending(interval);
+        if(descending.isEmpty()) {
+            return emptyReadResult(interval);
+        }
+        DateTime oldest = descending.lastKey();
+        Interval cached = new Interval(oldest, descending.firstKey().plusMinutes(1));
+        return Maps.<Interval, Iterable<StoredMetric>>immutableEntry(cached, new StoredMetricIterable(entry.getKey(), descending.headMap(oldest, true), projection, true, query(entry.getValue(), filters)));
+    }
+    
+    /**
+     * Aggregate the cached metrics of an interval directly on the nodes of every minute bucket, so no
+     * {@link StoredMetric} is created. Compressed minute buckets only decode the filtered and the aggregated fields.
+     * 
+     * @param bucketName The bucket to aggregate.
+     * @param interval The interval to aggregate.
+     * @param filters The filters or <code>null</code> for all nodes. An empty list matches nothing.
+     * @param aggregation The aggregation.
+     * @param result The statistics per time bucket which receive the cached nodes.
+     * @return The cached interval.
+     */
+    public Interval aggregate(String bucketName, Interval interval, List<MetricFilter> filters, MetricAggregation aggregation, NavigableMap<DateTime, MetricStatistics> result) {
+        long ticket = enterRead();
+        try {
+            return aggregateCached(bucketName, interval, filters, aggregation, result);
+        } finally {
+            exitRead(ticket);
+        }
+    }
+    
+    private Interval aggregateCached(String bucketName, Interval interval, List<MetricFilter> filters, MetricAggregation aggregation, NavigableMap<DateTime, MetricStatistics> result) {
+        Entry<MetricBucket, CachedMetricBucket> entry = buckets.get(bucketName);
+        if(entry == null) {
+            return emptyReadResult(interval).getKey();
+        }
+        NavigableMap<DateTime, MinuteBucket> subMap = entry.getValue().apply(interval);
+        if(subMap.isEmpty()) {
+            return emptyReadResult(interval).getKey();
+        }
+        List<String> paths = new ArrayList<>(aggregation.getPaths());
+        if(filters != null) {
+            for(MetricFilter filter : filters) {
+                paths.addAll(filter.getPaths());
+            }
+        }
+        RecordProjection projection = new RecordProjection(paths);
+        ValueIndex.Query query = query(entry.getValue(), filters);
+        for(Entry<DateTime, MinuteBucket> minute : subMap.entrySet()) {
+            MetricStatistics statistics = null;
+            for(Iterator<ObjectNode> nodes = minute.getValue().iterator(minute.getValue().isCompressed() ? projection : null, query) ; nodes.hasNext() ; ) {
+                ObjectNode node = nodes.next();
+                if(filters != null && !matches(filters, node)) {
+                    continue;
+                }
+                if(statistics == null) {
+                    statistics = aggregation.statistics(result, minute.getKey());
+                }
+                aggregation.add(statistics, node);
+            }
+        }
+        return new Interval(subMap.firstKey(), subMap.lastKey().plusMinutes(1));
+    }
+    
+    private ValueIndex.Query query(CachedMetricBucket bucket, List<MetricFilter> filters) {
+        ValueIndex.Query query = bucket.query(filters);
+        if(query != null) {
+            totalIndexedReads.incrementAndGet();
+        }
+        return query;
+    }
+    
+    private static boolean matches(List<MetricFilter> filters, ObjectNode node) {
+        for(MetricFilter filter : filters) {
+            if(filter.apply(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
     /**
      * Remove all mappings which are before the given timestamp for all known {@link MetricBucket}. 
      * The timestamp is not inclusive.
@@ -90,8 +397,9 @@ public class BucketManager {
      */
     public void clear(DateTime before) {
         for(Entry<MetricBucket, CachedMetricBucket> entry : buckets.values()) {
-            entry.getValue().clear(before);
+            released(entry.getValue().clear(before));
         }
+        freeReleased();
     }
     
     /**
@@ -106,10 +414,13 @@ public class BucketManager {
     }
     
     protected Entry<MetricBucket, CachedMetricBucket> metricBucketEntry(StoredMetric metric) {
+        List<String> indexedPaths = settings.getIndexedPaths(metric.getMetricBucket());
         MinuteBucketSupplier bucketSupplier = new MinuteBucketSupplier(expandedBucketManagerFactory.apply(metric.getMetricBucket()), 
                                                                        objectNodeReaderFactory, 
-                                                                       objectNodeWriterFactory);
-        return Maps.immutableEntry(metric.getMetricBucket(), new CachedMetricBucket(bucketSupplier));
+                                                                       objectNodeWriterFactory,
+                                                                       settings,
+                                                                       indexedPaths);
+        return Maps.immutableEntry(metric.getMetricBucket(), new CachedMetricBucket(bucketSupplier, indexedPaths));
     }
     
     @ManagedAttribute
@@ -117,6 +428,41 @@ public class BucketManager {
         return totalCreatedCachedMetricBuckets.get();
     }
     
+    /**
+     * @return The number of reads and aggregations which have only visited the nodes found by the indexes.
+     */
+    @ManagedAttribute
+    public long getTotalIndexedReads() {
+        return totalIndexedReads.get();
+    }
+    
+    @ManagedAttribute
+    public long getTotalIndexBytes() {
+        long result = 0;
+        for(Entry<MetricBucket, CachedMetricBucket> entry : buckets.values()) {
+            result += entry.getValue().getIndexBytes();
+        }
+        return result;
+    }
+    
+    @ManagedOperation
+    public Map<String, Long> getIndexBytesPerBucket() {
+        Map<String, Long> result = new HashMap<>(buckets.size());
+        for(Entry<String, Entry<MetricBucket, CachedMetricBucket>> entry : buckets.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getValue().getIndexBytes());
+        }
+        return result;
+    }
+    
+    @ManagedOperation
+    public Map<String, String> getIndexedPathsPerBucket() {
+        Map<String, String> result = new HashMap<>(buckets.size());
+        for(Entry<String, Entry<MetricBucket, CachedMetricBucket>> entry : buckets.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getValue().getIndexedPaths().toString());
+        }
+        return result;
+    }
+    
     @ManagedOperation
     public Map<String, String> getDataIntervalPerBucket() {
         Map<String, String> result = new HashMap<>(buckets.size());
@@ -148,15 +494,45 @@ public class BucketManager {
 
         private final MetricBucket bucket;
         private final NavigableMap<DateTime, MinuteBucket> subMap;
+        private final RecordProjection projection;
+        private final boolean reverse;
+        private final ValueIndex.Query query;
 
         public StoredMetricIterable(MetricBucket bucket,
                                     NavigableMap<DateTime, MinuteBucket> subMap) {
+            this(bucket, subMap, null);
+        }
+        public StoredMetricIterable(MetricBucket bucket,
+                                    NavigableMap<DateTime, MinuteBucket> subMap,
+                                    RecordProjection projection) {
+            this(bucket, subMap, projection, false);
+        }
+        /**
+         * @param reverse <code>true</code> if the nodes of every minute bucket should be read in reverse write order.
+         */
+        public StoredMetricIterable(MetricBucket bucket,
+                                    NavigableMap<DateTime, MinuteBucket> subMap,
+                                    RecordProjection projection,
+                                    boolean reverse) {
+            this(bucket, subMap, projection, reverse, null);
+        }
+        /**
+         * @param query The query which selects the nodes of every minute bucket or <code>null</code> for all nodes.
+         */
+        public StoredMetricIterable(MetricBucket bucket,
+                                    NavigableMap<DateTime, MinuteBucket> subMap,
+                                    RecordProjection projection,
+                                    boolean reverse,
+                                    ValueIndex.Query query) {
             this.bucket = bucket;
             this.subMap = subMap;
+            this.projection = projection;
+            this.reverse = reverse;
+            this.query = query;
         }
         @Override
         public Iterator<StoredMetric> iterator() {
-            return new StoredMetricIterator(bucket, new ReadIterator(subMap.entrySet().iterator()));
+            return new StoredMetricIterator(bucket, new ReadIterator(subMap.entrySet().iterator(), projection, reverse, query));
         }
     }
     
@@ -185,10 +561,25 @@ public class BucketManager {
         
         private final Iterator<Entry<DateTime, MinuteBucket>> minuteBucketIterator;
         private DateTime currentTimestamp;
+        private final RecordProjection projection;
+        private final boolean reverse;
+        private final ValueIndex.Query query;
         private Iterator<ObjectNode> nodeIterator;
         
         public ReadIterator(Iterator<Entry<DateTime, MinuteBucket>> minuteBucketIterator) {
+            this(minuteBucketIterator, null);
+        }
+        public ReadIterator(Iterator<Entry<DateTime, MinuteBucket>> minuteBucketIterator, RecordProjection projection) {
+            this(minuteBucketIterator, projection, false);
+        }
+        public ReadIterator(Iterator<Entry<DateTime, MinuteBucket>> minuteBucketIterator, RecordProjection projection, boolean reverse) {
+            this(minuteBucketIterator, projection, reverse, null);
+        }
+        public ReadIterator(Iterator<Entry<DateTime, MinuteBucket>> minuteBucketIterator, RecordProjection projection, boolean reverse, ValueIndex.Query query) {
             this.minuteBucketIterator = minuteBucketIterator;
+            this.projection = projection;
+            this.reverse = reverse;
+            this.query = query;
             this.nodeIterator = ImmutableSet.<ObjectNode>of().iterator();
         }
 
@@ -200,12 +591,25 @@ public class BucketManager {
                 }
                 Entry<DateTime, MinuteBucket> next = minuteBucketIterator.next();
                 currentTimestamp = next.getKey();
-                nodeIterator = next.getValue().iterator();
+                nodeIterator = next.getValue().iterator(projection, query);
+                if(reverse) {
+                    nodeIterator = Lists.reverse(ImmutableList.copyOf(nodeIterator)).iterator();
+                }
             }
             return Maps.immutableEntry(currentTimestamp, nodeIterator.next());
         }
     }
     
+    /**
+     * Orders entries by a snapshot of the last access time, the least recently accessed entry first.
+     */
+    public static class LastAccessOrdering<T> extends Ordering<Entry<Long, T>> {
+        @Override
+        public int compare(Entry<Long, T> left, Entry<Long, T> right) {
+            return Long.compare(left.getKey(), right.getKey());
+        }
+    }
+    
     public static class MapEntryKeyExtractFunction<K> implements Function<Entry<K, ?>, K> {
         @Override
         public K apply(Entry<K, ?> input) {
@@ -0,0 +1,182 @@
+package de.ck35.metricstore.cache.core.buckets;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Supplier;
+
+/**
+ * Tracks the estimated heap size of all cached minute buckets. Expanded minute buckets are estimated from the
+ * structure of their nodes, compressed minute buckets by the size of their payload if it is kept on the heap.
+ * The {@link BucketManager} evicts minute buckets when the budget is exceeded until the cached bytes are back
+ * below the target. Dropped minute buckets stay in the used bytes until they are freed, because running reads
+ * keep them on the heap, but they do not count as cached bytes which an eviction could still drop.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@ManagedResource
+public class CacheMemoryBudget {
+
+    private static final long OBJECT_NODE_BYTES = 64;
+    private static final long FIELD_BYTES = 48;
+    private static final long ARRAY_NODE_BYTES = 40;
+    private static final long ELEMENT_BYTES = 8;
+    private static final long VALUE_NODE_BYTES = 24;
+    private static final long STRING_BYTES = 40;
+
+    private final Supplier<Long> maxBytesSetting;
+    private final AtomicLong usedBytes;
+    private final AtomicLong releasedBytes;
+    private final AtomicLong totalEvictions;
+    private final AtomicLong totalCompressedMinutes;
+    private final AtomicLong totalDroppedMinutes;
+
+    /**
+     * @param maxBytesSetting The maximum estimated heap size of the cache. <code>0</code> if the cache is only limited by time.
+     */
+    public CacheMemoryBudget(Supplier<Long> maxBytesSetting) {
+        this.maxBytesSetting = maxBytesSetting;
+        this.usedBytes = new AtomicLong();
+        this.releasedBytes = new AtomicLong();
+        this.totalEvictions = new AtomicLong();
+        this.totalCompressedMinutes = new AtomicLong();
+        this.totalDroppedMinutes = new AtomicLong();
+    }
+
+    /**
+     * @param delta The change of the estimated heap size.
+     */
+    public void add(long delta) {
+        if(delta != 0) {
+            usedBytes.addAndGet(delta);
+        }
+    }
+
+    /**
+     * @param bytes The heap size of a minute bucket which has been dropped but is still used by running reads.
+     */
+    public void released(long bytes) {
+        if(bytes != 0) {
+            releasedBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * @param bytes The heap size of a released minute bucket which has been freed.
+     */
+    public void freed(long bytes) {
+        if(bytes != 0) {
+            releasedBytes.addAndGet(-bytes);
+            usedBytes.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the cache uses more than the maximum bytes.
+     */
+    public boolean isExceeded() {
+        long maxBytes = getMaxBytes();
+        return maxBytes > 0 && usedBytes.get() > maxBytes;
+    }
+
+    /**
+     * @return <code>true</code> if the cache uses more than 110% of the maximum bytes, so writers must not wait for a background eviction.
+     */
+    public boolean isOverLimit() {
+        long maxBytes = getMaxBytes();
+        return maxBytes > 0 && usedBytes.get() > maxBytes + maxBytes / 10;
+    }
+
+    /**
+     * @return <code>true</code> if an eviction should continue because the cached bytes are above the target.
+     */
+    public boolean isAboveTarget() {
+        long maxBytes = getMaxBytes();
+        return maxBytes > 0 && getCachedBytes() > getTargetBytes();
+    }
+
+    /**
+     * @param node A cached node.
+     * @return The estimated heap size of the node.
+     */
+    public static long estimate(JsonNode node) {
+        if(node.isObject()) {
+            long size = OBJECT_NODE_BYTES;
+            for(Iterator<Entry<String, JsonNode>> fields = node.fields() ; fields.hasNext() ; ) {
+                Entry<String, JsonNode> field = fields.next();
+                size += FIELD_BYTES + estimate(field.getKey()) + estimate(field.getValue());
+            }
+            return size;
+        }
+        if(node.isArray()) {
+            long size = ARRAY_NODE_BYTES;
+            for(JsonNode element : node) {
+                size += ELEMENT_BYTES + estimate(element);
+            }
+            return size;
+        }
+        if(node.isTextual()) {
+            return VALUE_NODE_BYTES + estimate(node.textValue());
+        }
+        return VALUE_NODE_BYTES;
+    }
+
+    private static long estimate(String value) {
+        return STRING_BYTES + 2L * value.length();
+    }
+
+    void evicted(int compressedMinutes, int droppedMinutes) {
+        totalEvictions.incrementAndGet();
+        totalCompressedMinutes.addAndGet(compressedMinutes);
+        totalDroppedMinutes.addAndGet(droppedMinutes);
+    }
+
+    @ManagedAttribute
+    public long getMaxBytes() {
+        return maxBytesSetting.get().longValue();
+    }
+    /**
+     * @return The used bytes an eviction reduces the cache to, 90% of the maximum bytes.
+     */
+    @ManagedAttribute
+    public long getTargetBytes() {
+        long maxBytes = getMaxBytes();
+        return maxBytes - maxBytes / 10;
+    }
+    @ManagedAttribute
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+    /**
+     * @return The used bytes of dropped minute buckets which are still used by running reads.
+     */
+    @ManagedAttribute
+    public long getReleasedBytes() {
+        return releasedBytes.get();
+    }
+    /**
+     * @return The used bytes of the minute buckets which are still cached.
+     */
+    @ManagedAttribute
+    public long getCachedBytes() {
+        return usedBytes.get() - releasedBytes.get();
+    }
+    @ManagedAttribute
+    public long getTotalEvictions() {
+        return totalEvictions.get();
+    }
+    @ManagedAttribute
+    public long getTotalCompressedMinutes() {
+        return totalCompressedMinutes.get();
+    }
+    @ManagedAttribute
+    public long getTotalDroppedMinutes() {
+        return totalDroppedMinutes.get();
+    }
+}
@@ -0,0 +1,94 @@
+package de.ck35.metricstore.cache.core.buckets;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Function;
+
+import de.ck35.metricstore.MetricBucket;
+
+/**
+ * The optional parts of the minute bucket cache. By default the compressed payloads are kept on the heap,
+ * the cache is only limited by time, writers evict by themselves and nothing is indexed.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class CacheSettings {
+
+    private static final CacheSettings DEFAULTS = builder().build();
+
+    private final OffHeapArena arena;
+    private final CacheMemoryBudget budget;
+    private final BucketCompressor compressor;
+    private final Function<MetricBucket, List<String>> indexedPaths;
+
+    private CacheSettings(Builder builder) {
+        this.arena = builder.arena;
+        this.budget = builder.budget;
+        this.compressor = builder.compressor;
+        this.indexedPaths = builder.indexedPaths;
+    }
+
+    public static CacheSettings defaults() {
+        return DEFAULTS;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return The arena for the payloads of compressed minute buckets or <code>null</code> if they are kept on the heap.
+     */
+    public OffHeapArena getArena() {
+        return arena;
+    }
+    /**
+     * @return The heap budget of all cached minute buckets or <code>null</code> if the cache is only limited by time.
+     */
+    public CacheMemoryBudget getBudget() {
+        return budget;
+    }
+    /**
+     * @return The compressor which runs evictions in the background or <code>null</code> if writers evict.
+     */
+    public BucketCompressor getCompressor() {
+        return compressor;
+    }
+    /**
+     * @param bucket The metric bucket.
+     * @return The paths which are indexed in the minute buckets of the metric bucket.
+     */
+    public List<String> getIndexedPaths(MetricBucket bucket) {
+        return indexedPaths == null ? Collections.<String>emptyList() : indexedPaths.apply(bucket);
+    }
+
+    public static class Builder {
+
+        private OffHeapArena arena;
+        private CacheMemoryBudget budget;
+        private BucketCompressor compressor;
+        private Function<MetricBucket, List<String>> indexedPaths;
+
+        public Builder arena(OffHeapArena arena) {
+            this.arena = arena;
+            return this;
+        }
+        public Builder budget(CacheMemoryBudget budget) {
+            this.budget = budget;
+            return this;
+        }
+        public Builder compressor(BucketCompressor compressor) {
+            this.compressor = compressor;
+            return this;
+        }
+        public Builder indexedPaths(Function<MetricBucket, List<String>> indexedPaths) {
+            this.indexedPaths = indexedPaths;
+            return this;
+        }
+        public CacheSettings build() {
+            return new CacheSettings(this);
+        }
+    }
+}
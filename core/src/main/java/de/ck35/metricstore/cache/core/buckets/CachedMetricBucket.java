@@ -1,6 +1,9 @@
 package de.ck35.metricstore.cache.core.buckets;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.NoSuchElementException;
@@ -16,24 +19,49 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+
+import de.ck35.metricstore.MetricFilter;
 
 public class CachedMetricBucket implements Iterable<Entry<DateTime, MinuteBucket>> , Function<Interval, NavigableMap<DateTime, MinuteBucket>> {
 
     private final ConcurrentNavigableMap<DateTime, MinuteBucket> minuteBuckets;
     private final Supplier<MinuteBucket> minuteBucketSupplier;
+    private final List<String> indexedPaths;
+    private volatile DateTime clearedBefore;
     
     public CachedMetricBucket(Supplier<MinuteBucket> minuteBucketSupplier) {
+        this(minuteBucketSupplier, Collections.<String>emptyList());
+    }
+    
+    /**
+     * @param indexedPaths The paths which are indexed by the minute buckets of the supplier.
+     */
+    public CachedMetricBucket(Supplier<MinuteBucket> minuteBucketSupplier, List<String> indexedPaths) {
         this.minuteBucketSupplier = minuteBucketSupplier;
+        this.indexedPaths = ImmutableList.copyOf(indexedPaths);
         this.minuteBuckets = new ConcurrentSkipListMap<>();
     }
     
+    /**
+     * Write a node into its minute bucket. Nodes before the last cleared timestamp are ignored, so the cached
+     * minutes always form one interval which ends with the newest minute.
+     */
     public void write(DateTime timestamp, ObjectNode objectNode) {
         DateTime utcMinuteTimestamp = timestamp.withSecondOfMinute(0).withMillisOfSecond(0).withZone(DateTimeZone.UTC);
+        if(isCleared(utcMinuteTimestamp)) {
+            return;
+        }
         MinuteBucket bucket = minuteBuckets.get(utcMinuteTimestamp);
         if(bucket == null) {
             MinuteBucket newBucket = minuteBucketSupplier.get();
             MinuteBucket oldBucket = minuteBuckets.putIfAbsent(utcMinuteTimestamp, newBucket);
             if(oldBucket == null) {
+                if(isCleared(utcMinuteTimestamp)) {
+                    minuteBuckets.remove(utcMinuteTimestamp, newBucket);
+                    newBucket.release();
+                    return;
+                }
                 bucket = newBucket;
             } else {
                 bucket = oldBucket;
@@ -47,13 +75,71 @@ public class CachedMetricBucket implements Iterable<Entry<DateTime, MinuteBucket
         return input == null ? null : new TreeMap<>(minuteBuckets.subMap(input.getStart(), input.getEnd()));
     }
     
+    /**
+     * @param interval The interval to read.
+     * @return A live view of the minute buckets inside the interval with the newest minute first.
+     */
+    public NavigableMap<DateTime, MinuteBucket> descending(Interval interval) {
+        return minuteBuckets.subMap(interval.getStart(), interval.getEnd()).descendingMap();
+    }
+    
+    private boolean isCleared(DateTime minute) {
+        DateTime before = clearedBefore;
+        return before != null && minute.isBefore(before);
+    }
+    
     /**
      * Remove all mappings which are before the given timestamp. The timestamp is not inclusive.
+     * Later writes before the timestamp are ignored. The removed minute buckets are released together with
+     * their indexes, their content must be freed as soon as no read uses them anymore.
      * 
      * @param before All mappings with a key which are before this timetamp will be removed.
+     * @return The released minute buckets.
+     */
+    public List<MinuteBucket> clear(DateTime before) {
+        synchronized (this) {
+            if(!isCleared(before)) {
+                clearedBefore = before;
+            }
+        }
+        List<MinuteBucket> released = new ArrayList<>();
+        for(Iterator<MinuteBucket> iterator = minuteBuckets.headMap(before).values().iterator() ; iterator.hasNext() ; ) {
+            MinuteBucket minuteBucket = iterator.next();
+            iterator.remove();
+            minuteBucket.release();
+            released.add(minuteBucket);
+        }
+        return released;
+    }
+    
+    /**
+     * @param filters The filters of a read or <code>null</code> for all nodes.
+     * @return The query which reads only the nodes that can match or <code>null</code> if the indexes can not be used.
+     */
+    public ValueIndex.Query query(List<MetricFilter> filters) {
+        return ValueIndex.Query.of(indexedPaths, filters);
+    }
+    
+    public List<String> getIndexedPaths() {
+        return indexedPaths;
+    }
+    
+    /**
+     * @return The estimated heap size of the indexes of all minute buckets.
+     */
+    public long getIndexBytes() {
+        long result = 0;
+        for(MinuteBucket minuteBucket : minuteBuckets.values()) {
+            result += minuteBucket.getIndexBytes();
+        }
+        return result;
+    }
+    
+    /**
+     * @return The oldest minute bucket.
      */
-    public void clear(DateTime before) {
-        minuteBuckets.headMap(before).clear();
+    public Optional<Entry<DateTime, MinuteBucket>> getFirst() {
+        return Optional.fromNullable(minuteBuckets.firstEntry());
     }
     
     @Override
@@ -15,9 +15,18 @@ public class ExpandedBucketManager implements BucketExpandListener {
     private final Lock queueLock;
     private final Deque<MinuteBucket> expandedBuckets;
     private final Supplier<Integer> maxCachedEntriesSetting;
+    private final BucketCompressor compressor;
     
     public ExpandedBucketManager(Supplier<Integer> maxCachedEntriesSetting) {
+        this(maxCachedEntriesSetting, null);
+    }
+    
+    /**
+     * @param compressor The compressor for the evicted buckets or <code>null</code> if they should be compressed by the writer.
+     */
+    public ExpandedBucketManager(Supplier<Integer> maxCachedEntriesSetting, BucketCompressor compressor) {
         this.maxCachedEntriesSetting = maxCachedEntriesSetting;
+        this.compressor = compressor;
         this.queueLock = new ReentrantLock();
         this.expandedBuckets = new LinkedList<>();
     }
@@ -40,8 +49,28 @@ public class ExpandedBucketManager implements BucketExpandListener {
         } finally {
             this.queueLock.unlock();
         }
-        for(MinuteBucket bucket : compressList) {
-            bucket.compress();
+        if(compressor == null) {
+            for(MinuteBucket bucket : compressList) {
+                bucket.compress();
+            }
+            return;
+        }
+        for(int index = compressList.length - 1 ; index >= 0 ; index--) {
+            if(!compressor.compress(compressList[index])) {
+                requeue(compressList[index]);
+            }
+        }
+    }
+    
+    /**
+     * Keep a bucket which could not be scheduled for compression, so it is evicted again by the next expanded bucket.
+     */
+    private void requeue(MinuteBucket minuteBucket) {
+        this.queueLock.lock();
+        try {
+            expandedBuckets.addFirst(minuteBucket);
+        } finally {
+            this.queueLock.unlock();
         }
     }
     
@@ -56,13 +85,18 @@ public class ExpandedBucketManager implements BucketExpandListener {
     public static class ExpandedBucketManagerFactory implements Function<MetricBucket, ExpandedBucketManager> {
 
         private final Supplier<Integer> maxExpandedBucketsSetting;
+        private final BucketCompressor compressor;
         
         public ExpandedBucketManagerFactory(Supplier<Integer> maxExpandedBucketsSetting) {
+            this(maxExpandedBucketsSetting, null);
+        }
+        public ExpandedBucketManagerFactory(Supplier<Integer> maxExpandedBucketsSetting, BucketCompressor compressor) {
             this.maxExpandedBucketsSetting = maxExpandedBucketsSetting;
+            this.compressor = compressor;
         }
         @Override
         public ExpandedBucketManager apply(MetricBucket input) {
-            return new ExpandedBucketManager(maxExpandedBucketsSetting);
+            return new ExpandedBucketManager(maxExpandedBucketsSetting, compressor);
         }
     }
 }
\ No newline at end of file
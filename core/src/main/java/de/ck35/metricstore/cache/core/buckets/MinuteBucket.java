@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -17,11 +18,16 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 
+import de.ck35.metricstore.cache.core.buckets.OffHeapArena.Payload;
+import de.ck35.metricstore.cache.core.buckets.OffHeapArena.PayloadOutputStream;
 import de.ck35.metricstore.util.io.MetricsIOException;
 import de.ck35.metricstore.util.io.ObjectNodeReader;
 import de.ck35.metricstore.util.io.ObjectNodeWriter;
+import de.ck35.metricstore.util.io.RecordProjection;
 
 public class MinuteBucket implements Iterable<ObjectNode> {
 
@@ -29,31 +35,79 @@ public class MinuteBucket implements Iterable<ObjectNode> {
     private final Function<OutputStream, ObjectNodeWriter> objectNodeWriterFactory;
     
     private final BucketExpandListener expandListener;
+    private final OffHeapArena arena;
+    private final CacheMemoryBudget budget;
 
     private final ReadWriteLock lock;
+    private ValueIndex index;
     private ExpandedBucket expandedBucket;
     private CompressedBucket compressedBucket;
+    private boolean released;
+    private long nodeBytes;
+    private long indexBytes;
+    private long heapBytes;
+    private volatile long lastAccess;
     
     public MinuteBucket(Function<InputStream, ObjectNodeReader> objectNodeReaderFactory,
                         Function<OutputStream, ObjectNodeWriter> objectNodeWriterFactory,
                         BucketExpandListener expandListener) {
+        this(objectNodeReaderFactory, objectNodeWriterFactory, expandListener, CacheSettings.defaults(), null);
+    }
+    
+    /**
+     * @param settings The arena for the compressed payload and the budget which receives the estimated heap size of this bucket.
+     * @param index The index of the nodes of this bucket or <code>null</code> if no path is indexed. Its size is part of the heap size of this bucket.
+     */
+    public MinuteBucket(Function<InputStream, ObjectNodeReader> objectNodeReaderFactory,
+                        Function<OutputStream, ObjectNodeWriter> objectNodeWriterFactory,
+                        BucketExpandListener expandListener,
+                        CacheSettings settings,
+                        ValueIndex index) {
         this.objectNodeReaderFactory = objectNodeReaderFactory;
         this.objectNodeWriterFactory = objectNodeWriterFactory;
         this.expandListener = expandListener;
+        this.arena = settings.getArena();
+        this.budget = settings.getBudget();
+        this.index = index;
+        this.indexBytes = index == null ? 0 : index.getBytes();
         this.lock = new ReentrantReadWriteLock();
         this.expandedBucket = null;
         this.compressedBucket = null;
+        this.lastAccess = System.nanoTime();
     }
     
     @Override
     public Iterator<ObjectNode> iterator() {
+        return iterator(null);
+    }
+    
+    /**
+     * @param projection The projection or <code>null</code> for complete nodes.
+     * @return Nodes with only the projected paths. Compressed nodes are projected while they are parsed.
+     */
+    public Iterator<ObjectNode> iterator(RecordProjection projection) {
+        return iterator(projection, null);
+    }
+    
+    /**
+     * @param projection The projection or <code>null</code> for complete nodes.
+     * @param query The query of the read or <code>null</code> for all nodes.
+     * @return The nodes which can match the query. A compressed bucket is not decoded if no node can match.
+     */
+    public Iterator<ObjectNode> iterator(RecordProjection projection, ValueIndex.Query query) {
+        this.lastAccess = System.nanoTime();
         this.lock.readLock().lock();
         try {
+            BitSet positions = query == null || index == null ? null : index.positions(query);
+            if(positions != null && positions.isEmpty()) {
+                return Collections.<ObjectNode>emptySet().iterator();
+            }
             if(compressedBucket != null) {
-                return compressedBucket.iterator();
+                return compressedBucket.iterator(projection, positions);
             }
             if(expandedBucket != null) {
-                return expandedBucket.iterator();
+                Iterator<ObjectNode> nodes = positions == null ? expandedBucket.iterator() : expandedBucket.iterator(positions);
+                return projection == null ? nodes : Iterators.transform(nodes, projection);
             }
             return Collections.<ObjectNode>emptySet().iterator();
         } finally {
@@ -61,36 +115,147 @@ public class MinuteBucket implements Iterable<ObjectNode> {
         }
     }
     
+    /**
+     * Add a node to this bucket. Nodes written into a released bucket are ignored.
+     */
     public void write(ObjectNode node) {
         boolean expanded;
+        long delta;
+        this.lastAccess = System.nanoTime();
         this.lock.writeLock().lock();
         try {
+            if(released) {
+                return;
+            }
             if(expandedBucket == null) {
                 expanded = true;
                 expandedBucket = new ExpandedBucket(compressedBucket);
+                if(compressedBucket != null) {
+                    compressedBucket.free();
+                }
                 compressedBucket = null;
             } else {
                 expanded = false;
             }
             expandedBucket.add(node);
+            nodeBytes += CacheMemoryBudget.estimate(node);
+            if(index != null) {
+                indexBytes += index.add(node);
+            }
+            delta = nodeBytes + indexBytes - heapBytes;
+            heapBytes = nodeBytes + indexBytes;
         } finally {
             this.lock.writeLock().unlock();
         }
+        account(delta);
         if(expanded) {    
             expandListener.expanded(this);
         }
     }
     
-    public void compress() {
+    /**
+     * Encode the nodes of an expanded bucket. The nodes are encoded without holding the lock of this bucket,
+     * so reads and writes are not blocked. If a node has been written meanwhile the encoded nodes are dropped,
+     * the bucket stays expanded and is passed to the expand listener again, so it will be compressed later.
+     *
+     * @return The estimated heap size of the nodes minus the size of the payload or <code>0</code> if the bucket has not been compressed.
+     */
+    public long compress() {
+        ExpandedBucket expanded;
+        int nodeCount;
+        long expandedBytes;
+        this.lock.readLock().lock();
+        try {
+            if(compressedBucket != null || expandedBucket == null || released) {
+                return 0;
+            }
+            expanded = expandedBucket;
+            nodeCount = expanded.getNodeCount();
+            expandedBytes = nodeBytes;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        CompressedBucket compressed = CompressedBucket.build(Iterables.limit(expanded, nodeCount), objectNodeReaderFactory, objectNodeWriterFactory, arena);
+        long delta = 0;
+        boolean swapped;
+        boolean stillExpanded;
         this.lock.writeLock().lock();
         try {
-            if(compressedBucket == null && expandedBucket != null) {
-                compressedBucket = CompressedBucket.build(expandedBucket, objectNodeReaderFactory, objectNodeWriterFactory);
+            swapped = expandedBucket == expanded && expanded.getNodeCount() == nodeCount && !released;
+            stillExpanded = !swapped && expandedBucket == expanded && !released;
+            if(swapped) {
+                compressedBucket = compressed;
                 expandedBucket = null;
+                long compressedBytes = (compressed.isOffHeap() ? 0 : compressed.getLength()) + indexBytes;
+                delta = compressedBytes - heapBytes;
+                heapBytes = compressedBytes;
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        if(!swapped) {
+            compressed.free();
+            if(stillExpanded) {
+                expandListener.expanded(this);
             }
+            return 0;
+        }
+        account(delta);
+        return expandedBytes - compressed.getLength();
+    }
+    
+    /**
+     * Mark this bucket as dropped. The content stays readable for reads which are still running until
+     * {@link #free()} is called, so its heap size stays in the budget until then. The bucket will not
+     * be written or compressed again.
+     */
+    public void release() {
+        long bytes;
+        this.lock.writeLock().lock();
+        try {
+            if(released) {
+                return;
+            }
+            released = true;
+            bytes = heapBytes;
         } finally {
             this.lock.writeLock().unlock();
         }
+        if(budget != null) {
+            budget.released(bytes);
+        }
+    }
+    
+    /**
+     * Drop the content of a released bucket and free its compressed payload.
+     */
+    public void free() {
+        long bytes;
+        this.lock.writeLock().lock();
+        try {
+            if(!released) {
+                throw new IllegalStateException("Minute bucket has not been released!");
+            }
+            bytes = heapBytes;
+            heapBytes = 0;
+            if(compressedBucket != null) {
+                compressedBucket.free();
+            }
+            compressedBucket = null;
+            expandedBucket = null;
+            index = null;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        if(budget != null) {
+            budget.freed(bytes);
+        }
+    }
+    
+    private void account(long delta) {
+        if(budget != null) {
+            budget.add(delta);
+        }
     }
     
     public boolean isCompressed() {
@@ -117,23 +282,95 @@ public class MinuteBucket implements Iterable<ObjectNode> {
         }
     }
     
+    /**
+     * @return The estimated heap size of this bucket as it is accounted in the budget.
+     */
+    public long getHeapBytes() {
+        this.lock.readLock().lock();
+        try {
+            return heapBytes;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @return The estimated heap size of the index of this bucket.
+     */
+    public long getIndexBytes() {
+        this.lock.readLock().lock();
+        try {
+            return index == null ? 0 : indexBytes;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @return The {@link System#nanoTime()} of the last read or write.
+     */
+    public long getLastAccess() {
+        return lastAccess;
+    }
+    
+    public boolean isReleased() {
+        this.lock.readLock().lock();
+        try {
+            return released;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * The encoded nodes of a minute. The payload is kept inside of an {@link OffHeapArena} if there is one. Iterators
+     * read from a heap copy of the payload, so they stay valid after the payload has been freed.
+     */
     public static class CompressedBucket implements Iterable<ObjectNode> {
         
-        private final byte[] bytes;
+        private final Payload payload;
         private final int nodeCount;
         private final Function<InputStream, ObjectNodeReader> objectNodeReaderFactory;
         
         public CompressedBucket(byte[] bytes, int nodeCount, Function<InputStream, ObjectNodeReader> objectNodeReaderFactory) {
-            this.bytes = bytes;
+            this(Payload.onHeap(bytes), nodeCount, objectNodeReaderFactory);
+        }
+        public CompressedBucket(Payload payload, int nodeCount, Function<InputStream, ObjectNodeReader> objectNodeReaderFactory) {
+            this.payload = payload;
             this.nodeCount = nodeCount;
             this.objectNodeReaderFactory = objectNodeReaderFactory;
         }
         public static CompressedBucket build(Iterable<ObjectNode> nodes,
                                              Function<InputStream, ObjectNodeReader> objectNodeReaderFactory,
                                              Function<OutputStream, ObjectNodeWriter> objectNodeWriterFactory) {
-            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            return build(nodes, objectNodeReaderFactory, objectNodeWriterFactory, null);
+        }
+        /**
+         * @param arena The arena for the payload or <code>null</code> if it should be kept on the heap.
+         */
+        public static CompressedBucket build(Iterable<ObjectNode> nodes,
+                                             Function<InputStream, ObjectNodeReader> objectNodeReaderFactory,
+                                             Function<OutputStream, ObjectNodeWriter> objectNodeWriterFactory,
+                                             OffHeapArena arena) {
+            if(arena == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                int nodeCount = write(nodes, objectNodeWriterFactory, bytes);
+                return new CompressedBucket(bytes.toByteArray(), nodeCount, objectNodeReaderFactory);
+            }
+            PayloadOutputStream out = arena.newPayload();
+            try {
+                int nodeCount = write(nodes, objectNodeWriterFactory, out);
+                out.close();
+                return new CompressedBucket(out.getPayload(), nodeCount, objectNodeReaderFactory);
+            } catch(RuntimeException e) {
+                out.close();
+                out.getPayload().free();
+                throw e;
+            }
+        }
+        private static int write(Iterable<ObjectNode> nodes, Function<OutputStream, ObjectNodeWriter> objectNodeWriterFactory, OutputStream out) {
             int nodeCount = 0;
-            try(ObjectNodeWriter writer = objectNodeWriterFactory.apply(bytes)) {
+            try(ObjectNodeWriter writer = objectNodeWriterFactory.apply(out)) {
                 for(ObjectNode node : nodes) {
                     writer.write(node);
                     nodeCount++;
@@ -141,14 +378,35 @@ public class MinuteBucket implements Iterable<ObjectNode> {
             } catch (IOException e) {
                 throw new MetricsIOException("Could not create compressed minute bucket!", e);
             }
-            return new CompressedBucket(bytes.toByteArray(), nodeCount, objectNodeReaderFactory);
+            return nodeCount;
+        }
+        /**
+         * Free the payload. The bucket must not be iterated afterwards.
+         */
+        public void free() {
+            payload.free();
+        }
+        public boolean isOffHeap() {
+            return payload.isOffHeap();
+        }
+        public int getLength() {
+            return payload.getLength();
         }
         public int getNodeCount() {
             return nodeCount;
         }
         @Override
         public Iterator<ObjectNode> iterator() {
-            return new CompressedBucketIterator(objectNodeReaderFactory.apply(new ByteArrayInputStream(bytes)));
+            return iterator(null);
+        }
+        public Iterator<ObjectNode> iterator(RecordProjection projection) {
+            return iterator(projection, null);
+        }
+        /**
+         * @param positions The positions of the nodes to read or <code>null</code> for all nodes.
+         */
+        public Iterator<ObjectNode> iterator(RecordProjection projection, BitSet positions) {
+            return new CompressedBucketIterator(objectNodeReaderFactory.apply(new ByteArrayInputStream(payload.toByteArray())).withProjection(projection).withPositions(positions));
         }
         public static class CompressedBucketIterator extends AbstractIterator<ObjectNode> {
             
@@ -202,6 +460,24 @@ public class MinuteBucket implements Iterable<ObjectNode> {
         public Iterator<ObjectNode> iterator() {
             return new ExpandedBucketIterator();
         }
+        /**
+         * @param positions The positions of the nodes to read.
+         */
+        public Iterator<ObjectNode> iterator(final BitSet positions) {
+            return new AbstractIterator<ObjectNode>() {
+                private int index = positions.nextSetBit(0);
+                @Override
+                protected ObjectNode computeNext() {
+                    Optional<ObjectNode> optional = index < 0 ? Optional.<ObjectNode>absent() : get(index);
+                    if(optional.isPresent()) {
+                        index = positions.nextSetBit(index + 1);
+                        return optional.get();
+                    } else {
+                        return endOfData();
+                    }
+                }
+            };
+        }
         public void add(ObjectNode node) {
             this.lock.writeLock().lock();
             try {
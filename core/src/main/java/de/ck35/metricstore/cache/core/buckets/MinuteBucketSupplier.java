@@ -2,7 +2,11 @@ package de.ck35.metricstore.cache.core.buckets;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
 import com.google.common.base.Supplier;
 
@@ -14,18 +18,34 @@ public class MinuteBucketSupplier implements Supplier<MinuteBucket> {
     private final ExpandedBucketManager expandedBucketManager;
     private final Function<InputStream, ObjectNodeReader> objectNodeReaderFactory;
     private final Function<OutputStream, ObjectNodeWriter> objectNodeWriterFactory;
+    private final CacheSettings settings;
+    private final List<Function<ObjectNode, JsonNode>> indexExtractors;
     
     public MinuteBucketSupplier(ExpandedBucketManager expandedBucketManager,
                                 Function<InputStream, ObjectNodeReader> objectNodeReaderFactory,
                                 Function<OutputStream, ObjectNodeWriter> objectNodeWriterFactory) {
+        this(expandedBucketManager, objectNodeReaderFactory, objectNodeWriterFactory, CacheSettings.defaults(), Collections.<String>emptyList());
+    }
+    
+    /**
+     * @param settings The arena and the budget of the minute buckets.
+     * @param indexedPaths The paths which are indexed in every minute bucket.
+     */
+    public MinuteBucketSupplier(ExpandedBucketManager expandedBucketManager,
+                                Function<InputStream, ObjectNodeReader> objectNodeReaderFactory,
+                                Function<OutputStream, ObjectNodeWriter> objectNodeWriterFactory,
+                                CacheSettings settings,
+                                List<String> indexedPaths) {
         this.expandedBucketManager = expandedBucketManager;
         this.objectNodeReaderFactory = objectNodeReaderFactory;
         this.objectNodeWriterFactory = objectNodeWriterFactory;
+        this.settings = settings;
+        this.indexExtractors = ValueIndex.extractors(indexedPaths);
     }
 
     @Override
     public MinuteBucket get() {
-        return new MinuteBucket(objectNodeReaderFactory, objectNodeWriterFactory, expandedBucketManager);
+        return new MinuteBucket(objectNodeReaderFactory, objectNodeWriterFactory, expandedBucketManager, settings, indexExtractors.isEmpty() ? null : new ValueIndex(indexExtractors));
     }
     
 }
\ No newline at end of file
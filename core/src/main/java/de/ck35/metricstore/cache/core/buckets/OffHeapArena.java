@@ -0,0 +1,344 @@
+package de.ck35.metricstore.cache.core.buckets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Stores the payloads of compressed minute buckets outside of the java heap. The arena allocates direct buffers
+ * (slabs) of a fixed size and splits them into blocks of a fixed size. A payload occupies as many blocks as it needs,
+ * so freed blocks can be reused by any later payload and only the last block of a payload is partially used.
+ * Slabs are kept for reuse once they have been allocated. Payloads which do not fit into the maximum size of the
+ * arena are kept on the heap.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@ManagedResource
+public class OffHeapArena {
+
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_BLOCK_SIZE = 4 * 1024;
+
+    private final Supplier<Long> maxBytesSetting;
+    private final int slabSize;
+    private final int blockSize;
+    private final int blocksPerSlab;
+
+    private volatile ByteBuffer[] slabs;
+    private int[] freeBlocks;
+    private int freeBlockCount;
+
+    private final AtomicLong allocatedBlocks;
+    private final AtomicLong payloadBytes;
+    private final AtomicLong payloads;
+    private final AtomicLong totalHeapPayloads;
+
+    public OffHeapArena(Supplier<Long> maxBytesSetting) {
+        this(maxBytesSetting, DEFAULT_SLAB_SIZE, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param maxBytesSetting The maximum size of all slabs. <code>0</code> keeps all payloads on the heap.
+     * @param slabSize The size of one direct buffer.
+     * @param blockSize The size of one block, the slab size must be a multiple of it.
+     */
+    public OffHeapArena(Supplier<Long> maxBytesSetting, int slabSize, int blockSize) {
+        if(blockSize <= 0 || slabSize < blockSize || slabSize % blockSize != 0) {
+            throw new IllegalArgumentException("Slab size: " + slabSize + " must be a multiple of block size: " + blockSize + "!");
+        }
+        this.maxBytesSetting = maxBytesSetting;
+        this.slabSize = slabSize;
+        this.blockSize = blockSize;
+        this.blocksPerSlab = slabSize / blockSize;
+        this.slabs = new ByteBuffer[0];
+        this.freeBlocks = new int[0];
+        this.allocatedBlocks = new AtomicLong();
+        this.payloadBytes = new AtomicLong();
+        this.payloads = new AtomicLong();
+        this.totalHeapPayloads = new AtomicLong();
+    }
+
+    /**
+     * @return A stream which stores the written bytes inside of this arena. The payload is available after the stream has been closed.
+     */
+    public PayloadOutputStream newPayload() {
+        return new PayloadOutputStream(this);
+    }
+
+    /**
+     * @return The index of a free block or <code>-1</code> if the arena is full.
+     */
+    private synchronized int allocateBlock() {
+        if(freeBlockCount == 0 && !addSlab()) {
+            return -1;
+        }
+        allocatedBlocks.incrementAndGet();
+        return freeBlocks[--freeBlockCount];
+    }
+
+    private boolean addSlab() {
+        ByteBuffer[] current = slabs;
+        if((long)(current.length + 1) * slabSize > maxBytesSetting.get().longValue()) {
+            return false;
+        }
+        ByteBuffer[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = ByteBuffer.allocateDirect(slabSize);
+        if(freeBlocks.length < freeBlockCount + blocksPerSlab) {
+            freeBlocks = Arrays.copyOf(freeBlocks, freeBlockCount + blocksPerSlab);
+        }
+        for(int block = (current.length + 1) * blocksPerSlab - 1 ; block >= current.length * blocksPerSlab ; block--) {
+            freeBlocks[freeBlockCount++] = block;
+        }
+        slabs = next;
+        return true;
+    }
+
+    private synchronized void freeBlocks(int[] blocks, int count) {
+        for(int index = 0 ; index < count ; index++) {
+            freeBlocks[freeBlockCount++] = blocks[index];
+        }
+        allocatedBlocks.addAndGet(-count);
+    }
+
+    /**
+     * @return A view of the given block. Blocks are only accessed by the owner of their payload.
+     */
+    private ByteBuffer block(int block) {
+        ByteBuffer view = slabs[block / blocksPerSlab].duplicate();
+        int offset = (block % blocksPerSlab) * blockSize;
+        view.limit(offset + blockSize).position(offset);
+        return view;
+    }
+
+    @ManagedAttribute
+    public int getSlabCount() {
+        return slabs.length;
+    }
+    /**
+     * @return The size of all allocated direct buffers.
+     */
+    @ManagedAttribute
+    public long getReservedBytes() {
+        return (long) slabs.length * slabSize;
+    }
+    /**
+     * @return The size of all blocks which are used by payloads.
+     */
+    @ManagedAttribute
+    public long getAllocatedBytes() {
+        return allocatedBlocks.get() * blockSize;
+    }
+    /**
+     * @return The size of all off heap payloads.
+     */
+    @ManagedAttribute
+    public long getPayloadBytes() {
+        return payloadBytes.get();
+    }
+    @ManagedAttribute
+    public long getPayloadCount() {
+        return payloads.get();
+    }
+    /**
+     * @return The fraction of the reserved bytes which is currently allocated to blocks.
+     */
+    @ManagedAttribute
+    public double getUsage() {
+        long reserved = getReservedBytes();
+        return reserved == 0 ? 0d : (double) getAllocatedBytes() / reserved;
+    }
+    /**
+     * @return The fraction of the allocated blocks which is wasted by partially used last blocks of the payloads.
+     */
+    @ManagedAttribute
+    public double getFragmentation() {
+        long allocated = getAllocatedBytes();
+        return allocated == 0 ? 0d : 1d - (double) getPayloadBytes() / allocated;
+    }
+    /**
+     * @return The number of payloads which have been kept on the heap because the arena was full.
+     */
+    @ManagedAttribute
+    public long getTotalHeapPayloads() {
+        return totalHeapPayloads.get();
+    }
+    @ManagedAttribute
+    public int getBlockSize() {
+        return blockSize;
+    }
+    @ManagedAttribute
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    /**
+     * The bytes of a compressed minute bucket. Payloads are immutable and must not be read after they have been freed.
+     */
+    public static class Payload {
+
+        private final OffHeapArena arena;
+        private final int[] blocks;
+        private final byte[] bytes;
+        private final int length;
+        private boolean freed;
+
+        private Payload(OffHeapArena arena, int[] blocks, byte[] bytes, int length) {
+            this.arena = arena;
+            this.blocks = blocks;
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        /**
+         * @param bytes The bytes of the payload.
+         * @return A payload which is kept on the heap.
+         */
+        public static Payload onHeap(byte[] bytes) {
+            return new Payload(null, null, bytes, bytes.length);
+        }
+
+        /**
+         * @return The bytes of the payload. Off heap payloads are copied into a new array.
+         */
+        public byte[] toByteArray() {
+            if(arena == null) {
+                return bytes;
+            }
+            byte[] result = new byte[length];
+            int offset = 0;
+            for(int block : blocks) {
+                int count = Math.min(arena.blockSize, length - offset);
+                arena.block(block).get(result, offset, count);
+                offset += count;
+            }
+            return result;
+        }
+
+        /**
+         * Return the blocks of an off heap payload to the arena. Calling this method more than once has no effect.
+         */
+        public synchronized void free() {
+            if(arena == null || freed) {
+                return;
+            }
+            freed = true;
+            arena.freeBlocks(blocks, blocks.length);
+            arena.payloadBytes.addAndGet(-length);
+            arena.payloads.decrementAndGet();
+        }
+
+        public boolean isOffHeap() {
+            return arena != null;
+        }
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Writes into blocks of the arena. If the arena is full the written bytes are moved to the heap
+     * and the stream continues on the heap.
+     */
+    public static class PayloadOutputStream extends OutputStream {
+
+        private final OffHeapArena arena;
+        private int[] blocks;
+        private int blockCount;
+        private ByteBuffer current;
+        private ByteArrayOutputStream heap;
+        private int length;
+        private Payload payload;
+
+        private PayloadOutputStream(OffHeapArena arena) {
+            this.arena = arena;
+            this.blocks = new int[4];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(payload != null) {
+                throw new IOException("Stream has been closed!");
+            }
+            while(len > 0) {
+                if(heap != null) {
+                    heap.write(b, off, len);
+                    length += len;
+                    return;
+                }
+                if(current == null || !current.hasRemaining()) {
+                    nextBlock();
+                    continue;
+                }
+                int count = Math.min(len, current.remaining());
+                current.put(b, off, count);
+                off += count;
+                len -= count;
+                length += count;
+            }
+        }
+
+        private void nextBlock() {
+            int block = arena.allocateBlock();
+            if(block < 0) {
+                spill();
+                return;
+            }
+            if(blockCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blockCount * 2);
+            }
+            blocks[blockCount++] = block;
+            current = arena.block(block);
+        }
+
+        /**
+         * Move the bytes written so far to the heap and free their blocks.
+         */
+        private void spill() {
+            heap = new ByteArrayOutputStream(Math.max(32, length * 2));
+            byte[] written = new Payload(arena, Arrays.copyOf(blocks, blockCount), null, length).toByteArray();
+            heap.write(written, 0, written.length);
+            arena.freeBlocks(blocks, blockCount);
+            blockCount = 0;
+            current = null;
+        }
+
+        @Override
+        public void close() {
+            if(payload != null) {
+                return;
+            }
+            if(heap != null) {
+                arena.totalHeapPayloads.incrementAndGet();
+                payload = Payload.onHeap(heap.toByteArray());
+            } else {
+                payload = new Payload(arena, Arrays.copyOf(blocks, blockCount), null, length);
+                arena.payloadBytes.addAndGet(length);
+                arena.payloads.incrementAndGet();
+            }
+        }
+
+        /**
+         * @return The payload of the closed stream.
+         */
+        public Payload getPayload() {
+            if(payload == null) {
+                throw new IllegalStateException("Stream has not been closed!");
+            }
+            return payload;
+        }
+    }
+}
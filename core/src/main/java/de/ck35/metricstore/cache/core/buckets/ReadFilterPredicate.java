@@ -3,7 +3,6 @@ package de.ck35.metricstore.cache.core.buckets;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.concurrent.ExecutionException;
-import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -13,6 +12,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 
+import de.ck35.metricstore.ValueMatcher;
 import de.ck35.metricstore.cache.core.filter.ImmutableReadFilter;
 
 public class ReadFilterPredicate implements Predicate<ImmutableReadFilter> {
@@ -42,8 +42,8 @@ public class ReadFilterPredicate implements Predicate<ImmutableReadFilter> {
                 return false;
             }
         }
-        for(Entry<Function<ObjectNode, JsonNode>, Pattern> pattern : input.getValueFields()) {
-            if(!pattern.getValue().matcher(get(pattern.getKey()).asText()).matches()) {
+        for(Entry<Function<ObjectNode, JsonNode>, ValueMatcher> valueField : input.getValueFields()) {
+            if(!valueField.getValue().matches(get(valueField.getKey()))) {
                 return false;
             }
         }
@@ -0,0 +1,212 @@
+package de.ck35.metricstore.cache.core.buckets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import de.ck35.metricstore.MetricFilter;
+import de.ck35.metricstore.ValueMatcher;
+import de.ck35.metricstore.util.JsonNodeExtractor;
+
+/**
+ * Secondary index of the nodes of one minute bucket. For every indexed path the text of the value of a node is
+ * mapped to the positions of the nodes in write order. Values are indexed by the same text as {@link JsonNode#asText()},
+ * a missing field has the empty text, so equality and in-set conditions of a {@link MetricFilter} can be answered
+ * by the index. The positions stay valid while the minute bucket is compressed and expanded again.
+ * An index is not thread safe, it is guarded by the lock of its minute bucket.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class ValueIndex {
+
+    private static final long PATH_BYTES = 48;
+    private static final long VALUE_BYTES = 48 + 24;
+    private static final long STRING_BYTES = 40;
+    private static final long POSITION_BYTES = 4;
+    private static final int INITIAL_POSITIONS = 4;
+
+    private final List<Function<ObjectNode, JsonNode>> extractors;
+    private final List<Map<String, Postings>> values;
+    private int nodeCount;
+    private long bytes;
+
+    /**
+     * @param extractors The extractors of the indexed paths.
+     */
+    public ValueIndex(List<Function<ObjectNode, JsonNode>> extractors) {
+        this.extractors = extractors;
+        this.values = new ArrayList<>(extractors.size());
+        for(int slot = 0 ; slot < extractors.size() ; slot++) {
+            values.add(new HashMap<String, Postings>());
+        }
+        this.bytes = PATH_BYTES * extractors.size();
+    }
+
+    /**
+     * @param paths The indexed paths.
+     * @return The extractors of the paths in the same order.
+     */
+    public static List<Function<ObjectNode, JsonNode>> extractors(List<String> paths) {
+        List<Function<ObjectNode, JsonNode>> result = new ArrayList<>(paths.size());
+        for(String path : paths) {
+            result.add(JsonNodeExtractor.forPath(path));
+        }
+        return ImmutableList.copyOf(result);
+    }
+
+    /**
+     * Index the next node of the minute bucket.
+     *
+     * @param node The node which has been added to the minute bucket.
+     * @return The growth of the estimated heap size of this index.
+     */
+    public long add(ObjectNode node) {
+        long before = bytes;
+        int position = nodeCount++;
+        for(int slot = 0 ; slot < extractors.size() ; slot++) {
+            JsonNode value = extractors.get(slot).apply(node);
+            String text = value.isTextual() ? value.textValue() : value.asText();
+            Postings postings = values.get(slot).get(text);
+            if(postings == null) {
+                postings = new Postings();
+                values.get(slot).put(text, postings);
+                bytes += VALUE_BYTES + STRING_BYTES + 2 * text.length() + POSITION_BYTES * INITIAL_POSITIONS;
+            }
+            bytes += postings.add(position);
+        }
+        return bytes - before;
+    }
+
+    /**
+     * @param query The query of a read.
+     * @return The positions of the nodes which can match one of the filters of the query.
+     */
+    public BitSet positions(Query query) {
+        BitSet result = new BitSet(nodeCount);
+        for(List<Entry<Integer, Set<String>>> filter : query.filters) {
+            BitSet matching = null;
+            for(Entry<Integer, Set<String>> condition : filter) {
+                BitSet positions = new BitSet(nodeCount);
+                Map<String, Postings> slot = values.get(condition.getKey());
+                for(String value : condition.getValue()) {
+                    Postings postings = slot.get(value);
+                    if(postings != null) {
+                        postings.setAll(positions);
+                    }
+                }
+                if(matching == null) {
+                    matching = positions;
+                } else {
+                    matching.and(positions);
+                }
+            }
+            result.or(matching);
+        }
+        return result;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return The estimated heap size of this index.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Positions of the nodes with one value in ascending order.
+     */
+    private static class Postings {
+
+        private int[] positions = new int[INITIAL_POSITIONS];
+        private int size;
+
+        /**
+         * @return The growth of the estimated heap size.
+         */
+        public long add(int position) {
+            long grown = 0;
+            if(size == positions.length) {
+                grown = POSITION_BYTES * positions.length;
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            }
+            positions[size++] = position;
+            return grown;
+        }
+
+        public void setAll(BitSet bits) {
+            for(int index = 0 ; index < size ; index++) {
+                bits.set(positions[index]);
+            }
+        }
+    }
+
+    /**
+     * The conditions of the filters of one read which can be answered by the indexes of a metric bucket. A node
+     * can only match a filter if it matches all indexed conditions of the filter, so only the positions which
+     * match one of the filters must be read.
+     */
+    public static class Query {
+
+        private final List<List<Entry<Integer, Set<String>>>> filters;
+
+        private Query(List<List<Entry<Integer, Set<String>>>> filters) {
+            this.filters = filters;
+        }
+
+        /**
+         * @param indexedPaths The indexed paths of the metric bucket.
+         * @param filters The filters of the read or <code>null</code> for all nodes.
+         * @return The query or <code>null</code> if all nodes must be read because a filter has no equality
+         *         or in-set condition on an indexed path.
+         */
+        public static Query of(List<String> indexedPaths, List<MetricFilter> filters) {
+            if(filters == null || indexedPaths.isEmpty()) {
+                return null;
+            }
+            List<List<Entry<Integer, Set<String>>>> result = new ArrayList<>(filters.size());
+            for(MetricFilter filter : filters) {
+                List<Entry<Integer, Set<String>>> conditions = new ArrayList<>();
+                for(Entry<String, ValueMatcher> valueField : filter.getValueFields()) {
+                    int slot = indexedPaths.indexOf(valueField.getKey());
+                    Set<String> values = values(valueField.getValue());
+                    if(slot >= 0 && values != null) {
+                        conditions.add(Maps.immutableEntry(slot, values));
+                    }
+                }
+                if(conditions.isEmpty()) {
+                    return null;
+                }
+                result.add(conditions);
+            }
+            return new Query(Collections.unmodifiableList(result));
+        }
+
+        private static Set<String> values(ValueMatcher matcher) {
+            if(matcher instanceof ValueMatcher.Equal) {
+                return ImmutableSet.of(((ValueMatcher.Equal) matcher).getValue());
+            }
+            if(matcher instanceof ValueMatcher.In) {
+                return ((ValueMatcher.In) matcher).getValues();
+            }
+            return null;
+        }
+    }
+}
@@ -11,6 +11,7 @@ import com.google.common.base.Function;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 
 import de.ck35.metricstore.StoredMetricCallable;
 import de.ck35.metricstore.cache.MetricCacheRequest;
@@ -20,6 +21,7 @@ public abstract class AbstractThreadsafeMetricCacheRequest implements MetricCach
                                                                       Function<String, Function<ObjectNode, JsonNode>> {
 
     protected final List<ImmutableReadFilter> filters;
+    protected volatile List<String> fields;
     private final LoadingCache<String, Function<ObjectNode, JsonNode>> functionCache;
     
     public AbstractThreadsafeMetricCacheRequest() {
@@ -44,6 +46,15 @@ public abstract class AbstractThreadsafeMetricCacheRequest implements MetricCach
         return Collections.<ReadFilter>unmodifiableList(filters);
     }
     @Override
+    public MetricCacheRequest withFields(String ... fieldNames) {
+        this.fields = ImmutableList.copyOf(fieldNames);
+        return this;
+    }
+    @Override
+    public Iterable<String> getFields() {
+        return fields;
+    }
+    @Override
     public Function<ObjectNode, JsonNode> apply(String input) {
         try {
             return functionCache.get(input);
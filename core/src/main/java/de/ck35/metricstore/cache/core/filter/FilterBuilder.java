@@ -1,10 +1,10 @@
 package de.ck35.metricstore.cache.core.filter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -12,7 +12,9 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
 import com.google.common.collect.Maps;
 
+import de.ck35.metricstore.MetricFilter;
 import de.ck35.metricstore.StoredMetricCallable;
+import de.ck35.metricstore.ValueMatcher;
 import de.ck35.metricstore.cache.MetricCacheRequest.FieldFilterBuilder;
 import de.ck35.metricstore.cache.MetricCacheRequest.ReadFilter;
 import de.ck35.metricstore.cache.MetricCacheRequest.ValueFilterBuilder;
@@ -21,7 +23,8 @@ public class FilterBuilder implements FieldFilterBuilder, ValueFilterBuilder {
     
     private final List<Function<ObjectNode, JsonNode>> requiredPresentFields;
     private final List<Function<ObjectNode, JsonNode>> requiredNonPresentFields;
-    private final List<Entry<Function<ObjectNode, JsonNode>, Pattern>> valueFields;
+    private final List<Entry<Function<ObjectNode, JsonNode>, ValueMatcher>> valueFields;
+    private final MetricFilter.Builder definition;
     
     private final StoredMetricCallable callable;
     private final Collection<ImmutableReadFilter> filters;
@@ -36,21 +39,48 @@ public class FilterBuilder implements FieldFilterBuilder, ValueFilterBuilder {
         this.requiredPresentFields = new ArrayList<>();
         this.requiredNonPresentFields = new ArrayList<>();
         this.valueFields = new ArrayList<>();
+        this.definition = MetricFilter.builder();
     }
     
     @Override
     public FieldFilterBuilder andFieldIsPresent(String fieldName) {
         this.requiredPresentFields.add(extractFunctions.apply(fieldName));
+        this.definition.andFieldIsPresent(fieldName);
         return this;
     }
     @Override
     public FieldFilterBuilder andFieldIsNotPresent(String fieldName) {
         this.requiredNonPresentFields.add(extractFunctions.apply(fieldName));
+        this.definition.andFieldIsNotPresent(fieldName);
         return this;
     }
     @Override
     public ValueFilterBuilder andValueMatches(String fieldName, String regex) throws PatternSyntaxException {
-        this.valueFields.add(Maps.immutableEntry(extractFunctions.apply(fieldName), Pattern.compile(regex)));
+        return andValue(fieldName, ValueMatcher.regex(regex));
+    }
+    @Override
+    public ValueFilterBuilder andValueEquals(String fieldName, String value) {
+        return andValue(fieldName, ValueMatcher.equalTo(value));
+    }
+    @Override
+    public ValueFilterBuilder andValueStartsWith(String fieldName, String prefix) {
+        return andValue(fieldName, ValueMatcher.startsWith(prefix));
+    }
+    @Override
+    public ValueFilterBuilder andValueIn(String fieldName, String... values) {
+        return andValue(fieldName, ValueMatcher.in(Arrays.asList(values)));
+    }
+    @Override
+    public ValueFilterBuilder andValueBetween(String fieldName, double min, double max) {
+        return andValue(fieldName, ValueMatcher.between(min, max));
+    }
+    @Override
+    public ValueFilterBuilder andValueIs(String fieldName, boolean value) {
+        return andValue(fieldName, ValueMatcher.equalTo(value));
+    }
+    private ValueFilterBuilder andValue(String fieldName, ValueMatcher matcher) {
+        this.valueFields.add(Maps.immutableEntry(extractFunctions.apply(fieldName), matcher));
+        this.definition.andValue(fieldName, matcher);
         return this;
     }
     @Override
@@ -58,7 +88,8 @@ public class FilterBuilder implements FieldFilterBuilder, ValueFilterBuilder {
         ImmutableReadFilter filter = new ImmutableReadFilter(callable, 
                                                              requiredPresentFields, 
                                                              requiredNonPresentFields, 
-                                                             valueFields);
+                                                             valueFields,
+                                                             definition.build());
         filters.add(filter);
         return filter;
     }
@@ -1,14 +1,15 @@
 package de.ck35.metricstore.cache.core.filter;
 
 import java.util.Map.Entry;
-import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 
+import de.ck35.metricstore.MetricFilter;
 import de.ck35.metricstore.StoredMetricCallable;
+import de.ck35.metricstore.ValueMatcher;
 import de.ck35.metricstore.cache.MetricCacheRequest.ReadFilter;
 
 public class ImmutableReadFilter implements ReadFilter {
@@ -16,16 +17,25 @@ public class ImmutableReadFilter implements ReadFilter {
     private final StoredMetricCallable callable;
     private final Iterable<Function<ObjectNode, JsonNode>> requiredPresentFields;
     private final Iterable<Function<ObjectNode, JsonNode>> requiredNonPresentFields;
-    private final Iterable<Entry<Function<ObjectNode, JsonNode>, Pattern>> valueFields;
+    private final Iterable<Entry<Function<ObjectNode, JsonNode>, ValueMatcher>> valueFields;
+    private final MetricFilter definition;
     
     public ImmutableReadFilter(StoredMetricCallable callable,
                                Iterable<Function<ObjectNode, JsonNode>> requiredPresentFields,
                                Iterable<Function<ObjectNode, JsonNode>> requiredNonPresentFields,
-                               Iterable<Entry<Function<ObjectNode, JsonNode>, Pattern>> valueFields) {
+                               Iterable<Entry<Function<ObjectNode, JsonNode>, ValueMatcher>> valueFields) {
+        this(callable, requiredPresentFields, requiredNonPresentFields, valueFields, null);
+    }
+    public ImmutableReadFilter(StoredMetricCallable callable,
+                               Iterable<Function<ObjectNode, JsonNode>> requiredPresentFields,
+                               Iterable<Function<ObjectNode, JsonNode>> requiredNonPresentFields,
+                               Iterable<Entry<Function<ObjectNode, JsonNode>, ValueMatcher>> valueFields,
+                               MetricFilter definition) {
         this.callable = callable;
         this.requiredPresentFields = ImmutableList.copyOf(requiredPresentFields);
         this.requiredNonPresentFields = ImmutableList.copyOf(requiredNonPresentFields);
         this.valueFields = ImmutableList.copyOf(valueFields);
+        this.definition = definition;
     }
     @Override
     public StoredMetricCallable getCallable() {
@@ -37,7 +47,13 @@ public class ImmutableReadFilter implements ReadFilter {
     public Iterable<Function<ObjectNode, JsonNode>> getRequiredNonPresentFields() {
         return requiredNonPresentFields;
     }
-    public Iterable<Entry<Function<ObjectNode, JsonNode>, Pattern>> getValueFields() {
+    public Iterable<Entry<Function<ObjectNode, JsonNode>, ValueMatcher>> getValueFields() {
         return valueFields;
     }
+    /**
+     * @return The same filter by field paths which can be passed to the repository or <code>null</code> if unknown.
+     */
+    public MetricFilter getDefinition() {
+        return definition;
+    }
 }
\ No newline at end of file
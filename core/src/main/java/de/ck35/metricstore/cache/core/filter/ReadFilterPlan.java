@@ -0,0 +1,147 @@
+package de.ck35.metricstore.cache.core.filter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
+import com.google.common.primitives.Ints;
+
+import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.StoredMetricCallable;
+import de.ck35.metricstore.ValueMatcher;
+
+/**
+ * All filters of one read compiled into a single evaluation plan. Every distinct field extractor of the filters
+ * gets a slot. A slot is evaluated at most once per node and only if a filter needs it, the extracted fields
+ * are kept in a reused array. Value patterns are matched with reused matchers and typed value conditions compare
+ * the nodes directly, so the evaluation of a node does not allocate. A plan is not thread safe and must be used by one reading thread.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class ReadFilterPlan {
+
+    private final Function<ObjectNode, JsonNode>[] extractors;
+    private final JsonNode[] values;
+    private final long[] evaluated;
+    private final CompiledFilter[] filters;
+    private ObjectNode current;
+    private long generation;
+
+    @SuppressWarnings("unchecked")
+    public ReadFilterPlan(Iterable<ImmutableReadFilter> filters) {
+        Map<Function<ObjectNode, JsonNode>, Integer> slots = new HashMap<>();
+        List<CompiledFilter> compiled = new ArrayList<>();
+        for(ImmutableReadFilter filter : filters) {
+            compiled.add(new CompiledFilter(filter, slots));
+        }
+        this.extractors = new Function[slots.size()];
+        for(Entry<Function<ObjectNode, JsonNode>, Integer> slot : slots.entrySet()) {
+            extractors[slot.getValue()] = slot.getKey();
+        }
+        this.values = new JsonNode[extractors.length];
+        this.evaluated = new long[extractors.length];
+        this.filters = compiled.toArray(new CompiledFilter[compiled.size()]);
+    }
+
+    /**
+     * Pass the metric to the callables of all matching filters.
+     *
+     * @param metric The metric.
+     * @return <code>true</code> if at least one filter matched the metric.
+     */
+    public boolean call(StoredMetric metric) {
+        current = metric.getObjectNode();
+        generation++;
+        boolean matched = false;
+        for(CompiledFilter filter : filters) {
+            if(matches(filter)) {
+                filter.callable.call(metric);
+                matched = true;
+            }
+        }
+        return matched;
+    }
+
+    private boolean matches(CompiledFilter filter) {
+        for(int slot : filter.presentSlots) {
+            if(value(slot).isMissingNode()) {
+                return false;
+            }
+        }
+        for(int slot : filter.notPresentSlots) {
+            if(!value(slot).isMissingNode()) {
+                return false;
+            }
+        }
+        for(int index = 0 ; index < filter.valueSlots.length ; index++) {
+            if(!filter.matchers[index].matches(value(filter.valueSlots[index]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private JsonNode value(int slot) {
+        if(evaluated[slot] != generation) {
+            values[slot] = extractors[slot].apply(current);
+            evaluated[slot] = generation;
+        }
+        return values[slot];
+    }
+
+    /**
+     * @return The number of distinct field extractors of all filters.
+     */
+    public int getSlotCount() {
+        return extractors.length;
+    }
+    public int getFilterCount() {
+        return filters.length;
+    }
+
+    private static class CompiledFilter {
+
+        private final StoredMetricCallable callable;
+        private final int[] presentSlots;
+        private final int[] notPresentSlots;
+        private final int[] valueSlots;
+        private final ValueMatcher[] matchers;
+
+        public CompiledFilter(ImmutableReadFilter filter, Map<Function<ObjectNode, JsonNode>, Integer> slots) {
+            this.callable = filter.getCallable();
+            this.presentSlots = slots(filter.getRequiredPresentFields(), slots);
+            this.notPresentSlots = slots(filter.getRequiredNonPresentFields(), slots);
+            List<Integer> valueSlots = new ArrayList<>();
+            List<ValueMatcher> matchers = new ArrayList<>();
+            for(Entry<Function<ObjectNode, JsonNode>, ValueMatcher> valueField : filter.getValueFields()) {
+                valueSlots.add(slot(valueField.getKey(), slots));
+                matchers.add(valueField.getValue().forSingleThread());
+            }
+            this.valueSlots = Ints.toArray(valueSlots);
+            this.matchers = matchers.toArray(new ValueMatcher[matchers.size()]);
+        }
+
+        private static int[] slots(Iterable<Function<ObjectNode, JsonNode>> extractors, Map<Function<ObjectNode, JsonNode>, Integer> slots) {
+            List<Integer> result = new ArrayList<>();
+            for(Function<ObjectNode, JsonNode> extractor : extractors) {
+                result.add(slot(extractor, slots));
+            }
+            return Ints.toArray(result);
+        }
+
+        private static int slot(Function<ObjectNode, JsonNode> extractor, Map<Function<ObjectNode, JsonNode>, Integer> slots) {
+            Integer slot = slots.get(extractor);
+            if(slot == null) {
+                slot = slots.size();
+                slots.put(extractor, slot);
+            }
+            return slot;
+        }
+    }
+}
@@ -3,16 +3,22 @@ package de.ck35.metricstore.configuration;
 import java.nio.file.Paths;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.core.env.Environment;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
 
 import de.ck35.metricstore.fs.BucketCommandProcessor;
 import de.ck35.metricstore.fs.BucketCommandProcessorThread;
 import de.ck35.metricstore.fs.BucketData;
+import de.ck35.metricstore.fs.BucketJournals;
 import de.ck35.metricstore.fs.WritableFilesystemBucket;
+import de.ck35.metricstore.util.MinimumIntSetting;
+import de.ck35.metricstore.util.Setting;
 
 /**
  * Configuration for the {@link BucketCommandProcessor}. 
@@ -21,15 +27,62 @@ import de.ck35.metricstore.fs.WritableFilesystemBucket;
  * @since 1.0.0
  */
 @Configuration
-public class BucketCommandProcessorConfiguration {
+public class BucketCommandProcessorConfiguration implements ApplicationListener<ContextRefreshedEvent> {
 
+    public static int DEFAULT_COMMAND_SHARDS = 1;
+    public static int DEFAULT_JOURNAL_SYNC_INTERVAL_MILLIS = 1_000;
+    public static int DEFAULT_JOURNAL_SYNC_BYTES = 1024 * 1024;
+    public static long DEFAULT_JOURNAL_CHECKPOINT_BYTES = 64L * 1024 * 1024;
+    
     @Autowired Environment env;
+    @Autowired ObjectMapper mapper;
     @Autowired Function<BucketData, WritableFilesystemBucket> writableFilesystemBucketFactory;
     
     @Bean
     public BucketCommandProcessor bucketCommandProcessor() {
         return new BucketCommandProcessor(Paths.get(env.getRequiredProperty("metricstore.basepath")), 
-                                          writableFilesystemBucketFactory);
+                                          writableFilesystemBucketFactory,
+                                          isJournalEnabled() ? bucketJournals() : null,
+                                          0,
+                                          getShards());
+    }
+    
+    @Bean
+    public BucketJournals bucketJournals() {
+        return new BucketJournals(mapper, journalSyncIntervalMillis(), journalSyncBytes(), journalCheckpointBytes());
+    }
+    
+    @Bean
+    public MinimumIntSetting journalSyncIntervalMillis() {
+        return new MinimumIntSetting(DEFAULT_JOURNAL_SYNC_INTERVAL_MILLIS, 1, env.getProperty("metricstore.journal.sync.interval.millis", Integer.class, null));
+    }
+    
+    @Bean
+    public MinimumIntSetting journalSyncBytes() {
+        return new MinimumIntSetting(DEFAULT_JOURNAL_SYNC_BYTES, 1, env.getProperty("metricstore.journal.sync.bytes", Integer.class, null));
+    }
+    
+    @Bean
+    public Setting<Long> journalCheckpointBytes() {
+        return new Setting<>(DEFAULT_JOURNAL_CHECKPOINT_BYTES, env.getProperty("metricstore.journal.checkpoint.bytes", Long.class, null));
+    }
+    
+    @Bean(destroyMethod="interrupt")
+    public Thread bucketJournalsSyncThread() {
+        Thread thread = new Thread(bucketJournals(), "BucketJournalsSyncThread");
+        thread.setDaemon(true);
+        return thread;
+    }
+    
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if(isJournalEnabled() && !bucketJournalsSyncThread().isAlive()) {
+            bucketJournalsSyncThread().start();
+        }
+    }
+    
+    public boolean isJournalEnabled() {
+        return env.getProperty("metricstore.journal.enabled", Boolean.class, false);
     }
     
     @Bean
@@ -37,4 +90,8 @@ public class BucketCommandProcessorConfiguration {
         return new BucketCommandProcessorThread();
     }
     
+    public int getShards() {
+        return Math.max(1, env.getProperty("metricstore.commands.shards", Integer.class, DEFAULT_COMMAND_SHARDS));
+    }
+    
 }
\ No newline at end of file
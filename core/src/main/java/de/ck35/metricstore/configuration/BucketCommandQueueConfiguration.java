@@ -1,5 +1,8 @@
 package de.ck35.metricstore.configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -17,6 +20,7 @@ import de.ck35.metricstore.fs.BucketCommand;
 import de.ck35.metricstore.fs.BucketCommandProcessor;
 import de.ck35.metricstore.fs.BucketCommandProcessorThread;
 import de.ck35.metricstore.fs.DisruptorCommandQueue;
+import de.ck35.metricstore.fs.ShardedCommandQueue;
 
 /**
  * Configuration for the shared command queue. 
@@ -52,22 +56,45 @@ public class BucketCommandQueueConfiguration {
     
     @Bean
     public Predicate<BucketCommand<?>> bucketCommandQueue() throws Throwable {
+        int shards = bucketCommandProcessor.getShards();
+        if(shards <= 1) {
+            return commandQueue(bucketCommandProcessor, bucketCommandProcessorThread, executorService());
+        }
+        List<Predicate<BucketCommand<?>>> queues = new ArrayList<>(shards);
+        List<BucketCommandProcessor> processors = new ArrayList<>(shards);
+        processors.add(bucketCommandProcessor);
+        queues.add(commandQueue(bucketCommandProcessor, bucketCommandProcessorThread, executorService()));
+        for(int shard = 1 ; shard < shards ; shard++) {
+            BucketCommandProcessor processor = bucketCommandProcessor.shard(shard, shards);
+            BucketCommandProcessorThread thread = new BucketCommandProcessorThread(BucketCommandProcessorThread.NAME + "-" + shard);
+            processors.add(processor);
+            queues.add(commandQueue(processor, thread, runnable -> {
+                thread.setTargetRunnableRef(runnable);
+                thread.start();
+            }));
+        }
+        return new ShardedCommandQueue(queues, processors);
+    }
+    
+    protected Predicate<BucketCommand<?>> commandQueue(BucketCommandProcessor processor, 
+                                                       BucketCommandProcessorThread thread, 
+                                                       Executor executor) throws Throwable {
         if(QueueMode.DISRUPTOR == getQueueMode()) {
             
             DisruptorCommandQueue commandQueue = DisruptorCommandQueue.build(getQueueSize(), 
                                                                              getDisruptorWaitStrategy(), 
-                                                                             executorService(), 
-                                                                             bucketCommandProcessor, 
+                                                                             executor, 
+                                                                             processor, 
                                                                              env, 
                                                                              key -> "metricstore.disruptor.waitStrategy." + key);
             commandQueue.start();
-            bucketCommandProcessorThread.awaitInitialization();
+            thread.awaitInitialization();
             return commandQueue;
         } else {
-            ABQCommandQueue commandQueue = new ABQCommandQueue(getQueueSize(), bucketCommandProcessor);
-            bucketCommandProcessorThread.setTargetRunnableRef(commandQueue);
-            bucketCommandProcessorThread.start();
-            bucketCommandProcessorThread.awaitInitialization();
+            ABQCommandQueue commandQueue = new ABQCommandQueue(getQueueSize(), processor);
+            thread.setTargetRunnableRef(commandQueue);
+            thread.start();
+            thread.awaitInitialization();
             return commandQueue;
                     
         }
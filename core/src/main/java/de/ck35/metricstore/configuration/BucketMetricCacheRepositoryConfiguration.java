@@ -2,6 +2,7 @@ package de.ck35.metricstore.configuration;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
@@ -16,6 +17,7 @@ import org.springframework.core.env.Environment;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Splitter;
 import com.google.common.base.Supplier;
 
 import de.ck35.metricstore.MetricBucket;
@@ -24,11 +26,21 @@ import de.ck35.metricstore.cache.core.BucketMetricCache;
 import de.ck35.metricstore.cache.core.CachePeriodWorker;
 import de.ck35.metricstore.cache.core.CacheablePredicate;
 import de.ck35.metricstore.cache.core.UTCCacheIntervalSupplier;
+import de.ck35.metricstore.cache.core.buckets.BucketCompressor;
 import de.ck35.metricstore.cache.core.buckets.BucketManager;
+import de.ck35.metricstore.cache.core.buckets.CacheMemoryBudget;
+import de.ck35.metricstore.cache.core.buckets.CacheSettings;
 import de.ck35.metricstore.cache.core.buckets.ExpandedBucketManager;
+import de.ck35.metricstore.cache.core.buckets.OffHeapArena;
 import de.ck35.metricstore.util.MinimumIntSetting;
+import de.ck35.metricstore.util.Setting;
+import de.ck35.metricstore.util.io.Codec;
+import de.ck35.metricstore.util.io.Codecs;
+import de.ck35.metricstore.util.io.Codecs.CodecType;
 import de.ck35.metricstore.util.io.ObjectNodeReader;
 import de.ck35.metricstore.util.io.ObjectNodeWriter;
+import de.ck35.metricstore.util.io.RecordFormats;
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
 
 @Configuration
 public class BucketMetricCacheRepositoryConfiguration implements ApplicationListener<ContextRefreshedEvent> {
@@ -69,12 +81,70 @@ public class BucketMetricCacheRepositoryConfiguration implements ApplicationList
     
     @Bean
     public BucketManager bucketManager() {
-        return new BucketManager(expandedBucketManagerFactory(), streamReaderFactory(), streamWriterFactory());
+        return new BucketManager(expandedBucketManagerFactory(), streamReaderFactory(), streamWriterFactory(), cacheSettings());
+    }
+    
+    @Bean
+    public CacheSettings cacheSettings() {
+        return CacheSettings.builder()
+                            .arena(offHeapArena())
+                            .budget(cacheMemoryBudget())
+                            .compressor(bucketCompressor())
+                            .indexedPaths(cacheIndexedPaths())
+                            .build();
+    }
+    
+    /**
+     * The indexed paths of a bucket are read from <code>metricstore.cache.index.name.&lt;name&gt;</code> and default to
+     * <code>metricstore.cache.index.type.&lt;type&gt;</code>. Nothing is indexed if neither is set.
+     */
+    public Function<MetricBucket, List<String>> cacheIndexedPaths() {
+        return new Function<MetricBucket, List<String>>() {
+            @Override
+            public List<String> apply(MetricBucket bucket) {
+                String paths = env.getProperty("metricstore.cache.index.name." + bucket.getName(), env.getProperty("metricstore.cache.index.type." + bucket.getType(), ""));
+                return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(paths);
+            }
+        };
+    }
+    
+    /**
+     * The cache is only limited by the cache period until <code>metricstore.cache.maxHeapBytes</code> is set.
+     */
+    @Bean
+    public CacheMemoryBudget cacheMemoryBudget() {
+        return new CacheMemoryBudget(cacheMaxHeapBytesSetting());
+    }
+    
+    @Bean
+    public Setting<Long> cacheMaxHeapBytesSetting() {
+        return new Setting<>(0L, env.getProperty("metricstore.cache.maxHeapBytes", Long.class, null));
+    }
+    
+    /**
+     * The compressed minute buckets are kept on the heap until <code>metricstore.cache.offheap.maxBytes</code> is set.
+     */
+    @Bean
+    public OffHeapArena offHeapArena() {
+        return new OffHeapArena(offHeapMaxBytesSetting(), 
+                                env.getProperty("metricstore.cache.offheap.slabSize", Integer.class, OffHeapArena.DEFAULT_SLAB_SIZE), 
+                                env.getProperty("metricstore.cache.offheap.blockSize", Integer.class, OffHeapArena.DEFAULT_BLOCK_SIZE));
+    }
+    
+    @Bean
+    public Setting<Long> offHeapMaxBytesSetting() {
+        return new Setting<>(0L, env.getProperty("metricstore.cache.offheap.maxBytes", Long.class, null));
     }
     
     @Bean
     public Function<MetricBucket, ExpandedBucketManager> expandedBucketManagerFactory() {
-        return new ExpandedBucketManager.ExpandedBucketManagerFactory(maxExpandedBucketsSetting());
+        return new ExpandedBucketManager.ExpandedBucketManagerFactory(maxExpandedBucketsSetting(), bucketCompressor());
+    }
+    
+    @Bean(destroyMethod="close")
+    public BucketCompressor bucketCompressor() {
+        return new BucketCompressor(env.getProperty("metricstore.cache.compressor.threads", Integer.class, 1), 
+                                    env.getProperty("metricstore.cache.compressor.maxBacklog", Integer.class, 1024));
     }
 
     @Bean
@@ -84,12 +154,25 @@ public class BucketMetricCacheRepositoryConfiguration implements ApplicationList
 
     @Bean
     public Function<InputStream, ObjectNodeReader> streamReaderFactory() {
-        return new ObjectNodeReader.StreamFactory(mapper, Charsets.UTF_8);
+        return new ObjectNodeReader.StreamFactory(cacheRecordFormats(), Charsets.UTF_8, Codecs.defaults());
     }
 
     @Bean
     public Function<OutputStream, ObjectNodeWriter> streamWriterFactory() {
-        return new ObjectNodeWriter.StreamFactory(mapper.getFactory(), Charsets.UTF_8);
+        return new ObjectNodeWriter.StreamFactory(cacheRecordFormats(), 
+                                           env.getProperty("metricstore.cache.format", RecordFormat.class, RecordFormat.TEXT), 
+                                           Charsets.UTF_8, 
+                                           cacheCodec());
+    }
+    
+    public RecordFormats cacheRecordFormats() {
+        return new RecordFormats(mapper);
+    }
+    
+    @Bean
+    public Codec cacheCodec() {
+        return Codecs.create(env.getProperty("metricstore.cache.codec.type", CodecType.class, CodecType.GZIP), 
+                             env.getProperty("metricstore.cache.codec.level", Integer.class, Codecs.DEFAULT_LEVEL));
     }
     
     @Override
@@ -1,15 +1,26 @@
 package de.ck35.metricstore.configuration;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 
 import de.ck35.metricstore.fs.BucketCommand;
+import de.ck35.metricstore.fs.DayReaderPool;
 import de.ck35.metricstore.fs.FilesystemMetricRepository;
+import de.ck35.metricstore.fs.StoredMetricReadCache;
+import de.ck35.metricstore.fs.StoredMetricReadCache.WaitStrategy;
 import de.ck35.metricstore.util.MinimumIntSetting;
+import de.ck35.metricstore.util.Setting;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
 
 /**
  * Configuration for the {@link FilesystemMetricRepository}. 
@@ -21,18 +32,65 @@ import de.ck35.metricstore.util.MinimumIntSetting;
 public class FilesystemMetricRepositoryConfiguration {
 
     public static int DEFAULT_READ_BUFFER_SIZE = 100_000;
+    public static int DEFAULT_READ_PARALLELISM = 2;
+    public static int DEFAULT_READ_AHEAD_DAYS = 2;
+    public static long DEFAULT_READ_BUFFER_BYTES = 64L * 1024 * 1024;
+    public static WaitStrategy DEFAULT_READ_BUFFER_WAIT_STRATEGY = WaitStrategy.PARKING;
     
     @Autowired Environment env;
     @Autowired Predicate<BucketCommand<?>> bucketCommandQueue;
+    @Autowired Function<ObjectNode, DateTime> timestampFunction;
+    @Autowired Function<Path, ObjectNodeReader> readerFactory;
     
     @Bean
     public MinimumIntSetting readBufferSizeSetting() {
         return new MinimumIntSetting(DEFAULT_READ_BUFFER_SIZE, 1, env.getProperty("metricstore.readbuffer.size", Integer.class));
     }
     
+    @Bean
+    public Setting<Long> readBufferBytesSetting() {
+        return new Setting<>(DEFAULT_READ_BUFFER_BYTES, env.getProperty("metricstore.readbuffer.bytes", Long.class));
+    }
+    
+    /**
+     * @return Creates the buffers which hand the metrics of one day from the reading thread to the caller.
+     */
+    @Bean
+    public StoredMetricReadCache.Factory readCacheFactory() {
+        return new StoredMetricReadCache.Factory(readBufferSizeSetting(), 
+                                                 readBufferBytesSetting(), 
+                                                 env.getProperty("metricstore.readbuffer.waitStrategy", WaitStrategy.class, DEFAULT_READ_BUFFER_WAIT_STRATEGY), 
+                                                 env.getProperty("metricstore.readbuffer.spinTries", Integer.class, StoredMetricReadCache.DEFAULT_SPIN_TRIES));
+    }
+    
+    @Bean
+    public MinimumIntSetting readAheadDaysSetting() {
+        return new MinimumIntSetting(DEFAULT_READ_AHEAD_DAYS, 0, env.getProperty("metricstore.read.readahead.days", Integer.class));
+    }
+    
+    /**
+     * @return The number of threads which read immutable days. Zero reads all days on the command processor.
+     */
+    public int readParallelism() {
+        return Math.max(0, env.getProperty("metricstore.read.parallelism", Integer.class, DEFAULT_READ_PARALLELISM));
+    }
+    
+    /**
+     * @return The pool which reads immutable days. It does not start any thread if the read parallelism is zero.
+     */
+    @Bean(destroyMethod="close")
+    public DayReaderPool dayReaderPool() {
+        return new DayReaderPool(Paths.get(env.getRequiredProperty("metricstore.basepath")), 
+                                 timestampFunction, 
+                                 readerFactory, 
+                                 readParallelism(), 
+                                 readAheadDaysSetting(), 
+                                 readCacheFactory());
+    }
+    
     @Bean
     public FilesystemMetricRepository filesystemMetricRepository() {
-        return new FilesystemMetricRepository(bucketCommandQueue, readBufferSizeSetting());
+        return new FilesystemMetricRepository(bucketCommandQueue, readCacheFactory(), readParallelism() > 0 ? dayReaderPool() : null);
     }
     
 }
\ No newline at end of file
@@ -10,7 +10,6 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
 
 import de.ck35.metricstore.nonpersistent.NonPersistentMetricRepository;
-import de.ck35.metricstore.util.JsonNodeExtractor;
 import de.ck35.metricstore.util.TimestampFunction;
 
 /**
@@ -33,7 +32,7 @@ public class NonPersistentMetricRepositoryConfiguration {
     public Function<ObjectNode, DateTime> timestampFunction() {
         String timestampFieldName = env.getProperty("metricstore.timestamp.fieldname", TimestampFunction.DEFAULT_TIMESTAMP_FILED_NAME);
         String format = env.getProperty("metricstore.timestamp.format");
-        return TimestampFunction.build(format, JsonNodeExtractor.forPath(timestampFieldName));
+        return TimestampFunction.build(format, timestampFieldName);
     }
     
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package de.ck35.metricstore.configuration;
 
 import java.nio.file.Path;
+import java.util.List;
 
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,13 +13,22 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Splitter;
 
+import de.ck35.metricstore.fs.DayFileSettings;
 import de.ck35.metricstore.fs.WritableFilesystemBucketFactory;
-import de.ck35.metricstore.util.JsonNodeExtractor;
+import de.ck35.metricstore.fs.WriterPool;
+import de.ck35.metricstore.util.LRUCacheStatistics;
 import de.ck35.metricstore.util.MinimumIntSetting;
+import de.ck35.metricstore.util.Setting;
 import de.ck35.metricstore.util.TimestampFunction;
+import de.ck35.metricstore.util.io.Codec;
+import de.ck35.metricstore.util.io.Codecs;
+import de.ck35.metricstore.util.io.Codecs.CodecType;
 import de.ck35.metricstore.util.io.ObjectNodeReader;
 import de.ck35.metricstore.util.io.ObjectNodeWriter;
+import de.ck35.metricstore.util.io.RecordFormats;
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
 
 /**
  * Configuration for the {@link WritableFilesystemBucketFactory}.
@@ -30,6 +40,12 @@ import de.ck35.metricstore.util.io.ObjectNodeWriter;
 public class WritableFilesystemBucketFactoryConfiguration {
 
     public static int DEFAULT_CACHED_WRITERS_COUNT = 5;
+    public static int DEFAULT_CACHED_WRITERS_TOTAL_COUNT = 1_000;
+    public static long DEFAULT_CACHED_WRITERS_TOTAL_BYTES = 256L * 1024 * 1024;
+    public static CodecType DEFAULT_MINUTE_CODEC_TYPE = CodecType.GZIP;
+    public static CodecType DEFAULT_DAY_CODEC_TYPE = CodecType.GZIP;
+    public static RecordFormat DEFAULT_MINUTE_FORMAT = RecordFormat.TEXT;
+    public static RecordFormat DEFAULT_DAY_FORMAT = RecordFormat.TEXT;
     
     @Autowired Environment env;
     @Autowired ObjectMapper mapper;
@@ -39,11 +55,31 @@ public class WritableFilesystemBucketFactoryConfiguration {
         return new MinimumIntSetting(DEFAULT_CACHED_WRITERS_COUNT, 1, env.getProperty("metricstore.cached.writers.count", Integer.class, null));
     }
     
+    @Bean
+    public MinimumIntSetting cachedWritersTotalCount() {
+        return new MinimumIntSetting(DEFAULT_CACHED_WRITERS_TOTAL_COUNT, 1, env.getProperty("metricstore.cached.writers.total.count", Integer.class, null));
+    }
+    
+    @Bean
+    public Setting<Long> cachedWritersTotalBytes() {
+        return new Setting<>(DEFAULT_CACHED_WRITERS_TOTAL_BYTES, env.getProperty("metricstore.cached.writers.total.bytes", Long.class, null));
+    }
+    
+    @Bean
+    public WriterPool writerPool() {
+        return new WriterPool(cachedWritersTotalCount(), cachedWritersTotalBytes());
+    }
+    
+    @Bean
+    public LRUCacheStatistics cachedWritersStatistics() {
+        return new LRUCacheStatistics();
+    }
+    
     @Bean
     public Function<ObjectNode, DateTime> timestampFunction() {
         String timestampFieldName = env.getProperty("metricstore.timestamp.fieldname", TimestampFunction.DEFAULT_TIMESTAMP_FILED_NAME);
         String format = env.getProperty("metricstore.timestamp.format");
-        return TimestampFunction.build(format, JsonNodeExtractor.forPath(timestampFieldName));
+        return TimestampFunction.build(format, timestampFieldName);
     }
     
     @Bean
@@ -51,17 +87,82 @@ public class WritableFilesystemBucketFactoryConfiguration {
         return new WritableFilesystemBucketFactory(timestampFunction(), 
                                                    writerFactory(), 
                                                    readerFactory(), 
-                                                   cachedWritersCount());
+                                                   cachedWritersCount(),
+                                                   cachedWritersStatistics(),
+                                                   writerPool(),
+                                                   dayFileSettings());
+    }
+    
+    @Bean
+    public DayFileSettings dayFileSettings() {
+        return DayFileSettings.builder()
+                              .codec(dayFileCodec())
+                              .codecs(codecs())
+                              .format(recordFormats(), dayFileFormat())
+                              .migrate(env.getProperty("metricstore.format.day.migrate", Boolean.class, false))
+                              .rollupFields(rollupFields())
+                              .build();
+    }
+    
+    /**
+     * Rollups are written if <code>metricstore.rollup.enabled</code> is set. The numeric fields of a bucket type are read from
+     * <code>metricstore.rollup.fields.&lt;type&gt;</code> and default to <code>metricstore.rollup.fields</code>.
+     */
+    public Function<String, List<String>> rollupFields() {
+        if(!env.getProperty("metricstore.rollup.enabled", Boolean.class, false)) {
+            return null;
+        }
+        return new Function<String, List<String>>() {
+            @Override
+            public List<String> apply(String bucketType) {
+                String fields = env.getProperty("metricstore.rollup.fields." + bucketType, env.getProperty("metricstore.rollup.fields", ""));
+                return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(fields);
+            }
+        };
+    }
+    
+    @Bean
+    public RecordFormats recordFormats() {
+        return new RecordFormats(mapper);
+    }
+    
+    public RecordFormat minuteFileFormat() {
+        RecordFormat format = env.getProperty("metricstore.format.minute", RecordFormat.class, DEFAULT_MINUTE_FORMAT);
+        if(format == RecordFormat.COLUMNAR) {
+            throw new IllegalArgumentException("Columnar format is only supported for day files!");
+        }
+        return format;
+    }
+    
+    public RecordFormat dayFileFormat() {
+        return env.getProperty("metricstore.format.day", RecordFormat.class, DEFAULT_DAY_FORMAT);
+    }
+    
+    @Bean
+    public Codecs codecs() {
+        return Codecs.defaults();
+    }
+    
+    @Bean
+    public Codec minuteFileCodec() {
+        return Codecs.create(env.getProperty("metricstore.codec.minute.type", CodecType.class, DEFAULT_MINUTE_CODEC_TYPE), 
+                             env.getProperty("metricstore.codec.minute.level", Integer.class, Codecs.DEFAULT_LEVEL));
+    }
+    
+    @Bean
+    public Codec dayFileCodec() {
+        return Codecs.create(env.getProperty("metricstore.codec.day.type", CodecType.class, DEFAULT_DAY_CODEC_TYPE), 
+                             env.getProperty("metricstore.codec.day.level", Integer.class, Codecs.DEFAULT_LEVEL));
     }
 
     @Bean
     public Function<Path, ObjectNodeReader> readerFactory() {
-        return new ObjectNodeReader.PathFactory(mapper, Charsets.UTF_8);
+        return new ObjectNodeReader.PathFactory(recordFormats(), Charsets.UTF_8, codecs());
     }
 
     @Bean
     public Function<Path, ObjectNodeWriter> writerFactory() {
-        return new ObjectNodeWriter.PathFactory(mapper.getFactory(), Charsets.UTF_8);
+        return new ObjectNodeWriter.PathFactory(recordFormats(), minuteFileFormat(), Charsets.UTF_8, minuteFileCodec(), codecs());
     }
     
 }
\ No newline at end of file
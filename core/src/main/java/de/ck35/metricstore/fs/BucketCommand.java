@@ -1,10 +1,13 @@
 package de.ck35.metricstore.fs;
 
+import java.util.List;
+import java.util.NavigableMap;
 import java.util.Observable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.joda.time.DateTime;
 import org.joda.time.Interval;
 import org.joda.time.LocalDate;
 import org.slf4j.Logger;
@@ -13,8 +16,12 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Predicate;
 
+import de.ck35.metricstore.MetricAggregation;
 import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.MetricStatistics;
 import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.util.io.RecordFilter;
+import de.ck35.metricstore.util.io.RecordProjection;
 
 /**
  * Holds all commands which can be processed by the {@link BucketCommandProcessor}.
@@ -31,10 +38,12 @@ public class BucketCommand<T> extends Observable {
 	private final CountDownLatch resultLatch;
 	private final AtomicBoolean completed;
 	private final AtomicReference<T> resultReference;
+	private final AtomicReference<Throwable> errorReference;
 	
 	public BucketCommand() {
 		this.resultLatch = new CountDownLatch(1);
 		this.resultReference = new AtomicReference<>();
+		this.errorReference = new AtomicReference<>();
 		this.completed = new AtomicBoolean();
 	}
 	
@@ -62,6 +71,15 @@ public class BucketCommand<T> extends Observable {
 		}
 	}
 	
+	/**
+	 * Mark this command as completed without releasing waiting threads or notifying observers.
+	 * Commands which do not use the blocking {@link #getResult()} can call this method when
+	 * overriding {@link #commandCompleted()}.
+	 */
+	protected void markCompleted() {
+	    completed.set(true);
+	}
+	
 	public boolean isCompleted() {
 	    return completed.get();
 	}
@@ -71,6 +89,32 @@ public class BucketCommand<T> extends Observable {
 		resultReference.set((T)result);
 	}
 	
+	/**
+	 * @return The result which has been set so far. This method does not wait for command completion.
+	 */
+	protected T getCurrentResult() {
+	    return resultReference.get();
+	}
+	
+	public void setError(Throwable error) {
+	    errorReference.set(error);
+	}
+	
+	/**
+	 * @return The error which caused this command to fail or <code>null</code> if the command did not fail.
+	 */
+	public Throwable getError() {
+	    return errorReference.get();
+	}
+	
+	/**
+	 * @return The name of the bucket this command belongs to or <code>null</code> if the command
+	 *         is not bound to a single bucket.
+	 */
+	public String getBucketName() {
+	    return null;
+	}
+	
 	public static class ListBucketsCommand extends BucketCommand<Iterable<MetricBucket>> {
 		
 		public ListBucketsCommand() {
@@ -93,6 +137,7 @@ public class BucketCommand<T> extends Observable {
 			this.bucketType = bucketType;
 			this.node = node;
 		}
+		@Override
 		public String getBucketName() {
 			return bucketName;
 		}
@@ -108,24 +153,132 @@ public class BucketCommand<T> extends Observable {
 		}
 	}
 	
+	/**
+	 * Write command which does not block the producer. The result is handed to an {@link AsyncWriteCallback}
+	 * directly from {@link #commandCompleted()} on the processor thread. No observers are notified.
+	 */
+	public static class AsyncWriteCommand extends WriteCommand {
+		
+		private final AsyncWriteCallback callback;
+		
+		public AsyncWriteCommand(String bucketName, String bucketType, ObjectNode node, AsyncWriteCallback callback) {
+			super(bucketName, bucketType, node);
+			this.callback = callback;
+		}
+		public AsyncWriteCallback getCallback() {
+			return callback;
+		}
+		@Override
+		public void commandCompleted() {
+			markCompleted();
+			Throwable error = getError();
+			StoredMetric result = getCurrentResult();
+			try {
+				if(error == null && result != null) {
+					callback.writeCompleted(this, result);
+				} else {
+					callback.writeFailed(this, error == null ? new IllegalStateException("No result for: '" + this + "'.") : error);
+				}
+			} catch(RuntimeException e) {
+				LOG.error("Error while calling async write callback for: '{}'!", this, e);
+			}
+		}
+		@Override
+		public String toString() {
+			return "AsyncWriteCommand [bucketName=" + getBucketName() + ", bucketType=" + getBucketType() + "]";
+		}
+	}
+	
+	/**
+	 * Receives the outcome of an {@link AsyncWriteCommand}. Methods are called on the processor thread and must not block.
+	 */
+	public interface AsyncWriteCallback {
+		
+		void writeCompleted(AsyncWriteCommand command, StoredMetric storedMetric);
+		
+		void writeFailed(AsyncWriteCommand command, Throwable cause);
+		
+	}
+	
+	public static class WriteAllCommand extends BucketCommand<List<StoredMetric>> {
+		
+		private final String bucketName;
+		private final String bucketType;
+		private final Iterable<ObjectNode> nodes;
+		
+		public WriteAllCommand(String bucketName, String bucketType, Iterable<ObjectNode> nodes) {
+			this.bucketName = bucketName;
+			this.bucketType = bucketType;
+			this.nodes = nodes;
+		}
+		@Override
+		public String getBucketName() {
+			return bucketName;
+		}
+		public String getBucketType() {
+			return bucketType;
+		}
+		public Iterable<ObjectNode> getNodes() {
+			return nodes;
+		}
+		@Override
+		public String toString() {
+			return "WriteAllCommand [bucketName=" + bucketName + ", bucketType=" + bucketType + "]";
+		}
+	}
+	
 	public static class ReadCommand extends BucketCommand<Void> {
 		
 		private final String bucketName;
 		private final Interval interval;
+		private final RecordFilter filter;
+		private final RecordProjection projection;
+		private final int newestLimit;
 		private final Predicate<StoredMetric> predicate;
 		
 		public ReadCommand(String bucketName, Interval interval, Predicate<StoredMetric> predicate) {
+			this(bucketName, interval, null, null, predicate);
+		}
+		public ReadCommand(String bucketName, Interval interval, RecordFilter filter, RecordProjection projection, Predicate<StoredMetric> predicate) {
+			this(bucketName, interval, filter, projection, 0, predicate);
+		}
+		/**
+		 * @param newestLimit The maximum number of metrics to read newest first or <code>0</code> to read the complete interval in ascending order.
+		 */
+		public ReadCommand(String bucketName, Interval interval, RecordFilter filter, RecordProjection projection, int newestLimit, Predicate<StoredMetric> predicate) {
 			this.bucketName = bucketName;
 			this.interval = interval;
+			this.filter = filter;
+			this.projection = projection;
+			this.newestLimit = newestLimit;
 			this.predicate = predicate;
 		}
 		
+		@Override
 		public String getBucketName() {
 			return bucketName;
 		}
 		public Interval getInterval() {
 			return interval;
 		}
+		/**
+		 * @return The filter of the read or <code>null</code> for all metrics.
+		 */
+		public RecordFilter getFilter() {
+			return filter;
+		}
+		/**
+		 * @return The projection of the read or <code>null</code> for complete nodes.
+		 */
+		public RecordProjection getProjection() {
+			return projection;
+		}
+		/**
+		 * @return The maximum number of metrics to read newest first or <code>0</code> to read the complete interval in ascending order.
+		 */
+		public int getNewestLimit() {
+			return newestLimit;
+		}
 		public Predicate<StoredMetric> getPredicate() {
 			return predicate;
 		}
@@ -135,6 +288,44 @@ public class BucketCommand<T> extends Observable {
 		}
 	}
 	
+	/**
+	 * Aggregates an interval of a bucket on the processor thread. The result holds the statistics per time bucket.
+	 */
+	public static class AggregateCommand extends BucketCommand<NavigableMap<DateTime, MetricStatistics>> {
+		
+		private final String bucketName;
+		private final Interval interval;
+		private final RecordFilter filter;
+		private final MetricAggregation aggregation;
+		
+		public AggregateCommand(String bucketName, Interval interval, RecordFilter filter, MetricAggregation aggregation) {
+			this.bucketName = bucketName;
+			this.interval = interval;
+			this.filter = filter;
+			this.aggregation = aggregation;
+		}
+		@Override
+		public String getBucketName() {
+			return bucketName;
+		}
+		public Interval getInterval() {
+			return interval;
+		}
+		/**
+		 * @return The filter of the aggregation or <code>null</code> for all metrics.
+		 */
+		public RecordFilter getFilter() {
+			return filter;
+		}
+		public MetricAggregation getAggregation() {
+			return aggregation;
+		}
+		@Override
+		public String toString() {
+			return "AggregateCommand [bucketName=" + bucketName + ", interval=" + interval + ", aggregation=" + aggregation + "]";
+		}
+	}
+	
 	public static class CompressCommand extends BucketCommand<Void> {
 		
 		private final String bucketName;
@@ -144,6 +335,7 @@ public class BucketCommand<T> extends Observable {
 			this.bucketName = bucketName;
 			this.compressUntil = compressUntil;
 		}
+		@Override
 		public String getBucketName() {
 			return bucketName;
 		}
@@ -165,6 +357,7 @@ public class BucketCommand<T> extends Observable {
 			this.bucketName = bucketName;
 			this.deleteUntil = deleteUntil;
 		}
+		@Override
 		public String getBucketName() {
 			return bucketName;
 		}
@@ -7,23 +7,31 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedResource;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
 
 import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.MetricStatistics;
 import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.fs.BucketCommand.AggregateCommand;
 import de.ck35.metricstore.fs.BucketCommand.CompressCommand;
 import de.ck35.metricstore.fs.BucketCommand.DeleteCommand;
 import de.ck35.metricstore.fs.BucketCommand.ListBucketsCommand;
 import de.ck35.metricstore.fs.BucketCommand.ReadCommand;
+import de.ck35.metricstore.fs.BucketCommand.WriteAllCommand;
 import de.ck35.metricstore.fs.BucketCommand.WriteCommand;
 import de.ck35.metricstore.util.io.MetricsIOException;
 
@@ -40,10 +48,19 @@ public class BucketCommandProcessor {
 
 	private final Path basePath;
 	private final Function<BucketData, WritableFilesystemBucket> pathBucketFactory;
+	private final int shard;
+	private final int shards;
+	private final BucketJournals journals;
+	private BucketJournal journal;
 	
 	private final AtomicLong totalProcessedCommands;
     private final AtomicLong totalProcessedWriteCommands;
+    private final AtomicLong totalProcessedWriteAllCommands;
+    private final AtomicLong totalBatchWrittenNodes;
+    private final AtomicLong totalBatchFailedNodes;
     private final AtomicLong totalProcessedReadCommands;
+    private final AtomicLong totalProcessedAggregateCommands;
+    private final AtomicLong totalRollupAggregations;
     private final AtomicLong totalProcessedListBucketCommands;
     private final AtomicLong totalProcessedCompressCommands;
     private final AtomicLong totalProcessedDeleteCommands;
@@ -53,11 +70,46 @@ public class BucketCommandProcessor {
 
 	public BucketCommandProcessor(Path basePath,
 	                        	  Function<BucketData, WritableFilesystemBucket> pathBucketFactory) {
+		this(basePath, pathBucketFactory, null, 0, 1);
+	}
+	
+	public BucketCommandProcessor(Path basePath,
+	                              Function<BucketData, WritableFilesystemBucket> pathBucketFactory,
+	                              int shard,
+	                              int shards) {
+		this(basePath, pathBucketFactory, null, shard, shards);
+	}
+	
+	/**
+	 * Create a processor which is only responsible for the buckets of the given shard.
+	 * 
+	 * @param basePath The base path of all buckets.
+	 * @param pathBucketFactory The factory for creating buckets.
+	 * @param journals The factory for the write ahead journal or <code>null</code> if writes should not be journaled.
+	 * @param shard The shard of this processor starting with 0.
+	 * @param shards The total number of shards.
+	 */
+	public BucketCommandProcessor(Path basePath,
+	                              Function<BucketData, WritableFilesystemBucket> pathBucketFactory,
+	                              BucketJournals journals,
+	                              int shard,
+	                              int shards) {
+		if(shards < 1 || shard < 0 || shard >= shards) {
+			throw new IllegalArgumentException("Invalid shard: '" + shard + "' for: '" + shards + "' shards!");
+		}
 		this.basePath = basePath;
 		this.pathBucketFactory = pathBucketFactory;
+		this.shard = shard;
+		this.shards = shards;
+		this.journals = journals;
 		this.totalProcessedCommands = new AtomicLong();
 		this.totalProcessedWriteCommands = new AtomicLong();
+		this.totalProcessedWriteAllCommands = new AtomicLong();
+		this.totalBatchWrittenNodes = new AtomicLong();
+		this.totalBatchFailedNodes = new AtomicLong();
 		this.totalProcessedReadCommands = new AtomicLong();
+		this.totalProcessedAggregateCommands = new AtomicLong();
+		this.totalRollupAggregations = new AtomicLong();
 		this.totalProcessedListBucketCommands = new AtomicLong();
 		this.totalProcessedCompressCommands = new AtomicLong();
 		this.totalProcessedDeleteCommands = new AtomicLong();
@@ -68,10 +120,17 @@ public class BucketCommandProcessor {
 
 	public void init(Context context) {
 		try {
+			if(journals != null) {
+				if(shard == 0) {
+					replayOrphans();
+				}
+				journal = journals.open(basePath, shard);
+				replay();
+			}
 			try(DirectoryStream<Path> stream = Files.newDirectoryStream(basePath, new Filter<Path>() {
 				@Override
 				public boolean accept(Path entry) throws IOException {
-					return Files.isDirectory(entry);
+					return Files.isDirectory(entry) && shard(entry.getFileName().toString(), shards) == shard;
 				}
 			})) {
 				for(Path bucketPath : stream) {
@@ -85,7 +144,102 @@ public class BucketCommandProcessor {
 		}
 	}
 	
+	/**
+	 * Create a new processor for another shard which shares the base path and bucket factory with this processor.
+	 * 
+	 * @param shard The shard of the new processor.
+	 * @param shards The total number of shards.
+	 * @return The new processor.
+	 */
+	public BucketCommandProcessor shard(int shard, int shards) {
+		return new BucketCommandProcessor(basePath, pathBucketFactory, journals, shard, shards);
+	}
+	
+	/**
+	 * The stable shard of a bucket. All commands for a bucket must be processed by the processor of this shard.
+	 * 
+	 * @param bucketName The name of the bucket.
+	 * @param shards The total number of shards.
+	 * @return The shard of the bucket starting with 0.
+	 */
+	public static int shard(String bucketName, int shards) {
+		return (bucketName.hashCode() & Integer.MAX_VALUE) % shards;
+	}
+	
+	/**
+	 * Write all nodes of the journal into their minute files and truncate the journal afterwards. The journal
+	 * can contain nodes of buckets which belong to another shard if the number of shards has been changed,
+	 * so the nodes are written into buckets of a separate context which are closed afterwards. The buckets
+	 * of this shard are loaded after the replay.
+	 */
+	protected void replay() {
+		Context replayContext = new Context();
+		journal.replay(journalWriter(replayContext));
+		closeBuckets(replayContext);
+		journal.checkpoint();
+	}
+	
+	/**
+	 * Replay the journals of shards which do not exist anymore because the number of shards has been lowered.
+	 * Their nodes can belong to the buckets of every shard, so they are replayed by the processor of the first
+	 * shard before it loads its buckets. The processors of the other shards are initialized after the first one.
+	 * An orphaned journal is deleted after its nodes have been forced into their minute files.
+	 * 
+	 * @throws IOException If an orphaned journal can not be found or deleted.
+	 */
+	protected void replayOrphans() throws IOException {
+		for(Path path : journals.orphans(basePath, shards)) {
+			LOG.info("Replaying journal: '{}' of a shard which does not exist anymore.", path);
+			Context orphanContext = new Context();
+			try(BucketJournal orphan = journals.open(basePath, path)) {
+				orphan.replay(journalWriter(orphanContext));
+				closeBuckets(orphanContext);
+				orphan.checkpoint();
+			}
+			Files.delete(path);
+		}
+	}
+	
+	private BucketJournal.JournalWriter journalWriter(final Context context) {
+		return new BucketJournal.JournalWriter() {
+			@Override
+			public void write(String bucketName, String bucketType, ObjectNode node) {
+				bucket(bucketName, bucketType, context).write(node);
+			}
+		};
+	}
+	
+	/**
+	 * Close all writers so that the journaled nodes are inside the minute files and truncate the journal.
+	 * 
+	 * @param context The current context.
+	 */
+	protected void checkpoint(Context context) {
+		if(journal == null) {
+			return;
+		}
+		journal.sync();
+		closeBuckets(context);
+		journal.checkpoint();
+	}
+	
 	public void close(Context context) {
+		if(journal == null) {
+			closeBuckets(context);
+			return;
+		}
+		try {
+			checkpoint(context);
+		} finally {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				LOG.warn("Error while closing journal: '{}'.", journal.getPath(), e);
+			}
+		}
+	}
+	
+	private void closeBuckets(Context context) {
         for(WritableFilesystemBucket bucket : context.getBuckets().values()) {
             try {               
                 bucket.close();
@@ -103,10 +257,18 @@ public class BucketCommandProcessor {
 	            totalProcessedWriteCommands.incrementAndGet();
 	            command.setResult(runWriteCommand((WriteCommand) command, context));
 	            
+	        } else if(command instanceof WriteAllCommand) {
+	            totalProcessedWriteAllCommands.incrementAndGet();
+	            command.setResult(runWriteAllCommand((WriteAllCommand) command, context));
+	            
 	        } else if(command instanceof ReadCommand) {
 	            totalProcessedReadCommands.incrementAndGet();
 	            runReadCommand((ReadCommand) command, context);
 	            
+	        } else if(command instanceof AggregateCommand) {
+	            totalProcessedAggregateCommands.incrementAndGet();
+	            command.setResult(runAggregateCommand((AggregateCommand) command, context));
+	            
 	        } else if(command instanceof ListBucketsCommand) {
 	            totalProcessedListBucketCommands.incrementAndGet();
 	            command.setResult(runListBucketsCommand((ListBucketsCommand) command, context));
@@ -126,6 +288,7 @@ public class BucketCommandProcessor {
 	    } catch(Exception e) {
             LOG.error("Error while working on command: '{}'!", command, e);
             totalFailedCommands.incrementAndGet();
+            command.setError(e);
 	    } finally {
 	        command.commandCompleted();
             runningCommand.set(null);
@@ -137,18 +300,54 @@ public class BucketCommandProcessor {
 	}
 	
 	public StoredMetric runWriteCommand(WriteCommand command, Context context) {
-		WritableFilesystemBucket bucket = context.getBuckets().get(command.getBucketName());
+		StoredMetric result = bucket(command.getBucketName(), command.getBucketType(), context).write(command.getNode(), journal);
+		checkpointIfDue(context);
+		return result;
+	}
+	
+	private void checkpointIfDue(Context context) {
+		if(journal != null && journal.isCheckpointDue()) {
+			checkpoint(context);
+		}
+	}
+	
+	/**
+	 * Write all nodes of the given command in one pass. A node which can not be written
+	 * will be skipped so that the remaining nodes of the batch are not lost.
+	 * 
+	 * @param command The batch write command.
+	 * @param context The current context.
+	 * @return All stored metrics in the order they have been written.
+	 */
+	public List<StoredMetric> runWriteAllCommand(WriteAllCommand command, Context context) {
+		WritableFilesystemBucket bucket = bucket(command.getBucketName(), command.getBucketType(), context);
+		List<StoredMetric> result = new ArrayList<>();
+		for(ObjectNode node : command.getNodes()) {
+			try {
+				result.add(bucket.write(node, journal));
+			} catch(RuntimeException e) {
+				LOG.warn("Skipping node inside: '{}' because it could not be written.", command, e);
+				totalBatchFailedNodes.incrementAndGet();
+			}
+		}
+		totalBatchWrittenNodes.addAndGet(result.size());
+		checkpointIfDue(context);
+		return result;
+	}
+	
+	protected WritableFilesystemBucket bucket(String bucketName, String bucketType, Context context) {
+		WritableFilesystemBucket bucket = context.getBuckets().get(bucketName);
 		if(bucket == null) {
 			BucketData bucketData;
 			try {
-				bucketData = BucketData.create(basePath, command.getBucketName(), command.getBucketType());
+				bucketData = BucketData.create(basePath, bucketName, bucketType);
 			} catch(IOException e) {
-				throw new RuntimeException("Creating new bucket: '" + command.getBucketName() + "' with type: '" + command.getBucketType() + "' failed!", e);
+				throw new RuntimeException("Creating new bucket: '" + bucketName + "' with type: '" + bucketType + "' failed!", e);
 			}
 			bucket = pathBucketFactory.apply(bucketData);
-			context.getBuckets().put(command.getBucketName(), bucket);
+			context.getBuckets().put(bucketName, bucket);
 		}
-		return bucket.write(command.getNode());
+		return bucket;
 	}
 	
 	public void runReadCommand(ReadCommand command, Context context) {
@@ -157,17 +356,38 @@ public class BucketCommandProcessor {
 			return;
 		}
 		try {
-			bucket.read(command.getInterval(), command.getPredicate());
+			if(command.getNewestLimit() > 0) {
+				bucket.readNewest(command.getInterval(), command.getFilter(), command.getProjection(), command.getNewestLimit(), command.getPredicate());
+			} else {
+				bucket.read(command.getInterval(), command.getFilter(), command.getProjection(), command.getPredicate());
+			}
 		} catch (InterruptedException e) {
 			LOG.warn("Interrupted while reading: '" + command + "'.");
 		}
 	}
 	
+	public NavigableMap<DateTime, MetricStatistics> runAggregateCommand(AggregateCommand command, Context context) {
+		NavigableMap<DateTime, MetricStatistics> result = new TreeMap<>();
+		WritableFilesystemBucket bucket = context.getBuckets().get(command.getBucketName());
+		if(bucket == null) {
+			return result;
+		}
+		try {
+			if(bucket.aggregate(command.getInterval(), command.getFilter(), command.getAggregation(), result)) {
+				totalRollupAggregations.incrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			LOG.warn("Interrupted while aggregating: '" + command + "'.");
+		}
+		return result;
+	}
+	
 	public void runCompressCommand(CompressCommand command, Context context) {
 		WritableFilesystemBucket bucket = context.getBuckets().get(command.getBucketName());
 		if(bucket == null) {
 			return;
 		}
+		checkpoint(context);
 		bucket.compressAll(command.getCompressUntil());
 	}
 	
@@ -176,6 +396,7 @@ public class BucketCommandProcessor {
 		if(bucket == null) {
 			return;
 		}
+		checkpoint(context);
 		bucket.deletAll(command.getDeleteUntil());
 	}
 	
@@ -192,6 +413,14 @@ public class BucketCommandProcessor {
 	}
 
 	@ManagedAttribute
+	public int getShard() {
+	    return shard;
+	}
+	@ManagedAttribute
+	public int getShards() {
+	    return shards;
+	}
+	@ManagedAttribute
     public long getTotalProcessedCommands() {
         return totalProcessedCommands.get();
     }
@@ -200,10 +429,30 @@ public class BucketCommandProcessor {
         return totalProcessedWriteCommands.get();
     }
 	@ManagedAttribute
+	public long getTotalProcessedWriteAllCommands() {
+	    return totalProcessedWriteAllCommands.get();
+	}
+	@ManagedAttribute
+	public long getTotalBatchWrittenNodes() {
+	    return totalBatchWrittenNodes.get();
+	}
+	@ManagedAttribute
+	public long getTotalBatchFailedNodes() {
+	    return totalBatchFailedNodes.get();
+	}
+	@ManagedAttribute
     public long getTotalProcessedReadCommands() {
         return totalProcessedReadCommands.get();
     }
 	@ManagedAttribute
+	public long getTotalProcessedAggregateCommands() {
+	    return totalProcessedAggregateCommands.get();
+	}
+	@ManagedAttribute
+	public long getTotalRollupAggregations() {
+	    return totalRollupAggregations.get();
+	}
+	@ManagedAttribute
     public long getTotalProcessedListBucketCommands() {
         return totalProcessedListBucketCommands.get();
     }
@@ -24,14 +24,17 @@ public class BucketCommandProcessorThread extends Thread implements UncaughtExce
     
     private static final Logger LOG = LoggerFactory.getLogger(BucketCommandProcessorThread.class);
 
-    private static final String NAME = "ManagedBucketCommandProcessorThread";
+    public static final String NAME = "ManagedBucketCommandProcessorThread";
     
     private final CountDownLatch initLatch;
     private final AtomicReference<Throwable> uncaughtExceptionRef;
     private final AtomicReference<Runnable> targetRunnableRef;
     
     public BucketCommandProcessorThread() {
-        super(NAME);
+        this(NAME);
+    }
+    public BucketCommandProcessorThread(String name) {
+        super(name);
         this.initLatch = new CountDownLatch(1);
         this.uncaughtExceptionRef = new AtomicReference<>();
         this.setUncaughtExceptionHandler(this);
@@ -67,7 +70,7 @@ public class BucketCommandProcessorThread extends Thread implements UncaughtExce
     
     @Override
     public void close() throws IOException {
-        LOG.info("Closing {}.", NAME);
+        LOG.info("Closing {}.", getName());
         uncaughtExceptionRef.set(new RuntimeException("Already closed!"));
         initLatch.countDown();
     }
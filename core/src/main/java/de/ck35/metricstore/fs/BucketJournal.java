@@ -0,0 +1,329 @@
+package de.ck35.metricstore.fs;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Ticker;
+
+import de.ck35.metricstore.util.io.MetricsIOException;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+
+/**
+ * Append only write ahead journal of one command processor shard. Every node is appended to the journal
+ * before it is written into its minute file. Records are collected inside a buffer and written and forced
+ * to disk together when the sync bytes are reached or the sync interval has passed, so a crash loses at most
+ * the records of one sync interval without a system call per write.
+ * <p>
+ * The first time a minute file is touched after a checkpoint the journal records its current size. On replay
+ * the minute file is truncated to this size before the journaled nodes are written again. This removes
+ * half written compressed data and prevents duplicates. A checkpoint closes all writers, forces the touched
+ * minute files to disk and truncates the journal.
+ * <p>
+ * Truncating is only safe if the journal holds every node which reached a minute file after its mark. So the
+ * journal is the flush listener of the minute file writers: before a writer writes into its minute file,
+ * e.g. because its buffer is full or because it is evicted or closed, all records of this minute file
+ * are forced to disk.
+ * <p>
+ * All methods are synchronized because the journal is written by the processor thread, synced by
+ * the {@link BucketJournals} worker and flushed by threads which close writers.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class BucketJournal implements Closeable, ObjectNodeWriter.FlushListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BucketJournal.class);
+
+    private static final byte MARK_RECORD = 1;
+    private static final byte NODE_RECORD = 2;
+    private static final int RECORD_HEADER_LENGTH = 4 + 8 + 1;
+
+    private final Path path;
+    private final Path basePath;
+    private final ObjectMapper mapper;
+    private final JournalSettings settings;
+    private final BucketJournals statistics;
+    private final Ticker ticker;
+    private final FileChannel channel;
+    private final Map<Path, Long> touchedFiles;
+    private final CRC32 crc;
+
+    private ByteBuffer buffer;
+    private long unsyncedBytes;
+    private long journalBytes;
+    private long syncedBytes;
+    private long lastSync;
+
+    public BucketJournal(Path path, Path basePath, ObjectMapper mapper, JournalSettings settings, BucketJournals statistics, Ticker ticker) {
+        this.path = path;
+        this.basePath = basePath;
+        this.mapper = mapper;
+        this.settings = settings;
+        this.statistics = statistics;
+        this.ticker = ticker;
+        this.touchedFiles = new HashMap<>();
+        this.crc = new CRC32();
+        this.buffer = ByteBuffer.allocateDirect(settings.getBufferBytes());
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new MetricsIOException("Could not open journal: '" + path + "'!", e);
+        }
+        this.lastSync = ticker.read();
+    }
+
+    /**
+     * Append a node which will be written into the given minute file. Must be called after the writer for the
+     * minute file has been opened and before the node is written. The journal must be the flush listener of
+     * this writer.
+     *
+     * @param bucketData The bucket of the node.
+     * @param minuteFile The minute file which will receive the node.
+     * @param node The node.
+     */
+    public synchronized void append(BucketData bucketData, Path minuteFile, ObjectNode node) {
+        try {
+            if(!touchedFiles.containsKey(minuteFile)) {
+                long size = Files.isRegularFile(minuteFile) ? Files.size(minuteFile) : 0;
+                byte[] relativePath = basePath.relativize(minuteFile).toString().getBytes(Charsets.UTF_8);
+                ByteBuffer payload = ByteBuffer.allocate(4 + relativePath.length + 8);
+                payload.putInt(relativePath.length).put(relativePath).putLong(size).flip();
+                append(MARK_RECORD, payload);
+            }
+            byte[] name = bucketData.getName().getBytes(Charsets.UTF_8);
+            byte[] type = bucketData.getType().getBytes(Charsets.UTF_8);
+            byte[] content = mapper.writeValueAsBytes(node);
+            ByteBuffer payload = ByteBuffer.allocate(4 + name.length + 4 + type.length + content.length);
+            payload.putInt(name.length).put(name).putInt(type.length).put(type).put(content).flip();
+            append(NODE_RECORD, payload);
+            touchedFiles.put(minuteFile, journalBytes);
+            statistics.appended();
+        } catch(IOException e) {
+            throw new MetricsIOException("Could not append node to journal: '" + path + "'!", e);
+        }
+        if(unsyncedBytes >= settings.getSyncBytes() || ticker.read() - lastSync >= settings.getSyncIntervalNanos()) {
+            sync();
+        }
+    }
+
+    private void append(byte type, ByteBuffer payload) throws IOException {
+        int length = RECORD_HEADER_LENGTH + payload.remaining();
+        if(buffer.remaining() < length) {
+            writeBuffer();
+            if(buffer.capacity() < length) {
+                buffer = ByteBuffer.allocateDirect(length);
+            }
+        }
+        crc.reset();
+        crc.update(type);
+        crc.update(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        buffer.putInt(payload.remaining()).putLong(crc.getValue()).put(type).put(payload);
+        unsyncedBytes += length;
+        journalBytes += length;
+        statistics.appendedBytes(length);
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write all buffered records and force them to disk.
+     */
+    public synchronized void sync() {
+        lastSync = ticker.read();
+        if(unsyncedBytes == 0) {
+            return;
+        }
+        try {
+            writeBuffer();
+            channel.force(false);
+            unsyncedBytes = 0;
+            syncedBytes = journalBytes;
+            statistics.synced();
+        } catch(IOException e) {
+            throw new MetricsIOException("Could not sync journal: '" + path + "'!", e);
+        }
+    }
+
+    /**
+     * Force all records of the minute file of the writer to disk before the writer writes into its minute file.
+     */
+    @Override
+    public synchronized void beforeFlush(ObjectNodeWriter writer) {
+        Long lastRecord = touchedFiles.get(writer.getPath());
+        if(lastRecord != null && lastRecord > syncedBytes) {
+            sync();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the journal has grown beyond the checkpoint bytes.
+     */
+    public synchronized boolean isCheckpointDue() {
+        return journalBytes >= settings.getCheckpointBytes();
+    }
+
+    /**
+     * Truncate the journal. All writers of the processor must have been closed before.
+     */
+    public synchronized void checkpoint() {
+        try {
+            for(Path minuteFile : touchedFiles.keySet()) {
+                try(FileChannel minuteChannel = FileChannel.open(minuteFile, StandardOpenOption.WRITE)) {
+                    minuteChannel.force(true);
+                } catch(NoSuchFileException e) {
+                    LOG.debug("Touched minute file: '{}' does not exist anymore.", minuteFile);
+                }
+            }
+            touchedFiles.clear();
+            buffer.clear();
+            unsyncedBytes = 0;
+            journalBytes = 0;
+            syncedBytes = 0;
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+            lastSync = ticker.read();
+            statistics.checkpointed();
+        } catch(IOException e) {
+            throw new MetricsIOException("Could not checkpoint journal: '" + path + "'!", e);
+        }
+    }
+
+    /**
+     * Replay all complete records of the journal. Minute files are truncated to their journaled size before
+     * the nodes are passed to the given writer. A torn record at the end of the journal is ignored.
+     *
+     * @param writer Receives the journaled nodes.
+     */
+    public synchronized void replay(JournalWriter writer) {
+        try {
+            ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+            while(content.hasRemaining() && channel.read(content, content.position()) >= 0) {
+                continue;
+            }
+            content.flip();
+            int records = 0;
+            while(content.hasRemaining()) {
+                ByteBuffer payload;
+                byte type;
+                try {
+                    int length = content.getInt();
+                    long checksum = content.getLong();
+                    type = content.get();
+                    if(length < 0 || length > content.remaining()) {
+                        throw new EOFException();
+                    }
+                    payload = content.slice();
+                    payload.limit(length);
+                    content.position(content.position() + length);
+                    crc.reset();
+                    crc.update(type);
+                    crc.update(payload.array(), payload.arrayOffset(), length);
+                    if(crc.getValue() != checksum) {
+                        throw new EOFException();
+                    }
+                } catch(BufferUnderflowException | EOFException e) {
+                    LOG.warn("Ignoring torn record at the end of journal: '{}' after: '{}' records.", path, records);
+                    break;
+                }
+                if(type == MARK_RECORD) {
+                    truncate(basePath.resolve(new String(string(payload), Charsets.UTF_8)), payload.getLong());
+                } else if(type == NODE_RECORD) {
+                    String name = new String(string(payload), Charsets.UTF_8);
+                    String bucketType = new String(string(payload), Charsets.UTF_8);
+                    byte[] node = new byte[payload.remaining()];
+                    payload.get(node);
+                    try {
+                        writer.write(name, bucketType, (ObjectNode) mapper.readTree(node));
+                        statistics.replayed();
+                    } catch(RuntimeException e) {
+                        LOG.warn("Skipping journaled node for bucket: '{}' because it could not be written.", name, e);
+                    }
+                }
+                records++;
+            }
+            LOG.info("Replayed: '{}' records from journal: '{}'.", records, path);
+        } catch(IOException e) {
+            throw new MetricsIOException("Could not replay journal: '" + path + "'!", e);
+        }
+    }
+
+    private static byte[] string(ByteBuffer payload) {
+        byte[] result = new byte[payload.getInt()];
+        payload.get(result);
+        return result;
+    }
+
+    private static void truncate(Path minuteFile, long size) throws IOException {
+        if(size == 0) {
+            Files.deleteIfExists(minuteFile);
+        } else if(Files.isRegularFile(minuteFile)) {
+            try(FileChannel minuteChannel = FileChannel.open(minuteFile, StandardOpenOption.WRITE)) {
+                minuteChannel.truncate(size);
+            }
+        } else {
+            LOG.warn("Journaled minute file: '{}' does not exist anymore.", minuteFile);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            statistics.closed(this);
+            channel.close();
+        }
+    }
+
+    /**
+     * Receives the nodes during replay.
+     */
+    public interface JournalWriter {
+
+        void write(String bucketName, String bucketType, ObjectNode node);
+
+    }
+
+    /**
+     * Settings of a journal.
+     */
+    public interface JournalSettings {
+
+        int getBufferBytes();
+
+        long getSyncBytes();
+
+        long getSyncIntervalNanos();
+
+        long getCheckpointBytes();
+
+    }
+}
@@ -0,0 +1,225 @@
+package de.ck35.metricstore.fs;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+
+import de.ck35.metricstore.fs.BucketJournal.JournalSettings;
+
+/**
+ * Creates the {@link BucketJournal}s of all command processor shards. Runs as the worker which syncs
+ * idle journals after the sync interval so the interval also bounds the data loss when no more
+ * writes arrive.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@ManagedResource
+public class BucketJournals implements Runnable, JournalSettings {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BucketJournals.class);
+
+    public static final String JOURNAL_FILE_PREFIX = "journal-";
+    public static final String JOURNAL_FILE_SUFFIX = ".wal";
+
+    private final ObjectMapper mapper;
+    private final Supplier<Integer> syncIntervalMillisSetting;
+    private final Supplier<Integer> syncBytesSetting;
+    private final Supplier<Long> checkpointBytesSetting;
+    private final Ticker ticker;
+    private final List<BucketJournal> journals;
+
+    private final AtomicLong totalAppendedNodes;
+    private final AtomicLong totalAppendedBytes;
+    private final AtomicLong totalSyncs;
+    private final AtomicLong totalCheckpoints;
+    private final AtomicLong totalReplayedNodes;
+    private final AtomicBoolean running;
+
+    public BucketJournals(ObjectMapper mapper,
+                          Supplier<Integer> syncIntervalMillisSetting,
+                          Supplier<Integer> syncBytesSetting,
+                          Supplier<Long> checkpointBytesSetting) {
+        this(mapper, syncIntervalMillisSetting, syncBytesSetting, checkpointBytesSetting, Ticker.systemTicker());
+    }
+
+    public BucketJournals(ObjectMapper mapper,
+                          Supplier<Integer> syncIntervalMillisSetting,
+                          Supplier<Integer> syncBytesSetting,
+                          Supplier<Long> checkpointBytesSetting,
+                          Ticker ticker) {
+        this.mapper = mapper;
+        this.syncIntervalMillisSetting = syncIntervalMillisSetting;
+        this.syncBytesSetting = syncBytesSetting;
+        this.checkpointBytesSetting = checkpointBytesSetting;
+        this.ticker = ticker;
+        this.journals = new CopyOnWriteArrayList<>();
+        this.totalAppendedNodes = new AtomicLong();
+        this.totalAppendedBytes = new AtomicLong();
+        this.totalSyncs = new AtomicLong();
+        this.totalCheckpoints = new AtomicLong();
+        this.totalReplayedNodes = new AtomicLong();
+        this.running = new AtomicBoolean(false);
+    }
+
+    /**
+     * Open the journal of a shard. An existing journal is kept so that it can be replayed.
+     *
+     * @param basePath The base path of all buckets.
+     * @param shard The shard of the command processor.
+     * @return The journal of the shard.
+     */
+    public BucketJournal open(Path basePath, int shard) {
+        return open(basePath, basePath.resolve(JOURNAL_FILE_PREFIX + shard + JOURNAL_FILE_SUFFIX));
+    }
+
+    /**
+     * Open an existing journal, e.g. an orphaned one, so that it can be replayed.
+     *
+     * @param basePath The base path of all buckets.
+     * @param path The path of the journal.
+     * @return The journal.
+     */
+    public BucketJournal open(Path basePath, Path path) {
+        BucketJournal journal = new BucketJournal(path, basePath, mapper, this, this, ticker);
+        journals.add(journal);
+        return journal;
+    }
+
+    /**
+     * Find the journals of shards which do not exist anymore because the number of shards has been lowered.
+     *
+     * @param basePath The base path of all buckets.
+     * @param shards The current number of shards.
+     * @return The paths of the orphaned journals ordered by their shard.
+     * @throws IOException If the base path can not be listed.
+     */
+    public List<Path> orphans(Path basePath, int shards) throws IOException {
+        List<Path> result = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(basePath, JOURNAL_FILE_PREFIX + "*" + JOURNAL_FILE_SUFFIX)) {
+            for(Path path : stream) {
+                String fileName = path.getFileName().toString();
+                String shard = fileName.substring(JOURNAL_FILE_PREFIX.length(), fileName.length() - JOURNAL_FILE_SUFFIX.length());
+                try {
+                    if(Integer.parseInt(shard) >= shards) {
+                        result.add(path);
+                    }
+                } catch(NumberFormatException e) {
+                    LOG.warn("Ignoring file: '{}' which is not the journal of a shard.", path);
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    public void closed(BucketJournal journal) {
+        journals.remove(journal);
+    }
+
+    @Override
+    public void run() {
+        running.set(true);
+        try {
+            while(!Thread.interrupted()) {
+                Thread.sleep(syncIntervalMillisSetting.get());
+                for(BucketJournal journal : journals) {
+                    try {
+                        journal.sync();
+                    } catch(RuntimeException e) {
+                        LOG.error("Could not sync journal: '{}'.", journal.getPath(), e);
+                    }
+                }
+            }
+        } catch(InterruptedException e) {
+            LOG.info("Journal sync worker has been interrupted.");
+        } finally {
+            running.set(false);
+            LOG.info("Journal sync worker will exit now.");
+        }
+    }
+
+    void appended() {
+        totalAppendedNodes.incrementAndGet();
+    }
+    void appendedBytes(long bytes) {
+        totalAppendedBytes.addAndGet(bytes);
+    }
+    void synced() {
+        totalSyncs.incrementAndGet();
+    }
+    void checkpointed() {
+        totalCheckpoints.incrementAndGet();
+    }
+    void replayed() {
+        totalReplayedNodes.incrementAndGet();
+    }
+
+    @Override
+    public int getBufferBytes() {
+        return Math.max(64 * 1024, Math.min(syncBytesSetting.get(), 4 * 1024 * 1024));
+    }
+    @Override
+    @ManagedAttribute
+    public long getSyncBytes() {
+        return syncBytesSetting.get();
+    }
+    @Override
+    public long getSyncIntervalNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(syncIntervalMillisSetting.get());
+    }
+    @Override
+    @ManagedAttribute
+    public long getCheckpointBytes() {
+        return checkpointBytesSetting.get();
+    }
+    @ManagedAttribute
+    public int getSyncIntervalMillis() {
+        return syncIntervalMillisSetting.get();
+    }
+    @ManagedAttribute
+    public int getOpenJournals() {
+        return journals.size();
+    }
+    @ManagedAttribute
+    public long getTotalAppendedNodes() {
+        return totalAppendedNodes.get();
+    }
+    @ManagedAttribute
+    public long getTotalAppendedBytes() {
+        return totalAppendedBytes.get();
+    }
+    @ManagedAttribute
+    public long getTotalSyncs() {
+        return totalSyncs.get();
+    }
+    @ManagedAttribute
+    public long getTotalCheckpoints() {
+        return totalCheckpoints.get();
+    }
+    @ManagedAttribute
+    public long getTotalReplayedNodes() {
+        return totalReplayedNodes.get();
+    }
+    @ManagedAttribute
+    public boolean isRunning() {
+        return running.get();
+    }
+}
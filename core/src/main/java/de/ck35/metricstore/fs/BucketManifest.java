@@ -0,0 +1,153 @@
+package de.ck35.metricstore.fs;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+
+/**
+ * In memory listing of the day files and minute files of one bucket. The listing is loaded from the file system
+ * on first use and afterwards kept up to date by the {@link WritableFilesystemBucket} which owns the files of the
+ * bucket. Reads only visit the minutes which actually exist instead of probing every minute of an interval.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class BucketManifest {
+
+	private final Path basePath;
+
+	private NavigableMap<LocalDate, Day> days;
+
+	/**
+	 * @param basePath The base path of the bucket.
+	 */
+	public BucketManifest(Path basePath) {
+		this.basePath = basePath;
+	}
+
+	/**
+	 * @param from The first day.
+	 * @param to The last day.
+	 * @return A snapshot of all existing days inside the given range in ascending order.
+	 */
+	public synchronized NavigableMap<LocalDate, Day> days(LocalDate from, LocalDate to) {
+		NavigableMap<LocalDate, Day> result = new TreeMap<>();
+		for(Entry<LocalDate, Day> entry : days().subMap(from, true, to, true).entrySet()) {
+			result.put(entry.getKey(), new Day(entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Record a new minute file. Nothing happens if the manifest has not been loaded yet.
+	 *
+	 * @param timestamp A timestamp inside of the minute.
+	 */
+	public synchronized void addMinute(DateTime timestamp) {
+		if(days == null) {
+			return;
+		}
+		LocalDate date = timestamp.toLocalDate();
+		Day day = days.get(date);
+		if(day == null) {
+			day = new Day();
+			days.put(date, day);
+		}
+		day.minutes.set(timestamp.getMinuteOfDay());
+	}
+
+	/**
+	 * List the files of a day again after they have been replaced, e.g. by compressing or expanding the day.
+	 * Nothing happens if the manifest has not been loaded yet.
+	 *
+	 * @param pathFinder The path finder of the day.
+	 */
+	public synchronized void reload(PathFinder pathFinder) {
+		if(days == null) {
+			return;
+		}
+		Day day = load(pathFinder);
+		if(day == null) {
+			days.remove(pathFinder.getDate());
+		} else {
+			days.put(pathFinder.getDate(), day);
+		}
+	}
+
+	/**
+	 * @return The number of days with existing files or <code>-1</code> if the manifest has not been loaded yet.
+	 */
+	public synchronized int size() {
+		return days == null ? -1 : days.size();
+	}
+
+	private NavigableMap<LocalDate, Day> days() {
+		if(days == null) {
+			days = new TreeMap<>();
+			for(PathFinder pathFinder : new PathFinder(new LocalDate(0), basePath)) {
+				if(!days.containsKey(pathFinder.getDate())) {
+					Day day = load(pathFinder);
+					if(day != null) {
+						days.put(pathFinder.getDate(), day);
+					}
+				}
+			}
+		}
+		return days;
+	}
+
+	private static Day load(PathFinder pathFinder) {
+		Day day = new Day();
+		day.dayFile = Files.isRegularFile(pathFinder.getDayFilePath());
+		if(Files.isDirectory(pathFinder.getDayDirectoryPath())) {
+			for(PathFinder minuteOfDay : pathFinder.iterateMinutesOfDay()) {
+				day.minutes.set(minuteOfDay.getTimestamp().getMinuteOfDay());
+			}
+		}
+		return day.dayFile || !day.minutes.isEmpty() ? day : null;
+	}
+
+	/**
+	 * The existing files of one day.
+	 */
+	public static class Day {
+
+		private final BitSet minutes;
+		private boolean dayFile;
+
+		private Day() {
+			this.minutes = new BitSet();
+		}
+		private Day(Day day) {
+			this.minutes = (BitSet) day.minutes.clone();
+			this.dayFile = day.dayFile;
+		}
+
+		/**
+		 * @return <code>true</code> if the day has been compressed into a day file.
+		 */
+		public boolean hasDayFile() {
+			return dayFile;
+		}
+		/**
+		 * @param minuteOfDay The first minute to check.
+		 * @return The first minute with a minute file from the given minute on or <code>-1</code> if there is none.
+		 */
+		public int nextMinute(int minuteOfDay) {
+			return minutes.nextSetBit(minuteOfDay);
+		}
+		/**
+		 * @param minuteOfDay The last minute to check.
+		 * @return The last minute with a minute file up to the given minute or <code>-1</code> if there is none.
+		 */
+		public int previousMinute(int minuteOfDay) {
+			return minutes.previousSetBit(minuteOfDay);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package de.ck35.metricstore.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.ck35.metricstore.util.io.MetricsIOException;
+
+/**
+ * Maps the minutes of a day file to the byte offsets of their independently decodable blocks. A day file is written
+ * minute by minute, so reading from the offset of the first minute of an interval skips all earlier minutes
+ * without decompressing them. The index stores the size of its day file and is ignored when the day file has been
+ * replaced without updating the index.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class DayFileIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DayFileIndex.class);
+
+    private static final int MAGIC = 0x44494458;
+
+    private final long dayFileSize;
+    private final int[] minutes;
+    private final long[] offsets;
+
+    /**
+     * @param dayFileSize The size of the indexed day file.
+     * @param minutes The minutes of the day in ascending order.
+     * @param offsets The byte offsets of the minutes.
+     */
+    public DayFileIndex(long dayFileSize, int[] minutes, long[] offsets) {
+        if(minutes.length != offsets.length) {
+            throw new IllegalArgumentException("Minutes and offsets must have the same length!");
+        }
+        this.dayFileSize = dayFileSize;
+        this.minutes = minutes;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @param minuteOfDay The first minute to read.
+     * @return The offset of the block with the given minute or the next following minute. <code>-1</code> if the day file
+     *         contains no data from the given minute on.
+     */
+    public long offset(int minuteOfDay) {
+        int index = Arrays.binarySearch(minutes, minuteOfDay);
+        if(index < 0) {
+            index = -index - 1;
+        }
+        return index < minutes.length ? offsets[index] : -1;
+    }
+
+    /**
+     * @param minuteOfDay The last minute to check.
+     * @return The last indexed minute up to the given minute or <code>-1</code> if there is none.
+     */
+    public int previousMinute(int minuteOfDay) {
+        int index = Arrays.binarySearch(minutes, minuteOfDay);
+        if(index < 0) {
+            index = -index - 2;
+        }
+        return index >= 0 ? minutes[index] : -1;
+    }
+
+    public long getDayFileSize() {
+        return dayFileSize;
+    }
+    public int size() {
+        return minutes.length;
+    }
+
+    /**
+     * Read the index of a day file.
+     *
+     * @param indexFile The index file.
+     * @param dayFile The day file.
+     * @return The index or <code>null</code> if there is no index or it does not belong to the current day file.
+     */
+    public static DayFileIndex read(Path indexFile, Path dayFile) {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if(in.readInt() != MAGIC) {
+                LOG.warn("Ignoring invalid day file index: '{}'.", indexFile);
+                return null;
+            }
+            long dayFileSize = in.readLong();
+            if(dayFileSize != Files.size(dayFile)) {
+                LOG.warn("Ignoring outdated day file index: '{}'.", indexFile);
+                return null;
+            }
+            int[] minutes = new int[in.readInt()];
+            long[] offsets = new long[minutes.length];
+            for(int index = 0 ; index < minutes.length ; index++) {
+                minutes[index] = in.readInt();
+                offsets[index] = in.readLong();
+            }
+            return new DayFileIndex(dayFileSize, minutes, offsets);
+        } catch(NoSuchFileException e) {
+            return null;
+        } catch(IOException e) {
+            LOG.warn("Ignoring unreadable day file index: '{}'.", indexFile, e);
+            return null;
+        }
+    }
+
+    public void write(Path indexFile) {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(dayFileSize);
+            out.writeInt(minutes.length);
+            for(int index = 0 ; index < minutes.length ; index++) {
+                out.writeInt(minutes[index]);
+                out.writeLong(offsets[index]);
+            }
+        } catch(IOException e) {
+            throw new MetricsIOException("Could not write day file index: '" + indexFile + "'!", e);
+        }
+    }
+}
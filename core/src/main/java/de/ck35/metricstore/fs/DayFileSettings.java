@@ -0,0 +1,134 @@
+package de.ck35.metricstore.fs;
+
+import java.util.List;
+
+import com.google.common.base.Function;
+
+import de.ck35.metricstore.util.io.Codec;
+import de.ck35.metricstore.util.io.Codecs;
+import de.ck35.metricstore.util.io.RecordFormats;
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
+
+/**
+ * How a {@link WritableFilesystemBucket} writes its day files while compressing. By default day files are gzip
+ * compressed text, existing day files are kept as they are and no rollups are written.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class DayFileSettings {
+
+    private static final DayFileSettings DEFAULTS = builder().build();
+
+    private final Codec codec;
+    private final Codecs codecs;
+    private final RecordFormats recordFormats;
+    private final RecordFormat format;
+    private final boolean migrate;
+    private final Function<? super String, List<String>> rollupFields;
+
+    private DayFileSettings(Builder builder) {
+        this.codec = builder.codec;
+        this.codecs = builder.codecs;
+        this.recordFormats = builder.recordFormats;
+        this.format = builder.format;
+        this.migrate = builder.migrate;
+        this.rollupFields = builder.rollupFields;
+    }
+
+    public static DayFileSettings defaults() {
+        return DEFAULTS;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return The codec of new day files.
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+    /**
+     * @return Detects the codec of existing files.
+     */
+    public Codecs getCodecs() {
+        return codecs;
+    }
+    /**
+     * @return The record formats or <code>null</code> if minute files are copied into day files without checking their format.
+     */
+    public RecordFormats getRecordFormats() {
+        return recordFormats;
+    }
+    /**
+     * @return The record format of new day files. Minute files with another format are converted while compressing.
+     *         Columnar day files use the day file codec for every column.
+     */
+    public RecordFormat getFormat() {
+        return format;
+    }
+    /**
+     * @return <code>true</code> if existing day files with another format or codec should be converted while compressing.
+     */
+    public boolean isMigrate() {
+        return migrate;
+    }
+    /**
+     * @param bucketType The type of a bucket.
+     * @return The numeric fields of the {@link DayRollup} which is written next to every day file of the bucket
+     *         or <code>null</code> if no rollups should be written.
+     */
+    public List<String> getRollupFields(String bucketType) {
+        return rollupFields == null ? null : rollupFields.apply(bucketType);
+    }
+
+    public static class Builder {
+
+        private Codec codec;
+        private Codecs codecs;
+        private RecordFormats recordFormats;
+        private RecordFormat format;
+        private boolean migrate;
+        private Function<? super String, List<String>> rollupFields;
+
+        public Builder() {
+            this.codec = Codecs.GZIP;
+            this.codecs = Codecs.defaults();
+            this.format = RecordFormat.TEXT;
+        }
+        public Builder codec(Codec codec) {
+            this.codec = codec;
+            return this;
+        }
+        public Builder codecs(Codecs codecs) {
+            this.codecs = codecs;
+            return this;
+        }
+        /**
+         * @param recordFormats The mappers of the record formats.
+         * @param format The record format of new day files.
+         */
+        public Builder format(RecordFormats recordFormats, RecordFormat format) {
+            this.recordFormats = recordFormats;
+            this.format = format;
+            return this;
+        }
+        public Builder migrate(boolean migrate) {
+            this.migrate = migrate;
+            return this;
+        }
+        /**
+         * @param rollupFields Maps a bucket type to the numeric fields of the rollups or to <code>null</code> if the buckets
+         *                     of the type should not write rollups. <code>null</code> if no bucket should write rollups.
+         */
+        public Builder rollupFields(Function<? super String, List<String>> rollupFields) {
+            this.rollupFields = rollupFields;
+            return this;
+        }
+        public DayFileSettings build() {
+            return new DayFileSettings(this);
+        }
+    }
+}
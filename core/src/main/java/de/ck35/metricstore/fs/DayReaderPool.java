@@ -0,0 +1,226 @@
+package de.ck35.metricstore.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
+
+import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.RecordFilter;
+import de.ck35.metricstore.util.io.RecordProjection;
+
+/**
+ * Reads immutable days concurrently and directly from their day files without passing through the
+ * command processor. A day is immutable when it has been compressed into a day file. Writing into
+ * such a day expands the day file into a new folder first, so an open reader keeps reading a consistent
+ * snapshot. Every day is read into its own bounded {@link StoredMetricReadCache}, so the caller can
+ * consume the days in order while the following days are read ahead.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@ManagedResource
+public class DayReaderPool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DayReaderPool.class);
+
+    private final Path basePath;
+    private final Function<ObjectNode, DateTime> timestampFunction;
+    private final Function<Path, ObjectNodeReader> readerFactory;
+    private final Supplier<Integer> readAheadSetting;
+    private final Supplier<StoredMetricReadCache> readCaches;
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    private final AtomicInteger activeReads;
+    private final AtomicLong totalSubmittedDays;
+    private final AtomicLong totalFailedDays;
+
+    /**
+     * @param basePath The base path of all buckets.
+     * @param timestampFunction Extracts the timestamp of a node.
+     * @param readerFactory Creates the day file readers.
+     * @param parallelism The number of reader threads. No thread is started if it is not positive and all days
+     *                    are left to the command processor.
+     * @param readAheadSetting The number of days which are read ahead of the consumed day.
+     * @param readCaches Creates the cache of every day.
+     */
+    public DayReaderPool(Path basePath,
+                         Function<ObjectNode, DateTime> timestampFunction,
+                         Function<Path, ObjectNodeReader> readerFactory,
+                         int parallelism,
+                         Supplier<Integer> readAheadSetting,
+                         Supplier<StoredMetricReadCache> readCaches) {
+        this.basePath = basePath;
+        this.timestampFunction = timestampFunction;
+        this.readerFactory = readerFactory;
+        this.readAheadSetting = readAheadSetting;
+        this.readCaches = readCaches;
+        this.parallelism = parallelism;
+        this.executor = parallelism <= 0 ? null : Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DayReader-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.activeReads = new AtomicInteger();
+        this.totalSubmittedDays = new AtomicLong();
+        this.totalFailedDays = new AtomicLong();
+    }
+
+    /**
+     * Start reading a day if it is immutable.
+     *
+     * @param bucketName The bucket to read.
+     * @param day An interval inside of one day.
+     * @param filter The filter of the read or <code>null</code> for all metrics.
+     * @param projection The projection of the read or <code>null</code> for complete nodes.
+     * @return The running read or <code>null</code> if the day is mutable or this pool has no threads and the day
+     *         must be read by the command processor.
+     */
+    public DayRead submit(String bucketName, Interval day, RecordFilter filter, RecordProjection projection) {
+        if(executor == null) {
+            return null;
+        }
+        Path bucketPath = basePath.resolve(bucketName);
+        PathFinder pathFinder = new PathFinder(day.getStart(), bucketPath);
+        if(!Files.isRegularFile(pathFinder.getDayFilePath()) || Files.isDirectory(pathFinder.getDayDirectoryPath())) {
+            return null;
+        }
+        DayRead read = new DayRead(bucketPath, day, filter, projection);
+        totalSubmittedDays.incrementAndGet();
+        read.future = executor.submit(read);
+        return read;
+    }
+
+    @Override
+    public void close() {
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * One day which is read on the pool.
+     */
+    public class DayRead implements Runnable, Closeable {
+
+        private final Path bucketPath;
+        private final Interval day;
+        private final RecordFilter filter;
+        private final RecordProjection projection;
+        private final StoredMetricReadCache cache;
+        private volatile boolean delivered;
+        private volatile RuntimeException failure;
+        private Future<?> future;
+
+        public DayRead(Path bucketPath, Interval day, RecordFilter filter, RecordProjection projection) {
+            this.bucketPath = bucketPath;
+            this.day = day;
+            this.filter = filter;
+            this.projection = projection;
+            this.cache = readCaches.get();
+        }
+
+        @Override
+        public void run() {
+            activeReads.incrementAndGet();
+            try {
+                ReadableFilesystemBucket bucket = new ReadableFilesystemBucket(BucketData.load(bucketPath), timestampFunction, readerFactory);
+                bucket.read(day, filter, projection, new Predicate<StoredMetric>() {
+                    @Override
+                    public boolean apply(StoredMetric input) {
+                        delivered = true;
+                        return cache.apply(input);
+                    }
+                });
+            } catch(InterruptedException e) {
+                LOG.debug("Reading day: '{}' of: '{}' has been stopped.", day, bucketPath);
+            } catch(IOException e) {
+                failed(new IllegalStateException("Could not load bucket: '" + bucketPath + "'!", e));
+            } catch(RuntimeException e) {
+                failed(e);
+            } finally {
+                activeReads.decrementAndGet();
+                cache.close();
+            }
+        }
+
+        private void failed(RuntimeException e) {
+            totalFailedDays.incrementAndGet();
+            LOG.debug("Reading day: '{}' of: '{}' failed.", day, bucketPath, e);
+            failure = e;
+        }
+
+        public StoredMetricReadCache getCache() {
+            return cache;
+        }
+        public Interval getDay() {
+            return day;
+        }
+        /**
+         * @return The failure of this read or <code>null</code> if reading succeeded.
+         */
+        public RuntimeException getFailure() {
+            return failure;
+        }
+        /**
+         * @return <code>true</code> if reading failed before any metric was delivered, e.g. because the day
+         *         file has been expanded concurrently. The day can be read again by the command processor.
+         */
+        public boolean isRetryable() {
+            return failure != null && !delivered;
+        }
+
+        @Override
+        public void close() {
+            if(future != null) {
+                future.cancel(false);
+            }
+            cache.close();
+        }
+    }
+
+    @ManagedAttribute
+    public int getParallelism() {
+        return parallelism;
+    }
+    @ManagedAttribute
+    public int getReadAhead() {
+        return readAheadSetting.get();
+    }
+    @ManagedAttribute
+    public int getActiveReads() {
+        return activeReads.get();
+    }
+    @ManagedAttribute
+    public long getTotalSubmittedDays() {
+        return totalSubmittedDays.get();
+    }
+    @ManagedAttribute
+    public long getTotalFailedDays() {
+        return totalFailedDays.get();
+    }
+}
@@ -0,0 +1,246 @@
+package de.ck35.metricstore.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+
+import de.ck35.metricstore.MetricAggregation;
+import de.ck35.metricstore.MetricAggregation.Resolution;
+import de.ck35.metricstore.MetricStatistics;
+import de.ck35.metricstore.util.JsonNodeExtractor;
+import de.ck35.metricstore.util.io.MetricsIOException;
+
+/**
+ * Precomputed statistics of a day file which are written next to it while compressing. Every minute and every hour
+ * of the day holds the number of records and the statistics of the configured numeric fields, so aggregations
+ * without filters can be answered without reading the day file. Like the {@link DayFileIndex} the rollup stores
+ * the size of its day file and is ignored when the day file has been replaced without rebuilding the rollup.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class DayRollup {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DayRollup.class);
+
+	private static final int MAGIC = 0x524C5550;
+
+	private final long dayFileSize;
+	private final List<String> fields;
+	private final NavigableMap<Integer, MetricStatistics[]> minutes;
+	private final NavigableMap<Integer, MetricStatistics[]> hours;
+
+	/**
+	 * @param dayFileSize The size of the day file.
+	 * @param fields The paths of the numeric fields.
+	 * @param minutes The statistics per minute of the day. The first statistics only count the records, the following ones
+	 *                belong to the fields.
+	 * @param hours The statistics per hour of the day.
+	 */
+	public DayRollup(long dayFileSize, List<String> fields, NavigableMap<Integer, MetricStatistics[]> minutes, NavigableMap<Integer, MetricStatistics[]> hours) {
+		this.dayFileSize = dayFileSize;
+		this.fields = ImmutableList.copyOf(fields);
+		this.minutes = minutes;
+		this.hours = hours;
+	}
+
+	/**
+	 * Add the statistics of the given minutes to the result. Hourly statistics are used if the resolution of the
+	 * aggregation is coarse enough and both minutes are full hours.
+	 *
+	 * @param day The start of the day.
+	 * @param fromMinute The first minute of the day to aggregate.
+	 * @param toMinute The minute of the day after the last aggregated minute.
+	 * @param aggregation The aggregation.
+	 * @param result The statistics per time bucket.
+	 * @return <code>true</code> if the result has been updated, <code>false</code> if the aggregated field is not part of this rollup.
+	 */
+	public boolean aggregate(DateTime day, int fromMinute, int toMinute, MetricAggregation aggregation, NavigableMap<DateTime, MetricStatistics> result) {
+		int index = 0;
+		if(aggregation.getFieldPath() != null) {
+			index = fields.indexOf(aggregation.getFieldPath()) + 1;
+			if(index == 0) {
+				return false;
+			}
+		}
+		if(fromMinute >= toMinute) {
+			return true;
+		}
+		boolean hourly = aggregation.getResolution() != Resolution.MINUTE && fromMinute % 60 == 0 && toMinute % 60 == 0;
+		int unit = hourly ? 60 : 1;
+		NavigableMap<Integer, MetricStatistics[]> entries = hourly ? hours : minutes;
+		for(Entry<Integer, MetricStatistics[]> entry : entries.subMap(fromMinute / unit, true, toMinute / unit, false).entrySet()) {
+			aggregation.statistics(result, day.plusMinutes(entry.getKey() * unit)).merge(entry.getValue()[index]);
+		}
+		return true;
+	}
+
+	public long getDayFileSize() {
+		return dayFileSize;
+	}
+	public List<String> getFields() {
+		return fields;
+	}
+
+	/**
+	 * Read the rollup of a day file.
+	 *
+	 * @param rollupFile The rollup file.
+	 * @param dayFile The day file.
+	 * @return The rollup or <code>null</code> if there is no rollup or it does not belong to the current day file.
+	 */
+	public static DayRollup read(Path rollupFile, Path dayFile) {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(rollupFile)))) {
+			if(in.readInt() != MAGIC) {
+				LOG.warn("Ignoring invalid day file rollup: '{}'.", rollupFile);
+				return null;
+			}
+			long dayFileSize = in.readLong();
+			if(dayFileSize != Files.size(dayFile)) {
+				LOG.warn("Ignoring outdated day file rollup: '{}'.", rollupFile);
+				return null;
+			}
+			List<String> fields = new ArrayList<>();
+			for(int count = in.readInt() ; count > 0 ; count--) {
+				fields.add(in.readUTF());
+			}
+			NavigableMap<Integer, MetricStatistics[]> minutes = readEntries(in, fields.size() + 1);
+			NavigableMap<Integer, MetricStatistics[]> hours = readEntries(in, fields.size() + 1);
+			return new DayRollup(dayFileSize, fields, minutes, hours);
+		} catch(NoSuchFileException e) {
+			return null;
+		} catch(IOException e) {
+			LOG.warn("Ignoring unreadable day file rollup: '{}'.", rollupFile, e);
+			return null;
+		}
+	}
+
+	private static NavigableMap<Integer, MetricStatistics[]> readEntries(DataInputStream in, int width) throws IOException {
+		NavigableMap<Integer, MetricStatistics[]> entries = new TreeMap<>();
+		for(int count = in.readInt() ; count > 0 ; count--) {
+			MetricStatistics[] statistics = new MetricStatistics[width];
+			entries.put(in.readInt(), statistics);
+			for(int index = 0 ; index < width ; index++) {
+				statistics[index] = new MetricStatistics(in.readLong(), in.readLong(), in.readDouble(), in.readDouble(), in.readDouble());
+			}
+		}
+		return entries;
+	}
+
+	public void write(Path rollupFile) {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(rollupFile)))) {
+			out.writeInt(MAGIC);
+			out.writeLong(dayFileSize);
+			out.writeInt(fields.size());
+			for(String field : fields) {
+				out.writeUTF(field);
+			}
+			writeEntries(out, minutes);
+			writeEntries(out, hours);
+		} catch(IOException e) {
+			throw new MetricsIOException("Could not write day file rollup: '" + rollupFile + "'!", e);
+		}
+	}
+
+	private static void writeEntries(DataOutputStream out, NavigableMap<Integer, MetricStatistics[]> entries) throws IOException {
+		out.writeInt(entries.size());
+		for(Entry<Integer, MetricStatistics[]> entry : entries.entrySet()) {
+			out.writeInt(entry.getKey());
+			for(MetricStatistics statistics : entry.getValue()) {
+				out.writeLong(statistics.getCount());
+				out.writeLong(statistics.getValueCount());
+				out.writeDouble(statistics.getSum());
+				out.writeDouble(statistics.getMin());
+				out.writeDouble(statistics.getMax());
+			}
+		}
+	}
+
+	/**
+	 * Collects the statistics of the records of a day while they are written into the day file.
+	 */
+	public static class Builder {
+
+		private final List<String> fields;
+		private final List<Function<ObjectNode, JsonNode>> extractors;
+		private final NavigableMap<Integer, MetricStatistics[]> minutes;
+
+		/**
+		 * @param fields The paths of the numeric fields.
+		 */
+		public Builder(List<String> fields) {
+			this.fields = ImmutableList.copyOf(fields);
+			this.extractors = new ArrayList<>(fields.size());
+			for(String field : fields) {
+				extractors.add(JsonNodeExtractor.forPath(field));
+			}
+			this.minutes = new TreeMap<>();
+		}
+
+		/**
+		 * @param minuteOfDay The minute of the record.
+		 * @param node The record.
+		 */
+		public void add(int minuteOfDay, ObjectNode node) {
+			MetricStatistics[] statistics = minutes.get(minuteOfDay);
+			if(statistics == null) {
+				statistics = newStatistics();
+				minutes.put(minuteOfDay, statistics);
+			}
+			statistics[0].add(null);
+			for(int index = 0 ; index < extractors.size() ; index++) {
+				statistics[index + 1].add(extractors.get(index).apply(node));
+			}
+		}
+
+		/**
+		 * @param dayFileSize The size of the written day file.
+		 * @return The rollup with the hourly statistics merged from the minutes.
+		 */
+		public DayRollup build(long dayFileSize) {
+			NavigableMap<Integer, MetricStatistics[]> hours = new TreeMap<>();
+			for(Entry<Integer, MetricStatistics[]> entry : minutes.entrySet()) {
+				MetricStatistics[] statistics = hours.get(entry.getKey() / 60);
+				if(statistics == null) {
+					statistics = newStatistics();
+					hours.put(entry.getKey() / 60, statistics);
+				}
+				for(int index = 0 ; index < statistics.length ; index++) {
+					statistics[index].merge(entry.getValue()[index]);
+				}
+			}
+			return new DayRollup(dayFileSize, fields, minutes, hours);
+		}
+
+		public List<String> getFields() {
+			return fields;
+		}
+
+		private MetricStatistics[] newStatistics() {
+			MetricStatistics[] statistics = new MetricStatistics[fields.size() + 1];
+			for(int index = 0 ; index < statistics.length ; index++) {
+				statistics[index] = new MetricStatistics();
+			}
+			return statistics;
+		}
+	}
+}
@@ -1,25 +1,51 @@
 package de.ck35.metricstore.fs;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.joda.time.DateTime;
 import org.joda.time.Interval;
 import org.joda.time.LocalDate;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
+import de.ck35.metricstore.MetricAggregation;
 import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.MetricFilter;
 import de.ck35.metricstore.MetricRepository;
+import de.ck35.metricstore.MetricStatistics;
 import de.ck35.metricstore.StoredMetric;
 import de.ck35.metricstore.StoredMetricCallable;
+import de.ck35.metricstore.WriteErrorCallback;
+import de.ck35.metricstore.fs.BucketCommand.AggregateCommand;
+import de.ck35.metricstore.fs.BucketCommand.AsyncWriteCallback;
+import de.ck35.metricstore.fs.BucketCommand.AsyncWriteCommand;
 import de.ck35.metricstore.fs.BucketCommand.CompressCommand;
 import de.ck35.metricstore.fs.BucketCommand.DeleteCommand;
 import de.ck35.metricstore.fs.BucketCommand.ListBucketsCommand;
 import de.ck35.metricstore.fs.BucketCommand.ReadCommand;
+import de.ck35.metricstore.fs.BucketCommand.WriteAllCommand;
 import de.ck35.metricstore.fs.BucketCommand.WriteCommand;
+import de.ck35.metricstore.fs.DayReaderPool.DayRead;
 import de.ck35.metricstore.util.DayBasedIntervalSplitter;
 import de.ck35.metricstore.util.io.MetricsIOException;
+import de.ck35.metricstore.util.io.RecordFilter;
+import de.ck35.metricstore.util.io.RecordProjection;
 
 /**
  * The filesystem based implementation of the {@link MetricRepository}. 
@@ -27,15 +53,37 @@ import de.ck35.metricstore.util.io.MetricsIOException;
  * @author Christian Kaspari
  * @since 1.0.0
  */
+@ManagedResource
 public class FilesystemMetricRepository implements MetricRepository {
 
 	private final Predicate<BucketCommand<?>> commands;
-	private final Supplier<Integer> readBufferSizeSetting;
+	private final Supplier<StoredMetricReadCache> readCaches;
+	private final DayReaderPool dayReaders;
+	
+	private final AtomicLong asyncWritesInFlight;
+	private final AtomicLong totalAsyncWrites;
+	private final AtomicLong totalFailedAsyncWrites;
 	
 	public FilesystemMetricRepository(Predicate<BucketCommand<?>> commands,
 	                                  Supplier<Integer> readBufferSizeSetting) {
+		this(commands, new StoredMetricReadCache.Factory(Objects.requireNonNull(readBufferSizeSetting)), null);
+	}
+	
+	/**
+	 * @param commands The queue of the command processors.
+	 * @param readCaches Creates the cache which hands the metrics of one day from the reading thread to the caller.
+	 * @param dayReaders The pool which reads immutable days concurrently or <code>null</code> if all days
+	 *                   should be read by the command processors.
+	 */
+	public FilesystemMetricRepository(Predicate<BucketCommand<?>> commands,
+	                                  Supplier<StoredMetricReadCache> readCaches,
+	                                  DayReaderPool dayReaders) {
 		this.commands = Objects.requireNonNull(commands);
-        this.readBufferSizeSetting = Objects.requireNonNull(readBufferSizeSetting);
+        this.readCaches = Objects.requireNonNull(readCaches);
+        this.dayReaders = dayReaders;
+        this.asyncWritesInFlight = new AtomicLong();
+        this.totalAsyncWrites = new AtomicLong();
+        this.totalFailedAsyncWrites = new AtomicLong();
 	}
 	
 	public <T extends BucketCommand<?>> T appendCommand(T command) {
@@ -55,18 +103,160 @@ public class FilesystemMetricRepository implements MetricRepository {
 		return appendCommand(new WriteCommand(bucketName, bucketType, node)).getResult();
 	}
 
+	@Override
+	public Iterable<StoredMetric> writeAll(String bucketName, String bucketType, Iterable<ObjectNode> nodes) {
+		List<StoredMetric> result = appendCommand(new WriteAllCommand(bucketName, bucketType, nodes)).getResult();
+		return result == null ? Collections.<StoredMetric>emptyList() : result;
+	}
+
+	@Override
+	public CompletableFuture<StoredMetric> writeAsync(String bucketName, String bucketType, ObjectNode node) {
+		FutureWriteCallback callback = new FutureWriteCallback();
+		appendAsyncCommand(new AsyncWriteCommand(bucketName, bucketType, node, callback));
+		return callback.getFuture();
+	}
+	
+	@Override
+	public void writeAndForget(String bucketName, String bucketType, ObjectNode node, WriteErrorCallback errorCallback) {
+		appendAsyncCommand(new AsyncWriteCommand(bucketName, bucketType, node, new ErrorWriteCallback(errorCallback)));
+	}
+	
+	/**
+	 * Append the given command without waiting for its result. If the command can not be appended
+	 * it will be completed with an error immediately.
+	 * 
+	 * @param command The command to append.
+	 */
+	protected void appendAsyncCommand(AsyncWriteCommand command) {
+		totalAsyncWrites.incrementAndGet();
+		asyncWritesInFlight.incrementAndGet();
+		try {
+			appendCommand(command);
+		} catch(MetricsIOException e) {
+			command.setError(e);
+			command.commandCompleted();
+		}
+	}
+
+	/**
+	 * Read the interval day by day. Immutable days are read ahead by the {@link DayReaderPool} if there is one,
+	 * all other days are read by the command processor when it is their turn. The metrics are always passed to
+	 * the callable in the order of the days.
+	 */
 	@Override
 	public void read(String bucketName, Interval interval, StoredMetricCallable callable) {
-	    for(Interval subInterval : new DayBasedIntervalSplitter(interval)) {
-	        try(StoredMetricReadCache readCache = new StoredMetricReadCache(readBufferSizeSetting)) {
-	            ReadCommand command = new ReadCommand(bucketName, subInterval, readCache);
-	            command.addObserver(readCache);
-	            appendCommand(command);
-	            while(readCache.hasNext()) {
-	                callable.call(readCache.next());
-	            }
-	        }
-	    }
+		read(bucketName, interval, null, null, callable);
+	}
+	
+	@Override
+	public void read(String bucketName, Interval interval, Iterable<MetricFilter> filters, StoredMetricCallable callable) {
+		read(bucketName, interval, filters, null, callable);
+	}
+	
+	/**
+	 * The filters and the projection are evaluated by the readers on the raw records, so records which do not match
+	 * and values which are not projected never become nodes. Projected nodes always contain the timestamp field.
+	 */
+	@Override
+	public void read(String bucketName, Interval interval, Iterable<MetricFilter> filters, Iterable<String> fields, StoredMetricCallable callable) {
+		RecordFilter filter = RecordFilter.of(filters);
+		RecordProjection projection = RecordProjection.of(fields);
+		if(dayReaders == null) {
+			for(Interval subInterval : new DayBasedIntervalSplitter(interval)) {
+				readDay(bucketName, subInterval, filter, projection, callable);
+			}
+			return;
+		}
+		Iterator<Interval> days = new DayBasedIntervalSplitter(interval).iterator();
+		Deque<Entry<Interval, DayRead>> pending = new ArrayDeque<>();
+		try {
+			while(days.hasNext() || !pending.isEmpty()) {
+				while(days.hasNext() && pending.size() <= dayReaders.getReadAhead()) {
+					Interval day = days.next();
+					pending.addLast(Maps.immutableEntry(day, dayReaders.submit(bucketName, day, filter, projection)));
+				}
+				Entry<Interval, DayRead> next = pending.removeFirst();
+				if(next.getValue() == null) {
+					readDay(bucketName, next.getKey(), filter, projection, callable);
+					continue;
+				}
+				try(DayRead read = next.getValue()) {
+					while(read.getCache().hasNext()) {
+						callable.call(read.getCache().next());
+					}
+					if(read.isRetryable()) {
+						readDay(bucketName, next.getKey(), filter, projection, callable);
+					} else if(read.getFailure() != null) {
+						throw new MetricsIOException("Reading day: '" + next.getKey() + "' of bucket: '" + bucketName + "' failed!", read.getFailure());
+					}
+				}
+			}
+		} finally {
+			for(Entry<Interval, DayRead> entry : pending) {
+				if(entry.getValue() != null) {
+					entry.getValue().close();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Read the interval day by day from the last day on. Every day is read backwards by the command processor
+	 * and reading stops with the day which reaches the limit. The {@link DayReaderPool} is not used because it
+	 * reads complete days in ascending order.
+	 */
+	@Override
+	public void readNewest(String bucketName, Interval interval, Iterable<MetricFilter> filters, Iterable<String> fields, int limit, StoredMetricCallable callable) {
+		RecordFilter filter = RecordFilter.of(filters);
+		RecordProjection projection = RecordProjection.of(fields);
+		int remaining = limit;
+		for(Interval day : Lists.reverse(Lists.newArrayList(new DayBasedIntervalSplitter(interval)))) {
+			if(remaining <= 0) {
+				return;
+			}
+			remaining -= readDay(bucketName, day, filter, projection, remaining, callable);
+		}
+	}
+	
+	/**
+	 * The aggregation runs on the command processor day by day, so no metric is handed over to the calling thread.
+	 * Days without filters are answered from the rollups of their day files if possible, all other days are read
+	 * with the filters evaluated on the raw records and only the aggregated field.
+	 */
+	@Override
+	public NavigableMap<DateTime, MetricStatistics> aggregate(String bucketName, Interval interval, Iterable<MetricFilter> filters, MetricAggregation aggregation) {
+		RecordFilter filter = RecordFilter.of(filters);
+		NavigableMap<DateTime, MetricStatistics> result = new TreeMap<>();
+		for(Interval day : new DayBasedIntervalSplitter(interval)) {
+			AggregateCommand command = appendCommand(new AggregateCommand(bucketName, day, filter, aggregation));
+			NavigableMap<DateTime, MetricStatistics> dayResult = command.getResult();
+			if(command.getError() != null) {
+				throw new MetricsIOException("Aggregating day: '" + day + "' of bucket: '" + bucketName + "' failed!", command.getError());
+			}
+			MetricAggregation.merge(result, dayResult);
+		}
+		return result;
+	}
+	
+	private void readDay(String bucketName, Interval day, RecordFilter filter, RecordProjection projection, StoredMetricCallable callable) {
+		readDay(bucketName, day, filter, projection, 0, callable);
+	}
+	
+	/**
+	 * @return The number of metrics which have been passed to the callable.
+	 */
+	private int readDay(String bucketName, Interval day, RecordFilter filter, RecordProjection projection, int newestLimit, StoredMetricCallable callable) {
+		int count = 0;
+		try(StoredMetricReadCache readCache = readCaches.get()) {
+			ReadCommand command = new ReadCommand(bucketName, day, filter, projection, newestLimit, readCache);
+			command.addObserver(readCache);
+			appendCommand(command);
+			while(readCache.hasNext()) {
+				callable.call(readCache.next());
+				count++;
+			}
+		}
+		return count;
 	}
 	
 	public void compress(MetricBucket bucket, LocalDate compressUntil) {
@@ -76,4 +266,67 @@ public class FilesystemMetricRepository implements MetricRepository {
 	public void delete(MetricBucket bucket, LocalDate deleteUntil) {
 		appendCommand(new DeleteCommand(bucket.getName(), deleteUntil));
 	}
+	
+	@ManagedAttribute
+	public long getAsyncWritesInFlight() {
+		return asyncWritesInFlight.get();
+	}
+	@ManagedAttribute
+	public long getTotalAsyncWrites() {
+		return totalAsyncWrites.get();
+	}
+	@ManagedAttribute
+	public long getTotalFailedAsyncWrites() {
+		return totalFailedAsyncWrites.get();
+	}
+	
+	private abstract class CountingWriteCallback implements AsyncWriteCallback {
+		@Override
+		public void writeCompleted(AsyncWriteCommand command, StoredMetric storedMetric) {
+			asyncWritesInFlight.decrementAndGet();
+			completed(storedMetric);
+		}
+		@Override
+		public void writeFailed(AsyncWriteCommand command, Throwable cause) {
+			asyncWritesInFlight.decrementAndGet();
+			totalFailedAsyncWrites.incrementAndGet();
+			failed(command, cause);
+		}
+		protected abstract void completed(StoredMetric storedMetric);
+		protected abstract void failed(AsyncWriteCommand command, Throwable cause);
+	}
+	
+	private class FutureWriteCallback extends CountingWriteCallback {
+		
+		private final CompletableFuture<StoredMetric> future = new CompletableFuture<>();
+		
+		public CompletableFuture<StoredMetric> getFuture() {
+			return future;
+		}
+		@Override
+		protected void completed(StoredMetric storedMetric) {
+			future.complete(storedMetric);
+		}
+		@Override
+		protected void failed(AsyncWriteCommand command, Throwable cause) {
+			future.completeExceptionally(cause);
+		}
+	}
+	
+	private class ErrorWriteCallback extends CountingWriteCallback {
+		
+		private final WriteErrorCallback errorCallback;
+		
+		public ErrorWriteCallback(WriteErrorCallback errorCallback) {
+			this.errorCallback = Objects.requireNonNull(errorCallback);
+		}
+		@Override
+		protected void completed(StoredMetric storedMetric) {
+			//nothing to do here
+		}
+		@Override
+		protected void failed(AsyncWriteCommand command, Throwable cause) {
+			errorCallback.writeFailed(command.getBucketName(), command.getNode(), cause);
+		}
+	}
 }
\ No newline at end of file
@@ -26,6 +26,8 @@ import de.ck35.metricstore.fs.NumericSortedPathIterable.DefaultNumberFunction;
 public class PathFinder implements Iterable<PathFinder>, Function<Entry<Integer, Path>, PathFinder> {
 	
 	private static final String DAY_FILE_SUFFIX = ".day";
+	private static final String DAY_INDEX_FILE_SUFFIX = ".idx";
+	private static final String DAY_ROLLUP_FILE_SUFFIX = ".rlp";
 	private static final String TMP_SUFFIX = "-tmp";
 	
 	private final DateTime timestamp;
@@ -96,6 +98,38 @@ public class PathFinder implements Iterable<PathFinder>, Function<Entry<Integer,
 		return dayFilePath.getParent().resolve(dayFilePath.getFileName().toString() + TMP_SUFFIX);
 	}
 	
+	/**
+	 * @return The path of the index which maps the minutes of the day file to their byte offsets.
+	 */
+	public Path getDayIndexFilePath() {
+		Path dayFilePath = getDayFilePath();
+		return dayFilePath.getParent().resolve(dayFilePath.getFileName().toString() + DAY_INDEX_FILE_SUFFIX);
+	}
+	
+	/**
+	 * @return The path of the temporary index file which is written together with the temporary day file.
+	 */
+	public Path getTemporaryDayIndexFilePath() {
+		Path indexFilePath = getDayIndexFilePath();
+		return indexFilePath.getParent().resolve(indexFilePath.getFileName().toString() + TMP_SUFFIX);
+	}
+	
+	/**
+	 * @return The path of the rollup which holds the precomputed statistics of the day file.
+	 */
+	public Path getDayRollupFilePath() {
+		Path dayFilePath = getDayFilePath();
+		return dayFilePath.getParent().resolve(dayFilePath.getFileName().toString() + DAY_ROLLUP_FILE_SUFFIX);
+	}
+
+	/**
+	 * @return The path of the temporary rollup file which is written together with the temporary day file.
+	 */
+	public Path getTemporaryDayRollupFilePath() {
+		Path rollupFilePath = getDayRollupFilePath();
+		return rollupFilePath.getParent().resolve(rollupFilePath.getFileName().toString() + TMP_SUFFIX);
+	}
+
 	public DateTime getTimestamp() {
 		return timestamp;
 	}
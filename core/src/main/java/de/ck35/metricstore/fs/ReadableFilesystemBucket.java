@@ -3,20 +3,34 @@ package de.ck35.metricstore.fs;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Interval;
 import org.joda.time.LocalDate;
+import org.joda.time.Minutes;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 
+import de.ck35.metricstore.MetricAggregation;
 import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.MetricStatistics;
 import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.util.TimestampFunction;
 import de.ck35.metricstore.util.io.MetricsIOException;
 import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.ObjectNodeReader.SeekableFactory;
+import de.ck35.metricstore.util.io.RecordFilter;
+import de.ck35.metricstore.util.io.RecordProjection;
 
 /**
  * A read-only implementation of a {@link MetricBucket}. 
@@ -30,13 +44,28 @@ public class ReadableFilesystemBucket implements MetricBucket {
 	private final BucketData bucketData;
 	private final Function<ObjectNode, DateTime> timestampFunction;
 	private final Function<Path, ObjectNodeReader> readerFactory;
+	private final BucketManifest manifest;
 	
 	public ReadableFilesystemBucket(BucketData bucketData,
       	    						Function<ObjectNode, DateTime> timestampFunction,
       	    						Function<Path, ObjectNodeReader> readerFactory) {
+		this(bucketData, timestampFunction, readerFactory, null);
+	}
+	
+	/**
+	 * @param bucketData The data of this bucket.
+	 * @param timestampFunction Extracts the timestamp of a node.
+	 * @param readerFactory Creates the minute and day file readers.
+	 * @param manifest The listing of all existing files or <code>null</code> if every minute of a read interval should be probed.
+	 */
+	public ReadableFilesystemBucket(BucketData bucketData,
+	                                Function<ObjectNode, DateTime> timestampFunction,
+	                                Function<Path, ObjectNodeReader> readerFactory,
+	                                BucketManifest manifest) {
 		this.bucketData = bucketData;
 		this.timestampFunction = timestampFunction;
 		this.readerFactory = readerFactory;
+		this.manifest = manifest;
 	}
 	
 	@Override
@@ -50,40 +79,125 @@ public class ReadableFilesystemBucket implements MetricBucket {
 	public BucketData getBucketData() {
 		return bucketData;
 	}
+	public BucketManifest getManifest() {
+		return manifest;
+	}
 	
 	public void read(Interval interval, Predicate<StoredMetric> predicate) throws InterruptedException {
+		read(interval, null, predicate);
+	}
+	
+	/**
+	 * Read the metrics of an interval with only the given top level fields.
+	 * 
+	 * @param interval The interval to read.
+	 * @param fields The top level fields including the timestamp field or <code>null</code> for complete nodes.
+	 * @param predicate Receives the metrics, reading stops when it returns <code>false</code>.
+	 * @throws InterruptedException If the predicate has stopped reading.
+	 */
+	public void read(Interval interval, Set<String> fields, Predicate<StoredMetric> predicate) throws InterruptedException {
+		read(interval, null, RecordProjection.of(fields), predicate);
+	}
+	
+	/**
+	 * Read the metrics of an interval which match a filter with only the paths of a projection. Records which
+	 * do not match are dropped by the readers before their nodes are built and only the projected values become nodes.
+	 * The timestamp field is always part of the projection if its path is known by the timestamp function.
+	 * 
+	 * @param interval The interval to read.
+	 * @param filter The filter or <code>null</code> for all metrics.
+	 * @param projection The projection or <code>null</code> for complete nodes.
+	 * @param predicate Receives the metrics, reading stops when it returns <code>false</code>.
+	 * @throws InterruptedException If the predicate has stopped reading.
+	 */
+	public void read(Interval interval, RecordFilter filter, RecordProjection projection, Predicate<StoredMetric> predicate) throws InterruptedException {
 		try {
 			DateTime start = interval.getStart().withZone(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0);
 			DateTime end = interval.getEnd().withZone(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0);
-			for(DateTime current = start ; current.isBefore(end) ; current = current.plusMinutes(1)) {
-				PathFinder pathFinder = pathFinder(current);
-				Path dayFile = pathFinder.getDayFilePath();
-				if(Files.isRegularFile(dayFile)) {
-					try(StoredObjectNodeReader reader = createReader(dayFile)) {
+			if(manifest == null) {
+				scan(start, end, filter, withTimestamp(projection), predicate);
+			} else {
+				readExisting(start, end, filter, withTimestamp(projection), predicate);
+			}
+		} catch(IOException e) {
+			throw new MetricsIOException("Could not close a resource while reading from bucket: '" + bucketData + "'!", e);
+		}
+	}
+	
+	/**
+	 * @return The projection including the timestamp field or <code>null</code> if complete nodes must be read
+	 *         because the path of the timestamp field is unknown.
+	 */
+	protected RecordProjection withTimestamp(RecordProjection projection) {
+		if(projection == null || !(timestampFunction instanceof TimestampFunction)) {
+			return null;
+		}
+		String fieldPath = ((TimestampFunction) timestampFunction).getFieldPath();
+		return fieldPath == null ? null : projection.and(fieldPath);
+	}
+	
+	/**
+	 * Read only the days and minutes which are listed inside of the manifest.
+	 */
+	private void readExisting(DateTime start, DateTime end, RecordFilter filter, RecordProjection projection, Predicate<StoredMetric> predicate) throws InterruptedException, IOException {
+		for(Entry<LocalDate, BucketManifest.Day> entry : manifest.days(start.toLocalDate(), end.toLocalDate()).entrySet()) {
+			PathFinder day = pathFinder(entry.getKey());
+			DateTime current = day.getTimestamp().isBefore(start) ? start : day.getTimestamp();
+			if(!current.isBefore(end)) {
+				break;
+			}
+			if(entry.getValue().hasDayFile()) {
+				try(StoredObjectNodeReader reader = createDayFileReader(pathFinder(current), filter, projection)) {
+					if(reader != null) {
 						read(current, end, reader, predicate);
-						current = atEndOfDay(current);
 					}
-				} else {
-					Path minuteFile = pathFinder.getMinuteFilePath();
-					if(Files.isRegularFile(minuteFile)) {
-						try(StoredObjectNodeReader reader = createReader(minuteFile)) {
-							current = read(current, end, reader, predicate);
-						}
-					} else {
-					    if(!Files.isDirectory(minuteFile.getParent())) { //Day folder does not exist
-					        current = atEndOfDay(current);
-					        if(!Files.isDirectory(minuteFile.getParent().getParent())) { //Month folder does not exist
-					            current = atEndOfMonth(current);
-					            if(!Files.isDirectory(minuteFile.getParent().getParent().getParent())) { //Year folder does not exist
-					                current = atEndOfYear(current);
-					            }
-					        }
-					    }
+				}
+				continue;
+			}
+			for(int minute = entry.getValue().nextMinute(current.getMinuteOfDay()) ; minute >= 0 ; minute = entry.getValue().nextMinute(minute + 1)) {
+				current = day.getTimestamp().plusMinutes(minute);
+				if(!current.isBefore(end)) {
+					break;
+				}
+				try(StoredObjectNodeReader reader = createReader(pathFinder(current).getMinuteFilePath(), filter, projection)) {
+					read(current, end, reader, predicate);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Probe the files of every minute between start and end. Missing day, month and year folders are skipped.
+	 */
+	private void scan(DateTime start, DateTime end, RecordFilter filter, RecordProjection projection, Predicate<StoredMetric> predicate) throws InterruptedException, IOException {
+		for(DateTime current = start ; current.isBefore(end) ; current = current.plusMinutes(1)) {
+			PathFinder pathFinder = pathFinder(current);
+			Path dayFile = pathFinder.getDayFilePath();
+			if(Files.isRegularFile(dayFile)) {
+				try(StoredObjectNodeReader reader = createDayFileReader(pathFinder, filter, projection)) {
+					if(reader != null) {
+						read(current, end, reader, predicate);
 					}
+					current = atEndOfDay(current);
+				}
+			} else {
+				Path minuteFile = pathFinder.getMinuteFilePath();
+				if(Files.isRegularFile(minuteFile)) {
+					try(StoredObjectNodeReader reader = createReader(minuteFile, filter, projection)) {
+						current = read(current, end, reader, predicate);
+					}
+				} else {
+				    if(!Files.isDirectory(minuteFile.getParent())) { //Day folder does not exist
+				        current = atEndOfDay(current);
+				        if(!Files.isDirectory(minuteFile.getParent().getParent())) { //Month folder does not exist
+				            current = atEndOfMonth(current);
+				            if(!Files.isDirectory(minuteFile.getParent().getParent().getParent())) { //Year folder does not exist
+				                current = atEndOfYear(current);
+				            }
+				        }
+				    }
 				}
 			}
-		} catch(IOException e) {
-			throw new MetricsIOException("Could not close a resource while reading from bucket: '" + bucketData + "'!", e);
 		}
 	}
 
@@ -105,8 +219,230 @@ public class ReadableFilesystemBucket implements MetricBucket {
 		return current;
 	}
 	
+	/**
+	 * Aggregate the metrics of an interval. An interval inside of one compressed day is answered from the {@link DayRollup}
+	 * of the day file if there is no filter and the rollup contains the aggregated field. All other intervals are read
+	 * with only the aggregated field.
+	 * 
+	 * @param interval The interval to aggregate.
+	 * @param filter The filter or <code>null</code> for all metrics.
+	 * @param aggregation The aggregation.
+	 * @param result Receives the statistics per time bucket.
+	 * @return <code>true</code> if the rollup has been used.
+	 * @throws InterruptedException If reading has been stopped.
+	 */
+	public boolean aggregate(Interval interval, RecordFilter filter, final MetricAggregation aggregation, final NavigableMap<DateTime, MetricStatistics> result) throws InterruptedException {
+		DateTime start = interval.getStart().withZone(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0);
+		DateTime end = interval.getEnd().withZone(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0);
+		if(filter == null && aggregateRollup(start, end, aggregation, result)) {
+			return true;
+		}
+		read(interval, filter, RecordProjection.of(aggregation.getPaths()), new Predicate<StoredMetric>() {
+			@Override
+			public boolean apply(StoredMetric input) {
+				aggregation.add(result, input.getTimestamp(), input.getObjectNode());
+				return true;
+			}
+		});
+		return false;
+	}
+	
+	private boolean aggregateRollup(DateTime start, DateTime end, MetricAggregation aggregation, NavigableMap<DateTime, MetricStatistics> result) {
+		DateTime day = start.withTimeAtStartOfDay();
+		DateTime nextDay = day.plusDays(1);
+		if(end.isAfter(nextDay)) {
+			return false;
+		}
+		PathFinder pathFinder = pathFinder(day);
+		Path dayFile = pathFinder.getDayFilePath();
+		if(!Files.isRegularFile(dayFile)) {
+			return false;
+		}
+		DayRollup rollup = DayRollup.read(pathFinder.getDayRollupFilePath(), dayFile);
+		if(rollup == null) {
+			return false;
+		}
+		return rollup.aggregate(day, start.getMinuteOfDay(), end.isEqual(nextDay) ? DateTimeConstants.MINUTES_PER_DAY : end.getMinuteOfDay(), aggregation, result);
+	}
+	
+	/**
+	 * Read the newest metrics of an interval in descending timestamp order. Metrics of the same minute are passed
+	 * in reverse write order. Days and minutes are visited backwards from the end of the interval and reading stops
+	 * as soon as the limit has been reached. Indexed day files are read minute block by minute block from their
+	 * last minute, other day files are read once while only the newest metrics are kept.
+	 * 
+	 * @param interval The interval to read.
+	 * @param filter The filter or <code>null</code> for all metrics.
+	 * @param projection The projection or <code>null</code> for complete nodes.
+	 * @param limit The maximum number of metrics to read.
+	 * @param predicate Receives the metrics, reading stops when it returns <code>false</code>.
+	 * @throws InterruptedException If the predicate has stopped reading.
+	 */
+	public void readNewest(Interval interval, RecordFilter filter, RecordProjection projection, int limit, Predicate<StoredMetric> predicate) throws InterruptedException {
+		if(limit <= 0) {
+			return;
+		}
+		try {
+			DateTime start = interval.getStart().withZone(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0);
+			DateTime end = interval.getEnd().withZone(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0);
+			Newest newest = new Newest(limit, predicate);
+			if(manifest == null) {
+				scanNewest(start, end, filter, withTimestamp(projection), newest);
+			} else {
+				readExistingNewest(start, end, filter, withTimestamp(projection), newest);
+			}
+		} catch(IOException e) {
+			throw new MetricsIOException("Could not close a resource while reading from bucket: '" + bucketData + "'!", e);
+		}
+	}
+	
+	private void readExistingNewest(DateTime start, DateTime end, RecordFilter filter, RecordProjection projection, Newest newest) throws InterruptedException, IOException {
+		for(Entry<LocalDate, BucketManifest.Day> entry : manifest.days(start.toLocalDate(), end.toLocalDate()).descendingMap().entrySet()) {
+			PathFinder day = pathFinder(entry.getKey());
+			DateTime from = day.getTimestamp().isBefore(start) ? start : day.getTimestamp();
+			DateTime to = day.getTimestamp().plusDays(1).isAfter(end) ? end : day.getTimestamp().plusDays(1);
+			if(!from.isBefore(to)) {
+				continue;
+			}
+			if(entry.getValue().hasDayFile()) {
+				if(!readDayFileNewest(day, from, to, filter, projection, newest)) {
+					return;
+				}
+				continue;
+			}
+			int first = from.getMinuteOfDay();
+			for(int minute = entry.getValue().previousMinute(lastMinute(day.getTimestamp(), to)) ; minute >= first ; minute = entry.getValue().previousMinute(minute - 1)) {
+				DateTime current = day.getTimestamp().plusMinutes(minute);
+				try(StoredObjectNodeReader reader = createReader(pathFinder(current).getMinuteFilePath(), filter, projection)) {
+					if(!readNewest(current, current.plusMinutes(1), reader, newest)) {
+						return;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Probe the files of every minute between end and start backwards. Missing day, month and year folders are skipped.
+	 */
+	private void scanNewest(DateTime start, DateTime end, RecordFilter filter, RecordProjection projection, Newest newest) throws InterruptedException, IOException {
+		for(DateTime current = end.minusMinutes(1) ; !current.isBefore(start) ; current = current.minusMinutes(1)) {
+			PathFinder pathFinder = pathFinder(current);
+			DateTime day = current.withTimeAtStartOfDay();
+			if(Files.isRegularFile(pathFinder.getDayFilePath())) {
+				if(!readDayFileNewest(pathFinder, day.isBefore(start) ? start : day, current.plusMinutes(1), filter, projection, newest)) {
+					return;
+				}
+				current = day;
+			} else {
+				Path minuteFile = pathFinder.getMinuteFilePath();
+				if(Files.isRegularFile(minuteFile)) {
+					try(StoredObjectNodeReader reader = createReader(minuteFile, filter, projection)) {
+						if(!readNewest(current, current.plusMinutes(1), reader, newest)) {
+							return;
+						}
+					}
+				} else if(!Files.isDirectory(minuteFile.getParent())) { //Day folder does not exist
+					current = day;
+					if(!Files.isDirectory(minuteFile.getParent().getParent())) { //Month folder does not exist
+						current = day.withDayOfMonth(1);
+						if(!Files.isDirectory(minuteFile.getParent().getParent().getParent())) { //Year folder does not exist
+							current = day.withDayOfYear(1);
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Read the newest metrics of one day file between from and to.
+	 * 
+	 * @return <code>false</code> if the limit has been reached.
+	 */
+	private boolean readDayFileNewest(PathFinder pathFinder, DateTime from, DateTime to, RecordFilter filter, RecordProjection projection, Newest newest) throws InterruptedException, IOException {
+		Path dayFile = pathFinder.getDayFilePath();
+		DayFileIndex index = readerFactory instanceof SeekableFactory ? DayFileIndex.read(pathFinder.getDayIndexFilePath(), dayFile) : null;
+		if(index == null) {
+			try(StoredObjectNodeReader reader = createDayFileReader(pathFinder(from), filter, projection)) {
+				return reader == null || readNewest(from, to, reader, newest);
+			}
+		}
+		DateTime day = from.withTimeAtStartOfDay();
+		int first = from.getMinuteOfDay();
+		for(int minute = index.previousMinute(lastMinute(day, to)) ; minute >= first ; minute = index.previousMinute(minute - 1)) {
+			DateTime current = day.plusMinutes(minute);
+			ObjectNodeReader reader = ((SeekableFactory) readerFactory).apply(dayFile, index.offset(minute));
+			try(StoredObjectNodeReader storedReader = new StoredObjectNodeReader(this, reader.withFilter(filter).withProjection(projection), timestampFunction)) {
+				if(!readNewest(current, current.plusMinutes(1), storedReader, newest)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	private static int lastMinute(DateTime day, DateTime to) {
+		return Minutes.minutesBetween(day, to).getMinutes() - 1;
+	}
+	
+	/**
+	 * Read the metrics between from and to of a reader which is sorted by timestamp and pass the newest of them
+	 * in reverse order. Only as many metrics as are still missing are kept in memory.
+	 * 
+	 * @return <code>false</code> if the limit has been reached.
+	 */
+	protected boolean readNewest(DateTime from, DateTime to, StoredObjectNodeReader reader, Newest newest) throws InterruptedException {
+		Deque<StoredMetric> tail = new ArrayDeque<>();
+		for(StoredMetric next = reader.read() ; next != null ; next = reader.read()) {
+			if(next.getTimestamp().isBefore(from)) {
+				continue;
+			}
+			if(!next.getTimestamp().isBefore(to)) {
+				break;
+			}
+			tail.addLast(next);
+			if(tail.size() > newest.remaining) {
+				tail.removeFirst();
+			}
+		}
+		return newest.call(tail.descendingIterator());
+	}
+	
+	/**
+	 * Create a reader for the day file which starts at the block of the minute of the given path finder. Day files
+	 * without a valid index are read from the start. Records before the minute are skipped on the raw content.
+	 * 
+	 * @param pathFinder The path finder with the first minute to read.
+	 * @param filter The filter or <code>null</code> for all nodes.
+	 * @param projection The projection or <code>null</code> for complete nodes.
+	 * @return The reader or <code>null</code> if the day file contains no data from this minute on.
+	 */
+	protected StoredObjectNodeReader createDayFileReader(PathFinder pathFinder, RecordFilter filter, RecordProjection projection) {
+		Path dayFile = pathFinder.getDayFilePath();
+		if(pathFinder.getTimestamp().getMinuteOfDay() == 0) {
+			return createReader(dayFile, filter, projection);
+		}
+		if(!(readerFactory instanceof SeekableFactory)) {
+			return createReader(dayFile, filter, projection).skipBefore(pathFinder.getTimestamp());
+		}
+		DayFileIndex index = DayFileIndex.read(pathFinder.getDayIndexFilePath(), dayFile);
+		if(index == null) {
+			return createReader(dayFile, filter, projection).skipBefore(pathFinder.getTimestamp());
+		}
+		long position = index.offset(pathFinder.getTimestamp().getMinuteOfDay());
+		if(position < 0) {
+			return null;
+		}
+		ObjectNodeReader reader = ((SeekableFactory) readerFactory).apply(dayFile, position);
+		return new StoredObjectNodeReader(this, reader.withFilter(filter).withProjection(projection), timestampFunction).skipBefore(pathFinder.getTimestamp());
+	}
+	
 	protected StoredObjectNodeReader createReader(Path path) {
-		return new StoredObjectNodeReader(this, readerFactory.apply(path), timestampFunction);
+		return createReader(path, null, null);
+	}
+	protected StoredObjectNodeReader createReader(Path path, RecordFilter filter, RecordProjection projection) {
+		return new StoredObjectNodeReader(this, readerFactory.apply(path).withFilter(filter).withProjection(projection), timestampFunction);
 	}
 	
 	public PathFinder pathFinder(DateTime timestamp) {
@@ -116,6 +452,32 @@ public class ReadableFilesystemBucket implements MetricBucket {
 		return new PathFinder(date, bucketData.getBasePath());
 	}
 	
+	/**
+	 * Counts the metrics of a newest first read.
+	 */
+	protected static class Newest {
+		
+		private final Predicate<StoredMetric> predicate;
+		private int remaining;
+		
+		public Newest(int limit, Predicate<StoredMetric> predicate) {
+			this.remaining = limit;
+			this.predicate = predicate;
+		}
+		/**
+		 * @return <code>false</code> if the limit has been reached.
+		 */
+		public boolean call(Iterator<StoredMetric> metrics) throws InterruptedException {
+			while(remaining > 0 && metrics.hasNext()) {
+				remaining--;
+				if(!predicate.apply(metrics.next())) {
+					throw new InterruptedException();
+				}
+			}
+			return remaining > 0;
+		}
+	}
+	
 	public static DateTime atEndOfYear(DateTime current) {
         return current.withMonthOfYear(1).withDayOfMonth(1).plusYears(1).minusDays(1);
     }
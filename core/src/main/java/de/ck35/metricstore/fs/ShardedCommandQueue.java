@@ -0,0 +1,149 @@
+package de.ck35.metricstore.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.fs.BucketCommand.ListBucketsCommand;
+
+/**
+ * Command queue which distributes the commands over several shard queues. Every shard queue
+ * has its own {@link BucketCommandProcessor} which owns a disjoint set of buckets. The shard
+ * of a command is selected by {@link BucketCommandProcessor#shard(String, int)} so all commands
+ * of one bucket are processed in order by the same shard. A {@link ListBucketsCommand} is
+ * sent to all shards and completed after all shards have answered.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@ManagedResource
+public class ShardedCommandQueue implements Predicate<BucketCommand<?>>, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedCommandQueue.class);
+
+    private final List<Predicate<BucketCommand<?>>> queues;
+    private final List<BucketCommandProcessor> processors;
+    private final AtomicLongArray appendedCommands;
+    private final AtomicLong totalScatteredCommands;
+
+    public ShardedCommandQueue(List<? extends Predicate<BucketCommand<?>>> queues,
+                               List<BucketCommandProcessor> processors) {
+        if(queues.isEmpty() || queues.size() != processors.size()) {
+            throw new IllegalArgumentException("Expected one processor for each of the: '" + queues.size() + "' shard queues!");
+        }
+        this.queues = ImmutableList.copyOf(queues);
+        this.processors = ImmutableList.copyOf(processors);
+        this.appendedCommands = new AtomicLongArray(queues.size());
+        this.totalScatteredCommands = new AtomicLong();
+    }
+
+    @Override
+    public boolean apply(BucketCommand<?> input) {
+        if(input instanceof ListBucketsCommand) {
+            return scatter((ListBucketsCommand) input);
+        }
+        String bucketName = input.getBucketName();
+        int shard = bucketName == null ? 0 : BucketCommandProcessor.shard(bucketName, queues.size());
+        appendedCommands.incrementAndGet(shard);
+        return queues.get(shard).apply(input);
+    }
+
+    protected boolean scatter(ListBucketsCommand command) {
+        totalScatteredCommands.incrementAndGet();
+        List<ListBucketsCommand> parts = new ArrayList<>(queues.size());
+        for(int shard = 0 ; shard < queues.size() ; shard++) {
+            ListBucketsCommand part = new ListBucketsCommand();
+            appendedCommands.incrementAndGet(shard);
+            if(!queues.get(shard).apply(part)) {
+                return false;
+            }
+            parts.add(part);
+        }
+        try {
+            List<MetricBucket> result = new ArrayList<>();
+            for(ListBucketsCommand part : parts) {
+                Iterable<MetricBucket> buckets = part.getResult();
+                if(part.getError() != null) {
+                    command.setError(part.getError());
+                } else if(buckets != null) {
+                    Iterables.addAll(result, buckets);
+                }
+            }
+            if(command.getError() == null) {
+                command.setResult(result);
+            }
+        } catch(RuntimeException e) {
+            command.setError(e);
+        } finally {
+            command.commandCompleted();
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for(Predicate<BucketCommand<?>> queue : queues) {
+            if(queue instanceof Closeable) {
+                try {
+                    ((Closeable) queue).close();
+                } catch (IOException e) {
+                    LOG.warn("Error while closing shard queue: '{}'.", queue, e);
+                }
+            }
+        }
+    }
+
+    @ManagedAttribute
+    public int getShards() {
+        return queues.size();
+    }
+    @ManagedAttribute
+    public long getTotalScatteredCommands() {
+        return totalScatteredCommands.get();
+    }
+    @ManagedAttribute
+    public long[] getAppendedCommands() {
+        long[] result = new long[appendedCommands.length()];
+        for(int shard = 0 ; shard < result.length ; shard++) {
+            result[shard] = appendedCommands.get(shard);
+        }
+        return result;
+    }
+    @ManagedAttribute
+    public long[] getProcessedCommands() {
+        long[] result = new long[processors.size()];
+        for(int shard = 0 ; shard < result.length ; shard++) {
+            result[shard] = processors.get(shard).getTotalProcessedCommands();
+        }
+        return result;
+    }
+    @ManagedAttribute
+    public long[] getFailedCommands() {
+        long[] result = new long[processors.size()];
+        for(int shard = 0 ; shard < result.length ; shard++) {
+            result[shard] = processors.get(shard).getTotalFailedCommands();
+        }
+        return result;
+    }
+    @ManagedAttribute
+    public String[] getRunningCommands() {
+        String[] result = new String[processors.size()];
+        for(int shard = 0 ; shard < result.length ; shard++) {
+            result[shard] = processors.get(shard).getRunningCommand();
+        }
+        return result;
+    }
+}
@@ -1,14 +1,15 @@
 package de.ck35.metricstore.fs;
 
 import java.io.Closeable;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.Map.Entry;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.AbstractIterator;
@@ -16,70 +17,278 @@ import com.google.common.collect.AbstractIterator;
 import de.ck35.metricstore.StoredMetric;
 import de.ck35.metricstore.util.io.MetricsIOException;
 
+/**
+ * Hands the metrics of one read from the reading thread (producer) to the consuming thread through a bounded
+ * single producer single consumer ring of batches. The producer fills the batch of the next free slot and
+ * publishes it when the batch is full, when the consumer has been starving for a while or when the read ends.
+ * The consumer takes a whole batch at once, so there is no lock, no allocation and usually no wakeup per metric. The ring
+ * has enough slots for the maximum count, rounded up to a power of two, and the batch of a slot is allocated when the slot
+ * is used for the first time, so a large maximum count only costs memory if a read actually buffers that much. The buffered
+ * metrics are limited by their count and by their estimated size in bytes, which is sampled from every
+ * {@value #SAMPLE_INTERVAL}th metric because the metrics of one bucket usually look alike. A waiting thread spins for a
+ * configurable number of tries and then yields or parks depending on the {@link WaitStrategy}.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
 public class StoredMetricReadCache extends AbstractIterator<StoredMetric> implements Predicate<StoredMetric>, Observer, Closeable {
 
-    private final Supplier<Integer> maxCacheSizeSetting;
+    public static final int DEFAULT_SPIN_TRIES = 100;
+    public static final int MAX_BATCH_SIZE = 256;
+    /**
+     * The maximum number of slots, which limits the count of buffered metrics to {@value #MAX_SLOTS} full batches.
+     */
+    public static final int MAX_SLOTS = 1 << 16;
+
+    private static final int SAMPLE_INTERVAL = 16;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long STARVING_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public enum WaitStrategy {
+        /**
+         * Spin until the other side has made progress. Lowest latency but needs a dedicated core for each side.
+         */
+        BUSY_SPIN,
+        /**
+         * Spin for the configured tries and yield afterwards.
+         */
+        YIELDING,
+        /**
+         * Spin for the configured tries and park afterwards until the other side wakes up the waiting thread.
+         */
+        PARKING
+    }
+
+    private final long maxCount;
+    private final long maxBytes;
+    private final WaitStrategy waitStrategy;
+    private final int spinTries;
+    private final int batchSize;
+    private final int mask;
+
+    private final StoredMetric[][] slots;
+    private final int[] counts;
+    private final long[] bytes;
+    private final AtomicLong head;
+    private final AtomicLong tail;
+    private final AtomicLong bufferedCount;
+    private final AtomicLong bufferedBytes;
+
+    private volatile boolean closed;
+    private volatile Thread producer;
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+    private volatile boolean flushRequested;
+
+    private int producerCount;
+    private long producerBytes;
+    private long producerSamples;
+    private long sampledBytes;
+
+    private StoredMetric[] consumerBatch;
+    private int consumerIndex;
+    private int consumerCount;
 
-    private final Lock cacheLock;
-    private final Condition cacheCondition;
-    private final Deque<StoredMetric> cache;
-    private boolean closed;
-    
     public StoredMetricReadCache(Supplier<Integer> maxCacheSizeSetting) {
-        this(maxCacheSizeSetting, new ReentrantLock(), new LinkedList<StoredMetric>());
-    }
-    protected StoredMetricReadCache(Supplier<Integer> maxCacheSizeSetting, 
-                                    Lock cacheLock,
-                                    Deque<StoredMetric> cache) {
-        this.maxCacheSizeSetting = maxCacheSizeSetting;
-        this.cacheLock = cacheLock;
-        this.cacheCondition = cacheLock.newCondition();
-        this.cache = cache;
-        this.closed = false;
-    }
-    
+        this(maxCacheSizeSetting.get(), Long.MAX_VALUE, WaitStrategy.PARKING, DEFAULT_SPIN_TRIES);
+    }
+
+    /**
+     * @param maxCount The maximum number of buffered metrics, at most {@value #MAX_SLOTS} times the batch size.
+     * @param maxBytes The maximum estimated size of all buffered metrics. At least one metric is always buffered.
+     * @param waitStrategy How to wait for the other side.
+     * @param spinTries The number of busy spins before yielding or parking.
+     */
+    public StoredMetricReadCache(int maxCount, long maxBytes, WaitStrategy waitStrategy, int spinTries) {
+        if(maxCount < 1) {
+            throw new IllegalArgumentException("Max count must be positive: '" + maxCount + "'!");
+        }
+        this.maxCount = maxCount;
+        this.maxBytes = Math.max(1, maxBytes);
+        this.waitStrategy = waitStrategy;
+        this.spinTries = Math.max(0, spinTries);
+        this.batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, maxCount / 4));
+        int slotCount = slotCount(maxCount, batchSize);
+        this.mask = slotCount - 1;
+        this.slots = new StoredMetric[slotCount][];
+        this.counts = new int[slotCount];
+        this.bytes = new long[slotCount];
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+        this.bufferedCount = new AtomicLong();
+        this.bufferedBytes = new AtomicLong();
+    }
+
+    /**
+     * @return The number of slots which can hold the maximum count of metrics, a power of two.
+     */
+    static int slotCount(int maxCount, int batchSize) {
+        int required = (int) Math.min(MAX_SLOTS, (maxCount + (long) batchSize - 1) / batchSize);
+        return required <= 1 ? 1 : Integer.highestOneBit(required - 1) << 1;
+    }
+
     @Override
     public boolean apply(StoredMetric input) {
-        this.cacheLock.lock();
-        try {
+        if(producer == null) {
+            producer = Thread.currentThread();
+        }
+        long size = sampleBytes(input);
+        for(int tries = 0 ; !hasRoom(size) ; tries++) {
             if(closed) {
                 return false;
             }
-            while(cache.size() >= maxCacheSizeSetting.get()) {
-                try {
-                    cacheCondition.await();
-                } catch (InterruptedException e) {
-                    return false;
+            if(producerCount > 0) {
+                publish();
+                continue;
+            }
+            if(tries >= spinTries) {
+                waitingProducer = parking();
+                if(!hasRoom(size) && !closed) {
+                    idle(tries);
                 }
+                waitingProducer = null;
             }
-            cache.addLast(input);
-            cacheCondition.signalAll();
-            return true;
-        } finally {
-            this.cacheLock.unlock();
+            if(Thread.interrupted()) {
+                return false;
+            }
+        }
+        if(closed) {
+            return false;
         }
+        int slot = (int) tail.get() & mask;
+        if(slots[slot] == null) {
+            slots[slot] = new StoredMetric[batchSize];
+        }
+        slots[slot][producerCount++] = input;
+        producerBytes += size;
+        if(producerCount == batchSize || flushRequested) {
+            publish();
+        }
+        return true;
+    }
+
+    private long sampleBytes(StoredMetric input) {
+        if(maxBytes == Long.MAX_VALUE) {
+            return 0;
+        }
+        if(producerSamples++ % SAMPLE_INTERVAL == 0) {
+            sampledBytes = estimateBytes(input);
+        }
+        return sampledBytes;
+    }
+
+    /**
+     * @return <code>true</code> if the metric fits into the current batch of the producer.
+     */
+    private boolean hasRoom(long size) {
+        if(producerCount == 0) {
+            if(tail.get() - head.get() > mask) {
+                return false;
+            }
+            long count = bufferedCount.get();
+            return count == 0 || (count < maxCount && bufferedBytes.get() + size <= maxBytes);
+        }
+        return producerCount < batchSize
+            && bufferedCount.get() + producerCount < maxCount
+            && bufferedBytes.get() + producerBytes + size <= maxBytes;
+    }
+
+    private void publish() {
+        long next = tail.get();
+        int slot = (int) next & mask;
+        counts[slot] = producerCount;
+        bytes[slot] = producerBytes;
+        bufferedCount.addAndGet(producerCount);
+        bufferedBytes.addAndGet(producerBytes);
+        producerCount = 0;
+        producerBytes = 0;
+        flushRequested = false;
+        tail.lazySet(next + 1);
+        wakeUp(waitingConsumer);
     }
 
     @Override
     protected StoredMetric computeNext() {
-        this.cacheLock.lock();
-        try {
-             while(cache.isEmpty()) {
-                 if(closed) {
-                     return endOfData();
-                 } else {
-                     try {
-                        cacheCondition.await();
-                    } catch (InterruptedException e) {
-                        throw new MetricsIOException("Could not await next StoredMetric while reading.", e);
-                    }
-                 }
-             }
-             StoredMetric storedMetric = cache.removeFirst();
-             cacheCondition.signalAll();
-            return storedMetric;
-        } finally {
-            this.cacheLock.unlock();
+        if(consumerIndex < consumerCount) {
+            return take();
+        }
+        release();
+        long waitingSince = 0;
+        for(int tries = 0 ; head.get() == tail.get() ; tries++) {
+            if(closed) {
+                if(head.get() == tail.get()) {
+                    return endOfData();
+                }
+                break;
+            }
+            if(tries < spinTries) {
+                continue;
+            }
+            if(waitingSince == 0) {
+                waitingSince = System.nanoTime();
+            } else if(!flushRequested && System.nanoTime() - waitingSince >= STARVING_NANOS) {
+                flushRequested = true;
+            }
+            waitingConsumer = parking();
+            if(head.get() == tail.get() && !closed) {
+                idle(tries);
+            }
+            waitingConsumer = null;
+            if(Thread.interrupted()) {
+                throw new MetricsIOException("Could not await next StoredMetric while reading.", null);
+            }
+        }
+        int slot = (int) head.get() & mask;
+        consumerBatch = slots[slot];
+        consumerCount = counts[slot];
+        consumerIndex = 0;
+        return take();
+    }
+
+    private StoredMetric take() {
+        StoredMetric result = consumerBatch[consumerIndex];
+        consumerBatch[consumerIndex++] = null;
+        return result;
+    }
+
+    /**
+     * Hand the slot of the completely consumed batch back to the producer.
+     */
+    private void release() {
+        if(consumerBatch == null) {
+            return;
+        }
+        int slot = (int) head.get() & mask;
+        bufferedCount.addAndGet(-counts[slot]);
+        bufferedBytes.addAndGet(-bytes[slot]);
+        consumerBatch = null;
+        consumerIndex = 0;
+        consumerCount = 0;
+        head.lazySet(head.get() + 1);
+        wakeUp(waitingProducer);
+    }
+
+    /**
+     * @return The current thread if it will be parked and needs to be woken up by the other side.
+     */
+    private Thread parking() {
+        return waitStrategy == WaitStrategy.PARKING ? Thread.currentThread() : null;
+    }
+
+    private void idle(int tries) {
+        if(waitStrategy == WaitStrategy.BUSY_SPIN || tries < spinTries) {
+            return;
+        }
+        if(waitStrategy == WaitStrategy.YIELDING) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+    }
+
+    private void wakeUp(Thread thread) {
+        if(thread != null) {
+            LockSupport.unpark(thread);
         }
     }
 
@@ -87,15 +296,97 @@ public class StoredMetricReadCache extends AbstractIterator<StoredMetric> implem
     public void update(Observable o, Object arg) {
         close();
     }
-    
+
+    /**
+     * End this cache. When called by the producer its current batch is published and stays readable.
+     * When called by the consumer the producer is stopped on its next metric.
+     */
     @Override
     public void close() {
-        this.cacheLock.lock();
-        try {
-            closed = true;
-            cacheCondition.signalAll();
-        } finally {
-            this.cacheLock.unlock();
+        if(Thread.currentThread() == producer && producerCount > 0 && !closed) {
+            publish();
+        }
+        closed = true;
+        wakeUp(waitingConsumer);
+        wakeUp(waitingProducer);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+    public int getSlots() {
+        return slots.length;
+    }
+    /**
+     * @return The number of published metrics which have not been consumed completely.
+     */
+    public long getBufferedCount() {
+        return bufferedCount.get();
+    }
+
+    /**
+     * Estimate the heap size of a metric from the size of its node.
+     *
+     * @param metric The metric.
+     * @return The estimated size in bytes.
+     */
+    public static long estimateBytes(StoredMetric metric) {
+        return metric.getObjectNode() == null ? 64 : 64 + estimateBytes(metric.getObjectNode());
+    }
+
+    private static long estimateBytes(JsonNode node) {
+        if(node.isContainerNode()) {
+            long result = 48;
+            if(node.isObject()) {
+                for(Iterator<Entry<String, JsonNode>> fields = node.fields() ; fields.hasNext() ; ) {
+                    Entry<String, JsonNode> field = fields.next();
+                    result += 32 + 2 * field.getKey().length() + estimateBytes(field.getValue());
+                }
+            } else {
+                for(JsonNode element : node) {
+                    result += 8 + estimateBytes(element);
+                }
+            }
+            return result;
+        }
+        if(node.isTextual()) {
+            return 56 + 2 * node.textValue().length();
+        }
+        return 24;
+    }
+
+    /**
+     * Creates the caches of all reads with the current settings.
+     */
+    public static class Factory implements Supplier<StoredMetricReadCache> {
+
+        private final Supplier<Integer> maxCountSetting;
+        private final Supplier<Long> maxBytesSetting;
+        private final WaitStrategy waitStrategy;
+        private final int spinTries;
+
+        public Factory(Supplier<Integer> maxCountSetting) {
+            this(maxCountSetting, null, WaitStrategy.PARKING, DEFAULT_SPIN_TRIES);
+        }
+        /**
+         * @param maxCountSetting The maximum number of buffered metrics per read.
+         * @param maxBytesSetting The maximum estimated size of the buffered metrics per read or <code>null</code> for no limit.
+         * @param waitStrategy How to wait for the other side.
+         * @param spinTries The number of busy spins before yielding or parking.
+         */
+        public Factory(Supplier<Integer> maxCountSetting, Supplier<Long> maxBytesSetting, WaitStrategy waitStrategy, int spinTries) {
+            this.maxCountSetting = maxCountSetting;
+            this.maxBytesSetting = maxBytesSetting;
+            this.waitStrategy = waitStrategy;
+            this.spinTries = spinTries;
+        }
+
+        @Override
+        public StoredMetricReadCache get() {
+            return new StoredMetricReadCache(maxCountSetting.get(),
+                                             maxBytesSetting == null ? Long.MAX_VALUE : maxBytesSetting.get(),
+                                             waitStrategy,
+                                             spinTries);
         }
     }
-}
\ No newline at end of file
+}
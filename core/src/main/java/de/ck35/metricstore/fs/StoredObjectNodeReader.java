@@ -14,6 +14,7 @@ import com.google.common.base.Function;
 import de.ck35.metricstore.MetricBucket;
 import de.ck35.metricstore.StoredMetric;
 import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.RawTimestampFilter;
 
 public class StoredObjectNodeReader implements Closeable {
 
@@ -33,6 +34,18 @@ public class StoredObjectNodeReader implements Closeable {
  		this.timestampFunction = timestampFunction;
 	}
 
+	/**
+	 * Skip the records before the given start on the raw content, if the timestamp field can be located
+	 * without building a node. The content must be sorted by timestamp, e.g. a day file.
+	 * 
+	 * @param start The first minute which should be read.
+	 * @return This reader.
+	 */
+	public StoredObjectNodeReader skipBefore(DateTime start) {
+		reader.withTimestampFilter(RawTimestampFilter.of(timestampFunction, start));
+		return this;
+	}
+
 	public StoredMetric read() {
 		ObjectNode objectNode = reader.read();
 		while(objectNode != null) {
@@ -3,6 +3,7 @@ package de.ck35.metricstore.fs;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -13,9 +14,9 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
@@ -23,14 +24,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
 
 import de.ck35.metricstore.MetricBucket;
 import de.ck35.metricstore.StoredMetric;
 import de.ck35.metricstore.util.LRUCache;
+import de.ck35.metricstore.util.io.Codec;
+import de.ck35.metricstore.util.io.Codecs;
 import de.ck35.metricstore.util.io.MetricsIOException;
 import de.ck35.metricstore.util.io.ObjectNodeReader;
 import de.ck35.metricstore.util.io.ObjectNodeWriter;
+import de.ck35.metricstore.util.io.RecordFilter;
+import de.ck35.metricstore.util.io.RecordProjection;
+import de.ck35.metricstore.util.io.RecordFormats;
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
 
 /**
  * {@link MetricBucket} implementation which allows writing, deleting and compressing. 
@@ -45,16 +58,46 @@ public class WritableFilesystemBucket extends ReadableFilesystemBucket implement
 	private final LRUCache<Path, ObjectNodeWriter> writers;
 	private final Function<ObjectNode, DateTime> timestampFunction;
 	private final Function<Path, ObjectNodeWriter> writerFactory;
+	private final Codec dayFileCodec;
+	private final Codecs codecs;
+	private final RecordFormats recordFormats;
+	private final RecordFormat dayFileFormat;
+	private final boolean migrateDayFiles;
+	private final List<String> rollupFields;
 
 	public WritableFilesystemBucket(BucketData bucketData,
 	                  	    		Function<ObjectNode, DateTime> timestampFunction,
 	                  	    		Function<Path, ObjectNodeWriter> writerFactory,
 	                  	    		Function<Path, ObjectNodeReader> readerFactory,
 	                  	    		LRUCache<Path, ObjectNodeWriter> writers) {
-		super(bucketData, timestampFunction, readerFactory);
+		this(bucketData, timestampFunction, writerFactory, readerFactory, writers, DayFileSettings.defaults());
+	}
+	
+	/**
+	 * @param bucketData The data of this bucket.
+	 * @param timestampFunction Extracts the timestamp of a node.
+	 * @param writerFactory Creates the minute file writers.
+	 * @param readerFactory Creates the minute and day file readers.
+	 * @param writers The cache of open minute file writers.
+	 * @param dayFileSettings The codec, format and rollups of the day files.
+	 */
+	public WritableFilesystemBucket(BucketData bucketData,
+	                                Function<ObjectNode, DateTime> timestampFunction,
+	                                Function<Path, ObjectNodeWriter> writerFactory,
+	                                Function<Path, ObjectNodeReader> readerFactory,
+	                                LRUCache<Path, ObjectNodeWriter> writers,
+	                                DayFileSettings dayFileSettings) {
+		super(bucketData, timestampFunction, readerFactory, new BucketManifest(bucketData.getBasePath()));
 		this.timestampFunction = timestampFunction;
 		this.writerFactory = writerFactory;
 		this.writers = writers;
+		this.dayFileCodec = dayFileSettings.getCodec();
+		this.codecs = dayFileSettings.getCodecs();
+		this.recordFormats = dayFileSettings.getRecordFormats();
+		this.dayFileFormat = dayFileSettings.getFormat();
+		this.migrateDayFiles = dayFileSettings.isMigrate();
+		List<String> rollupFields = dayFileSettings.getRollupFields(bucketData.getType());
+		this.rollupFields = rollupFields == null ? null : ImmutableList.copyOf(rollupFields);
 	}
 	
 	@Override
@@ -71,7 +114,7 @@ public class WritableFilesystemBucket extends ReadableFilesystemBucket implement
 	}
 	
 	@Override
-	protected StoredObjectNodeReader createReader(Path path) {
+	protected StoredObjectNodeReader createReader(Path path, RecordFilter filter, RecordProjection projection) {
 		ObjectNodeWriter writer = writers.remove(path);
 		if(writer != null) {
 			try {
@@ -80,12 +123,43 @@ public class WritableFilesystemBucket extends ReadableFilesystemBucket implement
 				throw new MetricsIOException("Could not close writer for path: '" + path + "'!", e);
 			}
 		}
-		return super.createReader(path);
+		return super.createReader(path, filter, projection);
 	}
 	
 	public StoredMetric write(ObjectNode objectNode) {
+		return write(objectNode, null);
+	}
+	
+	/**
+	 * Write a node and append it to the given journal before it is passed to the minute file writer. The journal
+	 * becomes the flush listener of the writer, so the node is on disk before the writer writes it into its minute file.
+	 * 
+	 * @param objectNode The node to write.
+	 * @param journal The journal or <code>null</code> if the node should not be journaled.
+	 * @return The stored metric.
+	 */
+	public StoredMetric write(ObjectNode objectNode, BucketJournal journal) {
 		DateTime timestamp = Objects.requireNonNull(timestampFunction.apply(objectNode));
 		PathFinder pathFinder = pathFinder(timestamp);
+		ObjectNodeWriter writer = writer(pathFinder);
+		if(journal != null) {
+			journal.append(getBucketData(), writer.getPath(), objectNode);
+		}
+		while(!tryWrite(writer, objectNode, journal)) {
+			LOG.debug("Writer for: '{}' has been closed by another thread. Opening a new one.", pathFinder.getMinuteFilePath());
+			writer = writer(pathFinder);
+		}
+		return StoredObjectNodeReader.storedObjectNode(this, timestamp, objectNode);
+	}
+	
+	private static boolean tryWrite(ObjectNodeWriter writer, ObjectNode objectNode, BucketJournal journal) {
+		if(journal != null) {
+			writer.setFlushListener(journal);
+		}
+		return writer.tryWrite(objectNode);
+	}
+	
+	private ObjectNodeWriter writer(PathFinder pathFinder) {
 		Path minuteFile = pathFinder.getMinuteFilePath();
 		ObjectNodeWriter writer = writers.get(minuteFile);
 		if(writer == null) {
@@ -99,6 +173,7 @@ public class WritableFilesystemBucket extends ReadableFilesystemBucket implement
 				throw new MetricsIOException("Could not create day directories for minute file: '" + minuteFile + "'!", e);
 			}
 			writer = writerFactory.apply(minuteFile);
+			getManifest().addMinute(pathFinder.getTimestamp());
 			IOException firstCloseException = null;
 			for(ObjectNodeWriter oldWriter : writers.put(minuteFile, writer)) {
 			    try {
@@ -113,8 +188,7 @@ public class WritableFilesystemBucket extends ReadableFilesystemBucket implement
 			    throw new MetricsIOException("Could not close old writer!", firstCloseException);
 			}
 		}
-		writer.write(objectNode);
-		return StoredObjectNodeReader.storedObjectNode(this, timestamp, objectNode);
+		return writer;
 	}
 	
 	public void expand(PathFinder parentPathFinder) {
@@ -159,10 +233,13 @@ public class WritableFilesystemBucket extends ReadableFilesystemBucket implement
 			throw new MetricsIOException("Expanding day file: '" + dayFile + "' failed. Renaming tmp day folder failed!", e);
 		}
 		try {			
+			Files.deleteIfExists(parentPathFinder.getDayIndexFilePath());
+			Files.deleteIfExists(parentPathFinder.getDayRollupFilePath());
 			Files.delete(dayFile);
 		} catch(IOException e) {
 			throw new MetricsIOException("Expanding day file: '" + dayFile + "' failed. Deleting old day file failed!", e);
 		}
+		getManifest().reload(parentPathFinder);
 	}
 	
 	public void deletAll(final LocalDate until) {
@@ -179,6 +256,8 @@ public class WritableFilesystemBucket extends ReadableFilesystemBucket implement
 		Path dayFilePath = pathFinder.getDayFilePath();
 		if(Files.isRegularFile(dayFilePath)) {
 			try {
+				Files.deleteIfExists(pathFinder.getDayIndexFilePath());
+				Files.deleteIfExists(pathFinder.getDayRollupFilePath());
 				Files.delete(dayFilePath);
 			} catch (IOException e) {
 				throw new MetricsIOException("Could not delete day file: '" + dayFilePath + "'!", e);
@@ -215,6 +294,7 @@ public class WritableFilesystemBucket extends ReadableFilesystemBucket implement
 		} catch(IOException e) {
              throw new MetricsIOException("Could not cleanup parent folders!", e);
 		}
+		getManifest().reload(pathFinder);
 	}
 	
 	public void compressAll(final LocalDate until) {
@@ -230,28 +310,19 @@ public class WritableFilesystemBucket extends ReadableFilesystemBucket implement
 	public void compress(PathFinder pathFinder) {
 		Path dayFile = pathFinder.getDayFilePath();
 		if(Files.isRegularFile(dayFile)) {
+			if(migrateDayFiles) {
+				migrate(pathFinder);
+			}
 			return;
 		}
 		Path dayDir = pathFinder.getDayDirectoryPath();
-		Path tmpDayFile = pathFinder.getTemporaryDayFilePath();
-		try(OutputStream out = Files.newOutputStream(tmpDayFile);
-			GZIPOutputStream gzout = new GZIPOutputStream(new BufferedOutputStream(out))) {
+		try(DayFileOutput out = new DayFileOutput(pathFinder, true, rollup())) {
 			for(PathFinder minuteOfDay : pathFinder.iterateMinutesOfDay()) {
-				Path minuteFilePath = minuteOfDay.getMinuteFilePath();
-				try(InputStream in = Files.newInputStream(closeWriter(minuteFilePath));
-					GZIPInputStream gzin = new GZIPInputStream(new BufferedInputStream(in))) {
-					for(int next = gzin.read() ; next != -1 ; next = gzin.read()) {
-						gzout.write(next);
-					}
-				}
+				out.rollup(copy(closeWriter(minuteOfDay.getMinuteFilePath()), out.nextMinute(minuteOfDay.getTimestamp().getMinuteOfDay())));
 			}
+			out.commit();
 		} catch(IOException e) {
-			throw new MetricsIOException("Could not create compressed day file: '" + tmpDayFile + "'!", e);
-		}
-		try {
-			Files.move(tmpDayFile, dayFile, StandardCopyOption.REPLACE_EXISTING);
-		} catch (IOException e) {
-			throw new MetricsIOException("Could not rename tmp day file: '" + tmpDayFile + "' to: '" + dayFile + "'!", e);
+			throw new MetricsIOException("Could not create compressed day file: '" + pathFinder.getTemporaryDayFilePath() + "'!", e);
 		}
 		clearDirectory(dayDir);
 		try {
@@ -259,8 +330,250 @@ public class WritableFilesystemBucket extends ReadableFilesystemBucket implement
 		} catch (IOException e) {
 			throw new MetricsIOException("Could not delete old day folder: '" + dayDir + "'!", e);
 		}
+		getManifest().reload(pathFinder);
 	}
 
+	/**
+	 * Rewrite an existing day file with the current day file codec and format if it has been written with another one
+	 * or if it has no minute index or no rollup of the current rollup fields yet.
+	 * 
+	 * @param pathFinder The day to migrate.
+	 */
+	public void migrate(PathFinder pathFinder) {
+		Path dayFile = pathFinder.getDayFilePath();
+		try {
+			Codec codec = codecs.detect(dayFile);
+			if(codec == null) {
+				return;
+			}
+			if(recordFormats == null) {
+				if(codec.getName().equals(dayFileCodec.getName()) && hasRollup(pathFinder)) {
+					return;
+				}
+				try(DayFileOutput out = new DayFileOutput(pathFinder, false, rollup())) {
+					out.rollup(copy(dayFile, out.nextMinute(0)));
+					out.commit();
+				}
+			} else {
+				RecordFormat format = RecordFormats.detect(dayFile, codecs);
+				boolean indexed = DayFileIndex.read(pathFinder.getDayIndexFilePath(), dayFile) != null;
+				boolean sameCodec = format == RecordFormat.COLUMNAR || codec.getName().equals(dayFileCodec.getName());
+				if(indexed && sameCodec && format == dayFileFormat && hasRollup(pathFinder)) {
+					return;
+				}
+				try(DayFileOutput out = new DayFileOutput(pathFinder, true, rollup());
+					StoredObjectNodeReader reader = createReader(dayFile)) {
+					ObjectNodeWriter writer = null;
+					int minute = -1;
+					try {
+						for(StoredMetric metric = reader.read() ; metric != null ; metric = reader.read()) {
+							if(writer == null || metric.getTimestamp().getMinuteOfDay() != minute) {
+								if(writer != null) {
+									writer.close();
+								}
+								minute = metric.getTimestamp().getMinuteOfDay();
+								writer = memberWriter(out.nextMinute(minute));
+							}
+							writer.write(metric.getObjectNode());
+							out.rollup(minute, metric.getObjectNode());
+						}
+					} finally {
+						if(writer != null) {
+							writer.close();
+						}
+					}
+					out.commit();
+				}
+			}
+			LOG.info("Migrated day file: '{}' from codec: '{}' to codec: '{}' and format: '{}'.", dayFile, codec.getName(), dayFileCodec.getName(), dayFileFormat);
+		} catch(IOException e) {
+			throw new MetricsIOException("Could not migrate day file: '" + dayFile + "'!", e);
+		}
+	}
+	
+	/**
+	 * @return A new rollup builder or <code>null</code> if no rollups should be written.
+	 */
+	private DayRollup.Builder rollup() {
+		return rollupFields == null ? null : new DayRollup.Builder(rollupFields);
+	}
+	
+	/**
+	 * @return <code>true</code> if no rollups should be written or the day file has a rollup of the current fields.
+	 */
+	private boolean hasRollup(PathFinder pathFinder) {
+		if(rollupFields == null) {
+			return true;
+		}
+		DayRollup rollup = DayRollup.read(pathFinder.getDayRollupFilePath(), pathFinder.getDayFilePath());
+		return rollup != null && rollup.getFields().equals(rollupFields);
+	}
+	
+	/**
+	 * Append the decompressed content of a file to the given stream. The content is copied as it is when it has
+	 * the day file format and converted otherwise.
+	 * 
+	 * @return The source for method chaining.
+	 */
+	private Path copy(Path source, OutputStream out) throws IOException {
+		try(InputStream in = new BufferedInputStream(codecs.decompress(new BufferedInputStream(Files.newInputStream(source))))) {
+			if(recordFormats == null || RecordFormats.detect(in) == dayFileFormat) {
+				ByteStreams.copy(in, out);
+				return source;
+			}
+		}
+		try(ObjectNodeReader reader = new ObjectNodeReader(source, recordFormats, Charsets.UTF_8, codecs);
+			ObjectNodeWriter writer = memberWriter(out)) {
+			for(ObjectNode node = reader.read() ; node != null ; node = reader.read()) {
+				writer.write(node);
+			}
+		}
+		return source;
+	}
+	
+	/**
+	 * @return The codec of the whole day file. Columnar day files compress every column on their own.
+	 */
+	private Codec dayFileStreamCodec() {
+		return dayFileFormat == RecordFormat.COLUMNAR ? Codecs.RAW : dayFileCodec;
+	}
+	
+	/**
+	 * @return A writer which appends nodes in the day file format to the given block of a day file.
+	 */
+	private ObjectNodeWriter memberWriter(OutputStream member) {
+		return new ObjectNodeWriter(unclosable(member), recordFormats, dayFileFormat, Charsets.UTF_8, dayFileFormat == RecordFormat.COLUMNAR ? dayFileCodec : Codecs.RAW);
+	}
+	
+	private static OutputStream unclosable(OutputStream out) {
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+	}
+	
+	/**
+	 * Writes a temporary day file with one independently compressed block per minute, its index and its rollup.
+	 * The temporary files replace the current ones on {@link #commit()}.
+	 */
+	private class DayFileOutput implements Closeable {
+		
+		private final PathFinder pathFinder;
+		private final boolean indexed;
+		private final DayRollup.Builder rollup;
+		private final CountingOutputStream out;
+		private final List<Integer> minutes;
+		private final List<Long> offsets;
+		private OutputStream member;
+		private boolean closed;
+		
+		/**
+		 * @param pathFinder The day to write.
+		 * @param indexed <code>true</code> if the day file is written minute by minute and should be indexed.
+		 * @param rollup The builder of the rollup or <code>null</code> if no rollup should be written.
+		 */
+		public DayFileOutput(PathFinder pathFinder, boolean indexed, DayRollup.Builder rollup) throws IOException {
+			this.pathFinder = pathFinder;
+			this.indexed = indexed;
+			this.rollup = rollup;
+			this.out = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(pathFinder.getTemporaryDayFilePath())));
+			this.minutes = new ArrayList<>();
+			this.offsets = new ArrayList<>();
+		}
+		
+		/**
+		 * Finish the current block and start the block of the given minute.
+		 * 
+		 * @param minuteOfDay The minute of the next block.
+		 * @return The stream of the new block.
+		 * @throws IOException If finishing the current block fails.
+		 */
+		public OutputStream nextMinute(int minuteOfDay) throws IOException {
+			closeMember();
+			minutes.add(minuteOfDay);
+			offsets.add(out.getCount());
+			member = dayFileStreamCodec().compress(unclosable(out));
+			return member;
+		}
+		
+		/**
+		 * Add a written record to the rollup.
+		 */
+		public void rollup(int minuteOfDay, ObjectNode node) {
+			if(rollup != null) {
+				rollup.add(minuteOfDay, node);
+			}
+		}
+		
+		/**
+		 * Add all records of a written file to the rollup. Only the timestamp and the rollup fields are read.
+		 */
+		public void rollup(Path file) throws IOException {
+			if(rollup == null) {
+				return;
+			}
+			try(StoredObjectNodeReader reader = createReader(file, null, withTimestamp(RecordProjection.of(rollup.getFields())))) {
+				for(StoredMetric metric = reader.read() ; metric != null ; metric = reader.read()) {
+					rollup.add(metric.getTimestamp().getMinuteOfDay(), metric.getObjectNode());
+				}
+			}
+		}
+		
+		private void closeMember() throws IOException {
+			if(member != null) {
+				member.close();
+				member = null;
+			}
+		}
+		
+		/**
+		 * Close the temporary files and move them into place. The index and the rollup are moved first and are ignored
+		 * until the day file with their size has been moved as well.
+		 * 
+		 * @throws IOException If closing or moving fails.
+		 */
+		public void commit() throws IOException {
+			close();
+			Path dayFile = pathFinder.getDayFilePath();
+			Path indexFile = pathFinder.getDayIndexFilePath();
+			if(indexed) {
+				Path tmpIndexFile = pathFinder.getTemporaryDayIndexFilePath();
+				new DayFileIndex(out.getCount(), Ints.toArray(minutes), Longs.toArray(offsets)).write(tmpIndexFile);
+				Files.move(tmpIndexFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.deleteIfExists(indexFile);
+			}
+			Path rollupFile = pathFinder.getDayRollupFilePath();
+			if(rollup != null) {
+				Path tmpRollupFile = pathFinder.getTemporaryDayRollupFilePath();
+				rollup.build(out.getCount()).write(tmpRollupFile);
+				Files.move(tmpRollupFile, rollupFile, StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.deleteIfExists(rollupFile);
+			}
+			Files.move(pathFinder.getTemporaryDayFilePath(), dayFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			try {
+				closeMember();
+			} finally {
+				out.close();
+			}
+		}
+	}
+	
 	/**
 	 * Close a writer which is currently writing into the given path. If there is no such writer nothing happens.
 	 * 
@@ -9,6 +9,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Supplier;
 
 import de.ck35.metricstore.util.LRUCache;
+import de.ck35.metricstore.util.LRUCacheStatistics;
 import de.ck35.metricstore.util.io.ObjectNodeReader;
 import de.ck35.metricstore.util.io.ObjectNodeWriter;
 
@@ -24,15 +25,36 @@ public class WritableFilesystemBucketFactory implements Function<BucketData, Wri
     private final Function<Path, ObjectNodeWriter> writerFactory;
     private final Function<Path, ObjectNodeReader> readerFactory;
     private final Supplier<Integer> maxCachedWritersSetting;
+    private final LRUCacheStatistics writersCacheStatistics;
+    private final WriterPool writerPool;
+    private final DayFileSettings dayFileSettings;
 
     public WritableFilesystemBucketFactory(Function<ObjectNode, DateTime> timestampFunction,
                                            Function<Path, ObjectNodeWriter> writerFactory,
                                            Function<Path, ObjectNodeReader> readerFactory,
                                            Supplier<Integer> maxCachedWritersSetting) {
+        this(timestampFunction, writerFactory, readerFactory, maxCachedWritersSetting, new LRUCacheStatistics(), null, DayFileSettings.defaults());
+    }
+    
+    /**
+     * @param writersCacheStatistics The statistics of the writer caches of all buckets.
+     * @param writerPool The process wide budget of open writers or <code>null</code> if every bucket is only limited by its own cache.
+     * @param dayFileSettings The codec, format and rollups of the day files.
+     */
+    public WritableFilesystemBucketFactory(Function<ObjectNode, DateTime> timestampFunction,
+                                           Function<Path, ObjectNodeWriter> writerFactory,
+                                           Function<Path, ObjectNodeReader> readerFactory,
+                                           Supplier<Integer> maxCachedWritersSetting,
+                                           LRUCacheStatistics writersCacheStatistics,
+                                           WriterPool writerPool,
+                                           DayFileSettings dayFileSettings) {
         this.timestampFunction = timestampFunction;
         this.writerFactory = writerFactory;
         this.readerFactory = readerFactory;
         this.maxCachedWritersSetting = maxCachedWritersSetting;
+        this.writersCacheStatistics = writersCacheStatistics;
+        this.writerPool = writerPool;
+        this.dayFileSettings = dayFileSettings;
     }
 
     @Override
@@ -44,10 +66,14 @@ public class WritableFilesystemBucketFactory implements Function<BucketData, Wri
                                             timestampFunction, 
                                             writerFactory, 
                                             readerFactory, 
-                                            writersLRUCache());
+                                            writersLRUCache(),
+                                            dayFileSettings);
     }
     
     protected LRUCache<Path, ObjectNodeWriter> writersLRUCache() {
-        return new LRUCache<Path, ObjectNodeWriter>(maxCachedWritersSetting);
+        if(writerPool != null) {
+            return writerPool.writers(maxCachedWritersSetting, writersCacheStatistics);
+        }
+        return new LRUCache<Path, ObjectNodeWriter>(maxCachedWritersSetting, writersCacheStatistics);
     }
 }
\ No newline at end of file
@@ -0,0 +1,309 @@
+package de.ck35.metricstore.fs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+
+import de.ck35.metricstore.util.LRUCache;
+import de.ck35.metricstore.util.LRUCacheStatistics;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+
+/**
+ * Process wide budget for the open minute writers of all buckets. Every bucket still keeps its writers
+ * inside its own {@link LRUCache}, but when the open writers of all buckets exceed the budget the pool
+ * closes the least recently used writer of the bucket which holds the most writers in relation to its
+ * recent write rate. So hot buckets keep their writers while idle buckets release theirs.
+ * <p>
+ * The budget is given as a number of writers and as bytes. The bytes of a writer are its stream buffers
+ * and the state of its compressor, see {@link ObjectNodeWriter#getBufferBytes()}, which is mostly native
+ * deflater memory for gzip.
+ * <p>
+ * Every writer cache has its own lock and the pool only keeps atomic counters, so buckets do not wait
+ * for each other. A writer of another bucket is closed while holding the lock of that bucket, so the
+ * bucket never sees a writer which has been removed but is not closed yet. Writers of the calling bucket
+ * which are replaced, dropped or evicted by a put are returned by {@link LRUCache#put(Object, Object)}
+ * and must be closed by the caller.
+ * Buckets must write with {@link ObjectNodeWriter#tryWrite(com.fasterxml.jackson.databind.node.ObjectNode)}
+ * and open a new writer if the old one has been closed by the pool.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@ManagedResource
+public class WriterPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriterPool.class);
+
+    public static final long RATE_HALF_LIFE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Supplier<Integer> maxWritersSetting;
+    private final Supplier<Long> maxBytesSetting;
+    private final Ticker ticker;
+    private final Set<PooledWriters> buckets;
+    private final AtomicInteger openWriters;
+    private final AtomicLong openBytes;
+    private final AtomicLong totalOpenedWriters;
+    private final AtomicLong totalEvictedWriters;
+
+    public WriterPool(Supplier<Integer> maxWritersSetting, Supplier<Long> maxBytesSetting) {
+        this(maxWritersSetting, maxBytesSetting, Ticker.systemTicker());
+    }
+
+    public WriterPool(Supplier<Integer> maxWritersSetting, Supplier<Long> maxBytesSetting, Ticker ticker) {
+        this.maxWritersSetting = maxWritersSetting;
+        this.maxBytesSetting = maxBytesSetting;
+        this.ticker = ticker;
+        this.buckets = Collections.newSetFromMap(new ConcurrentHashMap<PooledWriters, Boolean>());
+        this.openWriters = new AtomicInteger();
+        this.openBytes = new AtomicLong();
+        this.totalOpenedWriters = new AtomicLong();
+        this.totalEvictedWriters = new AtomicLong();
+    }
+
+    /**
+     * Create the writer cache for a new bucket.
+     *
+     * @param maxCachedWritersSetting The max number of writers of this single bucket.
+     * @param statistics The statistics of the writer cache.
+     * @return A new writer cache which is managed by this pool.
+     */
+    public LRUCache<Path, ObjectNodeWriter> writers(Supplier<Integer> maxCachedWritersSetting, LRUCacheStatistics statistics) {
+        return new PooledWriters(maxCachedWritersSetting, statistics);
+    }
+
+    /**
+     * Close writers of the buckets with the highest score until the pool is back inside its budget.
+     * Must be called without holding the lock of a writer cache. The scores are read without locking,
+     * they are only a heuristic.
+     *
+     * @param requester The bucket which has opened a new writer.
+     * @return The writers which have been removed from the requester. They are not closed yet.
+     */
+    private List<ObjectNodeWriter> evict(PooledWriters requester) {
+        int maxOpenWriters = getMaxOpenWriters();
+        long maxBytes = getMaxBytes();
+        long now = ticker.read();
+        List<ObjectNodeWriter> evicted = new ArrayList<>();
+        while(isAboveBudget(maxOpenWriters, maxBytes)) {
+            PooledWriters victim = null;
+            double victimScore = 0;
+            for(PooledWriters bucket : buckets) {
+                int evictable = bucket == requester ? bucket.pooledSize() - 1 : bucket.pooledSize();
+                if(evictable <= 0) {
+                    continue;
+                }
+                double score = evictable / (1d + bucket.rate(now));
+                if(victim == null || score > victimScore) {
+                    victim = bucket;
+                    victimScore = score;
+                }
+            }
+            if(victim == null) {
+                break;
+            }
+            ObjectNodeWriter writer = victim.evictEldest(requester, maxOpenWriters, maxBytes);
+            if(writer != null) {
+                evicted.add(writer);
+            }
+        }
+        return evicted;
+    }
+
+    private boolean isAboveBudget(int maxOpenWriters, long maxBytes) {
+        return openWriters.get() > maxOpenWriters || openBytes.get() > maxBytes;
+    }
+
+    private static void close(ObjectNodeWriter writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOG.warn("Error while closing writer for path: '{}'.", writer.getPath(), e);
+        }
+    }
+
+    @ManagedAttribute
+    public int getMaxOpenWriters() {
+        return maxWritersSetting.get();
+    }
+    @ManagedAttribute
+    public long getMaxBytes() {
+        return maxBytesSetting.get();
+    }
+    @ManagedAttribute
+    public int getOpenWriters() {
+        return openWriters.get();
+    }
+    @ManagedAttribute
+    public long getEstimatedBytes() {
+        return openBytes.get();
+    }
+    @ManagedAttribute
+    public double getOccupancy() {
+        return Math.max(getOpenWriters() / (double) getMaxOpenWriters(), getEstimatedBytes() / (double) getMaxBytes());
+    }
+    @ManagedAttribute
+    public int getBucketsWithOpenWriters() {
+        int result = 0;
+        for(PooledWriters bucket : buckets) {
+            if(bucket.pooledSize() > 0) {
+                result++;
+            }
+        }
+        return result;
+    }
+    @ManagedAttribute
+    public long getTotalOpenedWriters() {
+        return totalOpenedWriters.get();
+    }
+    @ManagedAttribute
+    public long getTotalEvictedWriters() {
+        return totalEvictedWriters.get();
+    }
+
+    /**
+     * The writer cache of a single bucket. All operations are guarded by the lock of this cache.
+     */
+    private class PooledWriters extends LRUCache<Path, ObjectNodeWriter> {
+
+        private volatile double rate;
+        private volatile long lastUse;
+        private volatile int pooledSize;
+        private volatile long pooledBytes;
+
+        public PooledWriters(Supplier<Integer> maxCachedWritersSetting, LRUCacheStatistics statistics) {
+            super(maxCachedWritersSetting, statistics);
+        }
+
+        private void touch(long now) {
+            rate = rate(now) + 1;
+            lastUse = now;
+        }
+
+        /**
+         * @param now The current ticker value.
+         * @return The number of uses with an exponential decay of {@link WriterPool#RATE_HALF_LIFE_NANOS}.
+         */
+        private double rate(long now) {
+            double current = rate;
+            if(current == 0) {
+                return 0;
+            }
+            return current * Math.pow(0.5, (now - lastUse) / (double) RATE_HALF_LIFE_NANOS);
+        }
+
+        /**
+         * @return The number of open writers of this cache, read without locking.
+         */
+        private int pooledSize() {
+            return pooledSize;
+        }
+
+        /**
+         * Update the number of open writers and their bytes after the content has been changed while holding the lock.
+         */
+        private void resized() {
+            int size = super.size();
+            long bytes = 0;
+            for(Iterator<ObjectNodeWriter> iter = super.iterator() ; iter.hasNext() ; ) {
+                bytes += iter.next().getBufferBytes();
+            }
+            openWriters.addAndGet(size - pooledSize);
+            openBytes.addAndGet(bytes - pooledBytes);
+            pooledSize = size;
+            pooledBytes = bytes;
+        }
+
+        /**
+         * Remove the least recently used writer while holding the lock of this cache, unless another eviction
+         * has already brought the pool back inside its budget. A writer of another bucket is closed
+         * immediately, a writer of the requester is returned.
+         *
+         * @return The removed writer of the requester or <code>null</code>.
+         */
+        private synchronized ObjectNodeWriter evictEldest(PooledWriters requester, int maxOpenWriters, long maxBytes) {
+            int evictable = this == requester ? super.size() - 1 : super.size();
+            if(evictable <= 0 || !isAboveBudget(maxOpenWriters, maxBytes)) {
+                return null;
+            }
+            ObjectNodeWriter writer = super.removeEldest();
+            resized();
+            totalEvictedWriters.incrementAndGet();
+            if(this == requester) {
+                return writer;
+            }
+            close(writer);
+            return null;
+        }
+
+        @Override
+        public synchronized ObjectNodeWriter get(Path key) {
+            touch(ticker.read());
+            return super.get(key);
+        }
+
+        /**
+         * @return The replaced and dropped writers of this cache and the writers which have been evicted from
+         *         this cache for the budget of the pool. The caller must close them.
+         */
+        @Override
+        public Iterable<ObjectNodeWriter> put(Path key, ObjectNodeWriter value) {
+            Iterable<ObjectNodeWriter> oldWriters;
+            synchronized (this) {
+                buckets.add(this);
+                touch(ticker.read());
+                oldWriters = super.put(key, value);
+                resized();
+                totalOpenedWriters.incrementAndGet();
+            }
+            return ImmutableList.<ObjectNodeWriter>builder().addAll(oldWriters).addAll(evict(this)).build();
+        }
+
+        @Override
+        public synchronized ObjectNodeWriter remove(Path key) {
+            ObjectNodeWriter writer = super.remove(key);
+            resized();
+            return writer;
+        }
+
+        @Override
+        public synchronized ObjectNodeWriter removeEldest() {
+            ObjectNodeWriter writer = super.removeEldest();
+            resized();
+            return writer;
+        }
+
+        @Override
+        public synchronized int size() {
+            return super.size();
+        }
+
+        @Override
+        public synchronized void clear() {
+            super.clear();
+            resized();
+            buckets.remove(this);
+        }
+
+        @Override
+        public synchronized Iterator<ObjectNodeWriter> iterator() {
+            return ImmutableList.copyOf(super.iterator()).iterator();
+        }
+    }
+}
@@ -1,20 +1,29 @@
 package de.ck35.metricstore.nonpersistent;
 
+import java.util.NavigableMap;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 
+import de.ck35.metricstore.MetricAggregation;
 import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.MetricFilter;
 import de.ck35.metricstore.MetricRepository;
+import de.ck35.metricstore.MetricStatistics;
 import de.ck35.metricstore.StoredMetric;
 import de.ck35.metricstore.StoredMetricCallable;
+import de.ck35.metricstore.WriteErrorCallback;
 
 /**
  * An implementation of the {@link MetricRepository} Interface which does not store metric data.
@@ -25,6 +34,8 @@ import de.ck35.metricstore.StoredMetricCallable;
  */
 public class NonPersistentMetricRepository implements MetricRepository {
     
+    private static final Logger LOG = LoggerFactory.getLogger(NonPersistentMetricRepository.class);
+    
     private final ConcurrentMap<String, MetricBucket> buckets;
     private final Function<ObjectNode, DateTime> timestampFunction;
     
@@ -40,6 +51,44 @@ public class NonPersistentMetricRepository implements MetricRepository {
 
     @Override
     public StoredMetric write(String bucketName, String bucketType, ObjectNode node) {
+        return storedMetric(bucket(bucketName, bucketType), node);
+    }
+    
+    @Override
+    public Iterable<StoredMetric> writeAll(String bucketName, String bucketType, Iterable<ObjectNode> nodes) {
+        MetricBucket metricBucket = bucket(bucketName, bucketType);
+        ImmutableList.Builder<StoredMetric> result = ImmutableList.builder();
+        for(ObjectNode node : nodes) {
+            try {
+                result.add(storedMetric(metricBucket, node));
+            } catch(RuntimeException e) {
+                LOG.warn("Skipping node of batch for bucket: '{}' because it could not be written.", bucketName, e);
+            }
+        }
+        return result.build();
+    }
+    
+    @Override
+    public CompletableFuture<StoredMetric> writeAsync(String bucketName, String bucketType, ObjectNode node) {
+        CompletableFuture<StoredMetric> future = new CompletableFuture<>();
+        try {
+            future.complete(write(bucketName, bucketType, node));
+        } catch(RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+    
+    @Override
+    public void writeAndForget(String bucketName, String bucketType, ObjectNode node, WriteErrorCallback errorCallback) {
+        try {
+            write(bucketName, bucketType, node);
+        } catch(RuntimeException e) {
+            errorCallback.writeFailed(bucketName, node, e);
+        }
+    }
+    
+    protected MetricBucket bucket(String bucketName, String bucketType) {
         MetricBucket metricBucket = buckets.get(bucketName);
         if(metricBucket == null) {
             MetricBucket newBucket = new ImmutableMetricBucket(bucketName, bucketType);
@@ -50,6 +99,10 @@ public class NonPersistentMetricRepository implements MetricRepository {
                 metricBucket = oldBucket;
             }
         }
+        return metricBucket;
+    }
+    
+    protected StoredMetric storedMetric(MetricBucket metricBucket, ObjectNode node) {
         DateTime timestamp = Objects.requireNonNull(timestampFunction.apply(node));
         return new ImmutableStoredMetric(metricBucket, timestamp, node);
     }
@@ -58,4 +111,24 @@ public class NonPersistentMetricRepository implements MetricRepository {
     public void read(String bucketName, Interval interval, StoredMetricCallable callable) {
         //nothing to do here 
     }
+    
+    @Override
+    public void read(String bucketName, Interval interval, Iterable<MetricFilter> filters, StoredMetricCallable callable) {
+        //nothing to do here 
+    }
+    
+    @Override
+    public void read(String bucketName, Interval interval, Iterable<MetricFilter> filters, Iterable<String> fields, StoredMetricCallable callable) {
+        //nothing to do here 
+    }
+    
+    @Override
+    public void readNewest(String bucketName, Interval interval, Iterable<MetricFilter> filters, Iterable<String> fields, int limit, StoredMetricCallable callable) {
+        //nothing to do here 
+    }
+    
+    @Override
+    public NavigableMap<DateTime, MetricStatistics> aggregate(String bucketName, Interval interval, Iterable<MetricFilter> filters, MetricAggregation aggregation) {
+        return new TreeMap<>();
+    }
 }
\ No newline at end of file
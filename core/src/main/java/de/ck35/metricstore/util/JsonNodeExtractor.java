@@ -22,14 +22,8 @@ public class JsonNodeExtractor {
 	public static final String SEPARATOR = ".";
 
     public static Function<ObjectNode, JsonNode> forPath(String nodePath) {
-		if(nodePath == null || nodePath.trim().isEmpty()) {
-			throw new IllegalArgumentException("Empty node path is not allowed!");
-		}
-		Splitter splitter = Splitter.on(SEPARATOR).trimResults().omitEmptyStrings();
-		List<String> tokens = splitter.splitToList(nodePath);
-		if(tokens.isEmpty()) {
-			throw new IllegalArgumentException("No tokens found inside node path: '" + nodePath + "'.");
-		} else if(tokens.size() == 1) {
+		List<String> tokens = tokens(nodePath);
+		if(tokens.size() == 1) {
 			return new OneTokenExtractor(tokens.get(0));
 		} else if(tokens.size() == 2) {
 			return new TwoTokensExtractor(tokens.get(0), tokens.get(1));
@@ -40,6 +34,22 @@ public class JsonNodeExtractor {
 		}
 	}
 	
+	/**
+	 * @param nodePath The node path.
+	 * @return The field names of the node path.
+	 */
+	public static List<String> tokens(String nodePath) {
+		if(nodePath == null || nodePath.trim().isEmpty()) {
+			throw new IllegalArgumentException("Empty node path is not allowed!");
+		}
+		Splitter splitter = Splitter.on(SEPARATOR).trimResults().omitEmptyStrings();
+		List<String> tokens = splitter.splitToList(nodePath);
+		if(tokens.isEmpty()) {
+			throw new IllegalArgumentException("No tokens found inside node path: '" + nodePath + "'.");
+		}
+		return tokens;
+	}
+	
 	public static class OneTokenExtractor implements Function<ObjectNode, JsonNode> {
 		
 		private final String fieldName;
@@ -1,25 +1,19 @@
 package de.ck35.metricstore.util;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.LinkedHashMap;
 import java.util.Objects;
 
-import com.google.common.base.Function;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 
 /**
  * A cache which holds up to n elements. The element which has not been used for the longest time
- * will be dropped when another element (n+1) is added.
- * 
+ * will be dropped when another element (n+1) is added. All operations run in constant time because
+ * the entries are kept in access order, so the least recently used entry is always the first one.
+ *
  * @param <K> The cache key.
  * @param <V> The cached value.
  *
@@ -29,89 +23,95 @@ import com.google.common.collect.ImmutableList;
 public class LRUCache<K, V> implements Iterable<V> {
 
 	private final Supplier<Integer> maxCachedEntriesSupplier;
-	private final Map<K, CacheEntry<V>> cache;
-	private final Comparator<Entry<K, CacheEntry<V>>> comparator;
-	
+	private final LinkedHashMap<K, V> cache;
+	private final LRUCacheStatistics statistics;
+
 	public LRUCache(int maxCachedEntries) {
 		this(Suppliers.<Integer>ofInstance(maxCachedEntries));
 	}
-	
+
 	public LRUCache(Supplier<Integer> maxCachedEntriesSetting) {
+		this(maxCachedEntriesSetting, new LRUCacheStatistics());
+	}
+
+	public LRUCache(Supplier<Integer> maxCachedEntriesSetting, LRUCacheStatistics statistics) {
 		this.maxCachedEntriesSupplier = maxCachedEntriesSetting;
-		this.cache = new HashMap<>();
-		this.comparator = new CacheEntryComparator<>();
+		this.statistics = Objects.requireNonNull(statistics);
+		this.cache = new LinkedHashMap<>(16, 0.75f, true);
 	}
-	
+
 	public V get(K key) {
-		CacheEntry<V> entry = cache.get(key);
-		if(entry == null) {
-			return null;
+		V value = cache.get(key);
+		if(value == null) {
+			statistics.miss();
+		} else {
+			statistics.hit();
 		}
-		return entry.get();
+		return value;
 	}
-	
+
+	/**
+	 * Put a value into the cache. Values which have been replaced or dropped are returned
+	 * in the order of their last use so that the caller can release them.
+	 *
+	 * @param key The cache key.
+	 * @param value The value which should be cached.
+	 * @return The replaced and dropped values.
+	 */
 	public Iterable<V> put(K key, V value) {
-		CacheEntry<V> old = cache.put(key, new CacheEntry<>(value));
+		V old = cache.put(key, Objects.requireNonNull(value));
 		int maxCachedEntries = maxCachedEntriesSupplier.get();
 		if(cache.size() > maxCachedEntries) {
 		    ImmutableList.Builder<V> oldValues = ImmutableList.builder();
-			List<Entry<K, CacheEntry<V>>> list = new ArrayList<>(cache.entrySet());
-			Collections.sort(list, comparator);
-			int index = 0;
-			while(cache.size() > maxCachedEntries) {
-			    oldValues.add(cache.remove(list.get(index++).getKey()).get());
+		    if(old != null) {
+		        oldValues.add(old);
+		    }
+		    int evictions = 0;
+			for(Iterator<V> iterator = cache.values().iterator() ; cache.size() > maxCachedEntries ; evictions++) {
+			    oldValues.add(iterator.next());
+			    iterator.remove();
 			}
+			statistics.evicted(evictions);
 			return oldValues.build();
 		} else {
-		    return old == null ? Collections.<V>emptyList() : Collections.singleton(old.get());
+		    return old == null ? Collections.<V>emptyList() : Collections.singleton(old);
 		}
 	}
-	
+
 	public V remove(K key) {
-		CacheEntry<V> cacheEntry = cache.remove(key);
-		return cacheEntry == null ? null : cacheEntry.get();
+		return cache.remove(key);
+	}
+
+	/**
+	 * Remove the entry which has not been used for the longest time.
+	 *
+	 * @return The removed value or <code>null</code> if the cache is empty.
+	 */
+	public V removeEldest() {
+		Iterator<V> iterator = cache.values().iterator();
+		if(!iterator.hasNext()) {
+			return null;
+		}
+		V value = iterator.next();
+		iterator.remove();
+		statistics.evicted(1);
+		return value;
 	}
-	
+
 	public int size() {
 		return cache.size();
 	}
-	
+
 	public void clear() {
 		this.cache.clear();
 	}
-	
+
+	public LRUCacheStatistics getStatistics() {
+		return statistics;
+	}
+
 	@Override
 	public Iterator<V> iterator() {
-		Function<Supplier<V>, V> function = Suppliers.supplierFunction();
-		return Collections2.transform(Collections.<Supplier<V>>unmodifiableCollection(cache.values()), function).iterator();
-	}
-	
-	public static class CacheEntryComparator<K, V> implements Comparator<Entry<K, CacheEntry<V>>> {
-		@Override
-		public int compare(Entry<K, CacheEntry<V>> o1, Entry<K, CacheEntry<V>> o2) {
-			return Long.compare(o1.getValue().getLastUse(), o2.getValue().getLastUse());
-		}
-	}
-	
-	private static class CacheEntry<V> implements Supplier<V> {
-		
-		private final V value;
-		private long lastUse;
-		
-		public CacheEntry(V value) {
-			this.value = Objects.requireNonNull(value);
-			touch();
-		}
-		public final void touch() {
-			this.lastUse = System.nanoTime();
-		}
-		@Override
-		public V get() {
-			touch();
-			return value;
-		}
-		public long getLastUse() {
-			return lastUse;
-		}
+		return Collections.unmodifiableCollection(cache.values()).iterator();
 	}
-}
\ No newline at end of file
+}
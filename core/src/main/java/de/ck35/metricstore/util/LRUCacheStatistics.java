@@ -0,0 +1,49 @@
+package de.ck35.metricstore.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Threadsafe hit, miss and eviction counters of one or more {@link LRUCache} instances.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+@ManagedResource
+public class LRUCacheStatistics {
+
+    private final AtomicLong totalHits;
+    private final AtomicLong totalMisses;
+    private final AtomicLong totalEvictions;
+
+    public LRUCacheStatistics() {
+        this.totalHits = new AtomicLong();
+        this.totalMisses = new AtomicLong();
+        this.totalEvictions = new AtomicLong();
+    }
+
+    public void hit() {
+        totalHits.incrementAndGet();
+    }
+    public void miss() {
+        totalMisses.incrementAndGet();
+    }
+    public void evicted(int evictions) {
+        totalEvictions.addAndGet(evictions);
+    }
+
+    @ManagedAttribute
+    public long getTotalHits() {
+        return totalHits.get();
+    }
+    @ManagedAttribute
+    public long getTotalMisses() {
+        return totalMisses.get();
+    }
+    @ManagedAttribute
+    public long getTotalEvictions() {
+        return totalEvictions.get();
+    }
+}
@@ -19,13 +19,21 @@ public class TimestampFunction implements Function<ObjectNode, DateTime> {
 	
 	private final DateTimeFormatter formatter;
 	private final Function<ObjectNode, JsonNode> jsonNodeExtractor;
+	private final String fieldPath;
 	
 	public TimestampFunction() {
-		this(DEFAULT_FORMATTER, JsonNodeExtractor.forPath(DEFAULT_TIMESTAMP_FILED_NAME));
+		this(DEFAULT_FORMATTER, DEFAULT_TIMESTAMP_FILED_NAME);
+	}
+	public TimestampFunction(DateTimeFormatter formatter, String fieldPath) {
+		this(formatter, JsonNodeExtractor.forPath(fieldPath), fieldPath);
 	}
 	public TimestampFunction(DateTimeFormatter formatter, Function<ObjectNode, JsonNode> jsonNodeExtractor) {
+		this(formatter, jsonNodeExtractor, null);
+	}
+	private TimestampFunction(DateTimeFormatter formatter, Function<ObjectNode, JsonNode> jsonNodeExtractor, String fieldPath) {
 		this.formatter = formatter;
 		this.jsonNodeExtractor = jsonNodeExtractor;
+		this.fieldPath = fieldPath;
 	}
 
 	@Override
@@ -38,12 +46,39 @@ public class TimestampFunction implements Function<ObjectNode, DateTime> {
 		if(dateTimeText == null) {
 			throw new IllegalArgumentException("Timestamp filed is missing inside object node!");
 		}
+		return parse(dateTimeText);
+	}
+	
+	/**
+	 * @param dateTimeText The text of the timestamp field.
+	 * @return The timestamp truncated to its minute.
+	 * @throws IllegalArgumentException If the text is not a valid timestamp.
+	 */
+	public DateTime parse(String dateTimeText) {
 		if(dateTimeText.isEmpty()) {
 			throw new IllegalArgumentException("Empty String for timestamp in invalid!");
 		}
 		return formatter.parseDateTime(dateTimeText).withZone(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0);
 	}
 	
+	/**
+	 * @return The path of the timestamp field or <code>null</code> if it is only known by the extract function.
+	 */
+	public String getFieldPath() {
+		return fieldPath;
+	}
+	
+	/**
+	 * Create a timestamp function with an optional datetime format and the path of the timestamp field.
+	 * 
+	 * @param dateTimeFormat The format of date time fields.
+	 * @param fieldPath The path of the date time field.
+	 * @return A timestamp function.
+	 */
+	public static TimestampFunction build(String dateTimeFormat, String fieldPath) {
+		return new TimestampFunction(formatter(dateTimeFormat), fieldPath);
+	}
+	
 	/**
 	 * Create a timestamp function with an optional datetime format and path function.
 	 * 
@@ -52,13 +87,15 @@ public class TimestampFunction implements Function<ObjectNode, DateTime> {
 	 * @return A timestamp function.
 	 */
 	public static TimestampFunction build(String dateTimeFormat, Function<ObjectNode, JsonNode> pathFunction) {
-        final DateTimeFormatter formatter;
+        return new TimestampFunction(formatter(dateTimeFormat), pathFunction);
+	}
+	
+	private static DateTimeFormatter formatter(String dateTimeFormat) {
         if(dateTimeFormat == null) {
-            formatter = TimestampFunction.DEFAULT_FORMATTER;
+            return TimestampFunction.DEFAULT_FORMATTER;
         } else {            
-            formatter = DateTimeFormat.forPattern(dateTimeFormat).withZoneUTC();
+            return DateTimeFormat.forPattern(dateTimeFormat).withZoneUTC();
         }
-        return new TimestampFunction(formatter, pathFunction);
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+package de.ck35.metricstore.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compression codec for stored object nodes. Every codec must start its output with a header
+ * which is accepted by {@link #accept(byte[], int)} so that files and buffers written with
+ * different codecs can be read side by side. See {@link Codecs} for the built in codecs.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public interface Codec {
+
+    /**
+     * @return The name of this codec.
+     */
+    String getName();
+
+    /**
+     * @param header The first bytes of a stream.
+     * @param length The number of valid bytes inside the header which can be smaller than {@link Codecs#HEADER_LENGTH}.
+     * @return <code>true</code> if the stream has been written by this codec.
+     */
+    boolean accept(byte[] header, int length);
+
+    /**
+     * @param out The target stream.
+     * @return A stream which compresses into the target stream. Closing it will close the target stream.
+     * @throws IOException If writing the header fails.
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * @param in The compressed source stream.
+     * @return A stream which decompresses the source stream. Closing it will close the source stream.
+     * @throws IOException If reading the header fails.
+     */
+    InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * @return The estimated memory which one stream returned by {@link #compress(OutputStream)} holds until it is closed.
+     */
+    long getCompressBufferBytes();
+
+}
@@ -0,0 +1,238 @@
+package de.ck35.metricstore.util.io;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream.BlockSize;
+import org.apache.commons.compress.compressors.lz77support.Parameters;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Holds the built in {@link Codec}s and detects the codec of a stream by its header.
+ * Detection checks the additional codecs first, then gzip and lz4. Everything else is
+ * read as raw content, which is also true for empty streams.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class Codecs {
+
+    public static final int HEADER_LENGTH = 4;
+    public static final int DEFAULT_LEVEL = -1;
+
+    /**
+     * The zlib deflate state with the default window and memory level (256 KiB) and the output buffer of the gzip stream.
+     */
+    public static final long GZIP_BUFFER_BYTES = 256 * 1024 + 512;
+    /**
+     * The block buffer (64 KiB), the LZ77 window (128 KiB), its hash tables (384 KiB) and the compressed block (64 KiB).
+     */
+    public static final long LZ4_BUFFER_BYTES = 640 * 1024;
+
+    public enum CodecType {
+        GZIP,
+        LZ4,
+        RAW
+    }
+
+    public static final Codec GZIP = gzip(DEFAULT_LEVEL);
+    public static final Codec LZ4 = lz4(DEFAULT_LEVEL);
+    public static final Codec RAW = new RawCodec();
+    private static final Codecs DEFAULTS = new Codecs();
+
+    private final List<Codec> codecs;
+
+    public Codecs(Codec ... additionalCodecs) {
+        this.codecs = ImmutableList.<Codec>builder().add(additionalCodecs).add(GZIP, LZ4, RAW).build();
+    }
+
+    public static Codecs defaults() {
+        return DEFAULTS;
+    }
+
+    public Codec detect(byte[] header, int length) {
+        for(Codec codec : codecs) {
+            if(codec.accept(header, length)) {
+                return codec;
+            }
+        }
+        return RAW;
+    }
+
+    /**
+     * Detect the codec of an existing file.
+     *
+     * @param path The file to check.
+     * @return The codec of the file or <code>null</code> if the file does not exist or is empty.
+     * @throws IOException If reading the header fails.
+     */
+    public Codec detect(Path path) throws IOException {
+        if(!Files.isRegularFile(path) || Files.size(path) == 0) {
+            return null;
+        }
+        try(InputStream in = Files.newInputStream(path)) {
+            byte[] header = new byte[HEADER_LENGTH];
+            return detect(header, ByteStreams.read(in, header, 0, HEADER_LENGTH));
+        }
+    }
+
+    /**
+     * @param in The compressed stream.
+     * @return A stream which decompresses the given stream with the detected codec.
+     * @throws IOException If reading the header fails.
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        InputStream buffered = in.markSupported() ? in : new BufferedInputStream(in);
+        byte[] header = new byte[HEADER_LENGTH];
+        buffered.mark(HEADER_LENGTH);
+        int length = ByteStreams.read(buffered, header, 0, HEADER_LENGTH);
+        buffered.reset();
+        if(length == 0) {
+            return buffered;
+        }
+        return detect(header, length).decompress(buffered);
+    }
+
+    public static Codec create(CodecType type, int level) {
+        switch(type) {
+            case GZIP: return gzip(level);
+            case LZ4: return lz4(level);
+            case RAW: return RAW;
+            default: throw new IllegalArgumentException("Unknown codec type: '" + type + "'!");
+        }
+    }
+
+    /**
+     * @param level The deflate level from 1 (fast) to 9 (small) or {@link #DEFAULT_LEVEL}.
+     * @return A gzip codec.
+     */
+    public static Codec gzip(int level) {
+        return new GzipCodec(level);
+    }
+
+    /**
+     * @param level Up to 3 tunes for speed, from 7 on tunes for compression ratio. {@link #DEFAULT_LEVEL} keeps the defaults.
+     * @return A codec which writes lz4 frames with 64 KiB blocks.
+     */
+    public static Codec lz4(int level) {
+        return new Lz4Codec(level);
+    }
+
+    private static class GzipCodec implements Codec {
+
+        private final int level;
+
+        public GzipCodec(int level) {
+            this.level = level;
+        }
+        @Override
+        public String getName() {
+            return "gzip";
+        }
+        @Override
+        public boolean accept(byte[] header, int length) {
+            return length >= 2 && header[0] == (byte) 0x1f && header[1] == (byte) 0x8b;
+        }
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+        @Override
+        public long getCompressBufferBytes() {
+            return GZIP_BUFFER_BYTES;
+        }
+        @Override
+        public String toString() {
+            return "GzipCodec [level=" + level + "]";
+        }
+    }
+
+    private static class Lz4Codec implements Codec {
+
+        private final int level;
+        private final FramedLZ4CompressorOutputStream.Parameters parameters;
+
+        public Lz4Codec(int level) {
+            this.level = level;
+            Parameters.Builder builder = BlockLZ4CompressorOutputStream.createParameterBuilder();
+            if(level >= 7) {
+                builder.tunedForCompressionRatio();
+            } else if(level >= 0 && level <= 3) {
+                builder.tunedForSpeed();
+            }
+            this.parameters = new FramedLZ4CompressorOutputStream.Parameters(BlockSize.K64, true, false, false, builder.build());
+        }
+        @Override
+        public String getName() {
+            return "lz4";
+        }
+        @Override
+        public boolean accept(byte[] header, int length) {
+            return length >= 4 && header[0] == 0x04 && header[1] == 0x22 && header[2] == 0x4D && header[3] == 0x18;
+        }
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new FramedLZ4CompressorOutputStream(out, parameters);
+        }
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new FramedLZ4CompressorInputStream(in, true);
+        }
+        @Override
+        public long getCompressBufferBytes() {
+            return LZ4_BUFFER_BYTES;
+        }
+        @Override
+        public String toString() {
+            return "Lz4Codec [level=" + level + "]";
+        }
+    }
+
+    private static class RawCodec implements Codec {
+
+        @Override
+        public String getName() {
+            return "raw";
+        }
+        @Override
+        public boolean accept(byte[] header, int length) {
+            return true;
+        }
+        @Override
+        public OutputStream compress(OutputStream out) {
+            return out;
+        }
+        @Override
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+        @Override
+        public long getCompressBufferBytes() {
+            return 0;
+        }
+        @Override
+        public String toString() {
+            return "RawCodec";
+        }
+    }
+}
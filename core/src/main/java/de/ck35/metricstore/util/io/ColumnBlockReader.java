@@ -0,0 +1,253 @@
+package de.ck35.metricstore.util.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Reads the blocks written by {@link ColumnBlockWriter} and reconstructs the nodes row by row. When only
+ * some fields are requested the payloads of all other columns are skipped without inflating them.
+ * Repeated stream headers of appended write sessions are skipped.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ * @see ColumnBlockWriter
+ */
+public class ColumnBlockReader implements Closeable {
+
+    private static final int COLUMNAR_HEADER = ByteBuffer.wrap(RecordFormats.COLUMNAR_HEADER).getInt();
+
+    private final DataInputStream in;
+    private final ObjectMapper mapper;
+    private final JsonNodeFactory nodeFactory;
+    private final Codecs codecs;
+    private final List<String> names;
+    private final List<JsonNode[]> columns;
+
+    private Set<String> fields;
+    private int rows;
+    private int row;
+    private long compressedBytesRead;
+
+    /**
+     * @param in The raw stream starting with the columnar header.
+     * @param mapper Reads the values of JSON columns.
+     * @param codecs Detects the codec of every column.
+     */
+    public ColumnBlockReader(InputStream in, ObjectMapper mapper, Codecs codecs) {
+        this.in = new DataInputStream(in);
+        this.mapper = mapper;
+        this.nodeFactory = mapper.getNodeFactory();
+        this.codecs = codecs;
+        this.names = new ArrayList<>();
+        this.columns = new ArrayList<>();
+    }
+
+    /**
+     * Only reconstruct the given top level fields. Applies to all blocks which have not been read yet.
+     *
+     * @param fields The field names or <code>null</code> for complete nodes.
+     */
+    public void setFields(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * @return The next node or <code>null</code> if there are no more blocks.
+     * @throws EOFException If the stream ends inside of a block.
+     * @throws IOException If reading fails.
+     */
+    public ObjectNode read() throws IOException {
+        while(row >= rows) {
+            if(!readBlock()) {
+                return null;
+            }
+        }
+        ObjectNode node = nodeFactory.objectNode();
+        for(int index = 0 ; index < columns.size() ; index++) {
+            JsonNode value = columns.get(index)[row];
+            if(value != null) {
+                node.set(names.get(index), value);
+            }
+        }
+        row++;
+        return node;
+    }
+
+    private boolean readBlock() throws IOException {
+        int header;
+        try {
+            header = in.readInt();
+        } catch(EOFException e) {
+            return false;
+        }
+        if(header == COLUMNAR_HEADER) {
+            return true;
+        }
+        if(header < 0) {
+            throw new IOException("Invalid block row count: '" + header + "'!");
+        }
+        names.clear();
+        columns.clear();
+        rows = 0;
+        row = 0;
+        int columnCount = in.readInt();
+        for(int index = 0 ; index < columnCount ; index++) {
+            byte[] name = new byte[in.readInt()];
+            in.readFully(name);
+            String fieldName = new String(name, Charsets.UTF_8);
+            int length = in.readInt();
+            if(fields != null && !fields.contains(fieldName)) {
+                ByteStreams.skipFully(in, length);
+                continue;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            compressedBytesRead += length;
+            try(DataInputStream column = new DataInputStream(codecs.decompress(new ByteArrayInputStream(payload)))) {
+                names.add(fieldName);
+                columns.add(decode(column, header));
+            }
+        }
+        rows = header;
+        return true;
+    }
+
+    private JsonNode[] decode(DataInputStream column, int rowCount) throws IOException {
+        byte type = column.readByte();
+        boolean[] presence = new boolean[rowCount];
+        int present = rowCount;
+        if(column.readBoolean()) {
+            Arrays.fill(presence, true);
+        } else {
+            presence = bitmap(column, rowCount);
+            present = 0;
+            for(boolean bit : presence) {
+                if(bit) {
+                    present++;
+                }
+            }
+        }
+        JsonNode[] values = new JsonNode[present];
+        switch(type) {
+            case ColumnBlockWriter.INT_COLUMN:
+                for(int index = 0 ; index < present ; index++) {
+                    values[index] = nodeFactory.numberNode(column.readInt());
+                }
+                break;
+            case ColumnBlockWriter.LONG_COLUMN:
+                for(int index = 0 ; index < present ; index++) {
+                    values[index] = nodeFactory.numberNode(column.readLong());
+                }
+                break;
+            case ColumnBlockWriter.DOUBLE_COLUMN:
+                for(int index = 0 ; index < present ; index++) {
+                    values[index] = nodeFactory.numberNode(column.readDouble());
+                }
+                break;
+            case ColumnBlockWriter.BOOLEAN_COLUMN:
+                boolean[] flags = bitmap(column, present);
+                for(int index = 0 ; index < present ; index++) {
+                    values[index] = nodeFactory.booleanNode(flags[index]);
+                }
+                break;
+            case ColumnBlockWriter.TIMESTAMP_COLUMN:
+                long millis = 0;
+                for(int index = 0 ; index < present ; index++) {
+                    millis += readVarLong(column);
+                    values[index] = nodeFactory.textNode(ColumnBlockWriter.TIMESTAMP_FORMATTER.print(millis));
+                }
+                break;
+            case ColumnBlockWriter.DICTIONARY_COLUMN:
+                JsonNode[] dictionary = new JsonNode[(int) readVarLong(column)];
+                for(int index = 0 ; index < dictionary.length ; index++) {
+                    dictionary[index] = nodeFactory.textNode(new String(readBytes(column), Charsets.UTF_8));
+                }
+                for(int index = 0 ; index < present ; index++) {
+                    values[index] = dictionary[(int) readVarLong(column)];
+                }
+                break;
+            case ColumnBlockWriter.STRING_COLUMN:
+                for(int index = 0 ; index < present ; index++) {
+                    values[index] = nodeFactory.textNode(new String(readBytes(column), Charsets.UTF_8));
+                }
+                break;
+            case ColumnBlockWriter.JSON_COLUMN:
+                for(int index = 0 ; index < present ; index++) {
+                    values[index] = mapper.readTree(readBytes(column));
+                }
+                break;
+            default:
+                throw new IOException("Unknown column type: '" + type + "'!");
+        }
+        if(present == rowCount) {
+            return values;
+        }
+        JsonNode[] result = new JsonNode[rowCount];
+        for(int index = 0, value = 0 ; index < rowCount ; index++) {
+            if(presence[index]) {
+                result[index] = values[value++];
+            }
+        }
+        return result;
+    }
+
+    private static boolean[] bitmap(DataInput in, int length) throws IOException {
+        byte[] bitmap = new byte[(length + 7) / 8];
+        in.readFully(bitmap);
+        boolean[] bits = new boolean[length];
+        for(int index = 0 ; index < length ; index++) {
+            bits[index] = (bitmap[index / 8] & (1 << (index % 8))) != 0;
+        }
+        return bits;
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Read a zig zag encoded variable length long.
+     */
+    static long readVarLong(DataInput in) throws IOException {
+        long zigZag = 0;
+        for(int shift = 0 ; ; shift += 7) {
+            byte next = in.readByte();
+            zigZag |= (long) (next & 0x7F) << shift;
+            if((next & 0x80) == 0) {
+                break;
+            }
+        }
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    /**
+     * @return The compressed bytes of all columns which have been read so far.
+     */
+    public long getCompressedBytesRead() {
+        return compressedBytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,313 @@
+package de.ck35.metricstore.util.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+
+/**
+ * Writes nodes as blocks of columns. Every top level field of the buffered nodes becomes one column which is
+ * compressed on its own, so a reader can skip the columns it does not need without inflating them.
+ * The column type is chosen per block: integral numbers, floating point numbers and booleans are stored as
+ * primitive values (ints and longs in columns of their own, so they are read back as the same node type), ISO timestamps as delta encoded milliseconds, repeated strings with a dictionary and
+ * everything else as JSON.
+ * <p>
+ * Layout: {@link RecordFormats#COLUMNAR_HEADER} followed by blocks of <code>int rows, int columns</code> and
+ * per column <code>int name length, name, int payload length, compressed payload</code>. The payload starts with
+ * the column type and the rows where the field is present.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ * @see ColumnBlockReader
+ */
+public class ColumnBlockWriter implements Closeable {
+
+    public static final int DEFAULT_BLOCK_ROWS = 64 * 1024;
+    public static final int COLUMN_BUFFER_SIZE = 4096;
+
+    static final byte LONG_COLUMN = 1;
+    static final byte DOUBLE_COLUMN = 2;
+    static final byte BOOLEAN_COLUMN = 3;
+    static final byte TIMESTAMP_COLUMN = 4;
+    static final byte DICTIONARY_COLUMN = 5;
+    static final byte STRING_COLUMN = 6;
+    static final byte JSON_COLUMN = 7;
+    static final byte INT_COLUMN = 8;
+
+    static final DateTimeFormatter TIMESTAMP_FORMATTER = ISODateTimeFormat.dateTime().withZoneUTC();
+    private static final int TIMESTAMP_LENGTH = "2016-01-01T00:00:00.000Z".length();
+
+    private final DataOutputStream out;
+    private final Codec codec;
+    private final ObjectMapper mapper;
+    private final int blockRows;
+    private final List<ObjectNode> rows;
+    private final ByteArrayOutputStream column;
+
+    public ColumnBlockWriter(OutputStream out, Codec codec, ObjectMapper mapper) throws IOException {
+        this(out, codec, mapper, DEFAULT_BLOCK_ROWS);
+    }
+
+    /**
+     * @param out The stream which receives the raw blocks.
+     * @param codec The codec of every single column.
+     * @param mapper Writes the values of JSON columns.
+     * @param blockRows The maximum number of nodes inside one block.
+     * @throws IOException If writing the header fails.
+     */
+    public ColumnBlockWriter(OutputStream out, Codec codec, ObjectMapper mapper, int blockRows) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.codec = codec;
+        this.mapper = mapper;
+        this.blockRows = blockRows;
+        this.rows = new ArrayList<>();
+        this.column = new ByteArrayOutputStream(COLUMN_BUFFER_SIZE);
+        this.out.write(RecordFormats.COLUMNAR_HEADER);
+    }
+
+    public void write(ObjectNode node) throws IOException {
+        rows.add(node);
+        if(rows.size() >= blockRows) {
+            flush();
+        }
+    }
+
+    /**
+     * Write all buffered nodes as one block.
+     *
+     * @throws IOException If writing the block fails.
+     */
+    public void flush() throws IOException {
+        if(rows.isEmpty()) {
+            return;
+        }
+        Map<String, JsonNode[]> columns = new LinkedHashMap<>();
+        for(int row = 0 ; row < rows.size() ; row++) {
+            for(Iterator<Entry<String, JsonNode>> iter = rows.get(row).fields() ; iter.hasNext() ; ) {
+                Entry<String, JsonNode> field = iter.next();
+                JsonNode[] values = columns.get(field.getKey());
+                if(values == null) {
+                    values = new JsonNode[rows.size()];
+                    columns.put(field.getKey(), values);
+                }
+                values[row] = field.getValue();
+            }
+        }
+        out.writeInt(rows.size());
+        out.writeInt(columns.size());
+        for(Entry<String, JsonNode[]> entry : columns.entrySet()) {
+            byte[] name = entry.getKey().getBytes(Charsets.UTF_8);
+            column.reset();
+            try(DataOutputStream payload = new DataOutputStream(codec.compress(column))) {
+                encode(entry.getValue(), payload);
+            }
+            out.writeInt(name.length);
+            out.write(name);
+            out.writeInt(column.size());
+            column.writeTo(out);
+        }
+        rows.clear();
+    }
+
+    private void encode(JsonNode[] values, DataOutputStream payload) throws IOException {
+        byte type = type(values);
+        payload.writeByte(type);
+        int present = 0;
+        boolean[] presence = new boolean[values.length];
+        for(int row = 0 ; row < values.length ; row++) {
+            if(values[row] != null) {
+                presence[row] = true;
+                present++;
+            }
+        }
+        payload.writeBoolean(present == values.length);
+        if(present < values.length) {
+            payload.write(bitmap(presence));
+        }
+        switch(type) {
+            case INT_COLUMN:
+                for(JsonNode value : values) {
+                    if(value != null) {
+                        payload.writeInt(value.intValue());
+                    }
+                }
+                break;
+            case LONG_COLUMN:
+                for(JsonNode value : values) {
+                    if(value != null) {
+                        payload.writeLong(value.longValue());
+                    }
+                }
+                break;
+            case DOUBLE_COLUMN:
+                for(JsonNode value : values) {
+                    if(value != null) {
+                        payload.writeDouble(value.doubleValue());
+                    }
+                }
+                break;
+            case BOOLEAN_COLUMN:
+                boolean[] flags = new boolean[present];
+                int index = 0;
+                for(JsonNode value : values) {
+                    if(value != null) {
+                        flags[index++] = value.booleanValue();
+                    }
+                }
+                payload.write(bitmap(flags));
+                break;
+            case TIMESTAMP_COLUMN:
+                long last = 0;
+                for(JsonNode value : values) {
+                    if(value != null) {
+                        long millis = TIMESTAMP_FORMATTER.parseMillis(value.textValue());
+                        writeVarLong(payload, millis - last);
+                        last = millis;
+                    }
+                }
+                break;
+            case DICTIONARY_COLUMN:
+                Map<String, Integer> dictionary = new LinkedHashMap<>();
+                for(JsonNode value : values) {
+                    if(value != null && !dictionary.containsKey(value.textValue())) {
+                        dictionary.put(value.textValue(), dictionary.size());
+                    }
+                }
+                writeVarLong(payload, dictionary.size());
+                for(String entry : dictionary.keySet()) {
+                    writeBytes(payload, entry.getBytes(Charsets.UTF_8));
+                }
+                for(JsonNode value : values) {
+                    if(value != null) {
+                        writeVarLong(payload, dictionary.get(value.textValue()));
+                    }
+                }
+                break;
+            case STRING_COLUMN:
+                for(JsonNode value : values) {
+                    if(value != null) {
+                        writeBytes(payload, value.textValue().getBytes(Charsets.UTF_8));
+                    }
+                }
+                break;
+            default:
+                for(JsonNode value : values) {
+                    if(value != null) {
+                        writeBytes(payload, mapper.writeValueAsBytes(value));
+                    }
+                }
+        }
+    }
+
+    private static byte type(JsonNode[] values) {
+        boolean integral = true;
+        boolean ints = true;
+        boolean floating = true;
+        boolean bool = true;
+        boolean text = true;
+        boolean timestamp = true;
+        int present = 0;
+        Set<String> distinct = new HashSet<>();
+        for(JsonNode value : values) {
+            if(value == null) {
+                continue;
+            }
+            present++;
+            integral &= value.isInt() || value.isLong();
+            ints &= value.isInt();
+            floating &= value.isDouble();
+            bool &= value.isBoolean();
+            text &= value.isTextual();
+            if(text) {
+                timestamp &= isTimestamp(value.textValue());
+                distinct.add(value.textValue());
+            } else {
+                timestamp = false;
+            }
+        }
+        if(present == 0) {
+            return JSON_COLUMN;
+        } else if(ints) {
+            return INT_COLUMN;
+        } else if(integral) {
+            return LONG_COLUMN;
+        } else if(floating) {
+            return DOUBLE_COLUMN;
+        } else if(bool) {
+            return BOOLEAN_COLUMN;
+        } else if(timestamp) {
+            return TIMESTAMP_COLUMN;
+        } else if(text) {
+            return distinct.size() * 2 <= present ? DICTIONARY_COLUMN : STRING_COLUMN;
+        }
+        return JSON_COLUMN;
+    }
+
+    /**
+     * @return <code>true</code> if the text can be restored from its milliseconds without any difference.
+     */
+    private static boolean isTimestamp(String text) {
+        if(text.length() != TIMESTAMP_LENGTH || text.charAt(10) != 'T' || text.charAt(TIMESTAMP_LENGTH - 1) != 'Z') {
+            return false;
+        }
+        try {
+            return TIMESTAMP_FORMATTER.print(TIMESTAMP_FORMATTER.parseMillis(text)).equals(text);
+        } catch(IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static byte[] bitmap(boolean[] bits) {
+        byte[] bitmap = new byte[(bits.length + 7) / 8];
+        for(int index = 0 ; index < bits.length ; index++) {
+            if(bits[index]) {
+                bitmap[index / 8] |= 1 << (index % 8);
+            }
+        }
+        return bitmap;
+    }
+
+    private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Write a zig zag encoded variable length long.
+     */
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while((zigZag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.writeByte((int) zigZag);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -3,28 +3,40 @@ package de.ck35.metricstore.util.io;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.zip.GZIPInputStream;
+import java.util.BitSet;
+import java.util.Set;
 
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.collect.Sets;
+
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
 
 /**
- * Reader for JSON ObjectNodes. The nodes are read from a path which contains gzip content.
- * Default Charset for reading is UTF-8.
+ * Reader for JSON ObjectNodes. The nodes are read from a path which contains compressed content.
+ * The {@link Codec} is detected by {@link Codecs} and the {@link RecordFormat} by {@link RecordFormats}.
+ * Default Charset for reading text records is UTF-8.
  *
  * @author Christian Kaspari
  * @since 1.0.0
@@ -32,24 +44,65 @@ import com.google.common.base.Function;
 public class ObjectNodeReader implements Closeable {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(ObjectNodeReader.class);
+	private static final int SMILE_HEADER = ByteBuffer.wrap(RecordFormats.SMILE_HEADER).getInt();
 	
 	private final Path path;
-	private final ObjectMapper mapper;
-	private final BufferedReader reader;
+	private final RecordFormat format;
+	private final NodeInput input;
 	
 	private int ignoredObjectsCount;
+	private int filteredObjectsCount;
+	private int skippedObjectsCount;
+	private RecordProjection projection;
+	private RecordFilter filter;
+	private RawTimestampFilter timestampFilter;
+	private BitSet positions;
+	private int position;
 	
 	public ObjectNodeReader(Path path, ObjectMapper mapper) throws MetricsIOException {
 		this(path, mapper, Charsets.UTF_8, StandardOpenOption.READ);
 	}
 	public ObjectNodeReader(Path path, ObjectMapper mapper, Charset charset, OpenOption ... options) throws MetricsIOException {
+		this(path, mapper, charset, Codecs.defaults(), options);
+	}
+	public ObjectNodeReader(Path path, ObjectMapper mapper, Charset charset, Codecs codecs, OpenOption ... options) throws MetricsIOException {
+		this(path, new RecordFormats(mapper), charset, codecs, options);
+	}
+	public ObjectNodeReader(Path path, RecordFormats formats, Charset charset, Codecs codecs, OpenOption ... options) throws MetricsIOException {
+		this(path, open(path, options), formats, charset, codecs);
+	}
+	/**
+	 * Read the content of a path from the given byte offset on. The offset must point to the start of an
+	 * independently compressed block.
+	 */
+	public ObjectNodeReader(Path path, long position, RecordFormats formats, Charset charset, Codecs codecs) throws MetricsIOException {
+		this(path, open(path, position), formats, charset, codecs);
+	}
+	public ObjectNodeReader(InputStream stream, ObjectMapper mapper, Charset charset) throws MetricsIOException {
+	    this(stream, mapper, charset, Codecs.defaults());
+	}
+	public ObjectNodeReader(InputStream stream, ObjectMapper mapper, Charset charset, Codecs codecs) throws MetricsIOException {
+	    this(stream, new RecordFormats(mapper), charset, codecs);
+	}
+	public ObjectNodeReader(InputStream stream, RecordFormats formats, Charset charset, Codecs codecs) throws MetricsIOException {
+	    this(null, stream, formats, charset, codecs);
+	}
+	
+	private ObjectNodeReader(Path path, InputStream stream, RecordFormats formats, Charset charset, Codecs codecs) throws MetricsIOException {
 		this.path = path;
-		this.mapper = mapper;
 		boolean closeOnError = true;
 		try {
-			BufferedInputStream inputStream = new BufferedInputStream(Files.newInputStream(path, options));
+			BufferedInputStream inputStream = new BufferedInputStream(stream);
 			try {
-				this.reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(inputStream), charset));
+				BufferedInputStream decompressed = new BufferedInputStream(codecs.decompress(inputStream));
+				this.format = RecordFormats.detect(decompressed);
+				if(format == RecordFormat.SMILE) {
+					this.input = new SmileInput(decompressed, formats.getSmileMapper());
+				} else if(format == RecordFormat.COLUMNAR) {
+					this.input = new ColumnarInput(new ColumnBlockReader(decompressed, formats.getMapper(), codecs));
+				} else {
+					this.input = new TextInput(new BufferedReader(new InputStreamReader(decompressed, charset)), formats.getMapper());
+				}
 				closeOnError = false;
 			} finally {
 				if(closeOnError) {
@@ -60,32 +113,213 @@ public class ObjectNodeReader implements Closeable {
 			throw new MetricsIOException("Creating object node reader for path: '" + path + "' failed!", e);
 		}
 	}
-	public ObjectNodeReader(InputStream stream, ObjectMapper mapper, Charset charset) throws MetricsIOException {
-        this.path = null;
-        this.mapper = mapper;
-        boolean closeOnError = true;
-        try {
-            BufferedInputStream inputStream = new BufferedInputStream(stream);
-            try {
-                this.reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(inputStream), charset));
-                closeOnError = false;
-            } finally {
-                if(closeOnError) {
-                    inputStream.close();
-                }
-            } 
-        } catch(IOException e) {
-            throw new MetricsIOException("Creating object node reader for path: '" + path + "' failed!", e);
-        }
-    }
+	
+	private static InputStream open(Path path, OpenOption ... options) throws MetricsIOException {
+		try {
+			return Files.newInputStream(path, options);
+		} catch(IOException e) {
+			throw new MetricsIOException("Creating object node reader for path: '" + path + "' failed!", e);
+		}
+	}
+	
+	private static InputStream open(Path path, long position) throws MetricsIOException {
+		try {
+			SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.READ);
+			try {
+				channel.position(position);
+			} catch(IOException e) {
+				channel.close();
+				throw e;
+			}
+			return Channels.newInputStream(channel);
+		} catch(IOException e) {
+			throw new MetricsIOException("Creating object node reader for path: '" + path + "' at position: '" + position + "' failed!", e);
+		}
+	}
 	
 	public ObjectNode read() throws MetricsIOException {
+		try {
+			return input.read();
+		} catch (IOException e) {
+			throw new MetricsIOException("Reading next object node from: '" + path + "' failed!", e);
+		}
+	}
+	
+	/**
+	 * Only read the given top level fields. Must be called before the first node is read.
+	 * 
+	 * @param fields The field names or <code>null</code> for complete nodes.
+	 * @return This reader.
+	 * @see #withProjection(RecordProjection)
+	 */
+	public ObjectNodeReader withFields(Set<String> fields) {
+		return withProjection(RecordProjection.of(fields));
+	}
+	
+	/**
+	 * Only read the paths of the given projection. Text and Smile records are projected by the streaming parser,
+	 * so values of other paths never become nodes. Columnar content skips all other columns and projects nested
+	 * paths on the reconstructed node. Must be called before the first node is read.
+	 * 
+	 * @param projection The projection or <code>null</code> for complete nodes.
+	 * @return This reader.
+	 */
+	public ObjectNodeReader withProjection(RecordProjection projection) {
+		this.projection = projection;
+		updateFields();
+		return this;
+	}
+	
+	/**
+	 * Only return the nodes which match the given filter. Text and Smile records are checked by the streaming
+	 * parser before the node is built, columnar content is checked on the reconstructed node which always
+	 * contains the filtered fields. Must be called before the first node is read.
+	 * 
+	 * @param filter The filter or <code>null</code> for all nodes.
+	 * @return This reader.
+	 */
+	public ObjectNodeReader withFilter(RecordFilter filter) {
+		this.filter = filter;
+		updateFields();
+		return this;
+	}
+	
+	/**
+	 * Skip the records before the start of the given filter. Text and Smile records are skipped without building
+	 * a node, columnar content is not affected. Records must be sorted by timestamp: the filter is dropped as soon
+	 * as the first record at or after the start has been found. Must be called before the first node is read.
+	 * 
+	 * @param timestampFilter The filter or <code>null</code> for all records.
+	 * @return This reader.
+	 */
+	public ObjectNodeReader withTimestampFilter(RawTimestampFilter timestampFilter) {
+		this.timestampFilter = timestampFilter;
+		return this;
+	}
+	
+	/**
+	 * Only return the records at the given positions. The position of a record is its index in the content,
+	 * starting with <code>0</code>. Text and Smile records at other positions are skipped without being parsed,
+	 * columnar records are dropped after they have been read. Reading ends after the last given position.
+	 * Must be called before the first node is read.
+	 * 
+	 * @param positions The positions or <code>null</code> for all records.
+	 * @return This reader.
+	 */
+	public ObjectNodeReader withPositions(BitSet positions) {
+		this.positions = positions;
+		return this;
+	}
+	
+	/**
+	 * @return <code>true</code> if the next record is not at one of the selected positions.
+	 */
+	private boolean skipPosition() {
+		return positions != null && !positions.get(position++);
+	}
+	
+	/**
+	 * @return <code>true</code> if no record after the current one is selected.
+	 */
+	private boolean isAfterLastPosition() {
+		return positions != null && position >= positions.length();
+	}
+	
+	/**
+	 * @param timestamp The raw timestamp of the current record or <code>null</code> if it is unknown.
+	 * @return <code>true</code> if the current record can be skipped.
+	 */
+	private boolean skip(DateTime timestamp) {
+		if(timestamp == null) {
+			return false;
+		}
+		if(timestampFilter.skip(timestamp)) {
+			skippedObjectsCount++;
+			return true;
+		}
+		timestampFilter = null;
+		return false;
+	}
+	
+	private void updateFields() {
+		if(input instanceof ColumnarInput) {
+			if(projection == null) {
+				((ColumnarInput) input).reader.setFields(null);
+			} else if(filter == null) {
+				((ColumnarInput) input).reader.setFields(projection.getTopLevelFields());
+			} else {
+				((ColumnarInput) input).reader.setFields(Sets.union(projection.getTopLevelFields(), filter.getTopLevelFields()).immutableCopy());
+			}
+		}
+	}
+	
+	public int getIgnoredObjectsCount() {
+		return ignoredObjectsCount;
+	}
+	/**
+	 * @return The number of nodes which have been skipped because they did not match the filter.
+	 */
+	public int getFilteredObjectsCount() {
+		return filteredObjectsCount;
+	}
+	/**
+	 * @return The number of records which have been skipped by the timestamp filter.
+	 */
+	public int getSkippedObjectsCount() {
+		return skippedObjectsCount;
+	}
+	public Path getPath() {
+		return path;
+	}
+	/**
+	 * @return The detected record format of the content.
+	 */
+	public RecordFormat getFormat() {
+		return format;
+	}
+	@Override
+	public void close() throws IOException {
 		try {			
-			for(String line = reader.readLine() ; line != null ; line = reader.readLine()) {
-				if(line.isEmpty()) {
+			this.input.close();
+		} catch(IOException e) {
+			throw new IOException("Closing object node reader for: '" + path + "' failed!", e);
+		}
+	}
+	
+	private interface NodeInput extends Closeable {
+		
+		ObjectNode read() throws IOException;
+		
+	}
+	
+	private class TextInput implements NodeInput {
+		
+		private final BufferedReader reader;
+		private final ObjectMapper mapper;
+		
+		public TextInput(BufferedReader reader, ObjectMapper mapper) {
+			this.reader = reader;
+			this.mapper = mapper;
+		}
+		@Override
+		public ObjectNode read() throws IOException {
+			for(String line = isAfterLastPosition() ? null : reader.readLine() ; line != null ; line = isAfterLastPosition() ? null : reader.readLine()) {
+				if(line.isEmpty() || skipPosition()) {
 					continue;
 				}
-				try {				
+				try {
+					if(timestampFilter != null && skip(timestampFilter.timestamp(line))) {
+						continue;
+					}
+					if(filter != null && !matches(line)) {
+						filteredObjectsCount++;
+						continue;
+					}
+					if(projection != null) {
+						try(JsonParser parser = mapper.getFactory().createParser(line)) {
+							return projection.read(parser, mapper);
+						}
+					}
 					return mapper.readValue(line, ObjectNode.class);
 				} catch(JsonProcessingException e) {
 					if(LOG.isTraceEnabled()) {					
@@ -97,52 +331,188 @@ public class ObjectNodeReader implements Closeable {
 				}
 			}
 			return null;
-		} catch (IOException e) {
-			throw new MetricsIOException("Reading next object node from: '" + path + "' failed!", e);
+		}
+		private boolean matches(String line) throws IOException {
+			try(JsonParser parser = mapper.getFactory().createParser(line)) {
+				return filter.matches(parser);
+			}
+		}
+		@Override
+		public void close() throws IOException {
+			reader.close();
 		}
 	}
 	
-	public int getIgnoredObjectsCount() {
-		return ignoredObjectsCount;
-	}
-	public Path getPath() {
-		return path;
+	/**
+	 * Reads length prefixed Smile documents. Repeated stream headers are skipped and a truncated
+	 * document at the end of the stream is ignored.
+	 */
+	private class SmileInput implements NodeInput {
+		
+		private final DataInputStream in;
+		private final ObjectMapper smileMapper;
+		private byte[] buffer;
+		
+		public SmileInput(InputStream in, ObjectMapper smileMapper) {
+			this.in = new DataInputStream(in);
+			this.smileMapper = smileMapper;
+			this.buffer = new byte[512];
+		}
+		@Override
+		public ObjectNode read() throws IOException {
+			while(!isAfterLastPosition()) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch(EOFException e) {
+					return null;
+				}
+				if(length == SMILE_HEADER) {
+					continue;
+				}
+				if(length < 0) {
+					throw new IOException("Invalid record length: '" + length + "'!");
+				}
+				if(buffer.length < length) {
+					buffer = new byte[Math.max(length, buffer.length * 2)];
+				}
+				try {
+					in.readFully(buffer, 0, length);
+				} catch(EOFException e) {
+					LOG.debug("Ignoring truncated record at the end of: '{}'.", path);
+					ignoredObjectsCount++;
+					return null;
+				}
+				if(skipPosition()) {
+					continue;
+				}
+				try {
+					if(timestampFilter != null && skip(timestamp(length))) {
+						continue;
+					}
+					if(filter != null && !matches(length)) {
+						filteredObjectsCount++;
+						continue;
+					}
+					if(projection != null) {
+						try(JsonParser parser = smileMapper.getFactory().createParser(buffer, 0, length)) {
+							return projection.read(parser, smileMapper);
+						}
+					}
+					return smileMapper.readValue(buffer, 0, length, ObjectNode.class);
+				} catch(JsonProcessingException e) {
+					LOG.debug("Could not read ObjectNode from record. Record will be ignored.", e);
+					ignoredObjectsCount++;
+				}
+			}
+			return null;
+		}
+		private boolean matches(int length) throws IOException {
+			try(JsonParser parser = smileMapper.getFactory().createParser(buffer, 0, length)) {
+				return filter.matches(parser);
+			}
+		}
+		private DateTime timestamp(int length) throws IOException {
+			try(JsonParser parser = smileMapper.getFactory().createParser(buffer, 0, length)) {
+				return timestampFilter.timestamp(parser);
+			}
+		}
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
 	}
-	@Override
-	public void close() throws IOException {
-		try {			
-			this.reader.close();
-		} catch(IOException e) {
-			throw new IOException("Closing object node reader for: '" + path + "' failed!", e);
+	
+	private class ColumnarInput implements NodeInput {
+		
+		private final ColumnBlockReader reader;
+		
+		public ColumnarInput(ColumnBlockReader reader) {
+			this.reader = reader;
+		}
+		@Override
+		public ObjectNode read() throws IOException {
+			try {
+				for(ObjectNode next = isAfterLastPosition() ? null : reader.read() ; next != null ; next = isAfterLastPosition() ? null : reader.read()) {
+					if(skipPosition()) {
+						continue;
+					}
+					if(filter == null) {
+						return projection == null || projection.isFlat() ? next : projection.apply(next);
+					}
+					if(filter.apply(next)) {
+						return projection == null ? next : projection.apply(next);
+					}
+					filteredObjectsCount++;
+				}
+				return null;
+			} catch(EOFException e) {
+				LOG.debug("Ignoring truncated block at the end of: '{}'.", path);
+				ignoredObjectsCount++;
+				return null;
+			}
+		}
+		@Override
+		public void close() throws IOException {
+			reader.close();
 		}
 	}
 	
-	public static class PathFactory implements Function<Path, ObjectNodeReader> {
+	/**
+	 * Creates readers which start at a byte offset of a path.
+	 */
+	public interface SeekableFactory extends Function<Path, ObjectNodeReader> {
+		
+		ObjectNodeReader apply(Path input, long position);
+		
+	}
+	
+	public static class PathFactory implements SeekableFactory {
 
-		private final ObjectMapper mapper;
+		private final RecordFormats formats;
 		private final Charset charset;
+		private final Codecs codecs;
 		
 		public PathFactory(ObjectMapper mapper, Charset charset) {
-			this.mapper = mapper;
+			this(mapper, charset, Codecs.defaults());
+		}
+		public PathFactory(ObjectMapper mapper, Charset charset, Codecs codecs) {
+			this(new RecordFormats(mapper), charset, codecs);
+		}
+		public PathFactory(RecordFormats formats, Charset charset, Codecs codecs) {
+			this.formats = formats;
             this.charset = charset;
+            this.codecs = codecs;
 		}
 		@Override
 		public ObjectNodeReader apply(Path input) {
-			return new ObjectNodeReader(input, mapper, charset, StandardOpenOption.READ);
+			return new ObjectNodeReader(input, formats, charset, codecs, StandardOpenOption.READ);
+		}
+		@Override
+		public ObjectNodeReader apply(Path input, long position) {
+			return new ObjectNodeReader(input, position, formats, charset, codecs);
 		}
 	}
 	public static class StreamFactory implements Function<InputStream, ObjectNodeReader> {
 
-        private final ObjectMapper mapper;
+        private final RecordFormats formats;
         private final Charset charset;
+        private final Codecs codecs;
         
         public StreamFactory(ObjectMapper mapper, Charset charset) {
-            this.mapper = mapper;
+            this(mapper, charset, Codecs.defaults());
+        }
+        public StreamFactory(ObjectMapper mapper, Charset charset, Codecs codecs) {
+            this(new RecordFormats(mapper), charset, codecs);
+        }
+        public StreamFactory(RecordFormats formats, Charset charset, Codecs codecs) {
+            this.formats = formats;
             this.charset = charset;
+            this.codecs = codecs;
         }
         @Override
         public ObjectNodeReader apply(InputStream input) {
-            return new ObjectNodeReader(input, mapper, charset);
+            return new ObjectNodeReader(input, formats, charset, codecs);
         }
     }
-}
\ No newline at end of file
+}
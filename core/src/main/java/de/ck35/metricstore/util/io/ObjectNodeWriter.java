@@ -1,7 +1,10 @@
 package de.ck35.metricstore.util.io;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -10,47 +13,68 @@ import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.zip.GZIPOutputStream;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 
 import de.ck35.metricstore.util.io.MetricsIOException;
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
 
 /**
- * Writer for JSON ObjectNodes. The nodes are written gziped into a path of the filesystem.
- * Default Charset for writing is UTF-8.
+ * Writer for JSON ObjectNodes. The nodes are written compressed into a path of the filesystem.
+ * Default Charset for writing is UTF-8, default {@link Codec} is gzip and default {@link RecordFormat}
+ * is text.
  *
  * @author Christian Kaspari
  * @since 1.0.0
  */
 public class ObjectNodeWriter implements Closeable {
 
+	public static final int BUFFER_SIZE = 8192;
+	
 	private final Path path;
-	private final JsonGenerator generator;
+	private final NodeOutput output;
 	private final BufferedOutputStream outputStream;
+	private final long bufferBytes;
+	private volatile FlushListener flushListener;
+	private boolean closed;
 	
 	public ObjectNodeWriter(Path path, JsonFactory factory) throws MetricsIOException {
 		this(path, factory, Charsets.UTF_8, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
 	}
 	public ObjectNodeWriter(Path path, JsonFactory factory, Charset charset, OpenOption ... options) throws MetricsIOException {
+		this(path, factory, charset, Codecs.GZIP, options);
+	}
+	public ObjectNodeWriter(Path path, JsonFactory factory, Charset charset, Codec codec, OpenOption ... options) throws MetricsIOException {
+		this(path, open(path, options), codec, new TextOutputFactory(factory, charset));
+	}
+	public ObjectNodeWriter(Path path, RecordFormats formats, RecordFormat format, Charset charset, Codec codec, OpenOption ... options) throws MetricsIOException {
+		this(path, open(path, options), codec, outputFactory(formats, format, charset));
+	}
+	
+	public ObjectNodeWriter(OutputStream stream, JsonFactory factory, Charset charset) throws MetricsIOException {
+	    this(stream, factory, charset, Codecs.GZIP);
+	}
+	public ObjectNodeWriter(OutputStream stream, JsonFactory factory, Charset charset, Codec codec) throws MetricsIOException {
+	    this(null, stream, codec, new TextOutputFactory(factory, charset));
+	}
+	public ObjectNodeWriter(OutputStream stream, RecordFormats formats, RecordFormat format, Charset charset, Codec codec) throws MetricsIOException {
+	    this(null, stream, codec, outputFactory(formats, format, charset));
+	}
+	
+	private ObjectNodeWriter(Path path, OutputStream stream, Codec codec, NodeOutputFactory outputFactory) throws MetricsIOException {
 		this.path = path;
+		this.bufferBytes = BUFFER_SIZE + outputFactory.bufferBytes(codec);
 		boolean closeOnError = true;
 		try {			
-			this.outputStream = new BufferedOutputStream(Files.newOutputStream(path, options));
+			this.outputStream = new BufferedOutputStream(new ListenedOutputStream(stream), BUFFER_SIZE);
 			try {
-				OutputStreamWriter writer = new OutputStreamWriter(new GZIPOutputStream(outputStream), charset);
-				try {
-					this.generator = factory.createGenerator(writer);
-					closeOnError = false;
-				} finally {
-					if(closeOnError) {
-						writer.close();
-					}
-				}
+				this.output = outputFactory.open(outputStream, codec);
+				closeOnError = false;
 			} finally {
 				if(closeOnError) {
 					outputStream.close();
@@ -61,49 +85,81 @@ public class ObjectNodeWriter implements Closeable {
 		}
 	}
 	
-	public ObjectNodeWriter(OutputStream stream, JsonFactory factory, Charset charset) throws MetricsIOException {
-        this.path = null;
-        boolean closeOnError = true;
-        try {           
-            this.outputStream = new BufferedOutputStream(stream);
-            try {
-                OutputStreamWriter writer = new OutputStreamWriter(new GZIPOutputStream(outputStream), charset);
-                try {
-                    this.generator = factory.createGenerator(writer);
-                    closeOnError = false;
-                } finally {
-                    if(closeOnError) {
-                        writer.close();
-                    }
-                }
-            } finally {
-                if(closeOnError) {
-                    outputStream.close();
-                }
-            }
-        } catch(IOException e) {
-            throw new MetricsIOException("Could not create writer for: '" + path + "'!", e);
-        }
-    }
+	private static OutputStream open(Path path, OpenOption ... options) throws MetricsIOException {
+		try {
+			return Files.newOutputStream(path, options);
+		} catch(IOException e) {
+			throw new MetricsIOException("Could not create writer for: '" + path + "'!", e);
+		}
+	}
+	
+	private static NodeOutputFactory outputFactory(RecordFormats formats, RecordFormat format, Charset charset) {
+		switch(format) {
+			case TEXT: return new TextOutputFactory(formats.getMapper().getFactory(), charset);
+			case SMILE: return new SmileOutputFactory(formats.getSmileMapper());
+			case COLUMNAR: return new ColumnarOutputFactory(formats.getMapper());
+			default: throw new IllegalArgumentException("Unknown record format: '" + format + "'!");
+		}
+	}
 
 	public void write(ObjectNode node) throws MetricsIOException {
 		try {
-			generator.writeRaw('\n');
-			generator.writeObject(node);			
+			output.write(node);
 		} catch(IOException e) {
 			throw new MetricsIOException("Could not append next object node to: '" + path + "'!", e);
 		}
 	}
 	
+	/**
+	 * Write the given node if this writer has not been closed yet. Can be used when the writer might be
+	 * closed by another thread.
+	 * 
+	 * @param node The node to write.
+	 * @return <code>false</code> if the writer has already been closed and nothing was written.
+	 * @throws MetricsIOException If writing fails.
+	 */
+	public synchronized boolean tryWrite(ObjectNode node) throws MetricsIOException {
+		if(closed) {
+			return false;
+		}
+		write(node);
+		return true;
+	}
+	
+	/**
+	 * Set the listener which is called every time before buffered content is written into the underlying stream.
+	 * 
+	 * @param flushListener The listener or <code>null</code>.
+	 */
+	public void setFlushListener(FlushListener flushListener) {
+		this.flushListener = flushListener;
+	}
+	
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+	
 	public Path getPath() {
 		return path;
 	}
 	
+	/**
+	 * @return The estimated memory of the stream buffers and the compressor which this writer holds while it is open.
+	 *         Nodes which are buffered by the columnar format until the next block is written are not included.
+	 */
+	public long getBufferBytes() {
+		return bufferBytes;
+	}
+	
 	@Override
-	public void close() throws IOException {
+	public synchronized void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		closed = true;
 		IOException exception = null;
 		try {			
-			this.generator.close();
+			this.output.close();
 		} catch(IOException e) {
 			exception = e;
 		}
@@ -119,33 +175,295 @@ public class ObjectNodeWriter implements Closeable {
 		}
 	}
 	
+	/**
+	 * Called before a writer writes buffered content into its underlying stream, e.g. when its buffer is full
+	 * or when it is closed.
+	 */
+	public interface FlushListener {
+		
+		/**
+		 * @param writer The writer which is about to write.
+		 * @throws MetricsIOException If the content must not be written.
+		 */
+		void beforeFlush(ObjectNodeWriter writer) throws MetricsIOException;
+		
+	}
+	
+	/**
+	 * Calls the flush listener before content reaches the underlying stream.
+	 */
+	private class ListenedOutputStream extends FilterOutputStream {
+		
+		public ListenedOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		private void beforeFlush() {
+			FlushListener listener = flushListener;
+			if(listener != null) {
+				listener.beforeFlush(ObjectNodeWriter.this);
+			}
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			beforeFlush();
+			out.write(b);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			beforeFlush();
+			out.write(b, off, len);
+		}
+	}
+	
+	private interface NodeOutput extends Closeable {
+		
+		void write(ObjectNode node) throws IOException;
+		
+	}
+	
+	private interface NodeOutputFactory {
+		
+		NodeOutput open(OutputStream out, Codec codec) throws IOException;
+		
+		/**
+		 * @return The estimated memory of the buffers of an output which uses the given codec.
+		 */
+		long bufferBytes(Codec codec);
+		
+	}
+	
+	/**
+	 * Opens the compressed stream and closes it when creating the output fails.
+	 */
+	private static abstract class CompressingOutputFactory implements NodeOutputFactory {
+		
+		@Override
+		public NodeOutput open(OutputStream out, Codec codec) throws IOException {
+			OutputStream compressed = codec.compress(out);
+			boolean closeOnError = true;
+			try {
+				NodeOutput output = open(compressed);
+				closeOnError = false;
+				return output;
+			} finally {
+				if(closeOnError) {
+					compressed.close();
+				}
+			}
+		}
+		
+		@Override
+		public long bufferBytes(Codec codec) {
+			return codec.getCompressBufferBytes() + outputBufferBytes();
+		}
+		
+		protected abstract NodeOutput open(OutputStream compressed) throws IOException;
+		
+		protected abstract long outputBufferBytes();
+		
+	}
+	
+	private static class TextOutputFactory extends CompressingOutputFactory {
+		
+		private final JsonFactory factory;
+		private final Charset charset;
+		
+		public TextOutputFactory(JsonFactory factory, Charset charset) {
+			this.factory = factory;
+			this.charset = charset;
+		}
+		/**
+		 * The byte buffer of the stream writer and the char buffer of the generator.
+		 */
+		@Override
+		protected long outputBufferBytes() {
+			return 8192 + 2 * 4000;
+		}
+		@Override
+		protected NodeOutput open(OutputStream compressed) throws IOException {
+			final JsonGenerator generator = factory.createGenerator(new OutputStreamWriter(compressed, charset));
+			return new NodeOutput() {
+				@Override
+				public void write(ObjectNode node) throws IOException {
+					generator.writeRaw('\n');
+					generator.writeObject(node);
+				}
+				@Override
+				public void close() throws IOException {
+					generator.close();
+				}
+			};
+		}
+	}
+	
+	/**
+	 * Writes {@link RecordFormats#SMILE_HEADER} followed by one length prefixed Smile document per node.
+	 */
+	private static class SmileOutputFactory extends CompressingOutputFactory {
+		
+		private final ObjectMapper smileMapper;
+		
+		public SmileOutputFactory(ObjectMapper smileMapper) {
+			this.smileMapper = smileMapper;
+		}
+		@Override
+		protected long outputBufferBytes() {
+			return 512;
+		}
+		@Override
+		protected NodeOutput open(OutputStream compressed) throws IOException {
+			final DataOutputStream out = new DataOutputStream(compressed);
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+			out.write(RecordFormats.SMILE_HEADER);
+			return new NodeOutput() {
+				@Override
+				public void write(ObjectNode node) throws IOException {
+					buffer.reset();
+					smileMapper.writeValue(buffer, node);
+					out.writeInt(buffer.size());
+					buffer.writeTo(out);
+				}
+				@Override
+				public void close() throws IOException {
+					out.close();
+				}
+			};
+		}
+	}
+	
+	/**
+	 * Buffers the nodes and writes them as column blocks on close. The stream itself is not compressed,
+	 * the codec is applied to every single column instead.
+	 */
+	private static class ColumnarOutputFactory implements NodeOutputFactory {
+		
+		private final ObjectMapper mapper;
+		
+		public ColumnarOutputFactory(ObjectMapper mapper) {
+			this.mapper = mapper;
+		}
+		/**
+		 * The column buffer. The compressor of a column only lives while a block is written.
+		 */
+		@Override
+		public long bufferBytes(Codec codec) {
+			return ColumnBlockWriter.COLUMN_BUFFER_SIZE;
+		}
+		@Override
+		public NodeOutput open(OutputStream out, Codec codec) throws IOException {
+			final ColumnBlockWriter writer = new ColumnBlockWriter(out, codec, mapper);
+			return new NodeOutput() {
+				@Override
+				public void write(ObjectNode node) throws IOException {
+					writer.write(node);
+				}
+				@Override
+				public void close() throws IOException {
+					writer.close();
+				}
+			};
+		}
+	}
+	
 	public static class PathFactory implements Function<Path, ObjectNodeWriter> {
 
+		private final RecordFormats formats;
+		private final RecordFormat format;
 		private final JsonFactory jsonFactory;
 		private final Charset charset;
+		private final Codec codec;
+		private final Codecs codecs;
 		
 		public PathFactory(JsonFactory jsonFactory, Charset charset) {
+			this(jsonFactory, charset, Codecs.GZIP, Codecs.defaults());
+		}
+		/**
+		 * @param jsonFactory The factory for the JSON generator.
+		 * @param charset The charset of the written nodes.
+		 * @param codec The codec for new files.
+		 * @param codecs Used for detecting the codec of existing files. Nodes are always appended with the codec of an existing file.
+		 */
+		public PathFactory(JsonFactory jsonFactory, Charset charset, Codec codec, Codecs codecs) {
+			this(null, RecordFormat.TEXT, jsonFactory, charset, codec, codecs);
+		}
+		/**
+		 * @param formats The mappers of the record formats.
+		 * @param format The record format for new files. Nodes are always appended with the format of an existing file.
+		 * @param charset The charset of text records.
+		 * @param codec The codec for new files.
+		 * @param codecs Used for detecting the codec of existing files. Nodes are always appended with the codec of an existing file.
+		 */
+		public PathFactory(RecordFormats formats, RecordFormat format, Charset charset, Codec codec, Codecs codecs) {
+			this(formats, format, formats.getMapper().getFactory(), charset, codec, codecs);
+		}
+		private PathFactory(RecordFormats formats, RecordFormat format, JsonFactory jsonFactory, Charset charset, Codec codec, Codecs codecs) {
+			this.formats = formats;
+			this.format = format;
 			this.jsonFactory = jsonFactory;
             this.charset = charset;
+            this.codec = codec;
+            this.codecs = codecs;
 		}
 		@Override
 		public ObjectNodeWriter apply(Path input) {
-			return new ObjectNodeWriter(input, jsonFactory, charset, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			Codec existingCodec;
+			RecordFormat existingFormat;
+			try {
+				existingCodec = codecs.detect(input);
+				existingFormat = existingCodec == null || formats == null ? null : RecordFormats.detect(input, codecs);
+			} catch (IOException e) {
+				throw new MetricsIOException("Could not detect codec of existing file: '" + input + "'!", e);
+			}
+			Codec codec = existingCodec == null ? this.codec : existingCodec;
+			if(formats == null) {
+				return new ObjectNodeWriter(input, jsonFactory, charset, codec, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			}
+			return new ObjectNodeWriter(input, formats, existingFormat == null ? format : existingFormat, charset, codec, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+		public Codec getCodec() {
+			return codec;
+		}
+		public RecordFormat getFormat() {
+			return format;
 		}
 	}
 	
 	public static class StreamFactory implements Function<OutputStream, ObjectNodeWriter> {
 
+        private final RecordFormats formats;
+        private final RecordFormat format;
         private final JsonFactory jsonFactory;
         private final Charset charset;
+        private final Codec codec;
         
         public StreamFactory(JsonFactory jsonFactory, Charset charset) {
+            this(jsonFactory, charset, Codecs.GZIP);
+        }
+        public StreamFactory(JsonFactory jsonFactory, Charset charset, Codec codec) {
+            this(null, RecordFormat.TEXT, jsonFactory, charset, codec);
+        }
+        public StreamFactory(RecordFormats formats, RecordFormat format, Charset charset, Codec codec) {
+            this(formats, format, formats.getMapper().getFactory(), charset, codec);
+        }
+        private StreamFactory(RecordFormats formats, RecordFormat format, JsonFactory jsonFactory, Charset charset, Codec codec) {
+            this.formats = formats;
+            this.format = format;
             this.jsonFactory = jsonFactory;
             this.charset = charset;
+            this.codec = codec;
         }
         @Override
         public ObjectNodeWriter apply(OutputStream input) {
-            return new ObjectNodeWriter(input, jsonFactory, charset);
+            if(formats == null) {
+                return new ObjectNodeWriter(input, jsonFactory, charset, codec);
+            }
+            return new ObjectNodeWriter(input, formats, format, charset, codec);
+        }
+        public RecordFormat getFormat() {
+            return format;
         }
     }
-}
\ No newline at end of file
+}
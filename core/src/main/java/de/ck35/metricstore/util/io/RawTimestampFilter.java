@@ -0,0 +1,169 @@
+package de.ck35.metricstore.util.io;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
+
+import de.ck35.metricstore.util.JsonNodeExtractor;
+import de.ck35.metricstore.util.TimestampFunction;
+
+/**
+ * Locates the top level timestamp field of raw records without building a tree, so records before a start
+ * timestamp can be skipped cheaply. Text lines are scanned character by character for the field name on the
+ * first nesting level, Smile records are read with the streaming parser which skips all other values.
+ * Whenever the timestamp can not be found cheaply (missing field, escaped characters, invalid value)
+ * no timestamp is returned and the record must be parsed completely.
+ * Instances are immutable and can be shared between reading threads.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class RawTimestampFilter {
+
+	private final String fieldName;
+	private final TimestampFunction timestampFunction;
+	private final DateTime start;
+
+	public RawTimestampFilter(String fieldName, TimestampFunction timestampFunction, DateTime start) {
+		this.fieldName = fieldName;
+		this.timestampFunction = timestampFunction;
+		this.start = start;
+	}
+
+	/**
+	 * @param timestampFunction The function which reads the timestamp of complete nodes.
+	 * @param start The first timestamp which should not be skipped.
+	 * @return The filter or <code>null</code> if the timestamp is not a known top level field.
+	 */
+	public static RawTimestampFilter of(Function<ObjectNode, DateTime> timestampFunction, DateTime start) {
+		if(!(timestampFunction instanceof TimestampFunction) || start == null) {
+			return null;
+		}
+		TimestampFunction function = (TimestampFunction) timestampFunction;
+		if(function.getFieldPath() == null) {
+			return null;
+		}
+		List<String> tokens = JsonNodeExtractor.tokens(function.getFieldPath());
+		if(tokens.size() != 1) {
+			return null;
+		}
+		return new RawTimestampFilter(tokens.get(0), function, start);
+	}
+
+	/**
+	 * @param timestamp A timestamp returned by this filter.
+	 * @return <code>true</code> if the record of the timestamp can be skipped.
+	 */
+	public boolean skip(DateTime timestamp) {
+		return timestamp.isBefore(start);
+	}
+
+	/**
+	 * @param line A text record.
+	 * @return The timestamp or <code>null</code> if it could not be found cheaply.
+	 */
+	public DateTime timestamp(String line) {
+		int depth = 0;
+		int length = line.length();
+		for(int i = 0 ; i < length ; i++) {
+			char c = line.charAt(i);
+			if(c == '"') {
+				int end = endOfString(line, i + 1);
+				if(end < 0) {
+					return null;
+				}
+				if(depth == 1 && end - i - 1 == fieldName.length() && line.regionMatches(i + 1, fieldName, 0, fieldName.length())) {
+					int colon = skipWhitespace(line, end + 1);
+					if(colon < length && line.charAt(colon) == ':') {
+						return value(line, skipWhitespace(line, colon + 1));
+					}
+				}
+				i = end;
+			} else if(c == '{' || c == '[') {
+				depth++;
+			} else if(c == '}' || c == ']') {
+				depth--;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Read the next object from the parser and return its timestamp. The parser is not positioned at the
+	 * end of the object afterwards, so it must not be used for anything else.
+	 *
+	 * @param parser The parser in front of the object.
+	 * @return The timestamp or <code>null</code> if it could not be found.
+	 * @throws IOException If the content is not valid.
+	 */
+	public DateTime timestamp(JsonParser parser) throws IOException {
+		if(parser.nextToken() != JsonToken.START_OBJECT) {
+			return null;
+		}
+		for(JsonToken token = parser.nextToken() ; token == JsonToken.FIELD_NAME ; token = parser.nextToken()) {
+			String name = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			if(fieldName.equals(name)) {
+				return value == JsonToken.VALUE_STRING ? parse(parser.getText()) : null;
+			}
+			parser.skipChildren();
+		}
+		return null;
+	}
+
+	private DateTime value(String line, int start) {
+		if(start >= line.length() || line.charAt(start) != '"') {
+			return null;
+		}
+		int end = endOfString(line, start + 1);
+		if(end < 0) {
+			return null;
+		}
+		String text = line.substring(start + 1, end);
+		return text.indexOf('\\') < 0 ? parse(text) : null;
+	}
+
+	private DateTime parse(String text) {
+		try {
+			return timestampFunction.parse(text);
+		} catch(IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return The index of the closing quote or -1 if the string is not terminated.
+	 */
+	private static int endOfString(String line, int from) {
+		for(int i = from ; i < line.length() ; i++) {
+			char c = line.charAt(i);
+			if(c == '\\') {
+				i++;
+			} else if(c == '"') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int skipWhitespace(String line, int from) {
+		int i = from;
+		while(i < line.length() && Character.isWhitespace(line.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	public String getFieldName() {
+		return fieldName;
+	}
+	public DateTime getStart() {
+		return start;
+	}
+}
@@ -0,0 +1,247 @@
+package de.ck35.metricstore.util.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonParser.NumberType;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import de.ck35.metricstore.MetricFilter;
+import de.ck35.metricstore.ValueMatcher;
+import de.ck35.metricstore.util.JsonNodeExtractor;
+
+/**
+ * Evaluates a list of {@link MetricFilter}s on raw records with the streaming parser of Jackson, so records which
+ * do not match are dropped before a tree is built. A record matches when any of the filters matches. Only the
+ * objects on the filtered paths are descended, all other values are skipped. Parsing stops as soon as all
+ * filtered paths have been seen. Values are compared by the same text as {@link com.fasterxml.jackson.databind.JsonNode#asText()}.
+ * Instances are immutable and can be shared between reading threads.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class RecordFilter implements Predicate<ObjectNode> {
+
+	private final List<MetricFilter> filters;
+	private final PathNode root;
+	private final int paths;
+	private final Set<String> topLevelFields;
+	private final CompiledFilter[] compiled;
+
+	public RecordFilter(Iterable<MetricFilter> filters) {
+		this.filters = ImmutableList.copyOf(filters);
+		this.root = new PathNode();
+		List<PathNode> leaves = new ArrayList<>();
+		Set<String> topLevelFields = new LinkedHashSet<>();
+		this.compiled = new CompiledFilter[this.filters.size()];
+		for(int i = 0 ; i < compiled.length ; i++) {
+			MetricFilter filter = this.filters.get(i);
+			List<Entry<String, ValueMatcher>> valueFields = filter.getValueFields();
+			CompiledFilter next = new CompiledFilter(filter.getPresentFields().size(), filter.getNotPresentFields().size(), valueFields.size());
+			for(int j = 0 ; j < next.present.length ; j++) {
+				next.present[j] = index(filter.getPresentFields().get(j), leaves, topLevelFields);
+			}
+			for(int j = 0 ; j < next.notPresent.length ; j++) {
+				next.notPresent[j] = index(filter.getNotPresentFields().get(j), leaves, topLevelFields);
+			}
+			for(int j = 0 ; j < next.values.length ; j++) {
+				next.values[j] = index(valueFields.get(j).getKey(), leaves, topLevelFields);
+				next.matchers[j] = valueFields.get(j).getValue();
+			}
+			compiled[i] = next;
+		}
+		this.paths = leaves.size();
+		this.topLevelFields = ImmutableSet.copyOf(topLevelFields);
+	}
+
+	/**
+	 * @param filters The filters or <code>null</code>.
+	 * @return The record filter or <code>null</code> if there are no filters or one of them matches every record.
+	 */
+	public static RecordFilter of(Iterable<MetricFilter> filters) {
+		if(filters == null) {
+			return null;
+		}
+		for(MetricFilter filter : filters) {
+			if(filter.isEmpty()) {
+				return null;
+			}
+		}
+		return new RecordFilter(filters);
+	}
+
+	private int index(String path, List<PathNode> leaves, Set<String> topLevelFields) {
+		List<String> tokens = JsonNodeExtractor.tokens(path);
+		topLevelFields.add(tokens.get(0));
+		PathNode node = root;
+		for(String token : tokens) {
+			PathNode child = node.children.get(token);
+			if(child == null) {
+				child = new PathNode();
+				node.children.put(token, child);
+			}
+			node = child;
+		}
+		if(node.index < 0) {
+			node.index = leaves.size();
+			leaves.add(node);
+		}
+		return node.index;
+	}
+
+	/**
+	 * Read the next object from the parser and check whether it matches. The parser is not positioned at the
+	 * end of the object afterwards, so it must not be used for anything else.
+	 *
+	 * @param parser The parser in front of the object.
+	 * @return <code>true</code> if the object matches or if the content is not an object.
+	 * @throws IOException If the content is not valid.
+	 */
+	public boolean matches(JsonParser parser) throws IOException {
+		if(paths == 0) {
+			return compiled.length > 0;
+		}
+		if(parser.nextToken() != JsonToken.START_OBJECT) {
+			return true;
+		}
+		String[] values = new String[paths];
+		int found = 0;
+		PathNode current = root;
+		List<PathNode> parents = new ArrayList<>();
+		for(JsonToken token = parser.nextToken() ; token != null ; token = parser.nextToken()) {
+			if(token == JsonToken.END_OBJECT) {
+				if(parents.isEmpty()) {
+					break;
+				}
+				current = parents.remove(parents.size() - 1);
+				continue;
+			}
+			PathNode child = current.children.get(parser.getCurrentName());
+			token = parser.nextToken();
+			if(child == null) {
+				parser.skipChildren();
+				continue;
+			}
+			if(child.index >= 0 && values[child.index] == null) {
+				values[child.index] = text(parser, token);
+				if(++found == paths) {
+					break;
+				}
+			}
+			if(token == JsonToken.START_OBJECT && !child.children.isEmpty()) {
+				parents.add(current);
+				current = child;
+			} else {
+				parser.skipChildren();
+			}
+		}
+		for(CompiledFilter filter : compiled) {
+			if(filter.matches(values)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The same text as {@link com.fasterxml.jackson.databind.JsonNode#asText()} of the node which would be built from the current value.
+	 */
+	private static String text(JsonParser parser, JsonToken token) throws IOException {
+		switch(token) {
+		case START_OBJECT:
+		case START_ARRAY:
+			return "";
+		case VALUE_NUMBER_FLOAT:
+			return parser.getNumberType() == NumberType.BIG_DECIMAL ? parser.getDecimalValue().toString() : Double.toString(parser.getDoubleValue());
+		case VALUE_NUMBER_INT:
+			return parser.getNumberValue().toString();
+		case VALUE_TRUE:
+			return "true";
+		case VALUE_FALSE:
+			return "false";
+		case VALUE_NULL:
+			return "null";
+		case VALUE_EMBEDDED_OBJECT:
+			return Base64Variants.getDefaultVariant().encode(parser.getBinaryValue());
+		default:
+			return parser.getText();
+		}
+	}
+
+	/**
+	 * Check a complete node, e.g. when the record format can not be filtered before the node is built.
+	 */
+	@Override
+	public boolean apply(ObjectNode input) {
+		for(MetricFilter filter : filters) {
+			if(filter.apply(input)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The top level fields of all filtered paths.
+	 */
+	public Set<String> getTopLevelFields() {
+		return topLevelFields;
+	}
+	public List<MetricFilter> getFilters() {
+		return filters;
+	}
+
+	private static class PathNode {
+
+		private final Map<String, PathNode> children = new HashMap<>();
+		private int index = -1;
+
+	}
+
+	private static class CompiledFilter {
+
+		private final int[] present;
+		private final int[] notPresent;
+		private final int[] values;
+		private final ValueMatcher[] matchers;
+
+		public CompiledFilter(int present, int notPresent, int values) {
+			this.present = new int[present];
+			this.notPresent = new int[notPresent];
+			this.values = new int[values];
+			this.matchers = new ValueMatcher[values];
+		}
+
+		public boolean matches(String[] texts) {
+			for(int index : present) {
+				if(texts[index] == null) {
+					return false;
+				}
+			}
+			for(int index : notPresent) {
+				if(texts[index] != null) {
+					return false;
+				}
+			}
+			for(int i = 0 ; i < values.length ; i++) {
+				String text = texts[values[i]];
+				if(!matchers[i].matchesText(text == null ? "" : text)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
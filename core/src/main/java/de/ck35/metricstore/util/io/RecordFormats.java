@@ -0,0 +1,117 @@
+package de.ck35.metricstore.util.io;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.io.ByteStreams;
+
+/**
+ * The record formats of stored nodes. {@link RecordFormat#TEXT} writes one JSON document per line.
+ * {@link RecordFormat#SMILE} writes every node as a binary Smile document with a length prefix, so
+ * reading needs neither line splitting nor char decoding. Every binary stream starts with {@link #SMILE_HEADER}
+ * which can never start a text stream. The header is repeated when nodes are appended, which makes
+ * files with several write sessions readable as one stream. {@link RecordFormat#COLUMNAR} is only used
+ * for day files and stores blocks of nodes as separately compressed columns, see {@link ColumnBlockWriter}.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class RecordFormats {
+
+    public static final int HEADER_LENGTH = 4;
+    public static final byte[] SMILE_HEADER = {(byte) 0xFF, 'S', 'M', '1'};
+    public static final byte[] COLUMNAR_HEADER = {(byte) 0xFF, 'C', 'O', 'L'};
+
+    public enum RecordFormat {
+        TEXT,
+        SMILE,
+        COLUMNAR
+    }
+
+    private final ObjectMapper mapper;
+    private final Supplier<ObjectMapper> smileMapper;
+
+    public RecordFormats(final ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.smileMapper = Suppliers.memoize(new Supplier<ObjectMapper>() {
+            @Override
+            public ObjectMapper get() {
+                SmileFactory factory = new SmileFactory();
+                factory.disable(SmileGenerator.Feature.WRITE_HEADER);
+                factory.disable(SmileParser.Feature.REQUIRE_HEADER);
+                ObjectMapper result = new ObjectMapper(factory);
+                result.setNodeFactory(mapper.getNodeFactory());
+                return result;
+            }
+        });
+    }
+
+    /**
+     * @return The mapper for text records.
+     */
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * @return The mapper for binary records. Created on first use.
+     */
+    public ObjectMapper getSmileMapper() {
+        return smileMapper.get();
+    }
+
+    public static RecordFormat detect(byte[] header, int length) {
+        if(length >= HEADER_LENGTH) {
+            byte[] prefix = Arrays.copyOf(header, HEADER_LENGTH);
+            if(Arrays.equals(SMILE_HEADER, prefix)) {
+                return RecordFormat.SMILE;
+            }
+            if(Arrays.equals(COLUMNAR_HEADER, prefix)) {
+                return RecordFormat.COLUMNAR;
+            }
+        }
+        return RecordFormat.TEXT;
+    }
+
+    /**
+     * Detect the format of a decompressed stream without consuming it.
+     *
+     * @param in A stream which supports mark and reset.
+     * @return The detected format.
+     * @throws IOException If reading the header fails.
+     */
+    public static RecordFormat detect(InputStream in) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        in.mark(HEADER_LENGTH);
+        int length = ByteStreams.read(in, header, 0, HEADER_LENGTH);
+        in.reset();
+        return detect(header, length);
+    }
+
+    /**
+     * Detect the format of an existing file.
+     *
+     * @param path The file to check.
+     * @param codecs Used for decompressing the file.
+     * @return The format of the file or <code>null</code> if the file does not exist or is empty.
+     * @throws IOException If reading the header fails.
+     */
+    public static RecordFormat detect(Path path, Codecs codecs) throws IOException {
+        if(!Files.isRegularFile(path) || Files.size(path) == 0) {
+            return null;
+        }
+        try(InputStream in = new BufferedInputStream(codecs.decompress(new BufferedInputStream(Files.newInputStream(path))), HEADER_LENGTH)) {
+            return detect(in);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package de.ck35.metricstore.util.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import de.ck35.metricstore.util.JsonNodeExtractor;
+
+/**
+ * Builds partial nodes which only contain the given paths. Paths are described as for {@link JsonNodeExtractor}.
+ * Raw records are read with the streaming parser of Jackson: only the values of the projected paths become nodes,
+ * all other values are skipped and parsing stops as soon as all projected paths have been read. Objects on the way
+ * to a projected path are only part of the result if they contain at least one projected value.
+ * Instances are immutable and can be shared between reading threads.
+ *
+ * @author Christian Kaspari
+ * @since 1.0.0
+ */
+public class RecordProjection implements Function<ObjectNode, ObjectNode> {
+
+	private final List<String> paths;
+	private final PathNode root;
+	private final int leaves;
+
+	public RecordProjection(Iterable<String> paths) {
+		this.paths = ImmutableList.copyOf(paths);
+		this.root = new PathNode();
+		for(String path : this.paths) {
+			PathNode node = root;
+			for(String token : JsonNodeExtractor.tokens(path)) {
+				if(node.leaf) {
+					break;
+				}
+				PathNode child = node.children.get(token);
+				if(child == null) {
+					child = new PathNode();
+					node.children.put(token, child);
+				}
+				node = child;
+			}
+			node.leaf = true;
+			node.children.clear();
+		}
+		this.leaves = root.countLeaves();
+	}
+
+	/**
+	 * @param paths The paths or <code>null</code>.
+	 * @return The projection or <code>null</code> if complete nodes should be read.
+	 */
+	public static RecordProjection of(Iterable<String> paths) {
+		return paths == null ? null : new RecordProjection(paths);
+	}
+
+	/**
+	 * @param path An additional path, e.g. of the timestamp field.
+	 * @return A projection with the additional path.
+	 */
+	public RecordProjection and(String path) {
+		if(paths.contains(path)) {
+			return this;
+		}
+		return new RecordProjection(ImmutableList.<String>builder().addAll(paths).add(path).build());
+	}
+
+	/**
+	 * Read the next object from the parser and build the partial node. The parser is not positioned at the
+	 * end of the object afterwards, so it must not be used for anything else.
+	 *
+	 * @param parser The parser in front of the object.
+	 * @param mapper Builds the nodes of the projected values.
+	 * @return The partial node.
+	 * @throws IOException If the content is not a valid object.
+	 */
+	public ObjectNode read(JsonParser parser, ObjectMapper mapper) throws IOException {
+		if(parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new JsonParseException("Record is not an object!", parser.getCurrentLocation());
+		}
+		ObjectNode result = mapper.createObjectNode();
+		if(leaves == 0) {
+			return result;
+		}
+		int remaining = leaves;
+		PathNode current = root;
+		ObjectNode target = result;
+		List<PathNode> parents = new ArrayList<>();
+		List<ObjectNode> parentTargets = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		for(JsonToken token = parser.nextToken() ; token != null ; token = parser.nextToken()) {
+			if(token == JsonToken.END_OBJECT) {
+				if(parents.isEmpty()) {
+					break;
+				}
+				int last = parents.size() - 1;
+				String name = names.remove(last);
+				current = parents.remove(last);
+				ObjectNode child = target;
+				target = parentTargets.remove(last);
+				if(child.size() == 0) {
+					target.remove(name);
+				}
+				continue;
+			}
+			String name = parser.getCurrentName();
+			PathNode child = current.children.get(name);
+			token = parser.nextToken();
+			if(child == null) {
+				parser.skipChildren();
+			} else if(child.leaf) {
+				JsonNode value = mapper.readTree(parser);
+				if(value == null) {
+					value = mapper.getNodeFactory().nullNode();
+				}
+				if(!target.has(name)) {
+					target.set(name, value);
+					if(--remaining == 0) {
+						break;
+					}
+				}
+			} else if(token == JsonToken.START_OBJECT && !target.has(name)) {
+				parents.add(current);
+				parentTargets.add(target);
+				names.add(name);
+				current = child;
+				target = target.putObject(name);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		for(int i = parentTargets.size() - 1 ; i >= 0 ; i--) {
+			ObjectNode parent = parentTargets.get(i);
+			if(parent.get(names.get(i)).size() == 0) {
+				parent.remove(names.get(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Build the partial node from a complete node, e.g. when the record format can not be projected while reading.
+	 */
+	@Override
+	public ObjectNode apply(ObjectNode input) {
+		return input == null ? null : project(root, input);
+	}
+
+	private static ObjectNode project(PathNode node, ObjectNode input) {
+		ObjectNode result = input.objectNode();
+		for(Entry<String, PathNode> entry : node.children.entrySet()) {
+			JsonNode value = input.get(entry.getKey());
+			if(value == null) {
+				continue;
+			}
+			if(entry.getValue().leaf) {
+				result.set(entry.getKey(), value);
+			} else if(value.isObject()) {
+				ObjectNode child = project(entry.getValue(), (ObjectNode) value);
+				if(child.size() > 0) {
+					result.set(entry.getKey(), child);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return The top level fields of all projected paths.
+	 */
+	public Set<String> getTopLevelFields() {
+		return ImmutableSet.copyOf(root.children.keySet());
+	}
+	public List<String> getPaths() {
+		return paths;
+	}
+	/**
+	 * @return <code>true</code> if all projected paths are top level fields.
+	 */
+	public boolean isFlat() {
+		for(PathNode child : root.children.values()) {
+			if(!child.leaf) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param paths The paths.
+	 * @param additionalPaths The additional paths, e.g. of filters.
+	 * @return The paths together with the given additional paths without duplicates.
+	 */
+	public static List<String> union(Iterable<String> paths, Iterable<String> additionalPaths) {
+		Set<String> result = new LinkedHashSet<>();
+		for(String path : paths) {
+			result.add(path);
+		}
+		for(String path : additionalPaths) {
+			result.add(path);
+		}
+		return ImmutableList.copyOf(result);
+	}
+
+	private static class PathNode {
+
+		private final Map<String, PathNode> children = new HashMap<>();
+		private boolean leaf;
+
+		private int countLeaves() {
+			if(leaf) {
+				return 1;
+			}
+			int result = 0;
+			for(PathNode child : children.values()) {
+				result += child.countLeaves();
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package de.ck35.metricstore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.google.common.collect.ImmutableList;
+
+public class ValueMatcherTest {
+
+    private final JsonNodeFactory nodeFactory = JsonNodeFactory.instance;
+
+    private List<JsonNode> nodes() {
+        return ImmutableList.<JsonNode>of(nodeFactory.textNode("200"),
+                                          nodeFactory.textNode("web-1"),
+                                          nodeFactory.textNode("web-1\nweb-2"),
+                                          nodeFactory.textNode(""),
+                                          nodeFactory.numberNode(200),
+                                          nodeFactory.numberNode(200L),
+                                          nodeFactory.numberNode(-7),
+                                          nodeFactory.numberNode(1.5d),
+                                          nodeFactory.numberNode(200d),
+                                          nodeFactory.booleanNode(true),
+                                          nodeFactory.booleanNode(false),
+                                          nodeFactory.nullNode(),
+                                          nodeFactory.objectNode(),
+                                          MissingNode.getInstance());
+    }
+
+    @Test
+    public void testDowngradeRegex() {
+        assertEquals(ValueMatcher.Equal.class, ValueMatcher.regex("200").getClass());
+        assertEquals(ValueMatcher.Equal.class, ValueMatcher.regex("").getClass());
+        assertEquals(ValueMatcher.Prefix.class, ValueMatcher.regex("web-.*").getClass());
+        assertEquals(ValueMatcher.In.class, ValueMatcher.regex("true|200|").getClass());
+        assertEquals(ValueMatcher.Regex.class, ValueMatcher.regex("web-.").getClass());
+        assertEquals(ValueMatcher.Regex.class, ValueMatcher.regex("(a|b)").getClass());
+        assertEquals(ValueMatcher.Equal.class, ValueMatcher.regex(Pattern.compile("200")).getClass());
+        assertEquals(ValueMatcher.Regex.class, ValueMatcher.regex(Pattern.compile("200", Pattern.CASE_INSENSITIVE)).getClass());
+    }
+
+    @Test
+    public void testDowngradedRegexMatchesLikePattern() {
+        for(String regex : ImmutableList.of("200", "", "web-1", "true", "null", "200.0", "-7", "web-.*", ".*", "2.*", "true|200|", "1.5|false")) {
+            Pattern pattern = Pattern.compile(regex);
+            ValueMatcher matcher = ValueMatcher.regex(regex);
+            for(JsonNode node : nodes()) {
+                boolean expected = pattern.matcher(node.asText()).matches();
+                assertEquals(regex + " on " + node, expected, matcher.matches(node));
+                assertEquals(regex + " on " + node, expected, matcher.matchesText(node.asText()));
+                assertEquals(regex + " on " + node, expected, matcher.forSingleThread().matches(node));
+            }
+        }
+    }
+
+    @Test
+    public void testTypedMatchers() {
+        assertTrue(ValueMatcher.equalTo("200").matches(nodeFactory.numberNode(200)));
+        assertFalse(ValueMatcher.equalTo("0200").matches(nodeFactory.numberNode(200)));
+        assertTrue(ValueMatcher.equalTo(true).matches(nodeFactory.booleanNode(true)));
+        assertTrue(ValueMatcher.equalTo(true).matches(nodeFactory.textNode("true")));
+        assertFalse(ValueMatcher.equalTo(false).matches(MissingNode.getInstance()));
+        assertTrue(ValueMatcher.startsWith("web-").matches(nodeFactory.textNode("web-1\nweb-2")));
+        assertTrue(ValueMatcher.in(ImmutableList.of("a", "200")).matches(nodeFactory.numberNode(200)));
+
+        ValueMatcher range = ValueMatcher.between(-1, 200);
+        assertTrue(range.matches(nodeFactory.numberNode(200)));
+        assertTrue(range.matches(nodeFactory.numberNode(1.5d)));
+        assertTrue(range.matches(nodeFactory.textNode("-0.5")));
+        assertTrue(range.matchesText("200"));
+        assertFalse(range.matches(nodeFactory.numberNode(200.5d)));
+        assertFalse(range.matches(nodeFactory.numberNode(-7)));
+        assertFalse(range.matches(nodeFactory.textNode("web-1")));
+        assertFalse(range.matches(nodeFactory.booleanNode(true)));
+        assertFalse(range.matches(MissingNode.getInstance()));
+        assertFalse(range.matchesText(""));
+    }
+
+    @Test
+    public void testRangeOnlyMatchesJsonNumberTexts() {
+        ValueMatcher range = ValueMatcher.between(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        assertTrue(range.matchesText("-12.5e3"));
+        assertTrue(range.matchesText("0"));
+        assertTrue(range.matches(nodeFactory.textNode("1E+2")));
+        for(String text : ImmutableList.of("1d", "1f", "0x1p3", "NaN", "Infinity", "-Infinity", "+1", "01", ".5", "1.", " 1", "1e")) {
+            assertFalse(text, range.matchesText(text));
+            assertFalse(text, range.matches(nodeFactory.textNode(text)));
+        }
+        assertFalse(range.matches(nodeFactory.numberNode(Double.NaN)));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRangeRejectsNaNBound() {
+        ValueMatcher.between(0, Double.NaN);
+    }
+}
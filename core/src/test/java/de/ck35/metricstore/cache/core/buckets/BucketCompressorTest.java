@@ -0,0 +1,146 @@
+package de.ck35.metricstore.cache.core.buckets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+
+public class BucketCompressorTest {
+
+    private final ObjectMapper mapper = ObjectMapperConfiguration.objectMapper();
+    private BucketCompressor compressor;
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void after() {
+        release.countDown();
+        if(compressor != null) {
+            compressor.close();
+        }
+    }
+
+    private MinuteBucket minuteBucket(BucketExpandListener listener) {
+        MinuteBucket minuteBucket = new MinuteBucket(new ObjectNodeReader.StreamFactory(mapper, Charsets.UTF_8),
+                                                     new ObjectNodeWriter.StreamFactory(mapper.getFactory(), Charsets.UTF_8),
+                                                     listener);
+        minuteBucket.write(mapper.createObjectNode().put("a", 1));
+        return minuteBucket;
+    }
+
+    private void blockCompressor(int maxBacklog) throws InterruptedException {
+        compressor = new BucketCompressor(1, maxBacklog);
+        assertTrue(compressor.execute(new Runnable() {
+            @Override
+            public void run() {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }));
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+    }
+
+    private static void awaitCompressed(MinuteBucket minuteBucket) throws InterruptedException {
+        for(int attempt = 0 ; attempt < 1000 && !minuteBucket.isCompressed() ; attempt++) {
+            Thread.sleep(10);
+        }
+        assertTrue(minuteBucket.isCompressed());
+    }
+
+    @Test
+    public void testCoalesceAndReject() throws InterruptedException {
+        ExpandedBucketManager expandedBucketManager = new ExpandedBucketManager(Suppliers.ofInstance(10));
+        MinuteBucket first = minuteBucket(expandedBucketManager);
+        MinuteBucket second = minuteBucket(expandedBucketManager);
+        blockCompressor(1);
+
+        assertTrue(compressor.compress(first));
+        assertTrue(compressor.compress(first));
+        assertFalse(compressor.compress(second));
+        assertEquals(1, compressor.getBacklog());
+        assertEquals(1, compressor.getTotalScheduled());
+        assertEquals(1, compressor.getTotalCoalesced());
+        assertEquals(1, compressor.getTotalRejected());
+        assertFalse(first.isCompressed());
+
+        release.countDown();
+        awaitCompressed(first);
+        assertFalse(second.isCompressed());
+        assertEquals(ImmutableList.of(mapper.createObjectNode().put("a", 1)), ImmutableList.copyOf(first));
+        assertTrue(compressor.getTotalSavedBytes() > 0);
+        assertTrue(compressor.compress(second));
+        awaitCompressed(second);
+        assertEquals(2, compressor.getTotalCompressions());
+    }
+
+    @Test
+    public void testExpandedBucketsAreCompressedInBackground() throws InterruptedException {
+        blockCompressor(2);
+        ExpandedBucketManager expandedBucketManager = new ExpandedBucketManager(Suppliers.ofInstance(1), compressor);
+        MinuteBucket first = minuteBucket(expandedBucketManager);
+        MinuteBucket second = minuteBucket(expandedBucketManager);
+        MinuteBucket third = minuteBucket(expandedBucketManager);
+        MinuteBucket fourth = minuteBucket(expandedBucketManager);
+        assertFalse(first.isCompressed());
+        assertEquals(2, compressor.getBacklog());
+        assertEquals(1, compressor.getTotalRejected());
+
+        release.countDown();
+        awaitCompressed(first);
+        awaitCompressed(second);
+        assertFalse(third.isCompressed());
+
+        minuteBucket(expandedBucketManager);
+        awaitCompressed(third);
+        awaitCompressed(fourth);
+    }
+
+    @Test
+    public void testLostCompressionIsExpandedAgain() {
+        final List<MinuteBucket> expanded = new ArrayList<>();
+        final MinuteBucket[] minuteBucket = new MinuteBucket[1];
+        final ObjectNodeWriter.StreamFactory writerFactory = new ObjectNodeWriter.StreamFactory(mapper.getFactory(), Charsets.UTF_8);
+        minuteBucket[0] = new MinuteBucket(new ObjectNodeReader.StreamFactory(mapper, Charsets.UTF_8),
+                                           new Function<OutputStream, ObjectNodeWriter>() {
+                                               @Override
+                                               public ObjectNodeWriter apply(OutputStream input) {
+                                                   minuteBucket[0].write(mapper.createObjectNode().put("a", 2));
+                                                   return writerFactory.apply(input);
+                                               }
+                                           },
+                                           new BucketExpandListener() {
+                                               @Override
+                                               public void expanded(MinuteBucket bucket) {
+                                                   expanded.add(bucket);
+                                               }
+                                           });
+        minuteBucket[0].write(mapper.createObjectNode().put("a", 1));
+        assertEquals(1, expanded.size());
+
+        assertEquals(0, minuteBucket[0].compress());
+        assertFalse(minuteBucket[0].isCompressed());
+        assertEquals(ImmutableList.of(minuteBucket[0], minuteBucket[0]), expanded);
+    }
+}
@@ -0,0 +1,78 @@
+package de.ck35.metricstore.cache.core.buckets;
+
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Iterables;
+
+import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+
+/**
+ * Shared setup of the tests which write real minute buckets through a {@link BucketManager} with a memory budget.
+ */
+public class BucketManagerFixture {
+
+    public static final DateTime START = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+    public static final Interval DAY = new Interval(START, START.plusDays(1));
+
+    private final ObjectMapper mapper = ObjectMapperConfiguration.objectMapper();
+    private final ObjectNodeReader.StreamFactory readerFactory = new ObjectNodeReader.StreamFactory(mapper, Charsets.UTF_8);
+    private final ObjectNodeWriter.StreamFactory writerFactory = new ObjectNodeWriter.StreamFactory(mapper.getFactory(), Charsets.UTF_8);
+    private final CacheMemoryBudget budget;
+
+    public BucketManagerFixture(Supplier<Long> maxBytesSetting) {
+        this.budget = new CacheMemoryBudget(maxBytesSetting);
+    }
+
+    /**
+     * @param maxExpandedBuckets The max number of expanded minute buckets of a metric bucket.
+     * @param indexedPaths The indexed paths of a metric bucket or <code>null</code> if nothing is indexed.
+     * @return A new bucket manager which uses the budget of this fixture.
+     */
+    public BucketManager bucketManager(int maxExpandedBuckets, Function<MetricBucket, List<String>> indexedPaths) {
+        return new BucketManager(new ExpandedBucketManager.ExpandedBucketManagerFactory(Suppliers.ofInstance(maxExpandedBuckets)),
+                                 readerFactory,
+                                 writerFactory,
+                                 CacheSettings.builder().budget(budget).indexedPaths(indexedPaths).build());
+    }
+
+    /**
+     * Write the nodes into one minute, one second after another.
+     */
+    public void write(BucketManager bucketManager, MetricBucket bucket, int minute, List<ObjectNode> nodes) {
+        for(int second = 0 ; second < nodes.size() ; second++) {
+            bucketManager.write(new ImmutableStoredMetric(bucket, START.plusMinutes(minute).plusSeconds(second), nodes.get(second)));
+        }
+    }
+
+    public static int size(Entry<Interval, Iterable<StoredMetric>> result) {
+        return Iterables.size(result.getValue());
+    }
+
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+    public ObjectNodeReader.StreamFactory getReaderFactory() {
+        return readerFactory;
+    }
+    public ObjectNodeWriter.StreamFactory getWriterFactory() {
+        return writerFactory;
+    }
+    public CacheMemoryBudget getBudget() {
+        return budget;
+    }
+}
@@ -7,6 +7,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -23,7 +25,11 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 
+import de.ck35.metricstore.MetricAggregation;
+import de.ck35.metricstore.MetricAggregation.Resolution;
 import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.MetricFilter;
+import de.ck35.metricstore.MetricStatistics;
 import de.ck35.metricstore.StoredMetric;
 import de.ck35.metricstore.cache.core.buckets.BucketManager;
 import de.ck35.metricstore.cache.core.buckets.ExpandedBucketManager;
@@ -85,5 +91,59 @@ public class BucketManagerTest {
         assertEquals(node1, result.get(0).getObjectNode());
         assertEquals(node2, result.get(1).getObjectNode());
     }
+    
+    @Test
+    public void testReadNewest() {
+        DateTime timestamp = new DateTime(2015, 1, 1, 1, 0, DateTimeZone.UTC);
+        BucketManager bucketManager = bucketManager();
+        for(int i=0 ; i<6 ; i++) {
+            ObjectNode node = mapper.getNodeFactory().objectNode();
+            node.put("index", i);
+            bucketManager.write(new ImmutableStoredMetric(metricBucket, timestamp.plusMinutes(i / 2), node));
+        }
+        Entry<Interval, Iterable<StoredMetric>> readResult = bucketManager.readNewest(metricBucket.getName(), new Interval(timestamp.plusMinutes(1), timestamp.plusHours(1)), null);
+        
+        assertEquals(new Interval(timestamp.plusMinutes(1), timestamp.plusMinutes(3)), readResult.getKey());
+        List<StoredMetric> result = ImmutableList.copyOf(readResult.getValue());
+        assertEquals(4, result.size());
+        for(int i=0 ; i<4 ; i++) {
+            assertEquals(5 - i, result.get(i).getObjectNode().get("index").asInt());
+            assertEquals(timestamp.plusMinutes((5 - i) / 2), result.get(i).getTimestamp());
+        }
+        assertEquals(new Interval(timestamp, timestamp), bucketManager.readNewest(metricBucket.getName(), new Interval(timestamp.minusHours(1), timestamp), null).getKey());
+    }
+    
+    @Test
+    public void testAggregate() {
+        DateTime timestamp = new DateTime(2015, 1, 1, 1, 0, DateTimeZone.UTC);
+        BucketManager bucketManager = bucketManager();
+        for(int i=0 ; i<6 ; i++) {
+            ObjectNode node = mapper.getNodeFactory().objectNode();
+            node.put("value", i);
+            node.put("host", "host-" + i % 2);
+            bucketManager.write(new ImmutableStoredMetric(metricBucket, timestamp.plusMinutes(i / 2), node));
+        }
+        NavigableMap<DateTime, MetricStatistics> result = new TreeMap<>();
+        Interval cached = bucketManager.aggregate(metricBucket.getName(), 
+                                                  new Interval(timestamp.minusHours(1), timestamp.plusHours(1)), 
+                                                  ImmutableList.of(MetricFilter.builder().andValueMatches("host", "host-1").build()), 
+                                                  new MetricAggregation("value", Resolution.MINUTE), 
+                                                  result);
+        assertEquals(new Interval(timestamp, timestamp.plusMinutes(3)), cached);
+        assertEquals(3, result.size());
+        for(int minute=0 ; minute<3 ; minute++) {
+            MetricStatistics statistics = result.get(timestamp.plusMinutes(minute));
+            assertEquals(1, statistics.getCount());
+            assertEquals(minute * 2 + 1, statistics.getSum(), 0d);
+        }
+        
+        result.clear();
+        bucketManager.aggregate(metricBucket.getName(), new Interval(timestamp, timestamp.plusHours(1)), null, new MetricAggregation("value", Resolution.HOUR), result);
+        assertEquals(1, result.size());
+        assertEquals(6, result.get(timestamp).getCount());
+        assertEquals(15, result.get(timestamp).getSum(), 0d);
+        assertEquals(0, result.get(timestamp).getMin(), 0d);
+        assertEquals(5, result.get(timestamp).getMax(), 0d);
+    }
 
 }
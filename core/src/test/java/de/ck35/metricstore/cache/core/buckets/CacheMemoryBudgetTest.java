@@ -0,0 +1,143 @@
+package de.ck35.metricstore.cache.core.buckets;
+
+import static de.ck35.metricstore.cache.core.buckets.BucketManagerFixture.DAY;
+import static de.ck35.metricstore.cache.core.buckets.BucketManagerFixture.START;
+import static de.ck35.metricstore.cache.core.buckets.BucketManagerFixture.size;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.nonpersistent.ImmutableMetricBucket;
+import de.ck35.metricstore.util.Setting;
+
+public class CacheMemoryBudgetTest {
+
+    private final MetricBucket bucketA = new ImmutableMetricBucket("a", "type");
+    private final MetricBucket bucketB = new ImmutableMetricBucket("b", "type");
+    private final Setting<Long> maxBytesSetting = new Setting<>(0L);
+    private final BucketManagerFixture fixture = new BucketManagerFixture(maxBytesSetting);
+    private final ObjectMapper mapper = fixture.getMapper();
+    private final CacheMemoryBudget budget = fixture.getBudget();
+
+    private BucketManager bucketManager() {
+        BucketManager bucketManager = fixture.bucketManager(100, null);
+        for(MetricBucket bucket : ImmutableList.of(bucketA, bucketB)) {
+            for(int minute = 0 ; minute < 5 ; minute++) {
+                write(bucketManager, bucket, minute);
+            }
+        }
+        return bucketManager;
+    }
+
+    private void write(BucketManager bucketManager, MetricBucket bucket, int minute) {
+        fixture.write(bucketManager, bucket, minute, nodes(minute));
+    }
+
+    private List<ObjectNode> nodes(int minute) {
+        List<ObjectNode> nodes = new ArrayList<>();
+        for(int value = 0 ; value < 5 ; value++) {
+            nodes.add(mapper.createObjectNode().put("value", minute * 10 + value));
+        }
+        return nodes;
+    }
+
+    /**
+     * @return The heap size of both buckets after all minutes have been compressed.
+     */
+    private long compressedBytes() {
+        long bytes = 0;
+        for(int minute = 0 ; minute < 5 ; minute++) {
+            bytes += 2 * MinuteBucket.CompressedBucket.build(nodes(minute), fixture.getReaderFactory(), fixture.getWriterFactory()).getLength();
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testEstimate() {
+        assertEquals(24, CacheMemoryBudget.estimate(mapper.getNodeFactory().numberNode(1)));
+        assertEquals(24 + 40 + 2 * 3, CacheMemoryBudget.estimate(mapper.getNodeFactory().textNode("abc")));
+        assertEquals(64 + 48 + 40 + 2 + 24, CacheMemoryBudget.estimate(mapper.createObjectNode().put("a", 1)));
+    }
+
+    @Test
+    public void testCompressBeforeDrop() {
+        BucketManager bucketManager = bucketManager();
+        long expanded = budget.getUsedBytes();
+        assertEquals(10 * 5 * CacheMemoryBudget.estimate(mapper.createObjectNode().put("value", 10)), expanded);
+
+        maxBytesSetting.set(expanded / 2);
+        bucketManager.evict();
+        assertEquals(1, budget.getTotalEvictions());
+        assertEquals(0, budget.getTotalDroppedMinutes());
+        assertTrue(budget.getTotalCompressedMinutes() > 0);
+        assertTrue(budget.getUsedBytes() <= budget.getTargetBytes());
+        assertEquals(START, bucketManager.read("a", DAY).getKey().getStart());
+        assertEquals(START, bucketManager.read("b", DAY).getKey().getStart());
+        assertEquals(25, size(bucketManager.read("a", DAY)));
+        assertEquals(25, size(bucketManager.read("b", DAY)));
+    }
+
+    @Test
+    public void testDropLeastRecentlyReadMinutes() {
+        BucketManager bucketManager = bucketManager();
+        assertEquals(25, size(bucketManager.read("a", DAY)));
+
+        long compressed = compressedBytes();
+        maxBytesSetting.set(compressed * 5 / 6);
+        bucketManager.evict();
+        assertEquals(10, budget.getTotalCompressedMinutes());
+        assertTrue(budget.getTotalDroppedMinutes() > 0);
+        assertTrue(budget.getTotalDroppedMinutes() < 5);
+        assertTrue(budget.getUsedBytes() <= budget.getTargetBytes());
+
+        Entry<Interval, Iterable<StoredMetric>> a = bucketManager.read("a", DAY);
+        Entry<Interval, Iterable<StoredMetric>> b = bucketManager.read("b", DAY);
+        assertEquals(START, a.getKey().getStart());
+        assertEquals(25, size(a));
+        DateTime cachedStart = START.plusMinutes((int) budget.getTotalDroppedMinutes());
+        assertEquals(cachedStart, b.getKey().getStart());
+        assertEquals(5 * (5 - budget.getTotalDroppedMinutes()), size(b));
+        assertEquals(cachedStart, Iterables.getFirst(b.getValue(), null).getTimestamp());
+
+        maxBytesSetting.set(0L);
+        write(bucketManager, bucketB, 0);
+        assertEquals(cachedStart, bucketManager.read("b", DAY).getKey().getStart());
+    }
+
+    @Test
+    public void testFreeReleasedMinutesAfterRead() {
+        BucketManager bucketManager = bucketManager();
+        long ticket = bucketManager.enterRead();
+        Entry<Interval, Iterable<StoredMetric>> running = bucketManager.read("a", DAY);
+        long usedBytes = budget.getUsedBytes();
+        bucketManager.clear(START.plusDays(1));
+        assertEquals(usedBytes, budget.getUsedBytes());
+        assertEquals(usedBytes, budget.getReleasedBytes());
+        assertEquals(0, budget.getCachedBytes());
+        assertFalse(budget.isAboveTarget());
+        assertEquals(25, size(running));
+        assertFalse(bucketManager.read("a", DAY).getValue().iterator().hasNext());
+
+        bucketManager.exitRead(ticket);
+        assertEquals(0, size(running));
+        assertEquals(0, budget.getUsedBytes());
+        assertEquals(0, budget.getReleasedBytes());
+        List<MetricBucket> buckets = ImmutableList.copyOf(bucketManager.listBuckets());
+        assertEquals(2, buckets.size());
+    }
+}
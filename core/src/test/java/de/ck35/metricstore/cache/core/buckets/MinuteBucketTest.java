@@ -25,6 +25,7 @@ import de.ck35.metricstore.cache.core.buckets.MinuteBucket;
 import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
 import de.ck35.metricstore.util.io.ObjectNodeReader;
 import de.ck35.metricstore.util.io.ObjectNodeWriter;
+import de.ck35.metricstore.util.io.RecordProjection;
 
 @RunWith(MockitoJUnitRunner.class)
 public class MinuteBucketTest {
@@ -105,5 +106,24 @@ public class MinuteBucketTest {
         assertEquals(2, minuteBucket.getSize());
         assertEquals(ImmutableList.of(node1, node2),  ImmutableList.copyOf(minuteBucket.iterator()));
     }
-
+    
+    @Test
+    public void testReadProjected() {
+        ObjectNode node1 = mapper.getNodeFactory().objectNode();
+        ObjectNode node2 = mapper.getNodeFactory().objectNode();
+        node1.put("a", "a1").put("b", "b1").putObject("c").put("d", "d1").put("e", "e1");
+        node2.put("b", "b2");
+        ObjectNode projected1 = mapper.getNodeFactory().objectNode();
+        ObjectNode projected2 = mapper.getNodeFactory().objectNode();
+        projected1.put("a", "a1").putObject("c").put("d", "d1");
+        RecordProjection projection = new RecordProjection(ImmutableList.of("a", "c.d"));
+        
+        MinuteBucket minuteBucket = minuteBucket();
+        minuteBucket.write(node1);
+        minuteBucket.write(node2);
+        assertEquals(ImmutableList.of(projected1, projected2),  ImmutableList.copyOf(minuteBucket.iterator(projection)));
+        minuteBucket.compress();
+        assertEquals(ImmutableList.of(projected1, projected2),  ImmutableList.copyOf(minuteBucket.iterator(projection)));
+        assertEquals(ImmutableList.of(node1, node2),  ImmutableList.copyOf(minuteBucket.iterator()));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+package de.ck35.metricstore.cache.core.buckets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+
+import de.ck35.metricstore.cache.core.buckets.OffHeapArena.Payload;
+import de.ck35.metricstore.cache.core.buckets.OffHeapArena.PayloadOutputStream;
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+
+public class OffHeapArenaTest {
+
+    private static final DateTime START = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    private final ObjectMapper mapper = ObjectMapperConfiguration.objectMapper();
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for(int index = 0 ; index < length ; index++) {
+            bytes[index] = (byte) index;
+        }
+        return bytes;
+    }
+
+    private static Payload write(OffHeapArena arena, byte[] bytes) throws IOException {
+        PayloadOutputStream out = arena.newPayload();
+        out.write(bytes, 0, 10);
+        out.write(bytes, 10, bytes.length - 10);
+        out.close();
+        return out.getPayload();
+    }
+
+    @Test
+    public void testWriteReadFree() throws IOException {
+        OffHeapArena arena = new OffHeapArena(Suppliers.ofInstance(128L), 64, 16);
+        Payload payload = write(arena, bytes(40));
+        assertTrue(payload.isOffHeap());
+        assertArrayEquals(bytes(40), payload.toByteArray());
+        assertEquals(1, arena.getSlabCount());
+        assertEquals(48, arena.getAllocatedBytes());
+        assertEquals(40, arena.getPayloadBytes());
+        assertEquals(1d - 40d / 48d, arena.getFragmentation(), 0.0001d);
+        assertEquals(0.75d, arena.getUsage(), 0.0001d);
+
+        payload.free();
+        payload.free();
+        assertEquals(0, arena.getAllocatedBytes());
+        assertEquals(0, arena.getPayloadBytes());
+        assertEquals(0, arena.getPayloadCount());
+
+        Payload next = write(arena, bytes(100));
+        assertArrayEquals(bytes(100), next.toByteArray());
+        assertEquals(2, arena.getSlabCount());
+        assertEquals(112, arena.getAllocatedBytes());
+    }
+
+    @Test
+    public void testKeepPayloadOnHeapIfArenaIsFull() throws IOException {
+        OffHeapArena arena = new OffHeapArena(Suppliers.ofInstance(64L), 64, 16);
+        Payload payload = write(arena, bytes(100));
+        assertFalse(payload.isOffHeap());
+        assertArrayEquals(bytes(100), payload.toByteArray());
+        assertEquals(0, arena.getAllocatedBytes());
+        assertEquals(1, arena.getTotalHeapPayloads());
+
+        Payload disabled = write(new OffHeapArena(Suppliers.ofInstance(0L)), bytes(20));
+        assertFalse(disabled.isOffHeap());
+        assertArrayEquals(bytes(20), disabled.toByteArray());
+    }
+
+    @Test
+    public void testFreeCompressedMinuteBuckets() {
+        final OffHeapArena arena = new OffHeapArena(Suppliers.ofInstance(1024L * 1024), 64 * 1024, 1024);
+        final ExpandedBucketManager expandedBucketManager = new ExpandedBucketManager(Suppliers.ofInstance(10));
+        CachedMetricBucket bucket = new CachedMetricBucket(new Supplier<MinuteBucket>() {
+            @Override
+            public MinuteBucket get() {
+                return new MinuteBucket(new ObjectNodeReader.StreamFactory(mapper, Charsets.UTF_8),
+                                        new ObjectNodeWriter.StreamFactory(mapper.getFactory(), Charsets.UTF_8),
+                                        expandedBucketManager,
+                                        CacheSettings.builder().arena(arena).build(),
+                                        null);
+            }
+        });
+        List<ObjectNode> nodes = ImmutableList.of(mapper.createObjectNode().put("a", 1), mapper.createObjectNode().put("b", 2));
+        for(int minute = 0 ; minute < 3 ; minute++) {
+            for(ObjectNode node : nodes) {
+                bucket.write(START.plusMinutes(minute), node);
+            }
+        }
+        MinuteBucket first = bucket.apply(new Interval(START, START.plusMinutes(1))).get(START);
+        for(Entry<DateTime, MinuteBucket> entry : bucket) {
+            entry.getValue().compress();
+        }
+        assertEquals(3, arena.getPayloadCount());
+        assertEquals(nodes, ImmutableList.copyOf(first));
+
+        first.write(mapper.createObjectNode().put("c", 3));
+        assertEquals(2, arena.getPayloadCount());
+        first.compress();
+        assertEquals(3, arena.getPayloadCount());
+
+        List<MinuteBucket> released = bucket.clear(START.plusMinutes(2));
+        assertEquals(2, released.size());
+        assertEquals(3, arena.getPayloadCount());
+        assertEquals(ImmutableList.of(nodes.get(0), nodes.get(1), mapper.createObjectNode().put("c", 3)), ImmutableList.copyOf(first));
+        for(MinuteBucket minuteBucket : released) {
+            minuteBucket.free();
+        }
+        assertEquals(1, arena.getPayloadCount());
+        assertFalse(first.iterator().hasNext());
+        first.write(mapper.createObjectNode().put("d", 4));
+        first.compress();
+        assertEquals(1, arena.getPayloadCount());
+    }
+}
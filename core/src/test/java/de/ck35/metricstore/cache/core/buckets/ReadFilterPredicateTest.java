@@ -23,6 +23,7 @@ import com.google.common.base.Function;
 import com.google.common.collect.Maps;
 
 import de.ck35.metricstore.StoredMetricCallable;
+import de.ck35.metricstore.ValueMatcher;
 import de.ck35.metricstore.cache.core.buckets.ReadFilterPredicate;
 import de.ck35.metricstore.cache.core.filter.ImmutableReadFilter;
 
@@ -55,7 +56,7 @@ public class ReadFilterPredicateTest {
         return new ImmutableReadFilter(callable, 
                                        requiredPresentField == null ? Collections.<Function<ObjectNode, JsonNode>>emptySet() : Collections.singleton(requiredPresentField), 
                                        requiredNonPresentField == null ? Collections.<Function<ObjectNode, JsonNode>>emptySet() : Collections.singleton(requiredNonPresentField), 
-                                       Collections.singleton(Maps.immutableEntry(valueField, pattern)));
+                                       Collections.singleton(Maps.immutableEntry(valueField, ValueMatcher.regex(pattern))));
     }
     
     @Test
@@ -0,0 +1,144 @@
+package de.ck35.metricstore.cache.core.buckets;
+
+import static de.ck35.metricstore.cache.core.buckets.BucketManagerFixture.DAY;
+import static de.ck35.metricstore.cache.core.buckets.BucketManagerFixture.START;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.joda.time.Interval;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.MetricFilter;
+import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.nonpersistent.ImmutableMetricBucket;
+import de.ck35.metricstore.util.Setting;
+import de.ck35.metricstore.util.io.Codecs;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+import de.ck35.metricstore.util.io.RecordFormats;
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
+
+public class ValueIndexTest {
+
+    private static final List<String> INDEXED_PATHS = ImmutableList.of("host", "status");
+
+    private final MetricBucket bucket = new ImmutableMetricBucket("a", "type");
+    private final BucketManagerFixture fixture = new BucketManagerFixture(new Setting<>(0L));
+    private final ObjectMapper mapper = fixture.getMapper();
+    private final CacheMemoryBudget budget = fixture.getBudget();
+
+    private BucketManager bucketManager() {
+        Function<MetricBucket, List<String>> indexedPaths = Functions.forMap(ImmutableMap.<MetricBucket, List<String>>of(bucket, INDEXED_PATHS));
+        BucketManager bucketManager = fixture.bucketManager(1, indexedPaths);
+        for(int minute = 0 ; minute < 3 ; minute++) {
+            List<ObjectNode> nodes = new ArrayList<>();
+            for(int index = 0 ; index < 6 ; index++) {
+                nodes.add(node(minute * 6 + index));
+            }
+            fixture.write(bucketManager, bucket, minute, nodes);
+        }
+        return bucketManager;
+    }
+
+    private ObjectNode node(int index) {
+        ObjectNode node = mapper.createObjectNode().put("index", index).put("host", "web-" + index % 3);
+        if(index % 4 != 0) {
+            node.put("status", index % 5 == 0 ? 500 : 200);
+        }
+        return node;
+    }
+
+    private static List<Integer> indexes(Entry<Interval, Iterable<StoredMetric>> result) {
+        List<Integer> indexes = new ArrayList<>();
+        for(StoredMetric metric : result.getValue()) {
+            indexes.add(metric.getObjectNode().get("index").intValue());
+        }
+        return indexes;
+    }
+
+    @Test
+    public void testReadOnlyIndexedNodes() {
+        BucketManager bucketManager = bucketManager();
+        List<MetricFilter> hosts = ImmutableList.of(MetricFilter.builder().andValueEquals("host", "web-1").build());
+        assertEquals(ImmutableList.of(1, 4, 7, 10, 13, 16), indexes(bucketManager.read("a", DAY, null, hosts)));
+        assertEquals(ImmutableList.of(16, 13, 10, 7, 4, 1), indexes(bucketManager.readNewest("a", DAY, null, hosts)));
+
+        List<MetricFilter> errors = ImmutableList.of(MetricFilter.builder().andValueMatches("status", "500|404").andValueEquals("host", "web-2").build(),
+                                                     MetricFilter.builder().andValueEquals("status", "").andFieldIsPresent("host").build());
+        assertEquals(ImmutableList.of(0, 4, 5, 8, 12, 16), indexes(bucketManager.read("a", DAY, null, errors)));
+        assertEquals(3, bucketManager.getTotalIndexedReads());
+
+        List<MetricFilter> unindexed = ImmutableList.of(MetricFilter.builder().andValueEquals("host", "web-1").build(),
+                                                        MetricFilter.builder().andValueStartsWith("host", "web-").build());
+        assertEquals(18, indexes(bucketManager.read("a", DAY, null, unindexed)).size());
+        assertEquals(3, bucketManager.getTotalIndexedReads());
+    }
+
+    @Test
+    public void testClearDropsIndexes() {
+        BucketManager bucketManager = bucketManager();
+        long indexBytes = bucketManager.getTotalIndexBytes();
+        assertTrue(indexBytes > 0);
+        assertEquals(ImmutableMap.of("a", indexBytes), bucketManager.getIndexBytesPerBucket());
+        assertEquals(ImmutableMap.of("a", INDEXED_PATHS.toString()), bucketManager.getIndexedPathsPerBucket());
+        assertTrue(budget.getUsedBytes() > indexBytes);
+
+        bucketManager.clear(START.plusMinutes(1));
+        assertTrue(bucketManager.getTotalIndexBytes() < indexBytes);
+        bucketManager.clear(START.plusMinutes(3));
+        assertEquals(0, bucketManager.getTotalIndexBytes());
+        assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testQuery() {
+        assertNull(ValueIndex.Query.of(INDEXED_PATHS, null));
+        assertNull(ValueIndex.Query.of(ImmutableList.<String>of(), ImmutableList.of(MetricFilter.builder().andValueEquals("host", "web-1").build())));
+        assertNull(ValueIndex.Query.of(INDEXED_PATHS, ImmutableList.of(MetricFilter.builder().andValueEquals("index", "1").build())));
+        ValueIndex.Query query = ValueIndex.Query.of(INDEXED_PATHS, ImmutableList.of(MetricFilter.builder().andValueIn("host", ImmutableList.of("web-0", "web-1")).andValueIs("status", false).build()));
+        assertNotNull(query);
+
+        ValueIndex index = new ValueIndex(ValueIndex.extractors(INDEXED_PATHS));
+        for(int position = 0 ; position < 4 ; position++) {
+            index.add(mapper.createObjectNode().put("host", "web-" + position).put("status", position % 2 == 0));
+        }
+        BitSet expected = new BitSet();
+        expected.set(1);
+        assertEquals(expected, index.positions(query));
+    }
+
+    @Test
+    public void testReadPositionsOfCompressedBucket() {
+        RecordFormats formats = new RecordFormats(mapper);
+        ObjectNodeReader.StreamFactory reader = new ObjectNodeReader.StreamFactory(formats, Charsets.UTF_8, Codecs.defaults());
+        List<ObjectNode> nodes = new ArrayList<>();
+        for(int index = 0 ; index < 10 ; index++) {
+            nodes.add(node(index));
+        }
+        BitSet positions = new BitSet();
+        positions.set(0);
+        positions.set(3);
+        positions.set(7);
+        for(RecordFormat format : ImmutableList.of(RecordFormat.TEXT, RecordFormat.SMILE, RecordFormat.COLUMNAR)) {
+            ObjectNodeWriter.StreamFactory writer = new ObjectNodeWriter.StreamFactory(formats, format, Charsets.UTF_8, Codecs.GZIP);
+            MinuteBucket.CompressedBucket compressed = MinuteBucket.CompressedBucket.build(nodes, reader, writer);
+            assertEquals(format.toString(), ImmutableList.of(nodes.get(0), nodes.get(3), nodes.get(7)), ImmutableList.copyOf(compressed.iterator(null, positions)));
+        }
+    }
+}
@@ -23,6 +23,10 @@ public class AbstractThreadsafeMetricCacheRequestTest {
             @Override
             public void read(String bucketName, Interval interval) {
                 
+            }
+            @Override
+            public void readNewest(String bucketName, Interval interval, int limit) {
+                
             }
         };
     }
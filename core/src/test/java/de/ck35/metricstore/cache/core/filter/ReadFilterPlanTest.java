@@ -0,0 +1,127 @@
+package de.ck35.metricstore.cache.core.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+
+import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.StoredMetricCallable;
+import de.ck35.metricstore.cache.core.buckets.ImmutableStoredMetric;
+import de.ck35.metricstore.nonpersistent.ImmutableMetricBucket;
+import de.ck35.metricstore.util.JsonNodeExtractor;
+
+public class ReadFilterPlanTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, CountingExtractor> extractors = new HashMap<>();
+    private AbstractThreadsafeMetricCacheRequest cacheRequest;
+
+    @Before
+    public void before() {
+        this.cacheRequest = new AbstractThreadsafeMetricCacheRequest() {
+            @Override
+            public void read(String bucketName, Interval interval) {
+
+            }
+            @Override
+            public void readNewest(String bucketName, Interval interval, int limit) {
+
+            }
+            @Override
+            public Function<ObjectNode, JsonNode> apply(String input) {
+                CountingExtractor extractor = extractors.get(input);
+                if(extractor == null) {
+                    extractor = new CountingExtractor(input);
+                    extractors.put(input, extractor);
+                }
+                return extractor;
+            }
+        };
+    }
+
+    private StoredMetric metric(ObjectNode node) {
+        return new ImmutableStoredMetric(new ImmutableMetricBucket("bucket", "type"), new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC), node);
+    }
+
+    @Test
+    public void testEvaluateEveryFieldOncePerNode() {
+        CollectingCallable hosts = new CollectingCallable();
+        CollectingCallable errors = new CollectingCallable();
+        CollectingCallable untagged = new CollectingCallable();
+        cacheRequest.builder(hosts).andFieldIsPresent("host").andValueMatches("host", "web-.*").build();
+        cacheRequest.builder(errors).andFieldIsPresent("host").andValueMatches("status", "5..").build();
+        cacheRequest.builder(untagged).andFieldIsNotPresent("tags.env").andValueMatches("status", "200").build();
+        ReadFilterPlan plan = new ReadFilterPlan(ImmutableList.copyOf(cacheRequest.filters));
+        assertEquals(3, plan.getFilterCount());
+        assertEquals(3, plan.getSlotCount());
+
+        StoredMetric ok = metric(mapper.createObjectNode().put("host", "web-1").put("status", 200));
+        StoredMetric error = metric(mapper.createObjectNode().put("host", "web-2").put("status", 503));
+        StoredMetric other = metric(mapper.createObjectNode().put("host", "db-1").put("status", 200));
+        other.getObjectNode().putObject("tags").put("env", "prod");
+        assertTrue(plan.call(ok));
+        assertTrue(plan.call(error));
+        assertFalse(plan.call(other));
+
+        assertEquals(ImmutableList.of(ok, error), hosts.metrics);
+        assertEquals(ImmutableList.of(error), errors.metrics);
+        assertEquals(ImmutableList.of(ok), untagged.metrics);
+        assertEquals(3, extractors.get("host").count);
+        assertEquals(3, extractors.get("status").count);
+        assertEquals(3, extractors.get("tags.env").count);
+    }
+
+    @Test
+    public void testSkipFieldsOfFailedConditions() {
+        CollectingCallable callable = new CollectingCallable();
+        cacheRequest.builder(callable).andFieldIsPresent("host").andValueMatches("status", "200").build();
+        ReadFilterPlan plan = new ReadFilterPlan(ImmutableList.copyOf(cacheRequest.filters));
+
+        assertFalse(plan.call(metric(mapper.createObjectNode().put("status", 200))));
+        assertEquals(1, extractors.get("host").count);
+        assertEquals(0, extractors.get("status").count);
+        assertTrue(callable.metrics.isEmpty());
+    }
+
+    private static class CountingExtractor implements Function<ObjectNode, JsonNode> {
+
+        private final Function<ObjectNode, JsonNode> extractor;
+        private int count;
+
+        public CountingExtractor(String path) {
+            this.extractor = JsonNodeExtractor.forPath(path);
+        }
+        @Override
+        public JsonNode apply(ObjectNode input) {
+            count++;
+            return extractor.apply(input);
+        }
+    }
+
+    private static class CollectingCallable implements StoredMetricCallable {
+
+        private final List<StoredMetric> metrics = new ArrayList<>();
+
+        @Override
+        public void call(StoredMetric node) {
+            metrics.add(node);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
@@ -11,6 +12,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -30,6 +32,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
 
 import de.ck35.metricstore.MetricBucket;
 import de.ck35.metricstore.MetricRepository;
@@ -127,6 +130,30 @@ public class ConfigurationTest {
         assertStoredMetricEquals(storedMetric, captor.getValue());
     }
     
+    @Test
+    public void testWriteAllIntoNewBucket() {
+        JsonNodeFactory nodeFactory = mapper.getNodeFactory();
+        ObjectNode node1 = nodeFactory.objectNode();
+        node1.put(TimestampFunction.DEFAULT_TIMESTAMP_FILED_NAME, TIMESTAMP.toString());
+        node1.put("a", "a1");
+        ObjectNode node2 = nodeFactory.objectNode();
+        node2.put(TimestampFunction.DEFAULT_TIMESTAMP_FILED_NAME, TIMESTAMP.plusMinutes(1).toString());
+        node2.put("a", "a2");
+        
+        String newBucketName = "NewBatchBucket";
+        String newBucketType = "NewBatchBucketType";
+        List<StoredMetric> storedMetrics = ImmutableList.copyOf(metricRepository.writeAll(newBucketName, newBucketType, ImmutableList.of(node1, node2)));
+        assertEquals(2, storedMetrics.size());
+        assertBucketsContains(newBucketName, newBucketType, metricRepository.listBuckets());
+        
+        StoredMetricCallable callable = mock(StoredMetricCallable.class);
+        metricRepository.read(newBucketName, new Interval(TIMESTAMP, Period.minutes(2)), callable);
+        ArgumentCaptor<StoredMetric> captor = ArgumentCaptor.forClass(StoredMetric.class);
+        verify(callable, times(2)).call(captor.capture());
+        assertStoredMetricEquals(storedMetrics.get(0), captor.getAllValues().get(0));
+        assertStoredMetricEquals(storedMetrics.get(1), captor.getAllValues().get(1));
+    }
+    
     public static void assertStoredMetricEquals(StoredMetric expected, StoredMetric actual) {
         assertNotNull(expected);
         assertNotNull(expected.getMetricBucket());
@@ -0,0 +1,275 @@
+package de.ck35.metricstore.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Suppliers;
+
+import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.fs.BucketCommand.ListBucketsCommand;
+import de.ck35.metricstore.fs.BucketCommand.ReadCommand;
+import de.ck35.metricstore.fs.BucketCommand.WriteCommand;
+import de.ck35.metricstore.fs.BucketCommandProcessor.Context;
+import de.ck35.metricstore.util.Setting;
+import de.ck35.metricstore.util.TimestampFunction;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+
+public class BucketJournalTest {
+
+    private static final String BUCKET_NAME = "TestBucket";
+    private static final String BUCKET_TYPE = "TestBucketType";
+    private static final DateTime START = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    private Path workdir;
+    private ObjectMapper mapper;
+    private BucketJournals journals;
+
+    @Before
+    public void before() throws IOException {
+        workdir = Files.createTempDirectory("BucketJournalTest");
+        mapper = ObjectMapperConfiguration.objectMapper();
+        journals = new BucketJournals(mapper, Suppliers.ofInstance(60_000), Suppliers.ofInstance(1), Suppliers.ofInstance(Long.MAX_VALUE));
+    }
+
+    @After
+    public void after() throws IOException {
+        WritableFilesystemBucket.clearDirectory(workdir);
+        Files.delete(workdir);
+    }
+
+    @Test
+    public void testReplayAfterCrash() {
+        BucketCommandProcessor processor = processor();
+        Context context = new Context();
+        processor.init(context);
+        for(int i=0 ; i<100 ; i++) {
+            write(processor, context, i);
+        }
+        assertEquals(100, journals.getTotalAppendedNodes());
+        assertTrue(journals.getTotalSyncs() > 0);
+        // crash: neither the buffered writers nor the journal are closed
+
+        Context recovered = new Context();
+        processor().init(recovered);
+        assertEquals(100, journals.getTotalReplayedNodes());
+        assertEquals(2, journals.getTotalCheckpoints());
+        assertEquals(100, read(processor, recovered).size());
+    }
+
+    @Test
+    public void testReplayTruncatesMinuteFiles() throws IOException {
+        BucketCommandProcessor processor = processor();
+        Context context = new Context();
+        processor.init(context);
+        write(processor, context, 0);
+        processor.close(context);
+        context = new Context();
+        processor.init(context);
+        write(processor, context, 1);
+        write(processor, context, 2);
+        // crash: neither the buffered writers nor the journal are closed
+
+        Path minuteFile = new PathFinder(START, workdir.resolve(BUCKET_NAME)).getMinuteFilePath();
+        Files.write(minuteFile, new byte[]{0x1f, (byte) 0x8b, 0x08}, StandardOpenOption.APPEND);
+
+        Context recovered = new Context();
+        processor.init(recovered);
+        assertEquals(2, journals.getTotalReplayedNodes());
+        List<StoredMetric> result = read(processor, recovered);
+        assertEquals(3, result.size());
+        for(int i=0 ; i<3 ; i++) {
+            assertEquals(i, result.get(i).getObjectNode().get("index").asInt());
+        }
+    }
+
+    @Test
+    public void testSyncBeforeMinuteFileIsFlushed() {
+        Setting<Integer> syncBytes = new Setting<>(1);
+        journals = new BucketJournals(mapper, Suppliers.ofInstance(60_000), syncBytes, Suppliers.ofInstance(Long.MAX_VALUE));
+        BucketCommandProcessor processor = processor(1);
+        Context context = new Context();
+        processor.init(context);
+        write(processor, context, 0);
+        syncBytes.set(1024 * 1024);
+        long syncs = journals.getTotalSyncs();
+        for(int i=1 ; i<10 ; i++) {
+            write(processor, context, i);
+        }
+        assertEquals(syncs, journals.getTotalSyncs());
+        write(processor, context, START.plusMinutes(1), 10);
+        assertEquals(syncs + 1, journals.getTotalSyncs());
+        // crash: the writer of the first minute has been closed, the journal has not been synced since
+
+        Context recovered = new Context();
+        processor.init(recovered);
+        assertEquals(10, read(processor, recovered).size());
+    }
+
+    @Test
+    public void testReplayOrphanedJournal() {
+        BucketCommandProcessor processor = processor().shard(1, 2);
+        Context context = new Context();
+        processor.init(context);
+        for(int i=0 ; i<10 ; i++) {
+            write(processor, context, i);
+        }
+        // crash: neither the buffered writers nor the journal are closed, the number of shards is lowered afterwards
+
+        Path orphan = workdir.resolve(BucketJournals.JOURNAL_FILE_PREFIX + 1 + BucketJournals.JOURNAL_FILE_SUFFIX);
+        assertTrue(Files.exists(orphan));
+        Context recovered = new Context();
+        processor().init(recovered);
+        assertFalse(Files.exists(orphan));
+        assertEquals(10, journals.getTotalReplayedNodes());
+        assertEquals(10, read(processor(), recovered).size());
+    }
+
+    @Test
+    public void testReplayKeepsBucketsOfOtherShardsOut() {
+        BucketCommandProcessor processor = processor();
+        Context context = new Context();
+        processor.init(context);
+        List<String> names = new ArrayList<>();
+        for(int i=0 ; i<10 ; i++) {
+            names.add(BUCKET_NAME + i);
+            write(processor, context, BUCKET_NAME + i, START, i);
+        }
+        // crash: neither the buffered writers nor the journal are closed, the number of shards is raised afterwards
+
+        List<String> listed = new ArrayList<>();
+        for(int shard=0 ; shard<2 ; shard++) {
+            BucketCommandProcessor shardProcessor = processor.shard(shard, 2);
+            Context shardContext = new Context();
+            shardProcessor.init(shardContext);
+            ListBucketsCommand command = new ListBucketsCommand();
+            shardProcessor.runCommand(command, shardContext);
+            for(MetricBucket bucket : command.getResult()) {
+                assertEquals(shard, BucketCommandProcessor.shard(bucket.getName(), 2));
+                listed.add(bucket.getName());
+            }
+        }
+        Collections.sort(listed);
+        assertEquals(names, listed);
+        assertEquals(10, journals.getTotalReplayedNodes());
+    }
+
+    @Test
+    public void testIgnoreTornRecord() throws IOException {
+        BucketCommandProcessor processor = processor();
+        Context context = new Context();
+        processor.init(context);
+        write(processor, context, 0);
+        write(processor, context, 1);
+        // crash: neither the buffered writers nor the journal are closed
+
+        Path journalFile = workdir.resolve(BucketJournals.JOURNAL_FILE_PREFIX + 0 + BucketJournals.JOURNAL_FILE_SUFFIX);
+        try(FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+            channel.write(ByteBuffer.wrap("{".getBytes(Charsets.UTF_8)), channel.size());
+        }
+        Context recovered = new Context();
+        processor.init(recovered);
+        assertEquals(1, journals.getTotalReplayedNodes());
+        assertEquals(1, read(processor, recovered).size());
+    }
+
+    @Test
+    public void testCloseTruncatesJournal() throws IOException {
+        BucketCommandProcessor processor = processor();
+        Context context = new Context();
+        processor.init(context);
+        write(processor, context, 0);
+        processor.close(context);
+        Path journalFile = workdir.resolve(BucketJournals.JOURNAL_FILE_PREFIX + 0 + BucketJournals.JOURNAL_FILE_SUFFIX);
+        assertEquals(0, Files.size(journalFile));
+        assertEquals(0, journals.getOpenJournals());
+
+        Context reopened = new Context();
+        processor.init(reopened);
+        assertEquals(0, journals.getTotalReplayedNodes());
+        assertEquals(1, read(processor, reopened).size());
+    }
+
+    @Test
+    public void testCheckpointWhenJournalIsFull() throws IOException {
+        journals = new BucketJournals(mapper, Suppliers.ofInstance(60_000), Suppliers.ofInstance(1024 * 1024), Suppliers.ofInstance(1024L));
+        BucketCommandProcessor processor = processor();
+        Context context = new Context();
+        processor.init(context);
+        for(int i=0 ; i<100 ; i++) {
+            write(processor, context, i);
+        }
+        assertTrue(journals.getTotalCheckpoints() > 1);
+        Path journalFile = workdir.resolve(BucketJournals.JOURNAL_FILE_PREFIX + 0 + BucketJournals.JOURNAL_FILE_SUFFIX);
+        assertTrue(Files.size(journalFile) < 1024);
+        processor.close(context);
+        assertFalse(read(processor, new Context()).isEmpty());
+    }
+
+    private BucketCommandProcessor processor() {
+        return processor(5);
+    }
+
+    private BucketCommandProcessor processor(int maxCachedWriters) {
+        WritableFilesystemBucketFactory factory = new WritableFilesystemBucketFactory(new TimestampFunction(),
+                                                                                      new ObjectNodeWriter.PathFactory(mapper.getFactory(), Charsets.UTF_8),
+                                                                                      new ObjectNodeReader.PathFactory(mapper, Charsets.UTF_8),
+                                                                                      Suppliers.ofInstance(maxCachedWriters));
+        return new BucketCommandProcessor(workdir, factory, journals, 0, 1);
+    }
+
+    private void write(BucketCommandProcessor processor, Context context, int index) {
+        write(processor, context, START.plusSeconds(index % 60), index);
+    }
+
+    private void write(BucketCommandProcessor processor, Context context, DateTime timestamp, int index) {
+        write(processor, context, BUCKET_NAME, timestamp, index);
+    }
+
+    private void write(BucketCommandProcessor processor, Context context, String bucketName, DateTime timestamp, int index) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put(TimestampFunction.DEFAULT_TIMESTAMP_FILED_NAME, timestamp.toString());
+        node.put("index", index);
+        processor.runCommand(new WriteCommand(bucketName, BUCKET_TYPE, node), context);
+    }
+
+    private List<StoredMetric> read(BucketCommandProcessor processor, Context context) {
+        final List<StoredMetric> result = new ArrayList<>();
+        if(context.getBuckets().isEmpty()) {
+            processor.init(context);
+        }
+        processor.runCommand(new ReadCommand(BUCKET_NAME, new Interval(START, START.plusMinutes(1)), new Predicate<StoredMetric>() {
+            @Override
+            public boolean apply(StoredMetric input) {
+                result.add(input);
+                return true;
+            }
+        }), context);
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+package de.ck35.metricstore.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+
+import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.util.LRUCache;
+import de.ck35.metricstore.util.TimestampFunction;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+
+public class BucketManifestTest {
+
+    private static final DateTime FIRST = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+    private static final DateTime SECOND = new DateTime(2015, 3, 10, 12, 34, DateTimeZone.UTC);
+    private static final DateTime THIRD = new DateTime(2016, 6, 1, 23, 59, DateTimeZone.UTC);
+
+    private Path workdir;
+    private ObjectMapper mapper;
+    private WritableFilesystemBucket bucket;
+
+    @Before
+    public void before() throws IOException {
+        workdir = Files.createTempDirectory("BucketManifestTest");
+        mapper = ObjectMapperConfiguration.objectMapper();
+        bucket = new WritableFilesystemBucket(new BucketData(workdir, "TestBucket", "TestBucketType"),
+                                              new TimestampFunction(),
+                                              new ObjectNodeWriter.PathFactory(mapper.getFactory(), Charsets.UTF_8),
+                                              new ObjectNodeReader.PathFactory(mapper, Charsets.UTF_8),
+                                              new LRUCache<Path, ObjectNodeWriter>(5));
+    }
+
+    @After
+    public void after() throws IOException {
+        bucket.close();
+        WritableFilesystemBucket.clearDirectory(workdir);
+        Files.delete(workdir);
+    }
+
+    @Test
+    public void testReadSparseBucket() throws InterruptedException {
+        bucket.write(node(FIRST, 1));
+        bucket.write(node(SECOND, 2));
+        bucket.write(node(THIRD, 3));
+        bucket.compressAll(new LocalDate(2015, 2, 1));
+        assertEquals(-1, bucket.getManifest().size());
+
+        assertEquals(3, read(new Interval(FIRST.minusMonths(1), THIRD.plusMonths(1))).size());
+        assertEquals(3, bucket.getManifest().size());
+        List<Integer> result = read(new Interval(FIRST.plusMinutes(1), THIRD));
+        assertEquals(1, result.size());
+        assertEquals(2, result.get(0).intValue());
+    }
+
+    @Test
+    public void testManifestFollowsWriteCompressExpandAndDelete() throws InterruptedException {
+        Interval all = new Interval(FIRST, FIRST.plusDays(1));
+        bucket.write(node(FIRST, 1));
+        assertEquals(1, read(all).size());
+
+        bucket.write(node(FIRST.plusMinutes(10), 2));
+        assertEquals(2, read(all).size());
+
+        bucket.compressAll(FIRST.plusDays(1).toLocalDate());
+        assertTrue(bucket.getManifest().days(FIRST.toLocalDate(), FIRST.toLocalDate()).firstEntry().getValue().hasDayFile());
+        assertEquals(2, read(all).size());
+
+        bucket.write(node(FIRST.plusMinutes(5), 3));
+        assertFalse(bucket.getManifest().days(FIRST.toLocalDate(), FIRST.toLocalDate()).firstEntry().getValue().hasDayFile());
+        List<Integer> result = read(all);
+        assertEquals(3, result.size());
+        assertEquals(3, result.get(1).intValue());
+
+        bucket.deletAll(FIRST.plusDays(1).toLocalDate());
+        assertEquals(0, bucket.getManifest().size());
+        assertTrue(read(all).isEmpty());
+    }
+
+    private List<Integer> read(Interval interval) throws InterruptedException {
+        final List<Integer> result = new ArrayList<>();
+        bucket.read(interval, new Predicate<StoredMetric>() {
+            @Override
+            public boolean apply(StoredMetric input) {
+                result.add(input.getObjectNode().get("index").asInt());
+                return true;
+            }
+        });
+        return result;
+    }
+
+    private ObjectNode node(DateTime timestamp, int index) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put(TimestampFunction.DEFAULT_TIMESTAMP_FILED_NAME, timestamp.toString());
+        node.put("index", index);
+        return node;
+    }
+}
@@ -0,0 +1,294 @@
+package de.ck35.metricstore.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Functions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
+
+import de.ck35.metricstore.MetricAggregation;
+import de.ck35.metricstore.MetricAggregation.Resolution;
+import de.ck35.metricstore.MetricStatistics;
+import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.util.LRUCache;
+import de.ck35.metricstore.util.TimestampFunction;
+import de.ck35.metricstore.util.io.Codec;
+import de.ck35.metricstore.util.io.Codecs;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+import de.ck35.metricstore.util.io.RecordFormats;
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
+
+public class DayFileFormatTest {
+
+    private static final DateTime START = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+    
+    private Path workdir;
+    private ObjectMapper mapper;
+    private RecordFormats formats;
+    private BucketData bucketData;
+    
+    @Before
+    public void before() throws IOException {
+        workdir = Files.createTempDirectory("DayFileFormatTest");
+        mapper = ObjectMapperConfiguration.objectMapper();
+        formats = new RecordFormats(mapper);
+        bucketData = BucketData.create(workdir, "TestBucket", "TestBucketType");
+    }
+    
+    @After
+    public void after() throws IOException {
+        WritableFilesystemBucket.clearDirectory(workdir);
+        Files.delete(workdir);
+    }
+    
+    @Test
+    public void testCompressConvertsMinuteFiles() throws IOException, InterruptedException {
+        try(WritableFilesystemBucket bucket = bucket(RecordFormat.TEXT, RecordFormat.SMILE, Codecs.GZIP, false)) {
+            write(bucket, 0, 10);
+        }
+        try(WritableFilesystemBucket bucket = bucket(RecordFormat.SMILE, RecordFormat.SMILE, Codecs.GZIP, false)) {
+            write(bucket, 10, 20);
+            bucket.compress(pathFinder());
+            assertSame(RecordFormat.SMILE, RecordFormats.detect(pathFinder().getDayFilePath(), Codecs.defaults()));
+            assertFalse(Files.exists(pathFinder().getDayDirectoryPath()));
+            assertEquals(20, read(bucket).size());
+        }
+    }
+    
+    @Test
+    public void testMigrateDayFile() throws IOException, InterruptedException {
+        try(WritableFilesystemBucket bucket = bucket(RecordFormat.TEXT, RecordFormat.TEXT, Codecs.GZIP, false)) {
+            write(bucket, 0, 10);
+            bucket.compress(pathFinder());
+        }
+        assertSame(RecordFormat.TEXT, RecordFormats.detect(pathFinder().getDayFilePath(), Codecs.defaults()));
+        try(WritableFilesystemBucket bucket = bucket(RecordFormat.SMILE, RecordFormat.SMILE, Codecs.LZ4, false)) {
+            bucket.compress(pathFinder());
+        }
+        assertSame(RecordFormat.TEXT, RecordFormats.detect(pathFinder().getDayFilePath(), Codecs.defaults()));
+        try(WritableFilesystemBucket bucket = bucket(RecordFormat.SMILE, RecordFormat.SMILE, Codecs.LZ4, true)) {
+            bucket.compressAll(START.toLocalDate().plusDays(1));
+            assertSame(RecordFormat.SMILE, RecordFormats.detect(pathFinder().getDayFilePath(), Codecs.defaults()));
+            assertSame(Codecs.LZ4, Codecs.defaults().detect(pathFinder().getDayFilePath()));
+            Set<Integer> indices = new HashSet<>();
+            for(StoredMetric metric : read(bucket)) {
+                indices.add(metric.getObjectNode().get("index").asInt());
+            }
+            assertEquals(ContiguousSet.create(Range.closedOpen(0, 10), DiscreteDomain.integers()), indices);
+        }
+    }
+    
+    @Test
+    public void testCompressIntoColumnarDayFile() throws IOException, InterruptedException {
+        try(WritableFilesystemBucket bucket = bucket(RecordFormat.SMILE, RecordFormat.COLUMNAR, Codecs.LZ4, false)) {
+            write(bucket, 0, 20);
+            bucket.compress(pathFinder());
+            assertSame(RecordFormat.COLUMNAR, RecordFormats.detect(pathFinder().getDayFilePath(), Codecs.defaults()));
+            List<StoredMetric> result = read(bucket);
+            assertEquals(20, result.size());
+            for(StoredMetric metric : result) {
+                assertEquals(2, metric.getObjectNode().size());
+            }
+            
+            final List<StoredMetric> projected = new ArrayList<>();
+            bucket.read(new Interval(START, START.plusDays(1)), ImmutableSet.of(TimestampFunction.DEFAULT_TIMESTAMP_FILED_NAME), new Predicate<StoredMetric>() {
+                @Override
+                public boolean apply(StoredMetric input) {
+                    projected.add(input);
+                    return true;
+                }
+            });
+            assertEquals(20, projected.size());
+            for(StoredMetric metric : projected) {
+                assertEquals(1, metric.getObjectNode().size());
+            }
+            
+            write(bucket, 20, 21);
+            assertFalse(Files.exists(pathFinder().getDayFilePath()));
+            assertEquals(21, read(bucket).size());
+        }
+    }
+    
+    @Test
+    public void testSeekToFirstMinuteOfInterval() throws IOException, InterruptedException {
+        for(RecordFormat format : RecordFormat.values()) {
+            try(WritableFilesystemBucket bucket = bucket(RecordFormat.TEXT, format, Codecs.GZIP, false)) {
+                write(bucket, 0, 30);
+                bucket.compress(pathFinder());
+                DayFileIndex index = DayFileIndex.read(pathFinder().getDayIndexFilePath(), pathFinder().getDayFilePath());
+                assertEquals(3, index.size());
+                assertEquals(0, index.offset(0));
+                assertEquals(-1, index.offset(3));
+                
+                assertEquals(10, read(bucket, new Interval(START.plusMinutes(2), START.plusMinutes(3))).size());
+                assertEquals(20, read(bucket, new Interval(START.plusMinutes(1), START.plusDays(1))).size());
+                assertEquals(0, read(bucket, new Interval(START.plusMinutes(3), START.plusDays(1))).size());
+                assertEquals(30, read(bucket).size());
+                bucket.delete(pathFinder());
+                assertFalse(Files.exists(pathFinder().getDayIndexFilePath()));
+            }
+        }
+    }
+    
+    @Test
+    public void testReadDayFileWithoutValidIndex() throws IOException, InterruptedException {
+        try(WritableFilesystemBucket bucket = bucket(RecordFormat.TEXT, RecordFormat.TEXT, Codecs.GZIP, false)) {
+            write(bucket, 0, 30);
+            bucket.compress(pathFinder());
+            Files.write(pathFinder().getDayIndexFilePath(), new byte[]{1, 2, 3});
+            assertEquals(10, read(bucket, new Interval(START.plusMinutes(2), START.plusMinutes(3))).size());
+            Files.delete(pathFinder().getDayIndexFilePath());
+            assertEquals(10, read(bucket, new Interval(START.plusMinutes(2), START.plusMinutes(3))).size());
+        }
+        try(WritableFilesystemBucket bucket = bucket(RecordFormat.TEXT, RecordFormat.TEXT, Codecs.GZIP, true)) {
+            bucket.compress(pathFinder());
+            assertEquals(3, DayFileIndex.read(pathFinder().getDayIndexFilePath(), pathFinder().getDayFilePath()).size());
+            assertEquals(10, read(bucket, new Interval(START.plusMinutes(2), START.plusMinutes(3))).size());
+        }
+    }
+    
+    @Test
+    public void testReadNewest() throws IOException, InterruptedException {
+        try(WritableFilesystemBucket bucket = bucket(RecordFormat.TEXT, RecordFormat.TEXT, Codecs.GZIP, false)) {
+            write(bucket, 0, 30);
+            ReadableFilesystemBucket scanning = new ReadableFilesystemBucket(bucketData, new TimestampFunction(), new ObjectNodeReader.PathFactory(formats, Charsets.UTF_8, Codecs.defaults()));
+            for(int step = 0 ; step < 3 ; step++) {
+                if(step == 1) {
+                    bucket.compress(pathFinder());
+                } else if(step == 2) {
+                    Files.delete(pathFinder().getDayIndexFilePath());
+                }
+                for(ReadableFilesystemBucket next : ImmutableList.of(bucket, scanning)) {
+                    assertEquals(ImmutableList.of(29, 26, 23, 20), readNewest(next, new Interval(START, START.plusDays(1)), 4));
+                    assertEquals(ImmutableList.of(29, 26, 23, 20, 17, 14, 11, 8, 5, 2, 28, 25), readNewest(next, new Interval(START, START.plusDays(1)), 12));
+                    assertEquals(ImmutableList.of(28, 25, 22), readNewest(next, new Interval(START.plusMinutes(1), START.plusMinutes(2)), 3));
+                    assertEquals(30, readNewest(next, new Interval(START.minusDays(1), START.plusDays(2)), 100).size());
+                    assertEquals(0, readNewest(next, new Interval(START.plusMinutes(3), START.plusDays(1)), 100).size());
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testAggregateFromRollup() throws IOException, InterruptedException {
+        try(WritableFilesystemBucket bucket = bucket(RecordFormat.TEXT, RecordFormat.SMILE, Codecs.GZIP, false, ImmutableList.of("index"))) {
+            write(bucket, 0, 30);
+            bucket.compress(pathFinder());
+            assertTrue(Files.isRegularFile(pathFinder().getDayRollupFilePath()));
+            
+            NavigableMap<DateTime, MetricStatistics> result = new TreeMap<>();
+            assertTrue(bucket.aggregate(new Interval(START, START.plusDays(1)), null, new MetricAggregation("index", Resolution.HOUR), result));
+            assertEquals(1, result.size());
+            assertEquals(30, result.get(START).getCount());
+            assertEquals(435, result.get(START).getSum(), 0d);
+            assertEquals(0, result.get(START).getMin(), 0d);
+            assertEquals(29, result.get(START).getMax(), 0d);
+            
+            result.clear();
+            assertTrue(bucket.aggregate(new Interval(START.plusMinutes(1), START.plusMinutes(2)), null, new MetricAggregation(null, Resolution.MINUTE), result));
+            assertEquals(1, result.size());
+            assertEquals(10, result.get(START.plusMinutes(1)).getCount());
+            
+            result.clear();
+            assertFalse(bucket.aggregate(new Interval(START, START.plusDays(1)), null, new MetricAggregation("other", Resolution.DAY), result));
+            assertEquals(30, result.get(START).getCount());
+            assertEquals(0, result.get(START).getValueCount());
+            
+            write(bucket, 30, 31);
+            assertFalse(Files.exists(pathFinder().getDayRollupFilePath()));
+            bucket.compress(pathFinder());
+            result.clear();
+            assertTrue(bucket.aggregate(new Interval(START, START.plusDays(1)), null, new MetricAggregation("index", Resolution.DAY), result));
+            assertEquals(31, result.get(START).getCount());
+            assertEquals(465, result.get(START).getSum(), 0d);
+        }
+    }
+    
+    private WritableFilesystemBucket bucket(RecordFormat minuteFormat, RecordFormat dayFormat, Codec dayCodec, boolean migrate) {
+        return bucket(minuteFormat, dayFormat, dayCodec, migrate, null);
+    }
+    
+    private WritableFilesystemBucket bucket(RecordFormat minuteFormat, RecordFormat dayFormat, Codec dayCodec, boolean migrate, List<String> rollupFields) {
+        return new WritableFilesystemBucket(bucketData, 
+                                            new TimestampFunction(), 
+                                            new ObjectNodeWriter.PathFactory(formats, minuteFormat, Charsets.UTF_8, Codecs.GZIP, Codecs.defaults()), 
+                                            new ObjectNodeReader.PathFactory(formats, Charsets.UTF_8, Codecs.defaults()), 
+                                            new LRUCache<Path, ObjectNodeWriter>(5), 
+                                            DayFileSettings.builder()
+                                                           .codec(dayCodec)
+                                                           .format(formats, dayFormat)
+                                                           .migrate(migrate)
+                                                           .rollupFields(Functions.constant(rollupFields))
+                                                           .build());
+    }
+    
+    private PathFinder pathFinder() {
+        return new PathFinder(START.toLocalDate(), bucketData.getBasePath());
+    }
+    
+    private void write(WritableFilesystemBucket bucket, int from, int to) {
+        for(int i=from ; i<to ; i++) {
+            ObjectNode node = mapper.createObjectNode();
+            node.put(TimestampFunction.DEFAULT_TIMESTAMP_FILED_NAME, START.plusMinutes(i % 3).plusSeconds(i).toString());
+            node.put("index", i);
+            bucket.write(node);
+        }
+    }
+    
+    private List<StoredMetric> read(WritableFilesystemBucket bucket) throws InterruptedException {
+        return read(bucket, new Interval(START, START.plusDays(1)));
+    }
+    
+    private List<Integer> readNewest(ReadableFilesystemBucket bucket, Interval interval, int limit) throws InterruptedException {
+        final List<Integer> result = new ArrayList<>();
+        bucket.readNewest(interval, null, null, limit, new Predicate<StoredMetric>() {
+            @Override
+            public boolean apply(StoredMetric input) {
+                result.add(input.getObjectNode().get("index").asInt());
+                return true;
+            }
+        });
+        return result;
+    }
+    
+    private List<StoredMetric> read(WritableFilesystemBucket bucket, Interval interval) throws InterruptedException {
+        final List<StoredMetric> result = new ArrayList<>();
+        bucket.read(interval, new Predicate<StoredMetric>() {
+            @Override
+            public boolean apply(StoredMetric input) {
+                result.add(input);
+                return true;
+            }
+        });
+        return result;
+    }
+}
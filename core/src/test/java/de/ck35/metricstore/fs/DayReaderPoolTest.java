@@ -0,0 +1,103 @@
+package de.ck35.metricstore.fs;
+
+import static de.ck35.metricstore.fs.FilesystemMetricRepositoryFixture.BUCKET_NAME;
+import static de.ck35.metricstore.fs.FilesystemMetricRepositoryFixture.DAYS;
+import static de.ck35.metricstore.fs.FilesystemMetricRepositoryFixture.NODES_PER_DAY;
+import static de.ck35.metricstore.fs.FilesystemMetricRepositoryFixture.START;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.Interval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Suppliers;
+
+import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.StoredMetricCallable;
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.fs.DayReaderPool.DayRead;
+import de.ck35.metricstore.util.TimestampFunction;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
+
+public class DayReaderPoolTest {
+
+    private FilesystemMetricRepositoryFixture fixture;
+    private DayReaderPool pool;
+    private FilesystemMetricRepository repository;
+
+    @Before
+    public void before() throws IOException {
+        fixture = new FilesystemMetricRepositoryFixture();
+        pool = fixture.getPool();
+        repository = fixture.getRepository();
+    }
+
+    @After
+    public void after() throws IOException {
+        fixture.close();
+    }
+
+    @Test
+    public void testReadImmutableDaysOnPool() {
+        final List<Integer> indices = new ArrayList<>();
+        repository.read(BUCKET_NAME, new Interval(START, START.plusDays(DAYS)), new StoredMetricCallable() {
+            @Override
+            public void call(StoredMetric node) {
+                indices.add(node.getObjectNode().get("index").asInt());
+            }
+        });
+        assertEquals(DAYS * NODES_PER_DAY, indices.size());
+        for(int i=0 ; i<indices.size() ; i++) {
+            assertEquals(i, indices.get(i).intValue());
+        }
+        assertEquals(DAYS - 1, pool.getTotalSubmittedDays());
+        assertEquals(1, fixture.getReadCommands());
+        assertEquals(0, pool.getTotalFailedDays());
+    }
+
+    @Test
+    public void testStopReadingWhenCallableFails() throws InterruptedException {
+        try {
+            repository.read(BUCKET_NAME, new Interval(START, START.plusDays(DAYS)), new StoredMetricCallable() {
+                @Override
+                public void call(StoredMetric node) {
+                    throw new IllegalStateException("Stop");
+                }
+            });
+            fail();
+        } catch(IllegalStateException e) {
+            assertEquals("Stop", e.getMessage());
+        }
+        for(int i=0 ; i<100 && pool.getActiveReads() > 0 ; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getActiveReads());
+        assertTrue(pool.getTotalSubmittedDays() <= 3);
+    }
+
+    @Test
+    public void testLeaveAllDaysToCommandProcessorWithoutThreads() {
+        DayReaderPool noThreads = new DayReaderPool(fixture.getWorkdir(),
+                                                    new TimestampFunction(),
+                                                    new ObjectNodeReader.PathFactory(ObjectMapperConfiguration.objectMapper(), Charsets.UTF_8),
+                                                    0,
+                                                    Suppliers.ofInstance(2),
+                                                    new StoredMetricReadCache.Factory(Suppliers.ofInstance(10)));
+        try(DayRead read = pool.submit(BUCKET_NAME, new Interval(START, START.plusDays(1)), null, null)) {
+            assertNotNull(read);
+        }
+        assertNull(noThreads.submit(BUCKET_NAME, new Interval(START, START.plusDays(1)), null, null));
+        assertEquals(0, noThreads.getTotalSubmittedDays());
+        noThreads.close();
+    }
+}
@@ -0,0 +1,101 @@
+package de.ck35.metricstore.fs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Suppliers;
+
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.fs.BucketCommand.CompressCommand;
+import de.ck35.metricstore.fs.BucketCommand.ReadCommand;
+import de.ck35.metricstore.fs.BucketCommand.WriteCommand;
+import de.ck35.metricstore.fs.BucketCommandProcessor.Context;
+import de.ck35.metricstore.util.TimestampFunction;
+import de.ck35.metricstore.util.io.ObjectNodeReader;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+
+/**
+ * Shared setup of the tests which read a real bucket through a {@link FilesystemMetricRepository} with a {@link DayReaderPool}.
+ * The bucket contains {@link #NODES_PER_DAY} nodes with an increasing index field on each of {@link #DAYS} days. All days
+ * except the last one are immutable.
+ */
+public class FilesystemMetricRepositoryFixture {
+
+    public static final String BUCKET_NAME = "TestBucket";
+    public static final DateTime START = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+    public static final int DAYS = 5;
+    public static final int NODES_PER_DAY = 100;
+
+    private final Path workdir;
+    private final BucketCommandProcessor processor;
+    private final Context context;
+    private final AtomicInteger readCommands;
+    private final DayReaderPool pool;
+    private final FilesystemMetricRepository repository;
+
+    public FilesystemMetricRepositoryFixture() throws IOException {
+        workdir = Files.createTempDirectory("FilesystemMetricRepositoryFixture");
+        ObjectMapper mapper = ObjectMapperConfiguration.objectMapper();
+        ObjectNodeReader.PathFactory readerFactory = new ObjectNodeReader.PathFactory(mapper, Charsets.UTF_8);
+        WritableFilesystemBucketFactory factory = new WritableFilesystemBucketFactory(new TimestampFunction(),
+                                                                                      new ObjectNodeWriter.PathFactory(mapper.getFactory(), Charsets.UTF_8),
+                                                                                      readerFactory,
+                                                                                      Suppliers.ofInstance(5));
+        processor = new BucketCommandProcessor(workdir, factory);
+        context = new Context();
+        processor.init(context);
+        readCommands = new AtomicInteger();
+        pool = new DayReaderPool(workdir, new TimestampFunction(), readerFactory, 2, Suppliers.ofInstance(2), new StoredMetricReadCache.Factory(Suppliers.ofInstance(10)));
+        repository = new FilesystemMetricRepository(new Predicate<BucketCommand<?>>() {
+            @Override
+            public boolean apply(BucketCommand<?> command) {
+                if(command instanceof ReadCommand) {
+                    readCommands.incrementAndGet();
+                }
+                processor.runCommand(command, context);
+                return true;
+            }
+        }, new StoredMetricReadCache.Factory(Suppliers.ofInstance(1_000)), pool);
+        for(int day=0 ; day<DAYS ; day++) {
+            for(int i=0 ; i<NODES_PER_DAY ; i++) {
+                ObjectNode node = mapper.createObjectNode();
+                node.put(TimestampFunction.DEFAULT_TIMESTAMP_FILED_NAME, START.plusDays(day).plusMinutes(i * 7).toString());
+                node.put("index", day * NODES_PER_DAY + i);
+                processor.runCommand(new WriteCommand(BUCKET_NAME, "TestBucketType", node), context);
+            }
+        }
+        processor.runCommand(new CompressCommand(BUCKET_NAME, START.plusDays(DAYS - 1).toLocalDate()), context);
+    }
+
+    public void close() throws IOException {
+        pool.close();
+        processor.close(context);
+        WritableFilesystemBucket.clearDirectory(workdir);
+        Files.delete(workdir);
+    }
+
+    public Path getWorkdir() {
+        return workdir;
+    }
+    public FilesystemMetricRepository getRepository() {
+        return repository;
+    }
+    public DayReaderPool getPool() {
+        return pool;
+    }
+    /**
+     * @return The number of read commands which have been passed to the command processor.
+     */
+    public int getReadCommands() {
+        return readCommands.get();
+    }
+}
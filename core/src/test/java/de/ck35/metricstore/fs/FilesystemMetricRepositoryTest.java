@@ -1,18 +1,27 @@
 package de.ck35.metricstore.fs;
 
+import static de.ck35.metricstore.fs.FilesystemMetricRepositoryFixture.BUCKET_NAME;
+import static de.ck35.metricstore.fs.FilesystemMetricRepositoryFixture.DAYS;
+import static de.ck35.metricstore.fs.FilesystemMetricRepositoryFixture.NODES_PER_DAY;
+import static de.ck35.metricstore.fs.FilesystemMetricRepositoryFixture.START;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Interval;
 import org.joda.time.Period;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -27,20 +36,30 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 
+import de.ck35.metricstore.MetricAggregation;
+import de.ck35.metricstore.MetricAggregation.Resolution;
 import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.MetricFilter;
+import de.ck35.metricstore.MetricStatistics;
 import de.ck35.metricstore.StoredMetric;
 import de.ck35.metricstore.StoredMetricCallable;
+import de.ck35.metricstore.WriteErrorCallback;
+import de.ck35.metricstore.fs.BucketCommand.AsyncWriteCommand;
 import de.ck35.metricstore.fs.BucketCommand.ListBucketsCommand;
 import de.ck35.metricstore.fs.BucketCommand.ReadCommand;
+import de.ck35.metricstore.fs.BucketCommand.WriteAllCommand;
 import de.ck35.metricstore.fs.BucketCommand.WriteCommand;
 import de.ck35.metricstore.util.MinimumIntSetting;
+import de.ck35.metricstore.util.TimestampFunction;
 import de.ck35.metricstore.util.io.MetricsIOException;
 
 @RunWith(MockitoJUnitRunner.class)
 public class FilesystemMetricRepositoryTest {
 
     private MinimumIntSetting readBufferSizeSetting;
+    private FilesystemMetricRepositoryFixture fixture;
     @Mock Predicate<BucketCommand<?>> commands;
     
     @Before
@@ -48,10 +67,25 @@ public class FilesystemMetricRepositoryTest {
         this.readBufferSizeSetting = new MinimumIntSetting(10_000, 1);
     }
     
+    @After
+    public void after() throws IOException {
+        if(fixture != null) {
+            fixture.close();
+        }
+    }
+    
     public FilesystemMetricRepository filesystemMetricRepository() {
         return new FilesystemMetricRepository(commands, readBufferSizeSetting);
     }
     
+    /**
+     * @return A repository which reads a real bucket, see {@link FilesystemMetricRepositoryFixture}.
+     */
+    public FilesystemMetricRepository writtenRepository() throws IOException {
+        fixture = new FilesystemMetricRepositoryFixture();
+        return fixture.getRepository();
+    }
+    
     @Test
     public void testAppendCommand() throws InterruptedException {
         FilesystemMetricRepository repository = filesystemMetricRepository();
@@ -99,6 +133,96 @@ public class FilesystemMetricRepositoryTest {
         assertEquals(objectNode, writeCommand.getNode());
     }
 
+    @Test
+    public void testWriteAll() throws InterruptedException {
+        List<StoredMetric> expected = ImmutableList.of(mock(StoredMetric.class), mock(StoredMetric.class));
+        BucketCommandAnswer commandAnswer = new BucketCommandAnswer(expected);
+        doAnswer(commandAnswer).when(commands).apply(any(BucketCommand.class));
+        String bucketName = "a";
+        String bucketType = "b";
+        List<ObjectNode> objectNodes = ImmutableList.of(new ObjectMapper().getNodeFactory().objectNode(), 
+                                                        new ObjectMapper().getNodeFactory().objectNode());
+        assertEquals(expected, filesystemMetricRepository().writeAll(bucketName, bucketType, objectNodes));
+        assertTrue(commandAnswer.getCommand().isPresent());
+        BucketCommand<?> bucketCommand = commandAnswer.getCommand().get();
+        assertTrue(bucketCommand instanceof WriteAllCommand);
+        WriteAllCommand writeAllCommand = (WriteAllCommand) bucketCommand;
+        assertEquals(bucketName, writeAllCommand.getBucketName());
+        assertEquals(bucketType, writeAllCommand.getBucketType());
+        assertEquals(objectNodes, writeAllCommand.getNodes());
+    }
+    
+    @Test
+    public void testWriteAllWithFailedCommand() throws InterruptedException {
+        doAnswer(new BucketCommandAnswer(null)).when(commands).apply(any(BucketCommand.class));
+        ObjectNode objectNode = new ObjectMapper().getNodeFactory().objectNode();
+        assertFalse(filesystemMetricRepository().writeAll("a", "b", ImmutableList.of(objectNode)).iterator().hasNext());
+    }
+
+    @Test
+    public void testWriteAsync() throws Exception {
+        StoredMetric expected = mock(StoredMetric.class);
+        BucketCommandAnswer commandAnswer = new BucketCommandAnswer(expected);
+        doAnswer(commandAnswer).when(commands).apply(any(BucketCommand.class));
+        ObjectNode objectNode = new ObjectMapper().getNodeFactory().objectNode();
+        FilesystemMetricRepository repository = filesystemMetricRepository();
+        CompletableFuture<StoredMetric> future = repository.writeAsync("a", "b", objectNode);
+        assertTrue(future.isDone());
+        assertEquals(expected, future.get());
+        assertTrue(commandAnswer.getCommand().get() instanceof AsyncWriteCommand);
+        assertEquals(1, repository.getTotalAsyncWrites());
+        assertEquals(0, repository.getAsyncWritesInFlight());
+        assertEquals(0, repository.getTotalFailedAsyncWrites());
+    }
+    
+    @Test
+    public void testWriteAsyncInFlight() {
+        doReturn(true).when(commands).apply(any(BucketCommand.class));
+        FilesystemMetricRepository repository = filesystemMetricRepository();
+        CompletableFuture<StoredMetric> future = repository.writeAsync("a", "b", new ObjectMapper().getNodeFactory().objectNode());
+        assertFalse(future.isDone());
+        assertEquals(1, repository.getAsyncWritesInFlight());
+    }
+    
+    @Test
+    public void testWriteAsyncWhenQueueIsClosed() {
+        doReturn(false).when(commands).apply(any(BucketCommand.class));
+        FilesystemMetricRepository repository = filesystemMetricRepository();
+        CompletableFuture<StoredMetric> future = repository.writeAsync("a", "b", new ObjectMapper().getNodeFactory().objectNode());
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(0, repository.getAsyncWritesInFlight());
+        assertEquals(1, repository.getTotalFailedAsyncWrites());
+    }
+    
+    @Test
+    public void testWriteAndForgetReportsError() {
+        final RuntimeException error = new RuntimeException("Write failed!");
+        doAnswer(new BucketCommandAnswer(null) {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                invocation.getArgumentAt(0, BucketCommand.class).setError(error);
+                return super.answer(invocation);
+            }
+        }).when(commands).apply(any(BucketCommand.class));
+        WriteErrorCallback errorCallback = mock(WriteErrorCallback.class);
+        ObjectNode objectNode = new ObjectMapper().getNodeFactory().objectNode();
+        FilesystemMetricRepository repository = filesystemMetricRepository();
+        repository.writeAndForget("a", "b", objectNode, errorCallback);
+        verify(errorCallback).writeFailed("a", objectNode, error);
+        assertEquals(0, repository.getAsyncWritesInFlight());
+        assertEquals(1, repository.getTotalFailedAsyncWrites());
+    }
+    
+    @Test
+    public void testWriteAndForget() {
+        doAnswer(new BucketCommandAnswer(mock(StoredMetric.class))).when(commands).apply(any(BucketCommand.class));
+        WriteErrorCallback errorCallback = mock(WriteErrorCallback.class);
+        FilesystemMetricRepository repository = filesystemMetricRepository();
+        repository.writeAndForget("a", "b", new ObjectMapper().getNodeFactory().objectNode(), errorCallback);
+        verifyZeroInteractions(errorCallback);
+        assertEquals(0, repository.getAsyncWritesInFlight());
+    }
+
     @Test
     public void testRead() throws InterruptedException {
         FilesystemMetricRepository repository = filesystemMetricRepository();
@@ -121,6 +245,74 @@ public class FilesystemMetricRepositoryTest {
         assertEquals(interval, readCommand.getInterval());
     }
 
+    @Test
+    public void testReadWithFilters() throws IOException {
+        FilesystemMetricRepository repository = writtenRepository();
+        final List<Integer> indices = new ArrayList<>();
+        repository.read(BUCKET_NAME,
+                        new Interval(START, START.plusDays(DAYS)),
+                        ImmutableList.of(MetricFilter.builder().andValueMatches("index", "\\d*7").build(),
+                                         MetricFilter.builder().andValueMatches("index", "4\\d\\d").build()),
+                        new StoredMetricCallable() {
+            @Override
+            public void call(StoredMetric node) {
+                indices.add(node.getObjectNode().get("index").asInt());
+            }
+        });
+        assertEquals(40 + NODES_PER_DAY, indices.size());
+        assertEquals(7, indices.get(0).intValue());
+        assertEquals(397, indices.get(39).intValue());
+        assertEquals(400, indices.get(40).intValue());
+        assertEquals(499, indices.get(indices.size() - 1).intValue());
+    }
+
+    @Test
+    public void testReadProjected() throws IOException {
+        FilesystemMetricRepository repository = writtenRepository();
+        final List<ObjectNode> nodes = new ArrayList<>();
+        repository.read(BUCKET_NAME, new Interval(START, START.plusDays(DAYS)), null, ImmutableList.of("index"), new StoredMetricCallable() {
+            @Override
+            public void call(StoredMetric node) {
+                nodes.add(node.getObjectNode());
+            }
+        });
+        assertEquals(DAYS * NODES_PER_DAY, nodes.size());
+        for(int i=0 ; i<nodes.size() ; i++) {
+            assertEquals(ImmutableSet.of(TimestampFunction.DEFAULT_TIMESTAMP_FILED_NAME, "index"), ImmutableSet.copyOf(nodes.get(i).fieldNames()));
+            assertEquals(i, nodes.get(i).get("index").asInt());
+        }
+    }
+
+    @Test
+    public void testAggregate() throws IOException {
+        FilesystemMetricRepository repository = writtenRepository();
+        NavigableMap<DateTime, MetricStatistics> days = repository.aggregate(BUCKET_NAME, new Interval(START, START.plusDays(DAYS)), null, new MetricAggregation("index", Resolution.DAY));
+        assertEquals(DAYS, days.size());
+        for(int day=0 ; day<DAYS ; day++) {
+            MetricStatistics statistics = days.get(START.plusDays(day));
+            assertEquals(NODES_PER_DAY, statistics.getCount());
+            assertEquals(day * NODES_PER_DAY * NODES_PER_DAY + 4950, statistics.getSum(), 0d);
+            assertEquals(day * NODES_PER_DAY, statistics.getMin(), 0d);
+            assertEquals(day * NODES_PER_DAY + 99, statistics.getMax(), 0d);
+            assertEquals(day * NODES_PER_DAY + 49.5, statistics.getAverage(), 0d);
+        }
+
+        NavigableMap<DateTime, MetricStatistics> hours = repository.aggregate(BUCKET_NAME,
+                                                                              new Interval(START, START.plusDays(DAYS)),
+                                                                              ImmutableList.of(MetricFilter.builder().andValueMatches("index", "1..").build()),
+                                                                              new MetricAggregation(null, Resolution.HOUR));
+        assertEquals(START.plusDays(1), hours.firstKey());
+        assertEquals(9, hours.firstEntry().getValue().getCount());
+        assertEquals(0, hours.firstEntry().getValue().getValueCount());
+        assertTrue(Double.isNaN(hours.firstEntry().getValue().getAverage()));
+        long count = 0;
+        for(MetricStatistics statistics : hours.values()) {
+            count += statistics.getCount();
+        }
+        assertEquals(NODES_PER_DAY, count);
+        assertEquals(0, repository.aggregate(BUCKET_NAME, new Interval(START.minusDays(2), START), null, new MetricAggregation("index", Resolution.MINUTE)).size());
+    }
+
     public static class BucketCommandAnswer implements Answer<Boolean> {
         
         private final Object result;
@@ -66,6 +66,13 @@ public class PathFinderTest {
 		assertEquals(Paths.get("2015","1","1.day-tmp"), pathFinder.getTemporaryDayFilePath());
 	}
 	
+	@Test
+	public void testGetDayIndexFilePath() {
+		PathFinder pathFinder = new PathFinder(new DateTime(2015, 1, 1, 0, 0), Paths.get(""));
+		assertEquals(Paths.get("2015","1","1.day.idx"), pathFinder.getDayIndexFilePath());
+		assertEquals(Paths.get("2015","1","1.day.idx-tmp"), pathFinder.getTemporaryDayIndexFilePath());
+	}
+	
 	@Test
 	public void testGetTimestamp() {
 		PathFinder pathFinder = new PathFinder(new LocalDate(2015, 1, 1), exampleBucketPath);
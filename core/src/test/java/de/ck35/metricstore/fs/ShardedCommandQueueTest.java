@@ -0,0 +1,186 @@
+package de.ck35.metricstore.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import de.ck35.metricstore.MetricBucket;
+import de.ck35.metricstore.fs.BucketCommand.ListBucketsCommand;
+import de.ck35.metricstore.fs.BucketCommand.WriteCommand;
+import de.ck35.metricstore.fs.BucketCommandProcessor.Context;
+
+public class ShardedCommandQueueTest {
+
+    private Path workdir;
+
+    @Before
+    public void before() throws IOException {
+        workdir = Files.createTempDirectory("ShardedCommandQueueTest");
+    }
+
+    @After
+    public void after() throws IOException {
+        WritableFilesystemBucket.clearDirectory(workdir);
+        Files.delete(workdir);
+    }
+
+    @Test
+    public void testShardIsStable() {
+        for(String bucketName : ImmutableList.of("a", "b", "some-bucket", "Some.Other_Bucket")) {
+            int shard = BucketCommandProcessor.shard(bucketName, 3);
+            assertTrue(shard >= 0 && shard < 3);
+            assertEquals(shard, BucketCommandProcessor.shard(bucketName, 3));
+            assertEquals(0, BucketCommandProcessor.shard(bucketName, 1));
+        }
+    }
+
+    @Test
+    public void testInitLoadsOnlyBucketsOfShard() throws IOException {
+        List<String> bucketNames = ImmutableList.of("a", "b", "c", "d", "e");
+        for(String bucketName : bucketNames) {
+            BucketData.create(workdir, bucketName, "type");
+        }
+        Set<String> loaded = new HashSet<>();
+        for(BucketCommandProcessor processor : processors(workdir, 2)) {
+            Context context = new Context();
+            processor.init(context);
+            for(String bucketName : context.getBuckets().keySet()) {
+                assertEquals(processor.getShard(), BucketCommandProcessor.shard(bucketName, 2));
+                assertTrue(loaded.add(bucketName));
+            }
+        }
+        assertEquals(ImmutableSet.copyOf(bucketNames), loaded);
+    }
+
+    @Test
+    public void testApplyRoutesByBucketName() {
+        List<RecordingQueue> queues = queues(4);
+        ShardedCommandQueue queue = new ShardedCommandQueue(queues, processors(4));
+        for(String bucketName : ImmutableList.of("a", "b", "c", "d", "e", "a")) {
+            assertTrue(queue.apply(new WriteCommand(bucketName, "type", null)));
+        }
+        long[] appended = new long[4];
+        for(int shard = 0 ; shard < 4 ; shard++) {
+            for(BucketCommand<?> command : queues.get(shard).getCommands()) {
+                assertEquals(shard, BucketCommandProcessor.shard(command.getBucketName(), 4));
+                appended[shard]++;
+            }
+        }
+        assertArrayEquals(appended, queue.getAppendedCommands());
+    }
+
+    @Test
+    public void testListBucketsIsScattered() {
+        MetricBucket bucket1 = mock(MetricBucket.class);
+        MetricBucket bucket2 = mock(MetricBucket.class);
+        List<RecordingQueue> queues = ImmutableList.of(new RecordingQueue(bucket1), new RecordingQueue(), new RecordingQueue(bucket2));
+        ShardedCommandQueue queue = new ShardedCommandQueue(queues, processors(3));
+        ListBucketsCommand command = new ListBucketsCommand();
+        assertTrue(queue.apply(command));
+        assertTrue(command.isCompleted());
+        assertEquals(ImmutableSet.of(bucket1, bucket2), ImmutableSet.copyOf(command.getResult()));
+        assertEquals(1, queue.getTotalScatteredCommands());
+    }
+
+    @Test
+    public void testListBucketsWithFailedShard() {
+        RecordingQueue failingQueue = new RecordingQueue() {
+            @Override
+            public boolean apply(BucketCommand<?> input) {
+                input.setError(new RuntimeException("Shard failed!"));
+                return super.apply(input);
+            }
+        };
+        ShardedCommandQueue queue = new ShardedCommandQueue(ImmutableList.of(new RecordingQueue(), failingQueue), processors(2));
+        ListBucketsCommand command = new ListBucketsCommand();
+        assertTrue(queue.apply(command));
+        assertNull(command.getResult());
+        assertEquals("Shard failed!", command.getError().getMessage());
+    }
+
+    @Test
+    public void testListBucketsWithClosedShard() {
+        RecordingQueue closedQueue = new RecordingQueue() {
+            @Override
+            public boolean apply(BucketCommand<?> input) {
+                return false;
+            }
+        };
+        ShardedCommandQueue queue = new ShardedCommandQueue(ImmutableList.of(new RecordingQueue(), closedQueue), processors(2));
+        ListBucketsCommand command = new ListBucketsCommand();
+        assertFalse(queue.apply(command));
+        assertFalse(command.isCompleted());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testMissingProcessor() {
+        new ShardedCommandQueue(queues(2), processors(1));
+    }
+
+    private static List<RecordingQueue> queues(int shards) {
+        List<RecordingQueue> result = new ArrayList<>();
+        for(int shard = 0 ; shard < shards ; shard++) {
+            result.add(new RecordingQueue());
+        }
+        return result;
+    }
+
+    private static List<BucketCommandProcessor> processors(int shards) {
+        return processors(Paths.get("."), shards);
+    }
+
+    private static List<BucketCommandProcessor> processors(Path basePath, int shards) {
+        Function<BucketData, WritableFilesystemBucket> factory = data -> null;
+        List<BucketCommandProcessor> result = new ArrayList<>();
+        for(int shard = 0 ; shard < shards ; shard++) {
+            result.add(new BucketCommandProcessor(basePath, factory, shard, shards));
+        }
+        return result;
+    }
+
+    public static class RecordingQueue implements Predicate<BucketCommand<?>> {
+
+        private final List<BucketCommand<?>> commands;
+        private final List<MetricBucket> buckets;
+
+        public RecordingQueue(MetricBucket...buckets) {
+            this.commands = new ArrayList<>();
+            this.buckets = ImmutableList.copyOf(buckets);
+        }
+        @Override
+        public boolean apply(BucketCommand<?> input) {
+            commands.add(input);
+            if(input instanceof ListBucketsCommand) {
+                if(input.getError() == null) {
+                    input.setResult(buckets);
+                }
+                input.commandCompleted();
+            }
+            return true;
+        }
+        public List<BucketCommand<?>> getCommands() {
+            return commands;
+        }
+    }
+}
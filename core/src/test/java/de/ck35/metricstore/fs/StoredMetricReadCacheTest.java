@@ -1,39 +1,37 @@
 package de.ck35.metricstore.fs;
 
 import static org.junit.Assert.*;
-import static org.mockito.Mockito.*;
 
-import java.util.Deque;
-import java.util.LinkedList;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.Test;
-import org.mockito.invocation.InvocationOnMock;
-import org.mockito.stubbing.Answer;
 
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Suppliers;
 
 import de.ck35.metricstore.StoredMetric;
+import de.ck35.metricstore.fs.StoredMetricReadCache.WaitStrategy;
 import de.ck35.metricstore.util.io.MetricsIOException;
 
 public class StoredMetricReadCacheTest {
 
     private int maxCacheSize;
     private StoredMetric storedMetric;
-    
+
     public StoredMetricReadCacheTest() {
-        this.storedMetric = mock(StoredMetric.class);
+        this.storedMetric = metric(0);
         this.maxCacheSize = 1;
     }
-    
+
     public StoredMetricReadCache storedMetricReadCache() {
         return new StoredMetricReadCache(Suppliers.ofInstance(maxCacheSize));
     }
-    public StoredMetricReadCache storedMetricReadCache(Lock lock, Deque<StoredMetric> cache) {
-        return new StoredMetricReadCache(Suppliers.ofInstance(maxCacheSize), lock, cache);
-    }
-    
+
     @Test
     public void testApply() {
         StoredMetricReadCache cache = storedMetricReadCache();
@@ -65,80 +63,143 @@ public class StoredMetricReadCacheTest {
         assertFalse(cache.hasNext());
     }
     @Test
-    public void testApplyWithMaxCacheSizeReached() throws InterruptedException {
-        final Deque<StoredMetric> queue = new LinkedList<>();
-        queue.add(storedMetric);
-        Lock lock = mock(Lock.class);
-        Condition condition = mock(Condition.class);
-        when(lock.newCondition()).thenReturn(condition);
-        StoredMetricReadCache cache = storedMetricReadCache(lock, queue);
-        doAnswer(new Answer<Void>() {
-            @Override
-            public Void answer(InvocationOnMock invocation) throws Throwable {
-                queue.removeLast();
-                return null;
-            }
-        }).when(condition).await();
-        assertTrue(cache.apply(storedMetric));
-        assertEquals(1, queue.size());
-        verify(condition).signalAll();
+    public void testCloseByProducerPublishesPartialBatch() {
+        StoredMetricReadCache cache = new StoredMetricReadCache(1_000, Long.MAX_VALUE, WaitStrategy.PARKING, 10);
+        assertEquals(250, cache.getBatchSize());
+        for(int i=0 ; i<10 ; i++) {
+            assertTrue(cache.apply(metric(i)));
+        }
+        assertEquals(0, cache.getBufferedCount());
+        cache.close();
+        assertEquals(10, cache.getBufferedCount());
+        for(int i=0 ; i<10 ; i++) {
+            assertEquals(i, cache.next().getObjectNode().get("index").asInt());
+        }
+        assertFalse(cache.hasNext());
     }
     @Test
-    public void testApplyWithMaxCacheSizeReachedAndInterruption() throws InterruptedException {
-        Deque<StoredMetric> queue = new LinkedList<>();
-        queue.add(storedMetric);
-        Lock lock = mock(Lock.class);
-        Condition condition = mock(Condition.class);
-        when(lock.newCondition()).thenReturn(condition);
-        StoredMetricReadCache cache = storedMetricReadCache(lock, queue);
-        doThrow(InterruptedException.class).when(condition).await();
-        assertFalse(cache.apply(storedMetric));
-        assertEquals(1, queue.size());
+    public void testTransferInOrder() throws InterruptedException {
+        for(WaitStrategy waitStrategy : WaitStrategy.values()) {
+            final StoredMetricReadCache cache = new StoredMetricReadCache(100, Long.MAX_VALUE, waitStrategy, 10);
+            Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    for(int i=0 ; i<10_000 ; i++) {
+                        assertTrue(cache.apply(metric(i)));
+                    }
+                    cache.close();
+                }
+            };
+            producer.start();
+            int expected = 0;
+            while(cache.hasNext()) {
+                assertTrue(cache.getBufferedCount() <= 100);
+                assertEquals(expected++, cache.next().getObjectNode().get("index").asInt());
+            }
+            assertEquals(10_000, expected);
+            producer.join();
+        }
     }
     @Test
-    public void testComputeNextWaitsForAdd() throws InterruptedException {
-        final Deque<StoredMetric> queue = new LinkedList<>();
-        Lock lock = mock(Lock.class);
-        Condition condition = mock(Condition.class);
-        when(lock.newCondition()).thenReturn(condition);
-        StoredMetricReadCache cache = storedMetricReadCache(lock, queue);
-        doAnswer(new Answer<Void>() {
+    public void testApplyWaitsForMaxBytes() throws InterruptedException {
+        long size = StoredMetricReadCache.estimateBytes(metric(0));
+        final StoredMetricReadCache cache = new StoredMetricReadCache(1_000, size * 2, WaitStrategy.PARKING, 10);
+        final AtomicInteger applied = new AtomicInteger();
+        Thread producer = new Thread() {
             @Override
-            public Void answer(InvocationOnMock invocation) throws Throwable {
-                queue.add(storedMetric);
-                return null;
+            public void run() {
+                for(int i=0 ; i<10 ; i++) {
+                    if(cache.apply(metric(i))) {
+                        applied.incrementAndGet();
+                    }
+                }
+                cache.close();
             }
-        }).when(condition).await();
-        assertTrue(cache.hasNext());
-        assertEquals(storedMetric, cache.next());
-        assertTrue(queue.isEmpty());
-        verify(condition).signalAll();
+        };
+        producer.start();
+        for(int i=0 ; i<100 && applied.get() < 2 ; i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(2, applied.get());
+        List<StoredMetric> result = new ArrayList<>();
+        while(cache.hasNext()) {
+            result.add(cache.next());
+        }
+        producer.join();
+        assertEquals(10, result.size());
+    }
+    @Test
+    public void testSlotCount() {
+        assertEquals(1, StoredMetricReadCache.slotCount(1, 1));
+        assertEquals(4, StoredMetricReadCache.slotCount(4, 1));
+        assertEquals(4, StoredMetricReadCache.slotCount(1_000, 250));
+        assertEquals(512, StoredMetricReadCache.slotCount(100_000, 256));
+        assertEquals(StoredMetricReadCache.MAX_SLOTS, StoredMetricReadCache.slotCount(Integer.MAX_VALUE, 256));
     }
     @Test
-    public void testComputeNextWaitsForClose() throws InterruptedException {
-        Deque<StoredMetric> queue = new LinkedList<>();
-        Lock lock = mock(Lock.class);
-        Condition condition = mock(Condition.class);
-        when(lock.newCondition()).thenReturn(condition);
-        final StoredMetricReadCache cache = storedMetricReadCache(lock, queue);
-        doAnswer(new Answer<Void>() {
+    public void testFillUpToMaxCountWithSlowConsumer() throws InterruptedException {
+        final int maxCount = 10_000;
+        final StoredMetricReadCache cache = new StoredMetricReadCache(maxCount, Long.MAX_VALUE, WaitStrategy.PARKING, 10);
+        assertEquals(64, cache.getSlots());
+        final AtomicInteger applied = new AtomicInteger();
+        Thread producer = new Thread() {
             @Override
-            public Void answer(InvocationOnMock invocation) throws Throwable {
+            public void run() {
+                for(int i=0 ; i<maxCount + 100 ; i++) {
+                    if(cache.apply(metric(i))) {
+                        applied.incrementAndGet();
+                    }
+                }
                 cache.close();
-                return null;
             }
-        }).when(condition).await();
+        };
+        producer.start();
+        for(int i=0 ; i<500 && cache.getBufferedCount() < maxCount ; i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(maxCount, cache.getBufferedCount());
+        assertEquals(maxCount, applied.get());
+        assertTrue(producer.isAlive());
+        for(int i=0 ; i<maxCount + 100 ; i++) {
+            assertEquals(i, cache.next().getObjectNode().get("index").asInt());
+        }
         assertFalse(cache.hasNext());
-        verify(condition).await();
+        producer.join();
+    }
+    @Test
+    public void testApplyStopsWhenConsumerCloses() throws InterruptedException {
+        final StoredMetricReadCache cache = new StoredMetricReadCache(1, Long.MAX_VALUE, WaitStrategy.PARKING, 10);
+        final AtomicInteger applied = new AtomicInteger();
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                while(cache.apply(storedMetric)) {
+                    applied.incrementAndGet();
+                }
+            }
+        };
+        producer.start();
+        for(int i=0 ; i<100 && applied.get() < 1 ; i++) {
+            Thread.sleep(10);
+        }
+        cache.close();
+        producer.join(1_000);
+        assertFalse(producer.isAlive());
+        assertEquals(1, applied.get());
     }
     @Test(expected=MetricsIOException.class)
-    public void testComputeNextFailsOnInterruption() throws InterruptedException {
-        Deque<StoredMetric> queue = new LinkedList<>();
-        Lock lock = mock(Lock.class);
-        Condition condition = mock(Condition.class);
-        when(lock.newCondition()).thenReturn(condition);
-        StoredMetricReadCache cache = storedMetricReadCache(lock, queue);
-        doThrow(InterruptedException.class).when(condition).await();
+    public void testComputeNextFailsOnInterruption() {
+        StoredMetricReadCache cache = new StoredMetricReadCache(1, Long.MAX_VALUE, WaitStrategy.PARKING, 0);
+        Thread.currentThread().interrupt();
         cache.hasNext();
     }
-}
\ No newline at end of file
+
+    private static StoredMetric metric(int index) {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("timestamp", new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC).plusSeconds(index).toString());
+        node.put("index", index);
+        return StoredObjectNodeReader.storedObjectNode(null, new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC).plusSeconds(index), node);
+    }
+}
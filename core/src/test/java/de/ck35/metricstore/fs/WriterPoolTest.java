@@ -0,0 +1,247 @@
+package de.ck35.metricstore.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.google.common.base.Charsets;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+
+import de.ck35.metricstore.util.LRUCache;
+import de.ck35.metricstore.util.LRUCacheStatistics;
+import de.ck35.metricstore.util.io.Codec;
+import de.ck35.metricstore.util.io.Codecs;
+import de.ck35.metricstore.util.io.ObjectNodeWriter;
+
+public class WriterPoolTest {
+
+    private Path workdir;
+    private ManualTicker ticker;
+
+    @Before
+    public void before() throws IOException {
+        workdir = Files.createTempDirectory("WriterPoolTest");
+        ticker = new ManualTicker();
+    }
+
+    @After
+    public void after() throws IOException {
+        WritableFilesystemBucket.clearDirectory(workdir);
+        Files.delete(workdir);
+    }
+
+    @Test
+    public void testEvictIdleBucketFirst() {
+        WriterPool pool = writerPool(3, Long.MAX_VALUE);
+        LRUCache<Path, ObjectNodeWriter> hot = writers(pool);
+        LRUCache<Path, ObjectNodeWriter> idle = writers(pool);
+        LRUCache<Path, ObjectNodeWriter> other = writers(pool);
+        ObjectNodeWriter hot1 = put(hot, "hot1");
+        ObjectNodeWriter hot2 = put(hot, "hot2");
+        for(int i=0 ; i<10 ; i++) {
+            hot.get(hot2.getPath());
+        }
+        ObjectNodeWriter idle1 = put(idle, "idle1");
+        assertEquals(3, pool.getOpenWriters());
+
+        ObjectNodeWriter other1 = put(other, "other1");
+        assertTrue(idle1.isClosed());
+        assertFalse(hot1.isClosed());
+        assertFalse(hot2.isClosed());
+        assertFalse(other1.isClosed());
+        assertEquals(0, idle.size());
+        assertEquals(3, pool.getOpenWriters());
+        assertEquals(1, pool.getTotalEvictedWriters());
+        assertEquals(4, pool.getTotalOpenedWriters());
+        assertEquals(2, pool.getBucketsWithOpenWriters());
+    }
+
+    @Test
+    public void testWriteRateDecays() {
+        WriterPool pool = writerPool(2, Long.MAX_VALUE);
+        LRUCache<Path, ObjectNodeWriter> formerlyHot = writers(pool);
+        LRUCache<Path, ObjectNodeWriter> active = writers(pool);
+        ObjectNodeWriter hot1 = put(formerlyHot, "hot1");
+        for(int i=0 ; i<100 ; i++) {
+            formerlyHot.get(hot1.getPath());
+        }
+        ticker.advance(WriterPool.RATE_HALF_LIFE_NANOS * 20);
+        ObjectNodeWriter active1 = put(active, "active1");
+        active.get(active1.getPath());
+        ObjectNodeWriter active2 = put(active, "active2");
+        assertTrue(hot1.isClosed());
+        assertFalse(active1.isClosed());
+        assertFalse(active2.isClosed());
+    }
+
+    @Test
+    public void testNeverEvictNewWriter() {
+        WriterPool pool = writerPool(1, Long.MAX_VALUE);
+        LRUCache<Path, ObjectNodeWriter> writers = writers(pool);
+        ObjectNodeWriter writer1 = put(writers, "writer1");
+        ObjectNodeWriter writer2 = put(writers, "writer2");
+        assertTrue(writer1.isClosed());
+        assertFalse(writer2.isClosed());
+        assertEquals(writer2, writers.get(writer2.getPath()));
+        assertNull(writers.get(writer1.getPath()));
+        assertEquals(1, pool.getOpenWriters());
+    }
+
+    @Test
+    public void testByteBudget() {
+        ObjectNodeWriter writer1 = writer("writer1", Codecs.GZIP);
+        ObjectNodeWriter writer2 = writer("writer2", Codecs.GZIP);
+        ObjectNodeWriter writer3 = writer("writer3", Codecs.LZ4);
+        ObjectNodeWriter writer4 = writer("writer4", Codecs.RAW);
+        assertTrue(writer3.getBufferBytes() > writer1.getBufferBytes());
+        assertTrue(writer1.getBufferBytes() > writer4.getBufferBytes());
+        WriterPool pool = writerPool(100, writer2.getBufferBytes() + writer3.getBufferBytes() + writer4.getBufferBytes());
+        LRUCache<Path, ObjectNodeWriter> writers = writers(pool);
+        put(writers, writer1);
+        put(writers, writer2);
+        assertEquals(writer1.getBufferBytes() + writer2.getBufferBytes(), pool.getEstimatedBytes());
+
+        put(writers, writer3);
+        assertTrue(writer1.isClosed());
+        assertFalse(writer2.isClosed());
+        assertEquals(2, pool.getOpenWriters());
+        assertEquals(writer2.getBufferBytes() + writer3.getBufferBytes(), pool.getEstimatedBytes());
+
+        put(writers, writer4);
+        assertFalse(writer2.isClosed());
+        assertEquals(3, pool.getOpenWriters());
+        assertEquals(pool.getMaxBytes(), pool.getEstimatedBytes());
+        assertEquals(1d, pool.getOccupancy(), 0.0001);
+    }
+
+    @Test
+    public void testPutReturnsEvictedWriters() {
+        WriterPool pool = writerPool(2, Long.MAX_VALUE);
+        LRUCache<Path, ObjectNodeWriter> writers = writers(pool);
+        ObjectNodeWriter writer1 = put(writers, "writer1");
+        ObjectNodeWriter writer2 = put(writers, "writer2");
+        ObjectNodeWriter writer3 = new ObjectNodeWriter(workdir.resolve("writer3"), new JsonFactory());
+        assertEquals(ImmutableList.of(writer1), ImmutableList.copyOf(writers.put(writer3.getPath(), writer3)));
+        assertFalse(writer1.isClosed());
+        assertEquals(ImmutableList.of(writer2, writer3), ImmutableList.copyOf(writers));
+        assertEquals(1, pool.getTotalEvictedWriters());
+        
+        ObjectNodeWriter replacement = new ObjectNodeWriter(workdir.resolve("replacement"), new JsonFactory());
+        assertEquals(ImmutableList.of(writer3), ImmutableList.copyOf(writers.put(writer3.getPath(), replacement)));
+        assertEquals(2, pool.getOpenWriters());
+        for(ObjectNodeWriter writer : ImmutableList.of(writer1, writer3)) {
+            close(writer);
+        }
+    }
+
+    @Test
+    public void testRemoveAndClear() throws IOException {
+        WriterPool pool = writerPool(10, Long.MAX_VALUE);
+        LRUCache<Path, ObjectNodeWriter> writers = writers(pool);
+        ObjectNodeWriter writer1 = put(writers, "writer1");
+        ObjectNodeWriter writer2 = put(writers, "writer2");
+        assertEquals(writer1, writers.remove(writer1.getPath()));
+        assertEquals(1, pool.getOpenWriters());
+        assertEquals(ImmutableList.of(writer2), ImmutableList.copyOf(writers));
+        writers.clear();
+        assertEquals(0, pool.getOpenWriters());
+        assertEquals(0, pool.getBucketsWithOpenWriters());
+        writer1.close();
+        writer2.close();
+    }
+
+    @Test
+    public void testCloseWithoutBlockingOtherBuckets() {
+        WriterPool pool = writerPool(1, Long.MAX_VALUE);
+        LRUCache<Path, ObjectNodeWriter> writers = writers(pool);
+        final LRUCache<Path, ObjectNodeWriter> other = writers(pool);
+        final AtomicBoolean otherUsable = new AtomicBoolean();
+        ObjectNodeWriter writer1 = new ObjectNodeWriter(workdir.resolve("writer1"), new JsonFactory()) {
+            @Override
+            public synchronized void close() throws IOException {
+                Thread thread = new Thread() {
+                    @Override
+                    public void run() {
+                        other.get(workdir.resolve("other"));
+                        otherUsable.set(true);
+                    }
+                };
+                thread.start();
+                try {
+                    thread.join(10_000);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.close();
+            }
+        };
+        writers.put(writer1.getPath(), writer1);
+        ObjectNodeWriter writer2 = put(writers(pool), "writer2");
+        assertTrue(writer1.isClosed());
+        assertFalse(writer2.isClosed());
+        assertTrue(otherUsable.get());
+        assertEquals(1, pool.getOpenWriters());
+    }
+
+    private WriterPool writerPool(int maxWriters, long maxBytes) {
+        return new WriterPool(Suppliers.ofInstance(maxWriters), Suppliers.ofInstance(maxBytes), ticker);
+    }
+
+    private static LRUCache<Path, ObjectNodeWriter> writers(WriterPool pool) {
+        return pool.writers(Suppliers.ofInstance(5), new LRUCacheStatistics());
+    }
+
+    private ObjectNodeWriter put(LRUCache<Path, ObjectNodeWriter> writers, String name) {
+        return put(writers, writer(name, Codecs.GZIP));
+    }
+
+    /**
+     * Put the writer and close the returned writers like a bucket does.
+     */
+    private static ObjectNodeWriter put(LRUCache<Path, ObjectNodeWriter> writers, ObjectNodeWriter writer) {
+        for(ObjectNodeWriter oldWriter : writers.put(writer.getPath(), writer)) {
+            close(oldWriter);
+        }
+        return writer;
+    }
+
+    private ObjectNodeWriter writer(String name, Codec codec) {
+        return new ObjectNodeWriter(workdir.resolve(name), new JsonFactory(), Charsets.UTF_8, codec,
+                                    StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static void close(ObjectNodeWriter writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public static class ManualTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+        public void advance(long nanos) {
+            this.nanos += nanos;
+        }
+    }
+}
@@ -3,6 +3,9 @@ package de.ck35.metricstore.nonpersistent;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Interval;
@@ -16,11 +19,13 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
 
 import de.ck35.metricstore.MetricBucket;
 import de.ck35.metricstore.MetricRepository;
 import de.ck35.metricstore.StoredMetric;
 import de.ck35.metricstore.StoredMetricCallable;
+import de.ck35.metricstore.WriteErrorCallback;
 import de.ck35.metricstore.configuration.NonPersistentMetricRepositoryConfiguration;
 import de.ck35.metricstore.util.TimestampFunction;
 
@@ -63,6 +68,45 @@ public class NonPersistentMetricRepositoryTest {
         assertEquals(timestamp, storedMetric.getTimestamp());
     }
 
+    @Test
+    public void testWriteAll() {
+        String bucketName = "my-test-bucket";
+        String bucketType = "my-test-bucket-type";
+        ObjectNode node1 = node(timestamp);
+        ObjectNode node2 = node(timestamp.plusMinutes(1));
+        ObjectNode invalidNode = new ObjectMapper().getNodeFactory().objectNode();
+        List<StoredMetric> storedMetrics = ImmutableList.copyOf(metricRepository.writeAll(bucketName, bucketType, ImmutableList.of(node1, invalidNode, node2)));
+        assertEquals(2, storedMetrics.size());
+        assertEquals(node1, storedMetrics.get(0).getObjectNode());
+        assertEquals(timestamp, storedMetrics.get(0).getTimestamp());
+        assertEquals(node2, storedMetrics.get(1).getObjectNode());
+        assertEquals(timestamp.plusMinutes(1), storedMetrics.get(1).getTimestamp());
+        assertEquals(bucketName, storedMetrics.get(1).getMetricBucket().getName());
+        assertEquals(bucketType, storedMetrics.get(1).getMetricBucket().getType());
+    }
+
+    @Test
+    public void testWriteAsync() throws Exception {
+        ObjectNode node = node(timestamp);
+        CompletableFuture<StoredMetric> future = metricRepository.writeAsync("my-test-bucket", "my-test-bucket-type", node);
+        assertEquals(node, future.get().getObjectNode());
+        assertEquals(timestamp, future.get().getTimestamp());
+    }
+    
+    @Test
+    public void testWriteAsyncFails() {
+        ObjectNode invalidNode = new ObjectMapper().getNodeFactory().objectNode();
+        assertTrue(metricRepository.writeAsync("my-test-bucket", "my-test-bucket-type", invalidNode).isCompletedExceptionally());
+    }
+    
+    @Test
+    public void testWriteAndForgetReportsError() {
+        WriteErrorCallback errorCallback = mock(WriteErrorCallback.class);
+        ObjectNode invalidNode = new ObjectMapper().getNodeFactory().objectNode();
+        metricRepository.writeAndForget("my-test-bucket", "my-test-bucket-type", invalidNode, errorCallback);
+        verify(errorCallback).writeFailed(eq("my-test-bucket"), eq(invalidNode), any(Throwable.class));
+    }
+
     @Test
     public void testRead() {
         StoredMetricCallable callable = mock(StoredMetricCallable.class);
@@ -100,4 +100,28 @@ public class LRUCacheTest {
 		assertNull(cache.get("a"));
 	}
 	
-}
\ No newline at end of file
+	@Test
+	public void testStatistics() {
+		LRUCacheStatistics statistics = new LRUCacheStatistics();
+		LRUCache<String, String> cache = new LRUCache<>(Suppliers.ofInstance(2), statistics);
+		cache.put("a", "a1");
+		cache.put("b", "b1");
+		assertEquals("a1", cache.get("a"));
+		assertNull(cache.get("c"));
+		assertEquals(ImmutableList.of("b1"), ImmutableList.copyOf(cache.put("c", "c1")));
+		assertEquals(1, statistics.getTotalHits());
+		assertEquals(1, statistics.getTotalMisses());
+		assertEquals(1, statistics.getTotalEvictions());
+		assertEquals(statistics, cache.getStatistics());
+	}
+	
+	@Test
+	public void testIterateDoesNotChangeOrder() {
+		LRUCache<String, String> cache = new LRUCache<>(Suppliers.ofInstance(2));
+		cache.put("a", "a1");
+		cache.put("b", "b1");
+		assertEquals(ImmutableList.of("a1", "b1"), ImmutableList.copyOf(cache));
+		assertEquals(ImmutableList.of("a1"), ImmutableList.copyOf(cache.put("c", "c1")));
+	}
+	
+}
@@ -0,0 +1,102 @@
+package de.ck35.metricstore.util.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import de.ck35.metricstore.util.io.Codecs.CodecType;
+
+public class CodecsTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] content = content();
+        for(CodecType type : CodecType.values()) {
+            for(int level : new int[]{Codecs.DEFAULT_LEVEL, 1, 9}) {
+                Codec codec = Codecs.create(type, level);
+                byte[] compressed = compress(codec, content);
+                assertSame(Codecs.create(type, level).getClass(), Codecs.defaults().detect(compressed, compressed.length).getClass());
+                try(InputStream in = Codecs.defaults().decompress(new ByteArrayInputStream(compressed))) {
+                    assertArrayEquals(content, ByteStreams.toByteArray(in));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testDecompressEmptyStream() throws IOException {
+        try(InputStream in = Codecs.defaults().decompress(new ByteArrayInputStream(new byte[0]))) {
+            assertEquals(-1, in.read());
+        }
+    }
+    
+    @Test
+    public void testDetectMissingFile() throws IOException {
+        Path file = Files.createTempFile("CodecsTest", ".json");
+        try {
+            assertNull(Codecs.defaults().detect(file));
+            assertNull(Codecs.defaults().detect(file.resolveSibling(file.getFileName() + ".missing")));
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    @Test
+    public void testAppendKeepsCodecOfExistingFile() throws IOException {
+        Path file = Files.createTempFile("CodecsTest", ".json");
+        try {
+            ObjectNode node1 = mapper.createObjectNode().put("field", "value1");
+            ObjectNode node2 = mapper.createObjectNode().put("field", "value2");
+            ObjectNodeWriter.PathFactory lz4Writers = new ObjectNodeWriter.PathFactory(mapper.getFactory(), Charsets.UTF_8, Codecs.LZ4, Codecs.defaults());
+            ObjectNodeWriter.PathFactory gzipWriters = new ObjectNodeWriter.PathFactory(mapper.getFactory(), Charsets.UTF_8, Codecs.GZIP, Codecs.defaults());
+            try(ObjectNodeWriter writer = lz4Writers.apply(file)) {
+                writer.write(node1);
+            }
+            try(ObjectNodeWriter writer = gzipWriters.apply(file)) {
+                writer.write(node2);
+            }
+            assertSame(Codecs.LZ4, Codecs.defaults().detect(file));
+            try(ObjectNodeReader reader = new ObjectNodeReader(file, mapper)) {
+                assertEquals(node1, reader.read());
+                assertEquals(node2, reader.read());
+                assertNull(reader.read());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    private byte[] content() {
+        StringBuilder builder = new StringBuilder();
+        for(int i=0 ; i<1000 ; i++) {
+            builder.append("{\"timestamp\":\"2015-01-01T00:00:00.000Z\",\"index\":").append(i).append("}\n");
+        }
+        return builder.toString().getBytes(Charsets.UTF_8);
+    }
+    
+    private static byte[] compress(Codec codec, byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(OutputStream out = codec.compress(bytes)) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,141 @@
+package de.ck35.metricstore.util.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableSet;
+
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+
+public class ColumnBlockReaderTest {
+
+    private static final DateTime START = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    private ObjectMapper mapper;
+
+    @Before
+    public void before() {
+        mapper = ObjectMapperConfiguration.objectMapper();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] bytes = write(Codecs.GZIP, 0, 250);
+        try(ColumnBlockReader reader = new ColumnBlockReader(new ByteArrayInputStream(bytes), mapper, Codecs.defaults())) {
+            for(int i=0 ; i<250 ; i++) {
+                assertEquals(node(i), reader.read());
+            }
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void testReadAppendedSessions() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(write(Codecs.LZ4, 0, 10));
+        bytes.write(write(Codecs.RAW, 10, 20));
+        try(ColumnBlockReader reader = new ColumnBlockReader(new ByteArrayInputStream(bytes.toByteArray()), mapper, Codecs.defaults())) {
+            for(int i=0 ; i<20 ; i++) {
+                assertEquals(node(i), reader.read());
+            }
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void testKeepIntAndLongNodes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ColumnBlockWriter writer = new ColumnBlockWriter(bytes, Codecs.GZIP, mapper, 100)) {
+            for(int i=0 ; i<10 ; i++) {
+                ObjectNode node = mapper.createObjectNode();
+                node.put("int", i);
+                node.put("long", (long) i);
+                if(i % 2 == 0) {
+                    node.put("mixed", i);
+                } else {
+                    node.put("mixed", (long) i);
+                }
+                writer.write(node);
+            }
+        }
+        try(ColumnBlockReader reader = new ColumnBlockReader(new ByteArrayInputStream(bytes.toByteArray()), mapper, Codecs.defaults())) {
+            for(int i=0 ; i<10 ; i++) {
+                ObjectNode node = reader.read();
+                assertTrue(node.get("int").isInt());
+                assertEquals(i, node.get("int").intValue());
+                assertTrue(node.get("long").isLong());
+                assertEquals(i, node.get("long").longValue());
+                assertTrue(node.get("mixed").isLong());
+                assertEquals(i, node.get("mixed").longValue());
+            }
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void testReadOnlyRequestedFields() throws IOException {
+        byte[] bytes = write(Codecs.GZIP, 0, 250);
+        long allBytes;
+        try(ColumnBlockReader reader = new ColumnBlockReader(new ByteArrayInputStream(bytes), mapper, Codecs.defaults())) {
+            while(reader.read() != null) {
+                continue;
+            }
+            allBytes = reader.getCompressedBytesRead();
+        }
+        try(ColumnBlockReader reader = new ColumnBlockReader(new ByteArrayInputStream(bytes), mapper, Codecs.defaults())) {
+            reader.setFields(ImmutableSet.of("timestamp", "value"));
+            for(int i=0 ; i<250 ; i++) {
+                ObjectNode expected = mapper.createObjectNode();
+                expected.set("timestamp", node(i).get("timestamp"));
+                expected.set("value", node(i).get("value"));
+                assertEquals(expected, reader.read());
+            }
+            assertNull(reader.read());
+            assertTrue(reader.getCompressedBytesRead() < allBytes / 2);
+        }
+    }
+
+    private byte[] write(Codec codec, int from, int to) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ColumnBlockWriter writer = new ColumnBlockWriter(bytes, codec, mapper, 100)) {
+            for(int i=from ; i<to ; i++) {
+                writer.write(node(i));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private ObjectNode node(int index) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("timestamp", START.plusSeconds(index).toString());
+        node.put("index", index);
+        node.put("big", Long.MAX_VALUE - index);
+        node.put("value", index / 3d);
+        node.put("host", "host-" + index % 4);
+        node.put("message", "Message number: " + index);
+        node.put("error", index % 7 == 0);
+        if(index % 2 == 0) {
+            node.put("optional", "even");
+        }
+        if(index % 3 == 0) {
+            node.put("mixed", "text");
+        } else {
+            node.put("mixed", index);
+        }
+        node.putObject("nested").put("index", index).putArray("values").add(index).add("text");
+        node.putNull("missing");
+        return node;
+    }
+}
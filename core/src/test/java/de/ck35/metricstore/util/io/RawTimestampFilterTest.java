@@ -0,0 +1,108 @@
+package de.ck35.metricstore.util.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.util.JsonNodeExtractor;
+import de.ck35.metricstore.util.TimestampFunction;
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
+
+public class RawTimestampFilterTest {
+
+    private static final DateTime START = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    private ObjectMapper mapper;
+    private RecordFormats formats;
+    private RawTimestampFilter filter;
+
+    @Before
+    public void before() {
+        mapper = ObjectMapperConfiguration.objectMapper();
+        formats = new RecordFormats(mapper);
+        filter = RawTimestampFilter.of(new TimestampFunction(), START.plusMinutes(10));
+    }
+
+    @Test
+    public void testTimestampFromLine() {
+        DateTime expected = START.plusMinutes(1);
+        assertEquals(expected, filter.timestamp("{\"timestamp\":\"2016-01-01T00:01:30.000Z\",\"a\":1}"));
+        assertEquals(expected, filter.timestamp("{ \"a\" : [\"timestamp\", {\"timestamp\":\"x\"}], \"b\\\"\":\"\\\"timestamp\\\"\" , \"timestamp\" : \"2016-01-01T00:01:00.000Z\" }"));
+        assertEquals(expected, filter.timestamp("{\"nested\":{\"timestamp\":\"2016-01-01T00:05:00.000Z\"},\"timestamp\":\"2016-01-01T00:01:00.000Z\"}"));
+        assertNull(filter.timestamp("{\"a\":1}"));
+        assertNull(filter.timestamp("{\"nested\":{\"timestamp\":\"2016-01-01T00:05:00.000Z\"}}"));
+        assertNull(filter.timestamp("{\"timestamp\":1}"));
+        assertNull(filter.timestamp("{\"timestamp\":\"invalid\"}"));
+        assertNull(filter.timestamp("{\"timestamp\":\"2016-01-01T00:01:00.000Z\\u0020\"}"));
+        assertNull(filter.timestamp("{\"timestamp\":\"2016-01-01T00:01"));
+        assertTrue(filter.skip(expected));
+        assertFalse(filter.skip(START.plusMinutes(10)));
+    }
+
+    @Test
+    public void testTimestampFromSmile() throws IOException {
+        ObjectMapper smileMapper = formats.getSmileMapper();
+        ObjectNode node = mapper.createObjectNode();
+        node.putObject("nested").put("timestamp", "2016-01-01T00:05:00.000Z");
+        node.putArray("values").add("timestamp");
+        try(JsonParser parser = smileMapper.getFactory().createParser(smileMapper.writeValueAsBytes(node))) {
+            assertNull(filter.timestamp(parser));
+        }
+        node.put("timestamp", "2016-01-01T00:01:30.000Z");
+        try(JsonParser parser = smileMapper.getFactory().createParser(smileMapper.writeValueAsBytes(node))) {
+            assertEquals(START.plusMinutes(1), filter.timestamp(parser));
+        }
+    }
+
+    @Test
+    public void testOf() {
+        assertNull(RawTimestampFilter.of(TimestampFunction.build(null, JsonNodeExtractor.forPath("a")), START));
+        assertNull(RawTimestampFilter.of(TimestampFunction.build(null, "a.b"), START));
+        assertNull(RawTimestampFilter.of(new TimestampFunction(), null));
+        assertEquals("a", RawTimestampFilter.of(TimestampFunction.build(null, "a"), START).getFieldName());
+    }
+
+    @Test
+    public void testReaderSkipsRecordsBeforeStart() throws IOException {
+        for(RecordFormat format : ImmutableList.of(RecordFormat.TEXT, RecordFormat.SMILE)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try(ObjectNodeWriter writer = new ObjectNodeWriter(bytes, formats, format, Charsets.UTF_8, Codecs.GZIP)) {
+                for(int i=0 ; i<20 ; i++) {
+                    writer.write(node(i));
+                }
+            }
+            try(ObjectNodeReader reader = new ObjectNodeReader(new ByteArrayInputStream(bytes.toByteArray()), formats, Charsets.UTF_8, Codecs.defaults()).withTimestampFilter(filter)) {
+                for(int i=10 ; i<20 ; i++) {
+                    assertEquals(node(i), reader.read());
+                }
+                assertNull(reader.read());
+                assertEquals(10, reader.getSkippedObjectsCount());
+            }
+        }
+    }
+
+    private ObjectNode node(int index) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("index", index);
+        node.put("timestamp", START.plusMinutes(index).plusSeconds(index).toString());
+        node.putObject("nested").put("timestamp", START.toString());
+        return node;
+    }
+}
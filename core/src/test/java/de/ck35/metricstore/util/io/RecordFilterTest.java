@@ -0,0 +1,162 @@
+package de.ck35.metricstore.util.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import de.ck35.metricstore.MetricFilter;
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
+
+public class RecordFilterTest {
+
+    private static final DateTime START = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    private ObjectMapper mapper;
+    private RecordFormats formats;
+
+    @Before
+    public void before() {
+        mapper = ObjectMapperConfiguration.objectMapper();
+        formats = new RecordFormats(mapper);
+    }
+
+    @Test
+    public void testMatchesLikeTreeFilter() throws IOException {
+        List<MetricFilter> filters = ImmutableList.of(MetricFilter.builder().andFieldIsPresent("optional").build(),
+                                                      MetricFilter.builder().andFieldIsNotPresent("optional").build(),
+                                                      MetricFilter.builder().andFieldIsPresent("missing").build(),
+                                                      MetricFilter.builder().andValueMatches("missing", "null").build(),
+                                                      MetricFilter.builder().andValueMatches("host", "host-[12]").build(),
+                                                      MetricFilter.builder().andValueMatches("index", "1.").build(),
+                                                      MetricFilter.builder().andValueMatches("value", "1\\.3+").build(),
+                                                      MetricFilter.builder().andValueMatches("error", "true").build(),
+                                                      MetricFilter.builder().andValueMatches("mixed", "text|4").build(),
+                                                      MetricFilter.builder().andValueMatches("nested.index", "[0-5]").andFieldIsPresent("nested.values").build(),
+                                                      MetricFilter.builder().andValueMatches("nested", "").andFieldIsNotPresent("nested.values.0").build(),
+                                                      MetricFilter.builder().andFieldIsPresent("nested.deep.index").build(),
+                                                      MetricFilter.builder().andValueMatches("unknown", "").build(),
+                                                      MetricFilter.builder().andValueMatches("host", "host-.*").build(),
+                                                      MetricFilter.builder().andValueEquals("index", "12").build(),
+                                                      MetricFilter.builder().andValueEquals("value", "1.0").build(),
+                                                      MetricFilter.builder().andValueEquals("missing", "null").build(),
+                                                      MetricFilter.builder().andValueStartsWith("mixed", "1").build(),
+                                                      MetricFilter.builder().andValueIn("mixed", ImmutableList.of("text", "5", "7")).build(),
+                                                      MetricFilter.builder().andValueBetween("value", 1, 2.5).build(),
+                                                      MetricFilter.builder().andValueBetween("mixed", 10, 20).build(),
+                                                      MetricFilter.builder().andValueIs("error", false).andValueIs("nested.index", true).build(),
+                                                      MetricFilter.builder().andValueIs("error", true).build());
+        for(int i=0 ; i<30 ; i++) {
+            ObjectNode node = node(i);
+            for(MetricFilter filter : filters) {
+                RecordFilter recordFilter = new RecordFilter(Collections.singleton(filter));
+                try(JsonParser parser = mapper.getFactory().createParser(mapper.writeValueAsString(node))) {
+                    assertEquals(filter + " on " + node, filter.apply(node), recordFilter.matches(parser));
+                }
+                try(JsonParser parser = formats.getSmileMapper().getFactory().createParser(formats.getSmileMapper().writeValueAsBytes(node))) {
+                    assertEquals(filter + " on " + node, filter.apply(node), recordFilter.matches(parser));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOf() {
+        assertNull(RecordFilter.of(null));
+        assertNull(RecordFilter.of(ImmutableList.of(MetricFilter.builder().andFieldIsPresent("index").build(), MetricFilter.builder().build())));
+        RecordFilter filter = RecordFilter.of(ImmutableList.of(MetricFilter.builder().andFieldIsPresent("index").build(),
+                                                               MetricFilter.builder().andValueMatches("nested.index", "1").build()));
+        assertNotNull(filter);
+        assertEquals(ImmutableSet.of("index", "nested"), filter.getTopLevelFields());
+    }
+
+    @Test
+    public void testReaderDropsRecordsBeforeParsing() throws IOException {
+        RecordFilter filter = RecordFilter.of(ImmutableList.of(MetricFilter.builder().andValueMatches("host", "host-1").build(),
+                                                               MetricFilter.builder().andValueMatches("index", "2").build()));
+        for(RecordFormat format : ImmutableList.of(RecordFormat.TEXT, RecordFormat.SMILE)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try(ObjectNodeWriter writer = new ObjectNodeWriter(bytes, formats, format, Charsets.UTF_8, Codecs.GZIP)) {
+                for(int i=0 ; i<100 ; i++) {
+                    writer.write(node(i));
+                }
+            }
+            try(ObjectNodeReader reader = new ObjectNodeReader(new ByteArrayInputStream(bytes.toByteArray()), formats, Charsets.UTF_8, Codecs.defaults()).withFilter(filter)) {
+                List<Integer> result = new ArrayList<>();
+                for(ObjectNode node = reader.read() ; node != null ; node = reader.read()) {
+                    assertEquals(node(node.get("index").asInt()), node);
+                    result.add(node.get("index").asInt());
+                }
+                assertEquals(26, result.size());
+                assertEquals(ImmutableList.of(1, 2, 5, 9), result.subList(0, 4));
+                assertEquals(74, reader.getFilteredObjectsCount());
+            }
+        }
+    }
+
+    @Test
+    public void testColumnarReaderReturnsOnlyRequestedFields() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ColumnBlockWriter writer = new ColumnBlockWriter(bytes, Codecs.GZIP, mapper, 10)) {
+            for(int i=0 ; i<100 ; i++) {
+                writer.write(node(i));
+            }
+        }
+        RecordFilter filter = RecordFilter.of(ImmutableList.of(MetricFilter.builder().andValueMatches("host", "host-3").build()));
+        try(ObjectNodeReader reader = new ObjectNodeReader(new ByteArrayInputStream(bytes.toByteArray()), formats, Charsets.UTF_8, Codecs.defaults())) {
+            reader.withFields(ImmutableSet.of("timestamp", "index")).withFilter(filter);
+            for(int i=3 ; i<100 ; i+=4) {
+                ObjectNode expected = mapper.createObjectNode();
+                expected.set("timestamp", node(i).get("timestamp"));
+                expected.set("index", node(i).get("index"));
+                assertEquals(expected, reader.read());
+            }
+            assertNull(reader.read());
+            assertEquals(75, reader.getFilteredObjectsCount());
+        }
+    }
+
+    private ObjectNode node(int index) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("timestamp", START.plusSeconds(index).toString());
+        node.put("index", index);
+        node.put("value", index / 3d);
+        node.put("host", "host-" + index % 4);
+        node.put("error", index % 7 == 0);
+        if(index % 2 == 0) {
+            node.put("optional", "even");
+        }
+        if(index % 3 == 0) {
+            node.put("mixed", "text");
+        } else {
+            node.put("mixed", index);
+        }
+        node.putObject("nested").put("index", index).putArray("values").add(index).add("text");
+        if(index % 5 == 0) {
+            node.with("nested").putObject("deep").put("index", index);
+        }
+        if(index % 4 == 0) {
+            node.putNull("missing");
+        }
+        return node;
+    }
+}
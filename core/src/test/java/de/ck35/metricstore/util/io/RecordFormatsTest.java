@@ -0,0 +1,123 @@
+package de.ck35.metricstore.util.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
+
+public class RecordFormatsTest {
+
+    private ObjectMapper mapper;
+    private RecordFormats formats;
+    private Path file;
+    
+    @Before
+    public void before() throws IOException {
+        mapper = ObjectMapperConfiguration.objectMapper();
+        formats = new RecordFormats(mapper);
+        file = Files.createTempFile("RecordFormatsTest", ".json");
+    }
+    
+    @After
+    public void after() throws IOException {
+        Files.delete(file);
+    }
+    
+    @Test
+    public void testSmileRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectNodeWriter writer = new ObjectNodeWriter(bytes, formats, RecordFormat.SMILE, Charsets.UTF_8, Codecs.LZ4)) {
+            for(int i=0 ; i<100 ; i++) {
+                writer.write(node(i));
+            }
+        }
+        try(ObjectNodeReader reader = new ObjectNodeReader(new ByteArrayInputStream(bytes.toByteArray()), formats, Charsets.UTF_8, Codecs.defaults())) {
+            assertEquals(RecordFormat.SMILE, reader.getFormat());
+            for(int i=0 ; i<100 ; i++) {
+                assertEquals(node(i), reader.read());
+            }
+            assertNull(reader.read());
+        }
+    }
+    
+    @Test
+    public void testAppendKeepsFormatOfExistingFile() throws IOException {
+        ObjectNodeWriter.PathFactory smileWriters = new ObjectNodeWriter.PathFactory(formats, RecordFormat.SMILE, Charsets.UTF_8, Codecs.GZIP, Codecs.defaults());
+        ObjectNodeWriter.PathFactory textWriters = new ObjectNodeWriter.PathFactory(formats, RecordFormat.TEXT, Charsets.UTF_8, Codecs.GZIP, Codecs.defaults());
+        try(ObjectNodeWriter writer = smileWriters.apply(file)) {
+            writer.write(node(0));
+        }
+        try(ObjectNodeWriter writer = textWriters.apply(file)) {
+            writer.write(node(1));
+        }
+        try(ObjectNodeWriter writer = smileWriters.apply(file)) {
+            writer.write(node(2));
+        }
+        assertEquals(RecordFormat.SMILE, RecordFormats.detect(file, Codecs.defaults()));
+        try(ObjectNodeReader reader = new ObjectNodeReader(file, mapper)) {
+            assertEquals(node(0), reader.read());
+            assertEquals(node(1), reader.read());
+            assertEquals(node(2), reader.read());
+            assertNull(reader.read());
+        }
+    }
+    
+    @Test
+    public void testReadTextFile() throws IOException {
+        try(ObjectNodeWriter writer = new ObjectNodeWriter(file, mapper.getFactory())) {
+            writer.write(node(0));
+        }
+        assertEquals(RecordFormat.TEXT, RecordFormats.detect(file, Codecs.defaults()));
+        try(ObjectNodeReader reader = new ObjectNodeReader(file, formats, Charsets.UTF_8, Codecs.defaults())) {
+            assertEquals(RecordFormat.TEXT, reader.getFormat());
+            assertEquals(node(0), reader.read());
+            assertNull(reader.read());
+        }
+    }
+    
+    @Test
+    public void testIgnoreTruncatedRecord() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectNodeWriter writer = new ObjectNodeWriter(bytes, formats, RecordFormat.SMILE, Charsets.UTF_8, Codecs.RAW)) {
+            writer.write(node(0));
+            writer.write(node(1));
+        }
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 3);
+        try(ObjectNodeReader reader = new ObjectNodeReader(new ByteArrayInputStream(truncated), formats, Charsets.UTF_8, Codecs.defaults())) {
+            assertEquals(node(0), reader.read());
+            assertNull(reader.read());
+            assertEquals(1, reader.getIgnoredObjectsCount());
+        }
+    }
+    
+    @Test
+    public void testDetectEmptyFile() throws IOException {
+        assertNull(RecordFormats.detect(file, Codecs.defaults()));
+    }
+    
+    private ObjectNode node(int index) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("timestamp", "2016-01-01T00:00:00.000Z");
+        node.put("host", "web-" + index % 4);
+        node.put("index", index);
+        node.put("duration", index * 0.5);
+        node.putArray("tags").add("a").add(index % 2 == 0);
+        return node;
+    }
+}
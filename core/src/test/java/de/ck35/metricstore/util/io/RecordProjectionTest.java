@@ -0,0 +1,140 @@
+package de.ck35.metricstore.util.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import de.ck35.metricstore.MetricFilter;
+import de.ck35.metricstore.configuration.ObjectMapperConfiguration;
+import de.ck35.metricstore.util.io.RecordFormats.RecordFormat;
+
+public class RecordProjectionTest {
+
+    private static final DateTime START = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    private ObjectMapper mapper;
+    private RecordFormats formats;
+
+    @Before
+    public void before() {
+        mapper = ObjectMapperConfiguration.objectMapper();
+        formats = new RecordFormats(mapper);
+    }
+
+    @Test
+    public void testReadLikeTreeProjection() throws IOException {
+        List<List<String>> projections = ImmutableList.<List<String>>of(ImmutableList.of("index"),
+                                                                        ImmutableList.of("timestamp", "host", "unknown"),
+                                                                        ImmutableList.of("missing", "optional"),
+                                                                        ImmutableList.of("nested.index", "nested.values"),
+                                                                        ImmutableList.of("nested", "nested.index"),
+                                                                        ImmutableList.of("nested.deep.index", "index"),
+                                                                        ImmutableList.of("host.index", "nested.unknown"),
+                                                                        ImmutableList.<String>of());
+        for(int i=0 ; i<10 ; i++) {
+            ObjectNode node = node(i);
+            for(List<String> paths : projections) {
+                RecordProjection projection = new RecordProjection(paths);
+                ObjectNode expected = projection.apply(node);
+                try(JsonParser parser = mapper.getFactory().createParser(mapper.writeValueAsString(node))) {
+                    assertEquals(paths + " on " + node, expected, projection.read(parser, mapper));
+                }
+                try(JsonParser parser = formats.getSmileMapper().getFactory().createParser(formats.getSmileMapper().writeValueAsBytes(node))) {
+                    assertEquals(paths + " on " + node, expected, projection.read(parser, formats.getSmileMapper()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTreeProjection() {
+        ObjectNode node = node(5);
+        ObjectNode expected = mapper.createObjectNode();
+        expected.put("index", 5);
+        expected.putObject("nested").putObject("deep").put("index", 5);
+        assertEquals(expected, new RecordProjection(ImmutableList.of("index", "nested.deep.index", "nested.unknown")).apply(node));
+        assertEquals(node.get("nested"), new RecordProjection(ImmutableList.of("nested.index", "nested")).apply(node).get("nested"));
+        assertEquals(mapper.createObjectNode(), new RecordProjection(ImmutableList.of("host.index")).apply(node));
+        assertEquals(ImmutableSet.of("host", "nested"), new RecordProjection(ImmutableList.of("host", "nested.index")).getTopLevelFields());
+        assertNull(RecordProjection.of(null));
+    }
+
+    @Test
+    public void testReaderProjectsRecords() throws IOException {
+        RecordProjection projection = new RecordProjection(ImmutableList.of("index", "nested.index"));
+        RecordFilter filter = RecordFilter.of(ImmutableList.of(MetricFilter.builder().andValueMatches("host", "host-1").build()));
+        for(RecordFormat format : ImmutableList.of(RecordFormat.TEXT, RecordFormat.SMILE)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try(ObjectNodeWriter writer = new ObjectNodeWriter(bytes, formats, format, Charsets.UTF_8, Codecs.GZIP)) {
+                for(int i=0 ; i<100 ; i++) {
+                    writer.write(node(i));
+                }
+            }
+            try(ObjectNodeReader reader = new ObjectNodeReader(new ByteArrayInputStream(bytes.toByteArray()), formats, Charsets.UTF_8, Codecs.defaults())) {
+                reader.withFilter(filter).withProjection(projection);
+                for(int i=1 ; i<100 ; i+=4) {
+                    assertEquals(projected(i), reader.read());
+                }
+                assertNull(reader.read());
+            }
+        }
+    }
+
+    @Test
+    public void testColumnarReaderProjectsNestedPaths() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ColumnBlockWriter writer = new ColumnBlockWriter(bytes, Codecs.GZIP, mapper, 10)) {
+            for(int i=0 ; i<100 ; i++) {
+                writer.write(node(i));
+            }
+        }
+        try(ObjectNodeReader reader = new ObjectNodeReader(new ByteArrayInputStream(bytes.toByteArray()), formats, Charsets.UTF_8, Codecs.defaults())) {
+            reader.withProjection(new RecordProjection(ImmutableList.of("index", "nested.index")));
+            for(int i=0 ; i<100 ; i++) {
+                assertEquals(projected(i), reader.read());
+            }
+            assertNull(reader.read());
+        }
+    }
+
+    private ObjectNode projected(int index) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("index", index);
+        node.putObject("nested").put("index", index);
+        return node;
+    }
+
+    private ObjectNode node(int index) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("timestamp", START.plusSeconds(index).toString());
+        node.put("index", index);
+        node.put("host", "host-" + index % 4);
+        if(index % 2 == 0) {
+            node.put("optional", "even");
+        }
+        node.putObject("nested").put("index", index).putArray("values").add(index).addObject().put("index", index);
+        if(index % 5 == 0) {
+            node.with("nested").putObject("deep").put("index", index);
+        }
+        if(index % 3 == 0) {
+            node.putNull("missing");
+        }
+        return node;
+    }
+}